@@ -0,0 +1,195 @@
+package resa.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Push queue elements to redis in a background thread. Elements are buffered in a bounded queue and written in
+ * batches through jedis pipelining. A failed batch is kept and retried after reconnecting with an exponential
+ * backoff. When the buffer is full, either the oldest element is dropped or the caller is blocked, depending on
+ * the overflow policy.
+ */
+public class AsyncRedisWriter {
+
+    public enum OverflowPolicy {
+        DROP_OLDEST, BLOCK
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncRedisWriter.class);
+
+    private static final long MIN_BACKOFF_MS = 100;
+    private static final long MAX_BACKOFF_MS = 10000;
+
+    private final String host;
+    private final int port;
+    private final int batchSize;
+    private final OverflowPolicy overflowPolicy;
+    private final BlockingQueue<RedisMetricsCollector.QueueElement> buffer;
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean stopped = false;
+    private volatile long stopDeadline;
+    private Thread writerThread;
+    private Jedis jedis;
+
+    public AsyncRedisWriter(String host, int port, int capacity, int batchSize, OverflowPolicy overflowPolicy) {
+        this.host = host;
+        this.port = port;
+        this.batchSize = batchSize;
+        this.overflowPolicy = overflowPolicy;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public void start() {
+        writerThread = new Thread(this::writeLoop, "resa-redis-writer-" + host + ":" + port);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Stop the background thread, elements still in buffer are flushed if redis becomes reachable within
+     * MAX_BACKOFF_MS, otherwise they are dropped.
+     */
+    public void stop() {
+        stopDeadline = System.currentTimeMillis() + MAX_BACKOFF_MS;
+        stopped = true;
+        if (writerThread != null) {
+            writerThread.interrupt();
+            try {
+                writerThread.join(MAX_BACKOFF_MS * 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        LOG.info("Redis writer stopped, queued: " + queued.get() + ", sent: " + sent.get() + ", dropped: "
+                + dropped.get());
+    }
+
+    public void add(RedisMetricsCollector.QueueElement element) {
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            try {
+                buffer.put(element);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                dropped.incrementAndGet();
+                return;
+            }
+        } else {
+            while (!buffer.offer(element)) {
+                if (buffer.poll() != null) {
+                    dropped.incrementAndGet();
+                }
+            }
+        }
+        queued.incrementAndGet();
+    }
+
+    public long getQueuedCount() {
+        return queued.get();
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public int getPendingCount() {
+        return buffer.size();
+    }
+
+    private void writeLoop() {
+        List<RedisMetricsCollector.QueueElement> batch = new ArrayList<>(batchSize);
+        long backoff = MIN_BACKOFF_MS;
+        while (!stopped || !buffer.isEmpty() || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    RedisMetricsCollector.QueueElement first = buffer.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    buffer.drainTo(batch, batchSize - 1);
+                }
+                writeBatch(batch);
+                sent.addAndGet(batch.size());
+                batch.clear();
+                backoff = MIN_BACKOFF_MS;
+            } catch (InterruptedException e) {
+                if (!stopped) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            } catch (Exception e) {
+                LOG.info("push data to redis failed, retry after " + backoff + "ms", e);
+                closeJedis();
+                long sleepTime = backoff;
+                if (stopped) {
+                    sleepTime = Math.min(backoff, stopDeadline - System.currentTimeMillis());
+                    if (sleepTime <= 0) {
+                        dropped.addAndGet(batch.size() + buffer.size());
+                        break;
+                    }
+                }
+                try {
+                    Thread.sleep(sleepTime);
+                } catch (InterruptedException e1) {
+                    // stop is requested, try to flush once more
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+            }
+        }
+        closeJedis();
+    }
+
+    /**
+     * Write a batch of elements in one round trip.
+     *
+     * @param batch
+     * @throws Exception if any element of the batch failed
+     */
+    protected void writeBatch(List<RedisMetricsCollector.QueueElement> batch) throws Exception {
+        Pipeline pipeline = getJedisInstance().pipelined();
+        for (RedisMetricsCollector.QueueElement e : batch) {
+            if (e.binaryData != null) {
+                pipeline.rpush(e.queueName.getBytes(StandardCharsets.UTF_8), e.binaryData);
+            } else {
+                pipeline.rpush(e.queueName, e.data);
+            }
+        }
+        pipeline.sync();
+    }
+
+    /* get a jedis instance, create a one if necessary */
+    private Jedis getJedisInstance() {
+        if (jedis == null) {
+            jedis = new Jedis(host, port);
+            LOG.info("connecting to redis server " + host);
+        }
+        return jedis;
+    }
+
+    private void closeJedis() {
+        if (jedis != null) {
+            try {
+                LOG.info("disconnecting redis server " + host);
+                jedis.disconnect();
+            } catch (Exception e) {
+            }
+            jedis = null;
+        }
+    }
+}
@@ -2,56 +2,122 @@ package resa.metrics;
 
 import backtype.storm.metric.api.IMetric;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
+ * Count, sum and sum of square for each key. Accumulators are kept in primitive parallel arrays indexed by key id,
+ * so that adding a value through its id never allocates.
+ * <p>
+ * In typed mode, the value of each key is reported as double[]{count, sum, sumOfSquare}, otherwise as the legacy
+ * string "count,sum,sumOfSquare".
+ * <p>
  * Created by ding on 14-1-28.
  */
 public class CMVMetric implements IMetric {
 
-    private static class Accumulator {
-        private int count = 0;
-        private double sum = 0;
-        private double sumOfSquare = 0;
+    private String[] keys;
+    private int[] counts;
+    private double[] sums;
+    private double[] sumOfSquares;
+    private int size = 0;
+    private final Map<String, Integer> key2Index = new HashMap<>();
+    private final boolean typed;
 
-        void add(double num) {
-            count++;
-            sum = sum + num;
-            sumOfSquare = sumOfSquare + num * num;
-        }
+    public CMVMetric() {
+        this(new String[0]);
+    }
 
-        public void reset() {
-            count = 0;
-            sum = 0;
-            sumOfSquare = 0;
-        }
+    public CMVMetric(String[] keys) {
+        this(keys, false);
+    }
 
-        public boolean isEmpty() {
-            return count == 0;
+    /**
+     * Create a metric with pre-defined keys, the id of keys[i] is i.
+     *
+     * @param keys
+     * @param typed  report values as double arrays instead of strings
+     */
+    public CMVMetric(String[] keys, boolean typed) {
+        this.typed = typed;
+        int capacity = Math.max(keys.length, 4);
+        this.keys = new String[capacity];
+        this.counts = new int[capacity];
+        this.sums = new double[capacity];
+        this.sumOfSquares = new double[capacity];
+        for (String key : keys) {
+            indexOf(key);
         }
+    }
 
-        @Override
-        public String toString() {
-            return count + "," + sum + "," + sumOfSquare;
+    /**
+     * Get the id of a key, a new one is assigned if the key does not exist.
+     *
+     * @param key
+     * @return
+     */
+    public int indexOf(String key) {
+        Integer id = key2Index.get(key);
+        if (id == null) {
+            if (size == keys.length) {
+                int newCapacity = size * 2;
+                keys = Arrays.copyOf(keys, newCapacity);
+                counts = Arrays.copyOf(counts, newCapacity);
+                sums = Arrays.copyOf(sums, newCapacity);
+                sumOfSquares = Arrays.copyOf(sumOfSquares, newCapacity);
+            }
+            keys[size] = key;
+            key2Index.put(key, (id = size++));
         }
+        return id;
     }
 
-    private Map<String, Accumulator> data = new HashMap<>();
+    public void addMetric(int id, double value) {
+        counts[id]++;
+        sums[id] += value;
+        sumOfSquares[id] += value * value;
+    }
 
     public void addMetric(String key, double value) {
-        data.computeIfAbsent(key, (k) -> new Accumulator()).add(value);
+        addMetric(indexOf(key), value);
+    }
+
+    /**
+     * Parse a reported value, both the typed and the legacy format are accepted.
+     *
+     * @param value a double array, a list of numbers, or a string
+     * @return double[]{count, sum, sumOfSquare}
+     */
+    public static double[] parse(Object value) {
+        if (value instanceof double[]) {
+            return (double[]) value;
+        } else if (value instanceof List) {
+            return ((List<Number>) value).stream().mapToDouble(Number::doubleValue).toArray();
+        }
+        String str = (String) value;
+        int pos1 = str.indexOf(',');
+        int pos2 = str.indexOf(',', pos1 + 1);
+        return new double[]{Double.parseDouble(str.substring(0, pos1)),
+                Double.parseDouble(str.substring(pos1 + 1, pos2)), Double.parseDouble(str.substring(pos2 + 1))};
     }
 
     @Override
     public Object getValueAndReset() {
-        Map<String, String> ret = new HashMap<>((int) (data.size() / 0.75f) + 1);
-        data.forEach((k, v) -> {
-            if (!v.isEmpty()) {
-                ret.put(k, v.toString());
-                v.reset();
+        Map<String, Object> ret = new HashMap<>((int) (size / 0.75f) + 1);
+        for (int i = 0; i < size; i++) {
+            if (counts[i] > 0) {
+                if (typed) {
+                    ret.put(keys[i], new double[]{counts[i], sums[i], sumOfSquares[i]});
+                } else {
+                    ret.put(keys[i], counts[i] + "," + sums[i] + "," + sumOfSquares[i]);
+                }
+                counts[i] = 0;
+                sums[i] = 0;
+                sumOfSquares[i] = 0;
             }
-        });
+        }
         return ret;
     }
 }
@@ -0,0 +1,72 @@
+package resa.metrics;
+
+import backtype.storm.generated.Bolt;
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.generated.Grouping;
+import backtype.storm.generated.NullStruct;
+import backtype.storm.generated.StormTopology;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+import backtype.storm.utils.Utils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Probes of the queueing delay. After a sampled tuple is emitted, a probe carrying its stream and emit time is
+ * sent directly to each task receiving the tuple. The probe waits in the same receive queue, so downstream bolts
+ * measure how long a tuple waits before it is executed, without touching the declared fields or the values of
+ * user streams.
+ * <p>
+ * Each component declares the direct probe stream, and each bolt subscribes the probe streams of its inputs,
+ * see subscribe(). Probes are unanchored and never passed to the delegated bolts.
+ */
+public final class EmitTimeProbe {
+
+    public static final String STREAM = "_resa_emit_time";
+    static final Fields FIELDS = new Fields("stream", "time");
+
+    // the clock is anchored to wall clock once, then advanced by nanoTime, so that it never jumps in a process
+    private static final long BASE_NANOS = System.nanoTime();
+    private static final long BASE_WALL_NANOS = System.currentTimeMillis() * 1000000L;
+
+    private EmitTimeProbe() {
+    }
+
+    /**
+     * @return current time in nanosecond, comparable across processes as far as their wall clocks are synchronized
+     */
+    static long now() {
+        return BASE_WALL_NANOS + (System.nanoTime() - BASE_NANOS);
+    }
+
+    static void declare(OutputFieldsDeclarer declarer) {
+        declarer.declareStream(STREAM, true, FIELDS);
+    }
+
+    static List<Object> newProbe(String stream, long emitTime) {
+        return new Values(stream, emitTime);
+    }
+
+    /**
+     * Subscribe the probe streams of the input components with direct grouping, for the bolts whose inputs declare
+     * probe stream.
+     */
+    public static void subscribe(StormTopology topology) {
+        Map<String, Boolean> hasProbe = new HashMap<>();
+        topology.get_spouts().forEach((id, spout) -> hasProbe.put(id,
+                spout.get_common().get_streams().containsKey(STREAM)));
+        topology.get_bolts().forEach((id, bolt) -> hasProbe.put(id,
+                bolt.get_common().get_streams().containsKey(STREAM)));
+        for (Bolt bolt : topology.get_bolts().values()) {
+            Map<GlobalStreamId, Grouping> inputs = bolt.get_common().get_inputs();
+            List<String> sources = inputs.keySet().stream().map(GlobalStreamId::get_componentId)
+                    .filter(c -> !Utils.isSystemId(c) && hasProbe.getOrDefault(c, false)).distinct()
+                    .collect(Collectors.toList());
+            sources.forEach(c -> inputs.putIfAbsent(new GlobalStreamId(c, STREAM), Grouping.direct(new NullStruct())));
+        }
+    }
+}
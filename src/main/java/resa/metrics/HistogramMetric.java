@@ -0,0 +1,109 @@
+package resa.metrics;
+
+import backtype.storm.metric.api.IMetric;
+import resa.util.LogHistogram;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A metric keeps a log-bucketed histogram for each key. Unlike StatMetric, no x-axis is required and
+ * histograms reported by different tasks can be merged. Like CMVMetric, keys can be addressed by id to avoid
+ * allocation on the hot path.
+ * <p>
+ * In typed mode, histograms are reported as long arrays (see LogHistogram.toArray), otherwise as encoded strings.
+ */
+public class HistogramMetric implements IMetric {
+
+    private final int precisionBits;
+    private final long maxValue;
+    private String[] keys;
+    private LogHistogram[] histograms;
+    private int size = 0;
+    private final Map<String, Integer> key2Index = new HashMap<>();
+    private final boolean typed;
+
+    public HistogramMetric() {
+        this(LogHistogram.DEFAULT_PRECISION_BITS, LogHistogram.DEFAULT_MAX_VALUE);
+    }
+
+    public HistogramMetric(int precisionBits, long maxValue) {
+        this(new String[0], precisionBits, maxValue);
+    }
+
+    /**
+     * Create a metric with pre-defined keys, the id of keys[i] is i.
+     */
+    public HistogramMetric(String[] keys, int precisionBits, long maxValue) {
+        this(keys, precisionBits, maxValue, false);
+    }
+
+    public HistogramMetric(String[] keys, int precisionBits, long maxValue, boolean typed) {
+        this.typed = typed;
+        this.precisionBits = precisionBits;
+        this.maxValue = maxValue;
+        int capacity = Math.max(keys.length, 4);
+        this.keys = new String[capacity];
+        this.histograms = new LogHistogram[capacity];
+        for (String key : keys) {
+            indexOf(key);
+        }
+    }
+
+    /**
+     * Get the id of a key, a new one is assigned if the key does not exist.
+     *
+     * @param key
+     * @return
+     */
+    public int indexOf(String key) {
+        Integer id = key2Index.get(key);
+        if (id == null) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                histograms = Arrays.copyOf(histograms, size * 2);
+            }
+            keys[size] = key;
+            histograms[size] = new LogHistogram(precisionBits, maxValue);
+            key2Index.put(key, (id = size++));
+        }
+        return id;
+    }
+
+    public void add(int id, long value) {
+        histograms[id].record(value);
+    }
+
+    public void add(String key, long value) {
+        add(indexOf(key), value);
+    }
+
+    /**
+     * Parse a reported value, both the typed and the legacy format are accepted.
+     *
+     * @param value a long array, a list of numbers, or a string
+     * @return
+     */
+    public static LogHistogram parse(Object value) {
+        if (value instanceof long[]) {
+            return LogHistogram.fromArray((long[]) value);
+        } else if (value instanceof List) {
+            return LogHistogram.fromArray(((List<Number>) value).stream().mapToLong(Number::longValue).toArray());
+        }
+        return LogHistogram.decode((String) value);
+    }
+
+    @Override
+    public Object getValueAndReset() {
+        Map<String, Object> ret = new HashMap<>((int) (size / 0.75f) + 1);
+        for (int i = 0; i < size; i++) {
+            if (!histograms[i].isEmpty()) {
+                ret.put(keys[i], typed ? histograms[i].toArray() : histograms[i].encode());
+                histograms[i].reset();
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,52 @@
+package resa.metrics;
+
+import backtype.storm.metric.api.IMetric;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Estimated execute time of each key group in millisecond, for the bolts fed by KeyGroupGrouping. Only sampled
+ * tuples are measured, each is scaled by the inverse of the sample rate of its stream.
+ * <p>
+ * Reported as a double array indexed by key group, or nothing if no tuple is measured in the bucket.
+ */
+public class KeyGroupLoadMetric implements IMetric {
+
+    private final double[] loads;
+    private boolean measured = false;
+
+    public KeyGroupLoadMetric(int numKeyGroups) {
+        this.loads = new double[numKeyGroups];
+    }
+
+    public int getNumKeyGroups() {
+        return loads.length;
+    }
+
+    public void add(int keyGroup, double millis) {
+        loads[keyGroup] += millis;
+        measured = true;
+    }
+
+    @Override
+    public Object getValueAndReset() {
+        if (!measured) {
+            return null;
+        }
+        double[] ret = loads.clone();
+        Arrays.fill(loads, 0);
+        measured = false;
+        return ret;
+    }
+
+    /**
+     * @param value a double array in typed mode, or a list of numbers parsed from json
+     */
+    public static double[] parse(Object value) {
+        if (value instanceof double[]) {
+            return (double[]) value;
+        }
+        return ((List<Number>) value).stream().mapToDouble(Number::doubleValue).toArray();
+    }
+}
@@ -1,24 +1,32 @@
 package resa.metrics;
 
 import backtype.storm.Config;
+import backtype.storm.generated.Grouping;
 import backtype.storm.metric.api.MultiCountMetric;
 import backtype.storm.task.IOutputCollector;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.topology.IRichBolt;
+import backtype.storm.topology.OutputFieldsDeclarer;
 import backtype.storm.tuple.Tuple;
 import backtype.storm.utils.Utils;
+import resa.scheduler.plan.RoutingTable;
 import resa.topology.DelegatedBolt;
+import resa.topology.KeyGroupGrouping;
 import resa.util.ConfigUtil;
+import resa.util.LogHistogram;
 import resa.util.ResaConfig;
-import resa.util.Sampler;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Created by ding on 14-1-27.
+ * <p>
+ * If emit time tracing is enabled, a probe is sent to the receivers of each tuple emitted while executing a sampled
+ * tuple, and the queueing delay of inbound probes is measured as metric "queue-wait", see EmitTimeProbe.
  */
 public class MeasurableBolt extends DelegatedBolt {
 
@@ -38,41 +46,108 @@ public class MeasurableBolt extends DelegatedBolt {
         public List<Integer> emit(String streamId, Collection<Tuple> anchors, List<Object> tuple) {
             if (sample) {
                 emitMetric.scope(streamId).incr();
+                tupleSizeMetric.measure(streamId, tuple);
             }
-            return super.emit(streamId, anchors, tuple);
+            List<Integer> tasks = super.emit(streamId, anchors, tuple);
+            if (sample && traceEmitTime) {
+                List<Object> probe = EmitTimeProbe.newProbe(streamId, EmitTimeProbe.now());
+                tasks.forEach(task -> super.emitDirect(task, EmitTimeProbe.STREAM, (Collection<Tuple>) null, probe));
+            }
+            return tasks;
         }
 
         @Override
         public void emitDirect(int taskId, String streamId, Collection<Tuple> anchors, List<Object> tuple) {
             if (sample) {
                 emitMetric.scope(streamId).incr();
+                tupleSizeMetric.measure(streamId, tuple);
             }
             super.emitDirect(taskId, streamId, anchors, tuple);
+            if (sample && traceEmitTime) {
+                super.emitDirect(taskId, EmitTimeProbe.STREAM, (Collection<Tuple>) null,
+                        EmitTimeProbe.newProbe(streamId, EmitTimeProbe.now()));
+            }
         }
     }
 
+    private transient StreamIndex sourceIndex;
     private transient CMVMetric executeMetric;
-    private Sampler sampler;
+    private transient HistogramMetric executeHistMetric;
+    private transient SamplingEngine samplingEngine;
     private transient MultiCountMetric emitMetric;
+    private transient TupleSizeMetric tupleSizeMetric;
     private transient MeasurableOutputCollector measurableCollector;
+    private transient CMVMetric queueWaitMetric;
+    // key grouping of a source stream, indexed by source id
+    private transient KeyGroupGrouping[] keyGroupings;
+    private transient KeyGroupLoadMetric keyGroupLoadMetric;
     private long lastMetricsSent;
+    private final boolean traceEmitTime;
 
     public MeasurableBolt(IRichBolt delegate) {
+        this(delegate, false);
+    }
+
+    public MeasurableBolt(IRichBolt delegate, boolean traceEmitTime) {
         super(delegate);
+        this.traceEmitTime = traceEmitTime;
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        super.declareOutputFields(declarer);
+        if (traceEmitTime) {
+            EmitTimeProbe.declare(declarer);
+        }
     }
 
     @Override
     public void prepare(Map conf, TopologyContext context, OutputCollector outputCollector) {
         int interval = Utils.getInt(conf.get(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS));
-        executeMetric = context.registerMetric(MetricNames.TASK_EXECUTE, new CMVMetric(), interval);
+        // index all the input streams, so that sampled tuples can be measured without allocation
+        sourceIndex = new StreamIndex();
+        context.getThisSources().keySet().forEach(s -> sourceIndex.getOrAdd(s.get_componentId(), s.get_streamId()));
+        boolean typed = MetricsCodec.isBinary(conf);
+        executeMetric = context.registerMetric(MetricNames.TASK_EXECUTE, new CMVMetric(sourceIndex.keys(), typed),
+                interval);
+        executeHistMetric = context.registerMetric(MetricNames.TASK_EXECUTE_HIST, new HistogramMetric(
+                sourceIndex.keys(), ConfigUtil.getInt(conf, ResaConfig.HISTOGRAM_PRECISION_BITS,
+                LogHistogram.DEFAULT_PRECISION_BITS), LogHistogram.DEFAULT_MAX_VALUE, typed), interval);
         emitMetric = context.registerMetric(MetricNames.EMIT_COUNT, new MultiCountMetric(), interval);
+        tupleSizeMetric = context.registerMetric(MetricNames.TUPLE_SIZE, new TupleSizeMetric(conf, typed), interval);
         lastMetricsSent = System.currentTimeMillis();
         context.registerMetric(MetricNames.DURATION, this::getMetricsDuration, interval);
-        sampler = new Sampler(ConfigUtil.getDouble(conf, ResaConfig.COMP_SAMPLE_RATE, 0.05));
+        samplingEngine = context.registerMetric(MetricNames.SAMPLE_RATE, new SamplingEngine(conf,
+                sourceIndex.keys()), interval);
+        queueWaitMetric = context.registerMetric(MetricNames.QUEUE_WAIT, new CMVMetric(sourceIndex.keys(), typed),
+                interval);
+        keyGroupings = new KeyGroupGrouping[sourceIndex.size()];
+        context.getThisSources().forEach((s, grouping) -> {
+            KeyGroupGrouping keyGrouping = getKeyGroupGrouping(grouping);
+            if (keyGrouping == null) {
+                return;
+            }
+            if (keyGroupLoadMetric == null) {
+                keyGroupLoadMetric = context.registerMetric(MetricNames.KEY_GROUP_LOAD,
+                        new KeyGroupLoadMetric(keyGrouping.getNumKeyGroups()), interval);
+            } else if (keyGroupLoadMetric.getNumKeyGroups() != keyGrouping.getNumKeyGroups()) {
+                throw new IllegalArgumentException("Number of key groups mismatch in the sources of "
+                        + context.getThisComponentId());
+            }
+            keyGroupings[sourceIndex.get(s.get_componentId(), s.get_streamId())] = keyGrouping;
+        });
         measurableCollector = new MeasurableOutputCollector(outputCollector);
         super.prepare(conf, context, measurableCollector);
     }
 
+    private static KeyGroupGrouping getKeyGroupGrouping(Grouping grouping) {
+        if (!grouping.is_set_custom_serialized()) {
+            return null;
+        }
+        Object obj = Utils.deserialize(grouping.get_custom_serialized());
+        return obj instanceof KeyGroupGrouping ? (KeyGroupGrouping) obj : null;
+    }
+
     private long getMetricsDuration() {
         long now = System.currentTimeMillis();
         long duration = now - lastMetricsSent;
@@ -82,26 +157,72 @@ public class MeasurableBolt extends DelegatedBolt {
 
     @Override
     public void execute(Tuple tuple) {
-        long elapse;
-        if (sampler.shoudSample()) {
+        if (EmitTimeProbe.STREAM.equals(tuple.getSourceStreamId())) {
+            measureQueueWait(tuple);
+            return;
+        }
+        int id = sourceIndex.get(tuple.getSourceComponent(), tuple.getSourceStreamId());
+        if (id < 0) {
+            id = addSource(tuple.getSourceComponent(), tuple.getSourceStreamId());
+        }
+        if (samplingEngine.shouldSample(id)) {
             // enable emit sample
             measurableCollector.setEmitSample(true);
             long arrivalTime = System.nanoTime();
             super.execute(tuple);
-            elapse = System.nanoTime() - arrivalTime;
+            long finishTime = System.nanoTime();
+            long elapse = finishTime - arrivalTime;
+            // avoid numerical overflow
+            if (elapse > 0) {
+                executeMetric.addMetric(id, elapse / 1000000.0);
+                // histogram is in microsecond
+                executeHistMetric.add(id, elapse / 1000);
+                if (id < keyGroupings.length && keyGroupings[id] != null) {
+                    addKeyGroupLoad(keyGroupings[id], tuple, id, elapse / 1000000.0);
+                }
+            }
+            if (samplingEngine.isAdaptive()) {
+                samplingEngine.addOverhead(System.nanoTime() - finishTime);
+            }
         } else {
-            elapse = -1;
             // disable emit sample
             measurableCollector.setEmitSample(false);
             super.execute(tuple);
         }
-        // avoid numerical overflow
-        if (elapse > 0) {
-            String id = tuple.getSourceComponent() + ":" + tuple.getSourceStreamId();
-            executeMetric.addMetric(id, elapse / 1000000.0);
-//            System.out.println("from " + tuple.getSourceComponent() + ":" + tuple.getSourceStreamId() +
-//                    " cost->" + (elapse / 1000000.0));
+    }
+
+    /* the probe waited in the receive queue together with the tuple it follows */
+    private void measureQueueWait(Tuple probe) {
+        long wait = EmitTimeProbe.now() - probe.getLong(1);
+        int id = sourceIndex.get(probe.getSourceComponent(), probe.getString(0));
+        // clocks of different hosts may be skewed
+        if (id >= 0 && wait >= 0) {
+            queueWaitMetric.addMetric(id, wait / 1000000.0);
+        }
+    }
+
+    /* estimate the execute time of the key group of tuple from a sampled one */
+    private void addKeyGroupLoad(KeyGroupGrouping keyGrouping, Tuple tuple, int id, double millis) {
+        double rate = samplingEngine.getRate(id);
+        if (rate > 0) {
+            int keyGroup = RoutingTable.keyGroup(tuple.select(keyGrouping.getKeyFields()),
+                    keyGroupLoadMetric.getNumKeyGroups());
+            keyGroupLoadMetric.add(keyGroup, millis / rate);
+        }
+    }
+
+    /* tuple from an undeclared stream (e.g. system tick), all the metrics append the new key in the same order */
+    private int addSource(String component, String stream) {
+        int id = sourceIndex.getOrAdd(component, stream);
+        String key = sourceIndex.getKey(id);
+        executeMetric.indexOf(key);
+        executeHistMetric.indexOf(key);
+        samplingEngine.indexOf(key);
+        queueWaitMetric.indexOf(key);
+        if (id >= keyGroupings.length) {
+            keyGroupings = Arrays.copyOf(keyGroupings, Math.max(id + 1, keyGroupings.length * 2));
         }
+        return id;
     }
 
 }
@@ -1,84 +1,60 @@
 package resa.metrics;
 
 import backtype.storm.Config;
-import backtype.storm.hooks.BaseTaskHook;
-import backtype.storm.hooks.info.SpoutAckInfo;
-import backtype.storm.hooks.info.SpoutFailInfo;
 import backtype.storm.metric.api.MultiCountMetric;
 import backtype.storm.spout.SpoutOutputCollector;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.topology.IRichSpout;
+import backtype.storm.topology.OutputFieldsDeclarer;
 import backtype.storm.utils.Utils;
 import resa.topology.DelegatedSpout;
 import resa.util.ConfigUtil;
+import resa.util.LogHistogram;
 import resa.util.ResaConfig;
-import resa.util.Sampler;
 
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Stream;
 
 /**
- * A measurable spout implementation based on system hook
+ * A measurable spout implementation. Only sampled tuples with a message id are tracked, their start time is kept
+ * in a map keyed by the message id, so unsampled emits, acks and fails go to the delegate without wrapping.
  * <p>
  * Created by ding on 14-4-8.
  */
 public class MeasurableSpout extends DelegatedSpout {
 
-    private class MeasurableMsgId {
-        final String stream;
-        final Object msgId;
-        final long startTime;
-
-        private MeasurableMsgId(String stream, Object msgId, long startTime) {
-            this.stream = stream;
-            this.msgId = msgId;
-            this.startTime = startTime;
-        }
-
-        public boolean isSampled() {
-            return startTime > 0;
-        }
-    }
-
-    private class SpoutHook extends BaseTaskHook {
-
-        @Override
-        public void spoutAck(SpoutAckInfo info) {
-            MeasurableMsgId streamMsgId = (MeasurableMsgId) info.messageId;
-            if (streamMsgId != null && streamMsgId.isSampled()) {
-                long cost = System.currentTimeMillis() - streamMsgId.startTime;
-                completeMetric.addMetric(streamMsgId.stream, cost);
-                if (cost > qos) {
-                    missMetric.addMetric(streamMsgId.stream, cost);
-                }
-                if (completeStatMetric != null) {
-                    completeStatMetric.add(streamMsgId.stream, cost);
-                }
-            }
-        }
-
-        @Override
-        public void spoutFail(SpoutFailInfo info) {
-            MeasurableMsgId streamMsgId = (MeasurableMsgId) info.messageId;
-            if (streamMsgId != null && streamMsgId.isSampled()) {
-                if (completeStatMetric != null) {
-                    completeStatMetric.fail(streamMsgId.stream);
-                }
-            }
-        }
-    }
-
     private transient CMVMetric completeMetric;
-    private Sampler sampler;
+    private transient SamplingEngine samplingEngine;
     private transient MultiCountMetric emitMetric;
+    private transient TupleSizeMetric tupleSizeMetric;
     private transient CMVMetric missMetric;
     private transient CompleteStatMetric completeStatMetric;
+    private transient HistogramMetric completeHistMetric;
+    // message id -> start time in nanosecond of sampled tuples
+    private transient PendingSampleMap pendingSamples;
     private long lastMetricsSent;
     private long qos;
+    private final boolean traceEmitTime;
 
     public MeasurableSpout(IRichSpout delegate) {
+        this(delegate, false);
+    }
+
+    /**
+     * @param traceEmitTime send probes after sampled tuples, so that downstream bolts can measure queueing delay
+     */
+    public MeasurableSpout(IRichSpout delegate, boolean traceEmitTime) {
         super(delegate);
+        this.traceEmitTime = traceEmitTime;
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        super.declareOutputFields(declarer);
+        if (traceEmitTime) {
+            EmitTimeProbe.declare(declarer);
+        }
     }
 
     private long getMetricsDuration() {
@@ -91,59 +67,99 @@ public class MeasurableSpout extends DelegatedSpout {
     @Override
     public void open(Map conf, TopologyContext context, SpoutOutputCollector collector) {
         int interval = Utils.getInt(conf.get(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS));
-        completeMetric = context.registerMetric(MetricNames.COMPLETE_LATENCY, new CMVMetric(), interval);
+        boolean typed = MetricsCodec.isBinary(conf);
+        completeMetric = context.registerMetric(MetricNames.COMPLETE_LATENCY, new CMVMetric(new String[0], typed),
+                interval);
         // register miss metric
         qos = ConfigUtil.getLong(conf, "resa.metric.complete-latency.threshold.ms", Long.MAX_VALUE);
-        missMetric = context.registerMetric(MetricNames.MISS_QOS, new CMVMetric(), interval);
+        missMetric = context.registerMetric(MetricNames.MISS_QOS, new CMVMetric(new String[0], typed), interval);
         emitMetric = context.registerMetric(MetricNames.EMIT_COUNT, new MultiCountMetric(), interval);
+        tupleSizeMetric = context.registerMetric(MetricNames.TUPLE_SIZE, new TupleSizeMetric(conf, typed), interval);
         // register stat metric
         double[] xAxis = Stream.of(((String) conf.getOrDefault("resa.metric.complete-latency.stat.x-axis", ""))
                 .split(",")).filter(s -> !s.isEmpty()).mapToDouble(Double::parseDouble).toArray();
         completeStatMetric = xAxis.length > 0 ? context.registerMetric(MetricNames.LATENCY_STAT,
                 new CompleteStatMetric(xAxis), interval) : null;
+        // register histogram metric, no x-axis is required
+        completeHistMetric = context.registerMetric(MetricNames.COMPLETE_LATENCY_HIST, new HistogramMetric(
+                new String[0], ConfigUtil.getInt(conf, ResaConfig.HISTOGRAM_PRECISION_BITS,
+                LogHistogram.DEFAULT_PRECISION_BITS), LogHistogram.DEFAULT_MAX_VALUE, typed), interval);
         // register duration metric
         lastMetricsSent = System.currentTimeMillis();
         context.registerMetric(MetricNames.DURATION, this::getMetricsDuration, interval);
 
-        sampler = new Sampler(ConfigUtil.getDouble(conf, ResaConfig.COMP_SAMPLE_RATE, 0.05));
-        context.addTaskHook(new SpoutHook());
+        samplingEngine = context.registerMetric(MetricNames.SAMPLE_RATE, new SamplingEngine(conf), interval);
+        pendingSamples = new PendingSampleMap();
         super.open(conf, context, new SpoutOutputCollector(collector) {
 
             @Override
             public List<Integer> emit(String streamId, List<Object> tuple, Object messageId) {
-                return super.emit(streamId, tuple, newStreamMessageId(streamId, messageId));
+                boolean sampled = sampleEmit(streamId, tuple, messageId);
+                List<Integer> tasks = super.emit(streamId, tuple, messageId);
+                if (sampled && traceEmitTime) {
+                    List<Object> probe = EmitTimeProbe.newProbe(streamId, EmitTimeProbe.now());
+                    tasks.forEach(task -> super.emitDirect(task, EmitTimeProbe.STREAM, probe, null));
+                }
+                return tasks;
             }
 
             @Override
             public void emitDirect(int taskId, String streamId, List<Object> tuple, Object messageId) {
-                super.emitDirect(taskId, streamId, tuple, newStreamMessageId(streamId, messageId));
+                boolean sampled = sampleEmit(streamId, tuple, messageId);
+                super.emitDirect(taskId, streamId, tuple, messageId);
+                if (sampled && traceEmitTime) {
+                    super.emitDirect(taskId, EmitTimeProbe.STREAM, EmitTimeProbe.newProbe(streamId,
+                            EmitTimeProbe.now()), null);
+                }
             }
 
-            private MeasurableMsgId newStreamMessageId(String stream, Object messageId) {
-                long startTime;
-                if (sampler.shoudSample()) {
-                    startTime = System.currentTimeMillis();
+            private boolean sampleEmit(String stream, List<Object> tuple, Object messageId) {
+                if (samplingEngine.shouldSample(stream)) {
                     emitMetric.scope(stream).incr();
-                } else {
-                    startTime = -1;
+                    tupleSizeMetric.measure(stream, tuple);
+                    if (messageId != null) {
+                        pendingSamples.put(messageId, stream, System.nanoTime());
+                    }
+                    return true;
                 }
-                return messageId == null ? null : new MeasurableMsgId(stream, messageId, startTime);
+                return false;
             }
         });
     }
 
-    private Object getUserMsgId(Object msgId) {
-        return msgId != null ? ((MeasurableMsgId) msgId).msgId : msgId;
+    /* latency of a sampled tuple is completed */
+    private void sampleCompleted(long startNanos) {
+        long now = System.nanoTime();
+        String stream = pendingSamples.lastStream();
+        double cost = (now - startNanos) / 1000000.0;
+        completeMetric.addMetric(stream, cost);
+        if (cost > qos) {
+            missMetric.addMetric(stream, cost);
+        }
+        if (completeStatMetric != null) {
+            completeStatMetric.add(stream, cost);
+        }
+        // histogram is in microsecond
+        completeHistMetric.add(stream, (now - startNanos) / 1000);
+        if (samplingEngine.isAdaptive()) {
+            samplingEngine.addOverhead(System.nanoTime() - now);
+        }
     }
 
     @Override
     public void ack(Object msgId) {
-        super.ack(getUserMsgId(msgId));
+        super.ack(msgId);
+        if (!pendingSamples.isEmpty() && pendingSamples.remove(msgId)) {
+            sampleCompleted(pendingSamples.lastStartTime());
+        }
     }
 
     @Override
     public void fail(Object msgId) {
-        super.fail(getUserMsgId(msgId));
+        super.fail(msgId);
+        if (!pendingSamples.isEmpty() && pendingSamples.remove(msgId) && completeStatMetric != null) {
+            completeStatMetric.fail(pendingSamples.lastStream());
+        }
     }
 
 }
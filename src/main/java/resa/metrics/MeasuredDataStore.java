@@ -0,0 +1,474 @@
+package resa.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import resa.scheduler.TopologyOptimizer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * An embedded append-only store of MeasuredData. Data is partitioned by component, each partition is a sequence of
+ * memory-mapped segment files, every segment covers a time span and has a fixed capacity. A record is laid out as
+ * length(4) timestamp(8) payload, where payload is a binary record of MetricsCodec.
+ * <p>
+ * Timestamps are in the unit of MeasuredData.timestamp (second for storm metrics). Segments older than the
+ * retention are deleted when a new segment is created. Segments left by previous runs are sealed on open and
+ * compacted, so that partially filled segments do not accumulate across restarts. A merged segment takes the seq
+ * of its first source and names the last one, it is synced before the sources are deleted, so a crash in between
+ * leaves sources that are dropped on the next open rather than duplicated records.
+ * <p>
+ * Writes are serialized by the lock of this object, queries read the mapped segments without holding the lock,
+ * only records published before the iteration starts are returned. A segment is unmapped once it is dropped by
+ * the store and released by all the iterators reading it, so iterators should be consumed to the end.
+ * <p>
+ * The time of the last rebalance is kept as a barrier, data before it is never returned by source().
+ */
+public class MeasuredDataStore implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MeasuredDataStore.class);
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int RECORD_HEAD = 12;
+    private static final String BARRIER_FILE = "barrier";
+
+    private static class Segment {
+        final long seq;
+        ///seq of the last segment merged into this one, the same as seq if it is not merged
+        final long lastSeq;
+        final long startTime;
+        final Path file;
+        final MappedByteBuffer buffer;
+        volatile int limit;
+        volatile long minTime = Long.MAX_VALUE;
+        volatile long maxTime = Long.MIN_VALUE;
+        boolean sealed;
+        // one for the store and one for each iterator reading it
+        final AtomicInteger refs = new AtomicInteger(1);
+
+        Segment(long seq, long lastSeq, long startTime, Path file, MappedByteBuffer buffer) {
+            this.seq = seq;
+            this.lastSeq = lastSeq;
+            this.startTime = startTime;
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                unmap(buffer);
+            }
+        }
+
+        boolean overlaps(long from, long to) {
+            return minTime <= to && maxTime >= from;
+        }
+
+        /* scan records to recover limit and time range */
+        void recover() {
+            int pos = 0;
+            while (pos + RECORD_HEAD <= buffer.capacity()) {
+                int len = buffer.getInt(pos);
+                if (len <= 0 || pos + RECORD_HEAD + len > buffer.capacity()) {
+                    break;
+                }
+                long time = buffer.getLong(pos + 4);
+                minTime = Math.min(minTime, time);
+                maxTime = Math.max(maxTime, time);
+                pos += RECORD_HEAD + len;
+            }
+            limit = pos;
+        }
+    }
+
+    private final Path dir;
+    private final int segmentCapacity;
+    private final long segmentSpan;
+    private final long retention;
+    private final Map<String, List<Segment>> comp2Segments = new HashMap<>();
+    private long nextSeq = 0;
+    private volatile long barrier = Long.MIN_VALUE;
+
+    /**
+     * @param dir             root directory of this store
+     * @param segmentCapacity capacity of a segment in byte
+     * @param segmentSpan     time span covered by a segment
+     * @param retention       segments whose data is older than this are deleted, non-positive means forever
+     */
+    public MeasuredDataStore(Path dir, int segmentCapacity, long segmentSpan, long retention) {
+        if (segmentCapacity <= RECORD_HEAD || segmentSpan <= 0) {
+            throw new IllegalArgumentException("Bad segment capacity or span: " + segmentCapacity + ", "
+                    + segmentSpan);
+        }
+        this.dir = dir;
+        this.segmentCapacity = segmentCapacity;
+        this.segmentSpan = segmentSpan;
+        this.retention = retention;
+        try {
+            Files.createDirectories(dir);
+            loadSegments();
+            Path barrierFile = dir.resolve(BARRIER_FILE);
+            if (Files.exists(barrierFile)) {
+                barrier = Long.parseLong(new String(Files.readAllBytes(barrierFile), "UTF-8").trim());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Open store failed, dir is " + dir, e);
+        }
+        compact();
+    }
+
+    private void loadSegments() throws IOException {
+        try (DirectoryStream<Path> compDirs = Files.newDirectoryStream(dir, Files::isDirectory)) {
+            for (Path compDir : compDirs) {
+                String comp = URLDecoder.decode(compDir.getFileName().toString(), "UTF-8");
+                List<Segment> segments = new ArrayList<>();
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(compDir, "*" + TMP_SUFFIX)) {
+                    // merges interrupted before the rename, their sources are intact
+                    files.forEach(MeasuredDataStore::deleteFile);
+                }
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(compDir, "*" + SEGMENT_SUFFIX)) {
+                    for (Path file : files) {
+                        String name = file.getFileName().toString();
+                        String[] tmp = name.substring(0, name.length() - SEGMENT_SUFFIX.length()).split("-");
+                        long seq = Long.parseLong(tmp[0]);
+                        Segment segment = new Segment(seq, tmp.length > 2 ? Long.parseLong(tmp[2]) : seq,
+                                Long.parseLong(tmp[1]), file, map(file, (int) Files.size(file)));
+                        segment.recover();
+                        segment.sealed = true;
+                        segments.add(segment);
+                        nextSeq = Math.max(nextSeq, segment.lastSeq + 1);
+                    }
+                }
+                // a merged segment sorts before its sources of the same seq
+                segments.sort(Comparator.<Segment>comparingLong(s -> s.seq).thenComparing(s -> -s.lastSeq));
+                comp2Segments.put(comp, dropMergedSources(segments));
+            }
+        }
+    }
+
+    /* sources left by a merge that crashed before deleting them, the merged segment holds their records */
+    private static List<Segment> dropMergedSources(List<Segment> segments) {
+        List<Segment> ret = new ArrayList<>(segments.size());
+        long covered = Long.MIN_VALUE;
+        for (Segment s : segments) {
+            if (s.seq <= covered) {
+                LOG.info("Segment " + s.file + " is already merged, delete it");
+                deleteFile(s.file);
+                s.release();
+            } else {
+                ret.add(s);
+                covered = s.lastSeq;
+            }
+        }
+        return ret;
+    }
+
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /* release the mapping now rather than on gc, java 8 and later versions expose the cleaner differently */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (NoSuchMethodException e) {
+            // java 8
+        } catch (Exception e) {
+            LOG.debug("Unmap segment failed, left to gc", e);
+            return;
+        }
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                Method clean = cleaner.getClass().getMethod("clean");
+                clean.setAccessible(true);
+                clean.invoke(cleaner);
+            }
+        } catch (Exception e) {
+            LOG.debug("Unmap segment failed, left to gc", e);
+        }
+    }
+
+    private Segment createSegment(String component, long startTime, int capacity) throws IOException {
+        Path compDir = dir.resolve(URLEncoder.encode(component, "UTF-8"));
+        Files.createDirectories(compDir);
+        long seq = nextSeq++;
+        Path file = compDir.resolve(seq + "-" + startTime + SEGMENT_SUFFIX);
+        return new Segment(seq, seq, startTime, file, map(file, capacity));
+    }
+
+    public synchronized void append(MeasuredData data) {
+        byte[] payload = MetricsCodec.encode(data.component, data.task, data.timestamp, data.data);
+        List<Segment> segments = comp2Segments.computeIfAbsent(data.component, k -> new ArrayList<>());
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.sealed || data.timestamp >= segment.startTime + segmentSpan
+                || data.timestamp < segment.startTime
+                || segment.limit + RECORD_HEAD + payload.length > segment.buffer.capacity()) {
+            if (segment != null) {
+                segment.sealed = true;
+            }
+            try {
+                segment = createSegment(data.component, data.timestamp - Math.floorMod(data.timestamp, segmentSpan),
+                        Math.max(segmentCapacity, RECORD_HEAD + payload.length));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Create segment failed", e);
+            }
+            segments.add(segment);
+            applyRetention(data.timestamp);
+        }
+        int pos = segment.limit;
+        ByteBuffer buf = segment.buffer.duplicate();
+        buf.position(pos + 4);
+        buf.putLong(data.timestamp);
+        buf.put(payload);
+        // write length at last, so that a crash never leaves a partial record
+        segment.buffer.putInt(pos, payload.length);
+        segment.minTime = Math.min(segment.minTime, data.timestamp);
+        segment.maxTime = Math.max(segment.maxTime, data.timestamp);
+        segment.limit = pos + RECORD_HEAD + payload.length;
+    }
+
+    /**
+     * Delete the segments whose data is older than retention.
+     *
+     * @param now current time
+     */
+    public synchronized void applyRetention(long now) {
+        if (retention <= 0) {
+            return;
+        }
+        comp2Segments.values().forEach(segments -> segments.removeIf(s -> {
+            if (s.sealed && s.maxTime < now - retention) {
+                deleteFile(s.file);
+                s.release();
+                return true;
+            }
+            return false;
+        }));
+    }
+
+    private static void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.warn("Delete segment " + file + " failed", e);
+        }
+    }
+
+    /**
+     * Merge adjacent sealed segments that are less than half full, the merged segment is trimmed to the size of
+     * its data.
+     */
+    public synchronized void compact() {
+        for (Map.Entry<String, List<Segment>> e : comp2Segments.entrySet()) {
+            List<Segment> segments = e.getValue();
+            List<Segment> compacted = new ArrayList<>(segments.size());
+            List<Segment> run = new ArrayList<>();
+            for (Segment s : segments) {
+                if (s.sealed && s.limit < segmentCapacity / 2) {
+                    run.add(s);
+                    int runSize = run.stream().mapToInt(r -> r.limit).sum();
+                    if (runSize >= segmentCapacity / 2) {
+                        compacted.add(merge(e.getKey(), run));
+                        run.clear();
+                    }
+                } else {
+                    if (!run.isEmpty()) {
+                        compacted.add(merge(e.getKey(), run));
+                        run.clear();
+                    }
+                    compacted.add(s);
+                }
+            }
+            if (!run.isEmpty()) {
+                compacted.add(merge(e.getKey(), run));
+            }
+            e.setValue(compacted);
+        }
+    }
+
+    private Segment merge(String component, List<Segment> run) {
+        if (run.size() == 1 && run.get(0).limit == run.get(0).buffer.capacity()) {
+            return run.get(0);
+        }
+        int size = run.stream().mapToInt(r -> r.limit).sum();
+        Segment first = run.get(0);
+        long lastSeq = run.stream().mapToLong(r -> r.lastSeq).max().getAsLong();
+        try {
+            // written aside and synced, then renamed, so the merged file is either complete or absent
+            Path file = first.file.resolveSibling(first.seq + "-" + first.startTime + "-" + lastSeq
+                    + SEGMENT_SUFFIX);
+            Path tmpFile = file.resolveSibling(file.getFileName() + TMP_SUFFIX);
+            try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (Segment s : run) {
+                    ByteBuffer src = s.buffer.duplicate();
+                    src.position(0).limit(s.limit);
+                    while (src.hasRemaining()) {
+                        channel.write(src);
+                    }
+                }
+                if (size < RECORD_HEAD) {
+                    channel.write(ByteBuffer.allocate(RECORD_HEAD - size));
+                }
+                channel.force(true);
+            }
+            Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Segment merged = new Segment(first.seq, lastSeq, first.startTime, file,
+                    map(file, Math.max(size, RECORD_HEAD)));
+            for (Segment s : run) {
+                merged.minTime = Math.min(merged.minTime, s.minTime);
+                merged.maxTime = Math.max(merged.maxTime, s.maxTime);
+            }
+            merged.limit = size;
+            merged.sealed = true;
+            // sources are deleted only after the merged segment is durable
+            run.forEach(s -> {
+                if (!s.file.equals(file)) {
+                    deleteFile(s.file);
+                }
+                s.release();
+            });
+            return merged;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Compact segments failed", e);
+        }
+    }
+
+    /**
+     * Query data in time range [from, to], records are decoded lazily while iterating.
+     *
+     * @param component component to query, null for all the components
+     */
+    public Iterable<MeasuredData> query(String component, long from, long to) {
+        return () -> new Iterator<MeasuredData>() {
+            private final List<Segment> candidates = new ArrayList<>();
+            private final int[] limits = acquire(component, from, to, candidates);
+            private int segIdx = 0;
+            private int pos = 0;
+            private MeasuredData next = advance();
+
+            private MeasuredData advance() {
+                while (segIdx < candidates.size()) {
+                    ByteBuffer buffer = candidates.get(segIdx).buffer;
+                    while (pos < limits[segIdx]) {
+                        int len = buffer.getInt(pos);
+                        long time = buffer.getLong(pos + 4);
+                        int payloadPos = pos + RECORD_HEAD;
+                        pos = payloadPos + len;
+                        if (time >= from && time <= to) {
+                            byte[] payload = new byte[len];
+                            ByteBuffer src = buffer.duplicate();
+                            src.position(payloadPos);
+                            src.get(payload);
+                            return MetricsCodec.decode(payload);
+                        }
+                    }
+                    candidates.get(segIdx++).release();
+                    pos = 0;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public MeasuredData next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                MeasuredData ret = next;
+                next = advance();
+                return ret;
+            }
+        };
+    }
+
+    /* retain the segments overlapping the range, return their limits at this moment */
+    private synchronized int[] acquire(String component, long from, long to, List<Segment> candidates) {
+        (component == null ? comp2Segments.values() : Collections.singletonList(comp2Segments.getOrDefault(
+                component, Collections.emptyList()))).forEach(segments -> segments.stream()
+                .filter(s -> s.overlaps(from, to)).forEach(candidates::add));
+        candidates.forEach(s -> s.refs.incrementAndGet());
+        return candidates.stream().mapToInt(s -> s.limit).toArray();
+    }
+
+    /**
+     * Set the time of the last rebalance, which is persisted so that data measured with the old executors is not
+     * returned by source() after restart.
+     */
+    public synchronized void setBarrier(long time) {
+        barrier = time;
+        try {
+            Files.write(dir.resolve(BARRIER_FILE), Long.toString(time).getBytes("UTF-8"));
+        } catch (IOException e) {
+            LOG.warn("Write barrier failed, dir is " + dir, e);
+        }
+    }
+
+    public long getBarrier() {
+        return barrier;
+    }
+
+    /**
+     * A source of optimizer that returns the data in the store since the last retrieve, so that measured data is
+     * not held on heap. Records before the barrier are skipped. A record is returned once the clock is delay past
+     * its timestamp, records appended later than that are missed.
+     *
+     * @param from  records before it are not returned, e.g. the start of the warm start window
+     * @param delay delay of records reaching the store, in the unit of timestamp
+     * @param clock current time, in the unit of timestamp
+     */
+    public TopologyOptimizer.MeasuredSource source(long from, long delay, LongSupplier clock) {
+        long[] retrieved = {from - 1};
+        return () -> {
+            long to = clock.getAsLong() - delay;
+            long start = Math.max(retrieved[0] + 1, barrier);
+            if (to < start) {
+                return Collections.emptyList();
+            }
+            retrieved[0] = to;
+            return query(null, start, to);
+        };
+    }
+
+    @Override
+    public synchronized void close() {
+        comp2Segments.values().forEach(segments -> segments.forEach(s -> {
+            s.buffer.force();
+            s.sealed = true;
+            s.release();
+        }));
+        comp2Segments.clear();
+    }
+}
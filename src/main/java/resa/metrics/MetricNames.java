@@ -13,8 +13,14 @@ public class MetricNames {
 
     public static final String LATENCY_STAT = "latency-stat";
 
+    public static final String COMPLETE_LATENCY_HIST = "complete-latency-hist";
+
     public static final String TASK_EXECUTE = "execute";
 
+    public static final String TASK_EXECUTE_HIST = "execute-hist";
+
+    public static final String QUEUE_WAIT = "queue-wait";
+
     public static final String DURATION = "duration";
 
     public static final String SEND_QUEUE = "send-queue";
@@ -25,4 +31,12 @@ public class MetricNames {
 
     public static final String SERIALIZED_SIZE = "serialized";
 
+    public static final String LOAD_TIME = "load-time";
+
+    public static final String TUPLE_SIZE = "tuple-size";
+
+    public static final String SAMPLE_RATE = "sample-rate";
+
+    public static final String KEY_GROUP_LOAD = "key-group-load";
+
 }
@@ -0,0 +1,230 @@
+package resa.metrics;
+
+import resa.util.ResaConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact binary format of the metrics of one task in one bucket. All the strings of a record (component name,
+ * metric names, stream names) are put into a dictionary at the head of the record and referred by id, numbers and
+ * arrays of numbers are written in fixed layout.
+ * <p>
+ * Record layout: magic(1) version(1) dictSize(varint) dict(varint len + utf8 bytes)* component(varint)
+ * task(varint) timestamp(8) data(value)
+ * <p>
+ * The first byte of a record is always 0, so that binary records can be told from the legacy
+ * "comp:task:ts->json" strings in the same redis queue.
+ */
+public class MetricsCodec {
+
+    public static final String ENCODING_BINARY = "binary";
+    public static final String ENCODING_JSON = "json";
+
+    private static final byte MAGIC = 0;
+    private static final byte VERSION = 1;
+
+    private static final byte T_NULL = 0;
+    private static final byte T_LONG = 1;
+    private static final byte T_DOUBLE = 2;
+    private static final byte T_STRING = 3;
+    private static final byte T_DOUBLE_ARRAY = 4;
+    private static final byte T_LONG_ARRAY = 5;
+    private static final byte T_MAP = 6;
+    private static final byte T_LIST = 7;
+    private static final byte T_BOOLEAN = 8;
+
+    /**
+     * Json is the default, since the readers of redis queues other than ExecutionAnalyzer only parse json records.
+     *
+     * @return true if metrics should be produced as typed values and written as binary records,
+     * false in json compatibility mode
+     */
+    public static boolean isBinary(Map<String, Object> conf) {
+        return ENCODING_BINARY.equals(conf.getOrDefault(ResaConfig.METRIC_ENCODING, ENCODING_JSON));
+    }
+
+    public static boolean isBinaryRecord(byte[] record) {
+        return record.length > 1 && record[0] == MAGIC;
+    }
+
+    public static byte[] encode(String component, int task, long timestamp, Map<String, Object> data) {
+        Map<String, Integer> dict = new LinkedHashMap<>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        try {
+            DataOutputStream out = new DataOutputStream(body);
+            writeVarInt(out, stringId(dict, component));
+            writeVarInt(out, task);
+            out.writeLong(timestamp);
+            writeValue(out, dict, data);
+            ByteArrayOutputStream record = new ByteArrayOutputStream(body.size() + dict.size() * 16 + 8);
+            out = new DataOutputStream(record);
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION);
+            writeVarInt(out, dict.size());
+            for (String s : dict.keySet()) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                writeVarInt(out, bytes.length);
+                out.write(bytes);
+            }
+            body.writeTo(out);
+            return record.toByteArray();
+        } catch (IOException e) {
+            // never happen on byte array streams
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static MeasuredData decode(byte[] record) {
+        if (!isBinaryRecord(record)) {
+            throw new IllegalArgumentException("Not a binary metrics record");
+        }
+        ByteBuffer in = ByteBuffer.wrap(record);
+        in.get();
+        byte version = in.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported metrics record version: " + version);
+        }
+        String[] dict = new String[readVarInt(in)];
+        for (int i = 0; i < dict.length; i++) {
+            int len = readVarInt(in);
+            dict[i] = new String(record, in.position(), len, StandardCharsets.UTF_8);
+            in.position(in.position() + len);
+        }
+        String component = dict[readVarInt(in)];
+        int task = readVarInt(in);
+        long timestamp = in.getLong();
+        return new MeasuredData(component, task, timestamp, (Map<String, Object>) readValue(in, dict));
+    }
+
+    private static int stringId(Map<String, Integer> dict, String s) {
+        Integer id = dict.get(s);
+        if (id == null) {
+            dict.put(s, (id = dict.size()));
+        }
+        return id;
+    }
+
+    private static void writeValue(DataOutputStream out, Map<String, Integer> dict, Object value)
+            throws IOException {
+        if (value == null) {
+            out.writeByte(T_NULL);
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(T_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            out.writeByte(T_LONG);
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof String) {
+            out.writeByte(T_STRING);
+            writeVarInt(out, stringId(dict, (String) value));
+        } else if (value instanceof Boolean) {
+            out.writeByte(T_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof double[]) {
+            double[] array = (double[]) value;
+            out.writeByte(T_DOUBLE_ARRAY);
+            writeVarInt(out, array.length);
+            for (double v : array) {
+                out.writeDouble(v);
+            }
+        } else if (value instanceof long[]) {
+            long[] array = (long[]) value;
+            out.writeByte(T_LONG_ARRAY);
+            writeVarInt(out, array.length);
+            for (long v : array) {
+                out.writeLong(v);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(T_MAP);
+            writeVarInt(out, map.size());
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                writeVarInt(out, stringId(dict, String.valueOf(e.getKey())));
+                writeValue(out, dict, e.getValue());
+            }
+        } else if (value instanceof Collection) {
+            Collection<?> list = (Collection<?>) value;
+            out.writeByte(T_LIST);
+            writeVarInt(out, list.size());
+            for (Object o : list) {
+                writeValue(out, dict, o);
+            }
+        } else {
+            // unknown types are kept as their string form, as the json mode does for most of them
+            out.writeByte(T_STRING);
+            writeVarInt(out, stringId(dict, value.toString()));
+        }
+    }
+
+    private static Object readValue(ByteBuffer in, String[] dict) {
+        byte type = in.get();
+        switch (type) {
+            case T_NULL:
+                return null;
+            case T_LONG:
+                return in.getLong();
+            case T_DOUBLE:
+                return in.getDouble();
+            case T_STRING:
+                return dict[readVarInt(in)];
+            case T_BOOLEAN:
+                return in.get() != 0;
+            case T_DOUBLE_ARRAY: {
+                double[] array = new double[readVarInt(in)];
+                in.asDoubleBuffer().get(array);
+                in.position(in.position() + array.length * 8);
+                return array;
+            }
+            case T_LONG_ARRAY: {
+                long[] array = new long[readVarInt(in)];
+                in.asLongBuffer().get(array);
+                in.position(in.position() + array.length * 8);
+                return array;
+            }
+            case T_MAP: {
+                int size = readVarInt(in);
+                Map<String, Object> map = new HashMap<>((int) (size / 0.75f) + 1);
+                for (int i = 0; i < size; i++) {
+                    String key = dict[readVarInt(in)];
+                    map.put(key, readValue(in, dict));
+                }
+                return map;
+            }
+            case T_LIST: {
+                int size = readVarInt(in);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in, dict));
+                }
+                return list;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown value type: " + type);
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package resa.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from message id to the start time and stream of a sampled tuple. Keys, times and
+ * streams are kept in parallel arrays with linear probing, so put and remove never allocate unless the table
+ * needs to grow.
+ * <p>
+ * This class is not thread-safe.
+ */
+class PendingSampleMap {
+
+    private Object[] keys;
+    private long[] startTimes;
+    private String[] streams;
+    private int mask;
+    private int size = 0;
+
+    PendingSampleMap() {
+        this(64);
+    }
+
+    PendingSampleMap(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(initialCapacity, 4) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        startTimes = new long[capacity];
+        streams = new String[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void put(Object key, String stream, long startTime) {
+        // keep load factor under 0.5
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        int idx = hash(key) & mask;
+        while (keys[idx] != null) {
+            if (keys[idx].equals(key)) {
+                break;
+            }
+            idx = (idx + 1) & mask;
+        }
+        if (keys[idx] == null) {
+            keys[idx] = key;
+            size++;
+        }
+        startTimes[idx] = startTime;
+        streams[idx] = stream;
+    }
+
+    private int indexOf(Object key) {
+        int idx = hash(key) & mask;
+        Object k;
+        while ((k = keys[idx]) != null) {
+            if (k.equals(key)) {
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Remove a key, its start time and stream can be retrieved by lastStartTime and lastStream.
+     *
+     * @return false if the key does not exist
+     */
+    public boolean remove(Object key) {
+        int idx = indexOf(key);
+        if (idx < 0) {
+            return false;
+        }
+        lastStartTime = startTimes[idx];
+        lastStream = streams[idx];
+        // backward shift deletion, keep probe sequences of other keys unbroken
+        int hole = idx;
+        int next = (idx + 1) & mask;
+        Object k;
+        while ((k = keys[next]) != null) {
+            int home = hash(k) & mask;
+            // move the key into hole if its home slot is not in (hole, next]
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = k;
+                startTimes[hole] = startTimes[next];
+                streams[hole] = streams[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = null;
+        streams[hole] = null;
+        size--;
+        return true;
+    }
+
+    private long lastStartTime;
+    private String lastStream;
+
+    public long lastStartTime() {
+        return lastStartTime;
+    }
+
+    public String lastStream() {
+        return lastStream;
+    }
+
+    private void rehash(int newCapacity) {
+        Object[] oldKeys = keys;
+        long[] oldTimes = startTimes;
+        String[] oldStreams = streams;
+        allocate(newCapacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                put(oldKeys[i], oldStreams[i], oldTimes[i]);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, null);
+        Arrays.fill(streams, null);
+        size = 0;
+    }
+}
@@ -6,7 +6,7 @@ import backtype.storm.task.TopologyContext;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import redis.clients.jedis.Jedis;
+import resa.util.ConfigUtil;
 
 import java.io.IOException;
 import java.util.Arrays;
@@ -16,7 +16,8 @@ import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
- * Write metrics to redis server.
+ * Write metrics to redis server. Each task bucket is written as a "comp:task:ts->json" string by default, or as a
+ * binary record (see MetricsCodec) if resa.metric.encoding is "binary".
  * <p>
  * Created by ding on 13-12-11.
  */
@@ -25,23 +26,36 @@ public class RedisMetricsCollector extends FilteredMetricsCollector {
     public static class QueueElement {
         public final String queueName;
         public final String data;
+        public final byte[] binaryData;
 
         public QueueElement(String queueName, String data) {
             this.queueName = queueName;
             this.data = data;
+            this.binaryData = null;
+        }
+
+        public QueueElement(String queueName, byte[] binaryData) {
+            this.queueName = queueName;
+            this.data = null;
+            this.binaryData = binaryData;
         }
     }
 
     public static final String REDIS_HOST = "resa.metric.redis.host";
     public static final String REDIS_PORT = "resa.metric.redis.port";
     public static final String REDIS_QUEUE_NAME = "resa.metric.redis.queue-name";
+    public static final String REDIS_BUFFER_CAPACITY = "resa.metric.redis.buffer.capacity";
+    public static final String REDIS_BATCH_SIZE = "resa.metric.redis.batch.size";
+    /* "drop-oldest" or "block" */
+    public static final String REDIS_OVERFLOW_POLICY = "resa.metric.redis.overflow.policy";
 
     private static final Logger LOG = LoggerFactory.getLogger(RedisMetricsCollector.class);
 
-    private transient Jedis jedis;
+    private transient AsyncRedisWriter writer;
     private String jedisHost;
     private int jedisPort;
     private String queueName;
+    private boolean binary;
 
     private ObjectMapper objectMapper = new ObjectMapper();
 
@@ -56,27 +70,25 @@ public class RedisMetricsCollector extends FilteredMetricsCollector {
         if (queueName == null) {
             queueName = context.getStormId() + "-metrics";
         }
-        LOG.info("Write metrics to redis server " + jedisHost + ":" + jedisPort);
+        binary = MetricsCodec.isBinary(stormConf);
+        AsyncRedisWriter.OverflowPolicy policy = "block".equals(stormConf.get(REDIS_OVERFLOW_POLICY)) ?
+                AsyncRedisWriter.OverflowPolicy.BLOCK : AsyncRedisWriter.OverflowPolicy.DROP_OLDEST;
+        writer = new AsyncRedisWriter(jedisHost, jedisPort, ConfigUtil.getInt(stormConf, REDIS_BUFFER_CAPACITY,
+                10000), ConfigUtil.getInt(stormConf, REDIS_BATCH_SIZE, 500), policy);
+        writer.start();
+        LOG.info("Write metrics to redis server " + jedisHost + ":" + jedisPort + ", overflow policy is " + policy);
     }
 
-    /* get a jedis instance, create a one if necessary */
-    private Jedis getJedisInstance() {
-        if (jedis == null) {
-            jedis = new Jedis(jedisHost, jedisPort);
-            LOG.info("connecting to redis server " + jedisHost);
-        }
-        return jedis;
+    public long getQueuedCount() {
+        return writer.getQueuedCount();
     }
 
-    private void closeJedis() {
-        if (jedis != null) {
-            try {
-                LOG.info("disconnecting redis server " + jedisHost);
-                jedis.disconnect();
-            } catch (Exception e) {
-            }
-            jedis = null;
-        }
+    public long getSentCount() {
+        return writer.getSentCount();
+    }
+
+    public long getDroppedCount() {
+        return writer.getDroppedCount();
     }
 
     @Override
@@ -87,20 +99,17 @@ public class RedisMetricsCollector extends FilteredMetricsCollector {
             return;
         }
         // LOG.debug("data size is " + data.size());
-        // push to redis
-        for (QueueElement e : data) {
-            try {
-                getJedisInstance().rpush(e.queueName, e.data);
-            } catch (Exception e1) {
-                LOG.info("push data to redis failed", e1);
-                closeJedis();
-            }
-        }
+        // hand over to the writer, redis is never accessed in the metrics consumer thread
+        data.forEach(writer::add);
     }
 
     protected List<QueueElement> dataPoints2QueueElement(IMetricsConsumer.TaskInfo taskInfo,
                                                          Collection<IMetricsConsumer.DataPoint> dataPoints) {
         Map<String, Object> ret = dataPoints.stream().collect(Collectors.toMap(p -> p.name, p -> p.value));
+        if (binary) {
+            return Arrays.asList(new QueueElement(queueName, MetricsCodec.encode(taskInfo.srcComponentId,
+                    taskInfo.srcTaskId, taskInfo.timestamp, ret)));
+        }
         //data format is "srcComponentId:taskId:timestamp->data point json"
         String data = taskInfo.srcComponentId + ':' + taskInfo.srcTaskId + ':' + taskInfo.timestamp
                 + "->" + object2Json(ret);
@@ -122,6 +131,6 @@ public class RedisMetricsCollector extends FilteredMetricsCollector {
 
     @Override
     public void cleanup() {
-        closeJedis();
+        writer.stop();
     }
 }
\ No newline at end of file
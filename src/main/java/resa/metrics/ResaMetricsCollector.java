@@ -3,9 +3,18 @@ package resa.metrics;
 import backtype.storm.Config;
 import backtype.storm.task.IErrorReporter;
 import backtype.storm.task.TopologyContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import resa.scheduler.TopologyOptimizer;
+import resa.util.ConfigUtil;
+import resa.util.MpscRingBuffer;
+import resa.util.ResaConfig;
 
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -13,8 +22,19 @@ import java.util.stream.Collectors;
  */
 public class ResaMetricsCollector extends FilteredMetricsCollector {
 
-    private int bufferSize = 100;
-    private volatile List<MeasuredData> measureBuffer;
+    private static final Logger LOG = LoggerFactory.getLogger(ResaMetricsCollector.class);
+
+    // metrics reach the store a few seconds after their timestamps
+    private static final long STORE_DELAY_SECS = 5;
+
+    // handed over to optimizer thread (or store writer if store is enabled) without locking, data is dropped if
+    // the consumer falls behind
+    private MpscRingBuffer<MeasuredData> measureBuffer;
+    private long reportedDropped = 0;
+    // optional on-disk store of measured data, optimizer reads from it instead of the buffer, history in it since
+    // the last rebalance is replayed to optimizer on first retrieve
+    private MeasuredDataStore measuredDataStore;
+    private ScheduledExecutorService storeWriter;
     private TopologyOptimizer topologyOptimizer = new TopologyOptimizer();
 
     @Override
@@ -25,30 +45,90 @@ public class ResaMetricsCollector extends FilteredMetricsCollector {
         addApprovedMetirc("__receive", MetricNames.RECV_QUEUE);
         addApprovedMetirc(MetricNames.COMPLETE_LATENCY);
         addApprovedMetirc(MetricNames.TASK_EXECUTE);
+        addApprovedMetirc(MetricNames.COMPLETE_LATENCY_HIST);
+        addApprovedMetirc(MetricNames.TASK_EXECUTE_HIST);
         addApprovedMetirc(MetricNames.EMIT_COUNT);
         addApprovedMetirc(MetricNames.DURATION);
+        addApprovedMetirc(MetricNames.SAMPLE_RATE);
+        addApprovedMetirc(MetricNames.QUEUE_WAIT);
+        addApprovedMetirc(MetricNames.TUPLE_SIZE);
+        addApprovedMetirc(MetricNames.SERIALIZED_SIZE);
+        addApprovedMetirc(MetricNames.LOAD_TIME);
+        addApprovedMetirc(MetricNames.KEY_GROUP_LOAD);
 
-        measureBuffer = new ArrayList<>(bufferSize);
-        topologyOptimizer.init((String) conf.get(Config.TOPOLOGY_NAME), conf, this::getCachedDataAndClearBuffer);
+        measureBuffer = new MpscRingBuffer<>(ConfigUtil.getInt(conf, ResaConfig.METRIC_BUFFER_CAPACITY, 65536));
+        String topologyName = (String) conf.get(Config.TOPOLOGY_NAME);
+        String storeDir = (String) conf.get(ResaConfig.METRIC_STORE_DIR);
+        TopologyOptimizer.MeasuredSource measuredSource = this::getCachedDataAndClearBuffer;
+        if (storeDir != null) {
+            measuredDataStore = new MeasuredDataStore(Paths.get(storeDir, topologyName),
+                    ConfigUtil.getInt(conf, ResaConfig.METRIC_STORE_SEGMENT_BYTES, 4 * 1024 * 1024),
+                    ConfigUtil.getLong(conf, ResaConfig.METRIC_STORE_SEGMENT_SECS, 3600),
+                    ConfigUtil.getLong(conf, ResaConfig.METRIC_STORE_RETENTION_SECS, 7 * 24 * 3600));
+            measuredSource = measuredDataStore.source(currentSecs() - ConfigUtil.getLong(conf,
+                    ResaConfig.METRIC_STORE_WARM_START_SECS, 600), STORE_DELAY_SECS, ResaMetricsCollector::currentSecs);
+            // appending is done by its own thread, so that a slow disk never blocks the metrics consumer
+            storeWriter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "resa-metric-store-" + topologyName);
+                t.setDaemon(true);
+                return t;
+            });
+            storeWriter.scheduleWithFixedDelay(this::writeStore, 1, 1, TimeUnit.SECONDS);
+            topologyOptimizer.setRebalanceListener(time -> measuredDataStore.setBarrier(time / 1000));
+        }
+        topologyOptimizer.init(topologyName, conf, measuredSource);
         topologyOptimizer.start();
     }
 
+    /* storm metric timestamps are in second */
+    private static long currentSecs() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    /* called by store writer thread only */
+    private void writeStore() {
+        List<MeasuredData> data = getCachedDataAndClearBuffer();
+        try {
+            data.forEach(measuredDataStore::append);
+        } catch (Exception e) {
+            LOG.warn("Append measured data to store failed", e);
+        }
+    }
+
+    /* called by the single consumer of buffer only */
     private List<MeasuredData> getCachedDataAndClearBuffer() {
-        List<MeasuredData> ret = measureBuffer;
-        measureBuffer = new ArrayList<>(bufferSize);
+        List<MeasuredData> ret = new ArrayList<>(measureBuffer.size());
+        measureBuffer.drainTo(ret);
+        long dropped = measureBuffer.getDroppedCount();
+        if (dropped > reportedDropped) {
+            LOG.warn((dropped - reportedDropped) + " measured data dropped since last retrieve, buffer capacity is "
+                    + measureBuffer.capacity());
+            reportedDropped = dropped;
+        }
         return ret;
     }
 
     @Override
     protected void handleSelectedDataPoints(TaskInfo taskInfo, Collection<DataPoint> dataPoints) {
         Map<String, Object> ret = dataPoints.stream().collect(Collectors.toMap(p -> p.name, p -> p.value));
+        MeasuredData measuredData = new MeasuredData(taskInfo.srcComponentId, taskInfo.srcTaskId,
+                taskInfo.timestamp, ret);
         //add to cache
-        measureBuffer.add(new MeasuredData(taskInfo.srcComponentId, taskInfo.srcTaskId, taskInfo.timestamp, ret));
+        measureBuffer.offer(measuredData);
     }
 
     @Override
     public void cleanup() {
         super.cleanup();
         topologyOptimizer.stop();
+        if (measuredDataStore != null) {
+            storeWriter.shutdownNow();
+            try {
+                storeWriter.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            measuredDataStore.close();
+        }
     }
 }
@@ -0,0 +1,161 @@
+package resa.metrics;
+
+import backtype.storm.metric.api.IMetric;
+import resa.util.ConfigUtil;
+import resa.util.ResaConfig;
+import resa.util.Sampler;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-stream samplers of a task. Three modes are supported, selected by ResaConfig.COMP_SAMPLE_MODE:
+ * <ul>
+ * <li>fixed: the original counter based sampler</li>
+ * <li>random: randomized sampler with geometric skip</li>
+ * <li>adaptive: randomized sampler whose rate is adjusted at the end of each metrics bucket, so that the measured
+ * overhead stays within ResaConfig.COMP_SAMPLE_CPU_BUDGET of the bucket time, while every stream still gets at
+ * least ResaConfig.COMP_SAMPLE_MIN_COUNT samples</li>
+ * </ul>
+ * This class is registered as a metric, the effective sample rate of each stream is reported with each bucket.
+ * All the methods should be invoked in the executor thread.
+ */
+public class SamplingEngine implements IMetric {
+
+    public static final String MODE_FIXED = "fixed";
+    public static final String MODE_RANDOM = "random";
+    public static final String MODE_ADAPTIVE = "adaptive";
+
+    private final double defaultRate;
+    private final Map<String, Object> streamRates;
+    private final boolean randomized;
+    private final boolean adaptive;
+    private final double cpuBudget;
+    private final int minSamples;
+    private final double maxRate;
+    private String[] keys;
+    private Sampler[] samplers;
+    private int size = 0;
+    private final Map<String, Integer> key2Index = new HashMap<>();
+    // overhead accounting for adaptive mode
+    private long overheadNanos = 0;
+    private long overheadSamples = 0;
+    private double avgCostNanos = -1;
+    private long lastBucket = System.nanoTime();
+
+    public SamplingEngine(Map<String, Object> conf) {
+        this(conf, new String[0]);
+    }
+
+    /**
+     * Create an engine with pre-defined keys, the id of keys[i] is i.
+     */
+    public SamplingEngine(Map<String, Object> conf, String[] keys) {
+        defaultRate = ConfigUtil.getDouble(conf, ResaConfig.COMP_SAMPLE_RATE, 0.05);
+        Object rates = conf.get(ResaConfig.COMP_STREAM_SAMPLE_RATES);
+        streamRates = rates instanceof Map ? (Map<String, Object>) rates : new HashMap<>();
+        String mode = (String) conf.getOrDefault(ResaConfig.COMP_SAMPLE_MODE, MODE_FIXED);
+        adaptive = MODE_ADAPTIVE.equals(mode);
+        randomized = adaptive || MODE_RANDOM.equals(mode);
+        cpuBudget = ConfigUtil.getDouble(conf, ResaConfig.COMP_SAMPLE_CPU_BUDGET, 0.01);
+        minSamples = ConfigUtil.getInt(conf, ResaConfig.COMP_SAMPLE_MIN_COUNT, 30);
+        maxRate = ConfigUtil.getDouble(conf, ResaConfig.COMP_SAMPLE_RATE_MAX, 1.0);
+        int capacity = Math.max(keys.length, 4);
+        this.keys = new String[capacity];
+        this.samplers = new Sampler[capacity];
+        for (String key : keys) {
+            indexOf(key);
+        }
+    }
+
+    /**
+     * Get the id of a key, a new sampler is created if the key does not exist.
+     */
+    public int indexOf(String key) {
+        Integer id = key2Index.get(key);
+        if (id == null) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                samplers = Arrays.copyOf(samplers, size * 2);
+            }
+            keys[size] = key;
+            samplers[size] = new Sampler(ConfigUtil.getDouble(streamRates, key, defaultRate), randomized);
+            key2Index.put(key, (id = size++));
+        }
+        return id;
+    }
+
+    public boolean shouldSample(int id) {
+        return samplers[id].shoudSample();
+    }
+
+    public boolean shouldSample(String key) {
+        return shouldSample(indexOf(key));
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Report the time spent on measuring one sampled event.
+     *
+     * @param nanos
+     */
+    public void addOverhead(long nanos) {
+        overheadNanos += nanos;
+        overheadSamples++;
+    }
+
+    public double getRate(int id) {
+        return samplers[id].getRate();
+    }
+
+    @Override
+    public Object getValueAndReset() {
+        Map<String, Double> ret = new HashMap<>((int) (size / 0.75f) + 1);
+        for (int i = 0; i < size; i++) {
+            if (samplers[i].getCalls() > 0) {
+                ret.put(keys[i], samplers[i].getEffectiveRate());
+            }
+        }
+        long now = System.nanoTime();
+        if (adaptive) {
+            adjustRates(now - lastBucket);
+        }
+        lastBucket = now;
+        for (int i = 0; i < size; i++) {
+            samplers[i].resetStat();
+        }
+        return ret;
+    }
+
+    private void adjustRates(long bucketNanos) {
+        if (overheadSamples > 0) {
+            double cost = (double) overheadNanos / overheadSamples;
+            // smooth the cost estimation
+            avgCostNanos = avgCostNanos < 0 ? cost : avgCostNanos * 0.5 + cost * 0.5;
+        }
+        overheadNanos = 0;
+        overheadSamples = 0;
+        long totalCalls = 0;
+        for (int i = 0; i < size; i++) {
+            totalCalls += samplers[i].getCalls();
+        }
+        if (avgCostNanos <= 0 || totalCalls == 0 || bucketNanos <= 0) {
+            return;
+        }
+        // number of samples that can be afforded in next bucket, assuming a similar workload
+        double allowedSamples = cpuBudget * bucketNanos / avgCostNanos;
+        double targetRate = allowedSamples / totalCalls;
+        for (int i = 0; i < size; i++) {
+            long calls = samplers[i].getCalls();
+            if (calls == 0) {
+                continue;
+            }
+            double minRate = Math.min(1.0, (double) minSamples / calls);
+            samplers[i].setRate(Math.max(minRate, Math.min(maxRate, targetRate)));
+        }
+    }
+}
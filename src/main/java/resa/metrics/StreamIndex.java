@@ -0,0 +1,58 @@
+package resa.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A dense index of (component, stream) pairs. Ids are assigned sequentially from 0, so they can be used
+ * to address primitive arrays directly. Looking up an existing pair never allocates.
+ * <p>
+ * This class is not thread-safe.
+ */
+class StreamIndex {
+
+    private final Map<String, Map<String, Integer>> comp2Streams = new HashMap<>();
+    private final List<String> keys = new ArrayList<>();
+
+    /**
+     * @return id of the pair, or -1 if the pair is not indexed
+     */
+    public int get(String component, String stream) {
+        Map<String, Integer> streams = comp2Streams.get(component);
+        if (streams != null) {
+            Integer id = streams.get(stream);
+            if (id != null) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    public int getOrAdd(String component, String stream) {
+        int id = get(component, stream);
+        if (id < 0) {
+            id = keys.size();
+            comp2Streams.computeIfAbsent(component, k -> new HashMap<>()).put(stream, id);
+            keys.add(toKey(component, stream));
+        }
+        return id;
+    }
+
+    public String getKey(int id) {
+        return keys.get(id);
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public String[] keys() {
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    public static String toKey(String component, String stream) {
+        return component + ":" + stream;
+    }
+}
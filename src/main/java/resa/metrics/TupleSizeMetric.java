@@ -0,0 +1,55 @@
+package resa.metrics;
+
+import backtype.storm.serialization.SerializationFactory;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serialized size of emitted tuples in byte, for each output stream. Tuples are serialized with the kryo
+ * instance configured for the topology, into an output buffer that is reused between calls, so the result
+ * approximates the bytes a tuple takes on the wire. Only sampled tuples should be measured.
+ * <p>
+ * Tuples sent inside a worker are never serialized by storm, so they may hold values kryo cannot write. Such
+ * tuples are skipped, measuring never fails the emit.
+ */
+public class TupleSizeMetric extends CMVMetric {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TupleSizeMetric.class);
+    private static final long WARN_INTERVAL_MS = 60000;
+
+    private final Kryo kryo;
+    private final Output output = new Output(4096, -1);
+    private long lastWarnTime = 0;
+    private int failedSinceWarn = 0;
+
+    public TupleSizeMetric(Map conf, boolean typed) {
+        super(new String[0], typed);
+        kryo = SerializationFactory.getKryo(conf);
+    }
+
+    public void measure(String stream, List<Object> tuple) {
+        output.clear();
+        try {
+            for (Object value : tuple) {
+                kryo.writeClassAndObject(output, value);
+            }
+        } catch (Exception e) {
+            kryo.reset();
+            failedSinceWarn++;
+            long now = System.currentTimeMillis();
+            if (now - lastWarnTime >= WARN_INTERVAL_MS) {
+                LOG.warn(failedSinceWarn + " tuples of stream " + stream + " are not measured since last warn", e);
+                lastWarnTime = now;
+                failedSinceWarn = 0;
+            }
+            return;
+        }
+        addMetric(stream, output.position());
+    }
+
+}
@@ -61,6 +61,8 @@ public class WritableBolt extends DelegatedBolt {
     private transient ExecutorService threadPool;
     private int myTaskId;
     private String taskZkNode;
+    // reported only once after data is loaded
+    private transient Long loadCost;
 
     public WritableBolt(IRichBolt delegate) {
         super(delegate);
@@ -95,6 +97,14 @@ public class WritableBolt extends DelegatedBolt {
         LOG.info("Task-{} Load data cost {}ms", context.getThisTaskId(), cost);
         this.threadPool = context.getSharedExecutor();
         threadPool.submit(() -> writeTimeToRedis(context, cost));
+        if (!dataRef.isEmpty()) {
+            loadCost = cost;
+            context.registerMetric(MetricNames.LOAD_TIME, () -> {
+                Long ret = loadCost;
+                loadCost = null;
+                return ret;
+            }, ConfigUtil.getInt(conf, Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS, 60));
+        }
         int checkpointInt = ConfigUtil.getInt(conf, "resa.comp.checkpoint.interval.sec", 180);
         if (checkpointInt > 0) {
             context.registerMetric(MetricNames.SERIALIZED_SIZE, () -> createCheckpointAndGetSize(context),
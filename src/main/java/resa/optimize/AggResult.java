@@ -1,5 +1,7 @@
 package resa.optimize;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -7,9 +9,12 @@ import java.util.Objects;
  */
 public class AggResult implements Cloneable {
 
-    protected long duration = 0;
+    ///unit is millisecond, kept as double so that decayed durations are not truncated
+    protected double duration = 0;
     protected QueueAggResult sendQueueResult = new QueueAggResult();
     protected QueueAggResult recvQueueResult = new QueueAggResult();
+    ///serialized size of sampled output tuples of each stream, unit is byte
+    protected Map<String, CntMeanVar> tupleSize = new HashMap<>();
 
     public static <T extends AggResult> T getCombinedResult(T dest, Iterable<AggResult> his) {
         his.forEach(dest::add);
@@ -21,6 +26,20 @@ public class AggResult implements Cloneable {
         this.duration += r.duration;
         this.sendQueueResult.add(r.sendQueueResult);
         this.recvQueueResult.add(r.recvQueueResult);
+        r.tupleSize.forEach((s, cntMeanVar) ->
+                this.tupleSize.computeIfAbsent(s, (k) -> new CntMeanVar()).addCMV(cntMeanVar));
+    }
+
+    /**
+     * Scale the weight of everything aggregated so far by factor, used to age old data exponentially.
+     *
+     * @param factor in range [0, 1]
+     */
+    public void decay(double factor) {
+        this.duration *= factor;
+        this.sendQueueResult.decay(factor);
+        this.recvQueueResult.decay(factor);
+        this.tupleSize.values().forEach(cmv -> cmv.decay(factor));
     }
 
     public void setDuration(long duration) {
@@ -31,16 +50,16 @@ public class AggResult implements Cloneable {
         this.duration += duration;
     }
 
-    public long getDuration(){
+    public double getDuration(){
         return this.duration;
     }
 
     public double getArrivalRatePerSec() {
-        return recvQueueResult.getArrivalCount() * 1000.0 / (double) duration;
+        return recvQueueResult.getArrivalCount() * 1000.0 / duration;
     }
 
     public double getDepartureRatePerSec(){
-        return sendQueueResult.getArrivalCount() * 1000.0 / (double) duration;
+        return sendQueueResult.getArrivalCount() * 1000.0 / duration;
     }
 
     public QueueAggResult getSendQueueResult() {
@@ -50,4 +69,21 @@ public class AggResult implements Cloneable {
     public QueueAggResult getRecvQueueResult() {
         return recvQueueResult;
     }
+
+    public Map<String, CntMeanVar> getTupleSize() {
+        return tupleSize;
+    }
+
+    public CntMeanVar getCombinedTupleSize() {
+        CntMeanVar retVal = new CntMeanVar();
+        tupleSize.values().stream().forEach(retVal::addCMV);
+        return retVal;
+    }
+
+    /**
+     * @return average serialized size of output tuples of all streams, unit is byte
+     */
+    public double getAvgTupleSize() {
+        return getCombinedTupleSize().getAvg();
+    }
 }
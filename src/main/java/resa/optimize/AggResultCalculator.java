@@ -4,8 +4,12 @@ import backtype.storm.generated.StormTopology;
 import backtype.storm.scheduler.ExecutorDetails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import resa.metrics.CMVMetric;
+import resa.metrics.HistogramMetric;
+import resa.metrics.KeyGroupLoadMetric;
 import resa.metrics.MeasuredData;
 import resa.metrics.MetricNames;
+import resa.util.LogHistogram;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -56,6 +60,17 @@ public class AggResultCalculator {
     }
 
     private AggResult parse(MeasuredData measuredData, AggResult dest) {
+        return parse(measuredData, dest, rawTopo.get_spouts().containsKey(measuredData.component),
+                firstTasks.contains(measuredData.task));
+    }
+
+    /**
+     * Fold one measured data into dest.
+     *
+     * @param isSpout   whether the data is reported by a spout
+     * @param firstTask whether the data is reported by the first task of an executor, only their durations count
+     */
+    static AggResult parse(MeasuredData measuredData, AggResult dest, boolean isSpout, boolean firstTask) {
         // parse send queue and recv queue first
         measuredData.data.computeIfPresent(MetricNames.SEND_QUEUE, (comp, data) -> {
             parseQueueResult((Map<String, Number>) data, dest.getSendQueueResult());
@@ -65,45 +80,90 @@ public class AggResultCalculator {
             parseQueueResult((Map<String, Number>) data, dest.getRecvQueueResult());
             return data;
         });
-        if (firstTasks.contains(measuredData.task)) {
+        parseCMVResult((Map<String, Object>) measuredData.data.get(MetricNames.TUPLE_SIZE), dest.getTupleSize());
+        if (firstTask) {
             measuredData.data.computeIfPresent(MetricNames.DURATION, (comp, data) -> {
                 dest.addDuration(((Number) data).longValue());
                 return data;
             });
         }
-        if (rawTopo.get_spouts().containsKey(measuredData.component)) {
+        Map<String, Object> sampleRates = (Map<String, Object>) measuredData.data.get(MetricNames.SAMPLE_RATE);
+        if (isSpout) {
             Map<String, Object> data = (Map<String, Object>) measuredData.data.get(MetricNames.COMPLETE_LATENCY);
             if (data != null) {
-                data.forEach((stream, elementStr) -> {
-                    String[] elements = ((String) elementStr).split(",");
-                    int cnt = Integer.valueOf(elements[0]);
+                data.forEach((stream, element) -> {
+                    double[] elements = CMVMetric.parse(element);
+                    int cnt = (int) elements[0];
                     if (cnt > 0) {
-                        double val = Double.valueOf(elements[1]);
-                        double val_2 = Double.valueOf(elements[2]);
+                        double val = elements[1];
+                        double val_2 = elements[2];
                         ((SpoutAggResult) dest).getCompletedLatency().computeIfAbsent(stream, (k) -> new CntMeanVar())
                                 .addAggWin(cnt, val, val_2);
+                        Object rate = sampleRates == null ? null : sampleRates.get(stream);
+                        ((SpoutAggResult) dest).addCompletedCount(cnt, rate == null ? -1 : ((Number) rate).doubleValue());
                     }
                 });
             }
+            parseHistResult((Map<String, Object>) measuredData.data.get(MetricNames.COMPLETE_LATENCY_HIST),
+                    ((SpoutAggResult) dest).getCompletedLatencyHist());
         } else {
             Map<String, Object> data = (Map<String, Object>) measuredData.data.get(MetricNames.TASK_EXECUTE);
+            parseCMVResult(data, ((BoltAggResult) dest).getTupleProcess());
             if (data != null) {
-                data.forEach((stream, elementStr) -> {
-                    String[] elements = ((String) elementStr).split(",");
-                    int cnt = Integer.valueOf(elements[0]);
+                data.forEach((stream, element) -> {
+                    int cnt = (int) CMVMetric.parse(element)[0];
                     if (cnt > 0) {
-                        double val = Double.valueOf(elements[1]);
-                        double val_2 = Double.valueOf(elements[2]);
-                        ((BoltAggResult) dest).getTupleProcess().computeIfAbsent(stream, (k) -> new CntMeanVar())
-                                .addAggWin(cnt, val, val_2);
+                        Object rate = sampleRates == null ? null : sampleRates.get(stream);
+                        ((BoltAggResult) dest).addProcessedCount(stream, cnt,
+                                rate == null ? -1 : ((Number) rate).doubleValue());
                     }
                 });
             }
+            parseHistResult((Map<String, Object>) measuredData.data.get(MetricNames.TASK_EXECUTE_HIST),
+                    ((BoltAggResult) dest).getTupleProcessHist());
+            parseCMVResult((Map<String, Object>) measuredData.data.get(MetricNames.QUEUE_WAIT),
+                    ((BoltAggResult) dest).getQueueWait());
+            // -1 is reported if the task has no state
+            Number stateSize = (Number) measuredData.data.get(MetricNames.SERIALIZED_SIZE);
+            if (stateSize != null && stateSize.longValue() >= 0) {
+                ((BoltAggResult) dest).getStateSize().put(measuredData.task, stateSize.longValue());
+            }
+            Object keyGroupLoad = measuredData.data.get(MetricNames.KEY_GROUP_LOAD);
+            if (keyGroupLoad != null) {
+                ((BoltAggResult) dest).addKeyGroupLoad(KeyGroupLoadMetric.parse(keyGroupLoad));
+            }
+            Number loadTime = (Number) measuredData.data.get(MetricNames.LOAD_TIME);
+            if (loadTime != null) {
+                ((BoltAggResult) dest).getReloadTime().addOneNumber(loadTime.doubleValue());
+            }
         }
         return dest;
     }
 
-    private void parseQueueResult(Map<String, Number> queueMetrics, QueueAggResult queueResult) {
+    private static void parseCMVResult(Map<String, Object> cmvMetrics, Map<String, CntMeanVar> cmvResult) {
+        if (cmvMetrics != null) {
+            cmvMetrics.forEach((stream, element) -> {
+                double[] elements = CMVMetric.parse(element);
+                int cnt = (int) elements[0];
+                if (cnt > 0) {
+                    cmvResult.computeIfAbsent(stream, (k) -> new CntMeanVar()).addAggWin(cnt, elements[1],
+                            elements[2]);
+                }
+            });
+        }
+    }
+
+    private static void parseHistResult(Map<String, Object> histMetrics, Map<String, LogHistogram> histResult) {
+        if (histMetrics != null) {
+            histMetrics.forEach((stream, value) -> {
+                // the target keeps the precision reported by the task
+                LogHistogram hist = HistogramMetric.parse(value);
+                histResult.computeIfAbsent(stream, (k) -> hist.emptyCopy()).merge(hist);
+            });
+        }
+    }
+
+    private static void parseQueueResult(Map<String, Number> queueMetrics, QueueAggResult queueResult) {
         long totalArrivalCnt = queueMetrics.getOrDefault("totalCount", Integer.valueOf(0)).longValue();
         if (totalArrivalCnt > 0) {
             int sampleCnt = queueMetrics.getOrDefault("sampleCount", Integer.valueOf(0)).intValue();
@@ -7,6 +7,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
+import java.util.function.Supplier;
 
 /**
  * Created by ding on 14-4-30.
@@ -21,6 +22,13 @@ class AggregatedData {
     private StormTopology rawTopology;
     private int historySize;
     public final Map<String, Queue<AggResult>> compHistoryResults = new HashMap<>();
+    ///arrival rate history summarized by forecasters, it is kept when the history results are cleared
+    private Supplier<Forecaster> forecasterFactory;
+    private final Map<String, Forecaster> compForecasters = new HashMap<>();
+
+    public void enableForecast(Supplier<Forecaster> forecasterFactory) {
+        this.forecasterFactory = forecasterFactory;
+    }
 
     public void putResult(String comp, AggResult[] exeAggResult) {
         AggResult aggResult = rawTopology.get_spouts().containsKey(comp) ? new SpoutAggResult() : new BoltAggResult();
@@ -28,6 +36,33 @@ class AggregatedData {
         compHistoryResults.computeIfAbsent(comp, (k) -> new FixedSizeQueue(historySize)).add(aggResult);
     }
 
+    /**
+     * Record the arrival rate of a component in this round, ignored if forecast is not enabled.
+     *
+     * @param numExecutors the per executor arrival rate is scaled by it
+     */
+    public void putArrivalRate(String comp, AggResult[] exeAggResult, int numExecutors) {
+        if (forecasterFactory == null) {
+            return;
+        }
+        AggResult aggResult = AggResult.getCombinedResult(new AggResult(), Arrays.asList(exeAggResult));
+        double rate = aggResult.getArrivalRatePerSec() * numExecutors;
+        // no data in this round
+        if (!Double.isNaN(rate) && !Double.isInfinite(rate)) {
+            compForecasters.computeIfAbsent(comp, k -> forecasterFactory.get()).observe(rate);
+        }
+    }
+
+    /**
+     * @param steps number of rounds to look ahead
+     * @return currRate if the rate of this component can not be forecast
+     */
+    public double getPredictedArrivalRate(String comp, double steps, double currRate) {
+        Forecaster forecaster = compForecasters.get(comp);
+        double rate = forecaster == null ? Double.NaN : forecaster.forecast(steps);
+        return Double.isNaN(rate) ? currRate : Math.max(rate, 0.0);
+    }
+
     public void clear() {
         compHistoryResults.clear();
     }
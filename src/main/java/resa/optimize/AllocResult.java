@@ -7,10 +7,6 @@ import java.util.Map;
  */
 public class AllocResult {
 
-    //TODO: add expected QoS for both minReqOptAllocation and currOptAllocation
-    //so that for later programme to optimize the rebalance behavior
-    // (e.g. consider expected rebalance gain vs. cost)
-
     public static enum Status {
         INFEASIBLE, FEASIBALE
     }
@@ -18,6 +14,12 @@ public class AllocResult {
     public final Status status;
     public final Map<String, Integer> minReqOptAllocation;
     public final Map<String, Integer> currOptAllocation;
+    ///estimated latency(ms) of the optimized allocation given curveBase, curveBase + 1, ... bolt executors
+    private int curveBase;
+    private double[] latencyCurve;
+    ///predicted latency(ms) of current allocation and currOptAllocation, NaN if unknown
+    private double currLatency = Double.NaN;
+    private double optLatency = Double.NaN;
 
     public AllocResult(Status status, Map<String, Integer> minReqOptAllocation,
                        Map<String, Integer> currOptAllocation) {
@@ -30,4 +32,55 @@ public class AllocResult {
         this(status, null, currOptAllocation);
     }
 
+    /**
+     * @return a new result with the same status and predictions but different allocations
+     */
+    public AllocResult withAllocations(Map<String, Integer> minReqOptAllocation,
+                                       Map<String, Integer> currOptAllocation) {
+        return new AllocResult(status, minReqOptAllocation, currOptAllocation).setLatencyCurve(curveBase,
+                latencyCurve).setPredictedLatency(currLatency, optLatency);
+    }
+
+    public AllocResult setPredictedLatency(double currLatency, double optLatency) {
+        this.currLatency = currLatency;
+        this.optLatency = optLatency;
+        return this;
+    }
+
+    /**
+     * @return predicted latency of current allocation in millisecond, Double.MAX_VALUE if it is unstable
+     */
+    public double getCurrLatency() {
+        return currLatency;
+    }
+
+    /**
+     * @return predicted latency of currOptAllocation in millisecond, Double.MAX_VALUE if it is unstable
+     */
+    public double getOptLatency() {
+        return optLatency;
+    }
+
+    public AllocResult setLatencyCurve(int curveBase, double[] latencyCurve) {
+        this.curveBase = curveBase;
+        this.latencyCurve = latencyCurve;
+        return this;
+    }
+
+    /**
+     * @return number of bolt executors corresponding to the first point of latency curve
+     */
+    public int getCurveBase() {
+        return curveBase;
+    }
+
+    /**
+     * The difference of two adjacent points is the marginal latency gain of one more executor.
+     *
+     * @return null if calculator does not provide it
+     */
+    public double[] getLatencyCurve() {
+        return latencyCurve;
+    }
+
 }
@@ -1,5 +1,7 @@
 package resa.optimize;
 
+import resa.util.LogHistogram;
+
 import java.util.HashMap;
 import java.util.Map;
 
@@ -9,21 +11,142 @@ import java.util.Map;
 public class BoltAggResult extends AggResult {
 
     private Map<String, CntMeanVar> tupleProcess = new HashMap<>();
+    ///sampled execute count of each input stream scaled by the inverse of its sample rate
+    private Map<String, Double> estProcessedCount = new HashMap<>();
+    ///histogram of tuple execute time, unit is microsecond
+    private Map<String, LogHistogram> tupleProcessHist = new HashMap<>();
+    ///measured time between upstream emit and execute start, unit is millisecond
+    private Map<String, CntMeanVar> queueWait = new HashMap<>();
+    ///latest checkpoint size of each task, unit is byte
+    private Map<Integer, Long> stateSize = new HashMap<>();
+    ///time of loading state when a task starts, unit is millisecond
+    private CntMeanVar reloadTime = new CntMeanVar();
+    ///estimated execute time of each key group if inputs are routed by KeyGroupGrouping, unit is millisecond
+    private double[] keyGroupLoad;
 
     public Map<String, CntMeanVar> getTupleProcess() {
         return tupleProcess;
     }
 
+    /**
+     * @param sampledCnt number of sampled tuples of the input stream in a bucket
+     * @param sampleRate the effective sample rate of the stream in the bucket, non-positive if it is unknown, in
+     *                   which case the sampled count is taken as it is, as all the streams share the configured
+     *                   rate then
+     */
+    public void addProcessedCount(String stream, long sampledCnt, double sampleRate) {
+        estProcessedCount.merge(stream, sampleRate > 0 ? sampledCnt / sampleRate : sampledCnt, Double::sum);
+    }
+
+    /**
+     * @return estimated number of executed tuples of each input stream, keyed by "component:stream"
+     */
+    public Map<String, Double> getEstimatedProcessedCount() {
+        return estProcessedCount;
+    }
+
+    public Map<String, LogHistogram> getTupleProcessHist() {
+        return tupleProcessHist;
+    }
+
+    public Map<String, CntMeanVar> getQueueWait() {
+        return queueWait;
+    }
+
+    public Map<Integer, Long> getStateSize() {
+        return stateSize;
+    }
+
+    /**
+     * @return sum of the latest checkpoint size of all the tasks reported state, unit is byte
+     */
+    public long getTotalStateSize() {
+        return stateSize.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public CntMeanVar getReloadTime() {
+        return reloadTime;
+    }
+
+    /**
+     * @return average time of loading state, unit is millisecond, -1 if no task reported it
+     */
+    public double getAvgReloadTime() {
+        return reloadTime.getCount() == 0 ? -1 : reloadTime.getAvg();
+    }
+
+    /**
+     * @return null if no key group is measured
+     */
+    public double[] getKeyGroupLoad() {
+        return keyGroupLoad;
+    }
+
+    public void addKeyGroupLoad(double[] load) {
+        if (keyGroupLoad == null || keyGroupLoad.length != load.length) {
+            // number of key groups is changed, the added one is assumed to be newer
+            keyGroupLoad = load.clone();
+        } else {
+            for (int i = 0; i < load.length; i++) {
+                keyGroupLoad[i] += load[i];
+            }
+        }
+    }
+
+    public CntMeanVar getCombinedQueueWait() {
+        CntMeanVar retVal = new CntMeanVar();
+        queueWait.values().stream().forEach(retVal::addCMV);
+        return retVal;
+    }
+
     public CntMeanVar getCombinedProcessedResult() {
         CntMeanVar retVal = new CntMeanVar();
         tupleProcess.values().stream().forEach(retVal::addCMV);
         return retVal;
     }
 
+    public LogHistogram getCombinedProcessedHist() {
+        return LogHistogram.mergeAll(tupleProcessHist.values());
+    }
+
+    /**
+     * @param percentile in range (0, 100]
+     * @return the execute time at the given percentile of all input streams, unit is millisecond
+     */
+    public double getProcessedPercentile(double percentile) {
+        return getCombinedProcessedHist().getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    @Override
+    public void decay(double factor) {
+        super.decay(factor);
+        tupleProcess.values().forEach(cmv -> cmv.decay(factor));
+        estProcessedCount.replaceAll((s, cnt) -> cnt * factor);
+        tupleProcessHist.values().forEach(hist -> hist.scale(factor));
+        queueWait.values().forEach(cmv -> cmv.decay(factor));
+        if (keyGroupLoad != null) {
+            for (int i = 0; i < keyGroupLoad.length; i++) {
+                keyGroupLoad[i] *= factor;
+            }
+        }
+        // reload time is reported only once after rebalance, state size is the latest value, neither is aged
+    }
+
     @Override
     public void add(AggResult r) {
         super.add(r);
         ((BoltAggResult) r).tupleProcess.forEach((s, cntMeanVar) ->
                 this.tupleProcess.computeIfAbsent(s, (k) -> new CntMeanVar()).addCMV(cntMeanVar));
+        ((BoltAggResult) r).estProcessedCount.forEach((s, cnt) -> this.estProcessedCount.merge(s, cnt, Double::sum));
+        ((BoltAggResult) r).tupleProcessHist.forEach((s, hist) ->
+                this.tupleProcessHist.computeIfAbsent(s, (k) -> hist.emptyCopy()).merge(hist));
+        ((BoltAggResult) r).queueWait.forEach((s, cntMeanVar) ->
+                this.queueWait.computeIfAbsent(s, (k) -> new CntMeanVar()).addCMV(cntMeanVar));
+        // the added result is assumed to be newer
+        this.stateSize.putAll(((BoltAggResult) r).stateSize);
+        this.reloadTime.addCMV(((BoltAggResult) r).reloadTime);
+        if (((BoltAggResult) r).keyGroupLoad != null) {
+            addKeyGroupLoad(((BoltAggResult) r).keyGroupLoad);
+        }
     }
 }
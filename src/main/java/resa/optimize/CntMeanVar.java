@@ -6,7 +6,8 @@ import java.util.Objects;
  * Created by Tom.fu on 16/4/2014.
  */
 public class CntMeanVar {
-    private long count = 0;
+    ///kept as double, so that decayed counts are not truncated
+    private double count = 0;
     private double sum = 0;
     private double squareSum = 0;
 
@@ -32,13 +33,20 @@ public class CntMeanVar {
         squareSum += cmv.squareSum;
     }
 
+    ///Scale the weight of values by factor, mean and variance are kept
+    void decay(double factor) {
+        count *= factor;
+        sum *= factor;
+        squareSum *= factor;
+    }
+
     void clear() {
         count = 0;
         sum = 0;
         squareSum = 0;
     }
 
-    long getCount() {
+    double getCount() {
         return count;
     }
 
@@ -47,11 +55,11 @@ public class CntMeanVar {
     }
 
     double getAvg() {
-        return count == 0 ? 0.0 : sum / (double) count;
+        return count == 0 ? 0.0 : sum / count;
     }
 
     double getAvg2() {
-        return count == 0 ? 0.0 : squareSum / (double) count;
+        return count == 0 ? 0.0 : squareSum / count;
     }
 
     double getVar() {
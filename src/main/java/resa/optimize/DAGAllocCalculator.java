@@ -0,0 +1,120 @@
+package resa.optimize;
+
+import backtype.storm.generated.StormTopology;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import resa.util.ConfigUtil;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Allocation calculator for topologies with several spouts and paths, see DAGServiceModel.
+ * The objective is selected by "resa.opt.dag.objective", critical_path (default) or weighted_sum.
+ * Bolts are modeled by createServiceNode, the same as SimpleGeneralAllocCalculator.
+ */
+public class DAGAllocCalculator extends SimpleGeneralAllocCalculator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DAGAllocCalculator.class);
+    private DAGServiceModel.Objective objective;
+
+    @Override
+    public void init(Map<String, Object> conf, Map<String, Integer> currAllocation, StormTopology rawTopology) {
+        super.init(conf, currAllocation, rawTopology);
+        objective = DAGServiceModel.Objective.valueOf(((String) conf.getOrDefault("resa.opt.dag.objective",
+                "critical_path")).toUpperCase());
+    }
+
+    @Override
+    public AllocResult calc(Map<String, AggResult[]> executorAggResults, int maxAvailableExecutors) {
+        if (!putResults(executorAggResults)) {
+            return null;
+        }
+        double targetQoSMs = ConfigUtil.getDouble(conf, "resa.opt.smd.qos.ms", 5000.0);
+
+        Map<String, Double> spoutRates = new HashMap<>();
+        Map<String, Double> spoutLatencies = new HashMap<>();
+        spoutAregatedData.compHistoryResults.forEach((comp, results) -> {
+            SpoutAggResult hisCar = AggResult.getCombinedResult(new SpoutAggResult(), results);
+            double tupleEmitRate = getSpoutEmitRate(hisCar, currAllocation.get(comp));
+            spoutRates.put(comp, tupleEmitRate);
+            spoutLatencies.put(comp, hisCar.getCombinedCompletedLatency().getAvg());
+            LOG.info("spout: " + comp + ", tupleEmitRate: " + tupleEmitRate + ", avgComplete(ms): "
+                    + spoutLatencies.get(comp));
+        });
+
+        // tuples leaving all the spouts, the input to output ratio of a bolt is relative to it
+        double totalEmitRate = spoutRates.values().stream().mapToDouble(Double::doubleValue).sum();
+        Map<String, ServiceNode> queueingNetwork = new HashMap<>();
+        Map<String, Map<String, Double>> edgeShares = new HashMap<>();
+        boltAregatedData.compHistoryResults.forEach((comp, results) -> {
+            BoltAggResult hisCar = AggResult.getCombinedResult(new BoltAggResult(), results);
+            CntMeanVar hisCarCombined = hisCar.getCombinedProcessedResult();
+            double lambdaHis = hisCar.getArrivalRatePerSec() * currAllocation.get(comp);
+            double muHis = 1000.0 / hisCarCombined.getAvg();
+            LOG.info("bolt: " + comp + ", lambdaHis: " + lambdaHis + ", muHis: " + muHis + ", rhoHis: "
+                    + lambdaHis / muHis);
+            queueingNetwork.put(comp, createServiceNode(comp, hisCar, lambdaHis, muHis, lambdaHis / totalEmitRate));
+            edgeShares.put(comp, getEdgeShares(hisCar));
+        });
+
+        DAGServiceModel model = new DAGServiceModel(rawTopology, queueingNetwork, spoutRates, edgeShares,
+                objective);
+        double realLatencyMs = getRealLatency(model, spoutLatencies);
+        int maxThreadAvailable4Bolt = maxAvailableExecutors - currAllocation.entrySet().stream()
+                .filter(e -> rawTopology.get_spouts().containsKey(e.getKey()))
+                .mapToInt(Map.Entry::getValue).sum();
+        Map<String, Integer> boltAllocation = currAllocation.entrySet().stream()
+                .filter(e -> rawTopology.get_bolts().containsKey(e.getKey()))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        AllocResult allocResult = model.checkOptimized(realLatencyMs, targetQoSMs, boltAllocation,
+                maxThreadAvailable4Bolt, withLatencyCurve);
+        Map<String, Integer> retCurrAllocation = new HashMap<>(currAllocation);
+        // merge the optimized decision into source allocation
+        if (allocResult.currOptAllocation != null) {
+            retCurrAllocation.putAll(allocResult.currOptAllocation);
+        }
+        LOG.info(currAllocation + "-->" + retCurrAllocation);
+        LOG.info("minReq: " + allocResult.minReqOptAllocation + ", status: " + allocResult.status);
+        Map<String, Integer> retMinReqAllocation = null;
+        if (allocResult.minReqOptAllocation != null) {
+            retMinReqAllocation = new HashMap<>(currAllocation);
+            retMinReqAllocation.putAll(allocResult.minReqOptAllocation);
+        }
+        return allocResult.withAllocations(retMinReqAllocation, retCurrAllocation);
+    }
+
+    /* measured latency that corresponds to the objective, the slowest spout or the traffic weighted average */
+    private double getRealLatency(DAGServiceModel model, Map<String, Double> spoutLatencies) {
+        if (objective == DAGServiceModel.Objective.CRITICAL_PATH) {
+            return spoutLatencies.values().stream().mapToDouble(Double::doubleValue).max().orElse(0.0);
+        }
+        Map<String, Double> spoutWeights = new HashMap<>();
+        model.getPaths().forEach(p -> spoutWeights.merge(p.spout, p.getWeight(), Double::sum));
+        return spoutWeights.entrySet().stream()
+                .mapToDouble(e -> e.getValue() * spoutLatencies.getOrDefault(e.getKey(), 0.0)).sum();
+    }
+
+    /**
+     * Share of processed tuples from each upstream component. The execute counts of input streams, keyed by
+     * "component:stream", are scaled by the inverse of their sample rates, system streams are not counted.
+     */
+    private static Map<String, Double> getEdgeShares(BoltAggResult hisCar) {
+        Map<String, Double> counts = new HashMap<>();
+        hisCar.getEstimatedProcessedCount().forEach((key, cnt) -> {
+            int idx = key.lastIndexOf(':');
+            String comp = idx < 0 ? key : key.substring(0, idx);
+            if (!comp.startsWith("__") && !key.substring(idx + 1).startsWith("__")) {
+                counts.merge(comp, cnt, Double::sum);
+            }
+        });
+        double total = counts.values().stream().mapToDouble(Double::doubleValue).sum();
+        if (total == 0) {
+            // nothing measured, let the model treat upstream components equally
+            return null;
+        }
+        counts.replaceAll((k, v) -> v / total);
+        return counts;
+    }
+}
@@ -0,0 +1,368 @@
+package resa.optimize;
+
+import backtype.storm.generated.Bolt;
+import backtype.storm.generated.StormTopology;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Queueing network model of a topology DAG with any number of spouts. Every path from a spout to a sink is a
+ * sequence of bolts, and a tuple following a path stays in each bolt for the sojourn time of that bolt.
+ * The model either minimizes the sojourn time of the critical (slowest) path, or the sum of path sojourn times
+ * weighted by the traffic going through each path.
+ * <p>
+ * Traffic of a path is the emit rate of its spout multiplied by the gain g(p, c) = lambda(c) * share(c, p) /
+ * lambda(p) of every edge, where share(c, p) is the fraction of arrivals of bolt c that come from p.
+ * Caution, all the times are in second.
+ */
+public class DAGServiceModel {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DAGServiceModel.class);
+
+    public enum Objective {
+        CRITICAL_PATH, WEIGHTED_SUM
+    }
+
+    public static final int MAX_PATHS = 10000;
+
+    public static class Path {
+        public final String spout;
+        public final List<String> bolts;
+        private double weight;
+
+        Path(String spout, List<String> bolts) {
+            this.spout = spout;
+            this.bolts = bolts;
+        }
+
+        public double getWeight() {
+            return weight;
+        }
+
+        @Override
+        public String toString() {
+            return spout + "->" + String.join("->", bolts);
+        }
+    }
+
+    private final Map<String, ServiceNode> components;
+    private final List<Path> paths;
+    private final Objective objective;
+    ///sum of weights of the paths going through each bolt
+    private final Map<String, Double> boltWeights = new HashMap<>();
+
+    /**
+     * @param topology
+     * @param components service nodes of bolts
+     * @param spoutRates emit rate of each spout
+     * @param edgeShares for each bolt, share of arrivals from each upstream component. Shares are treated as
+     *                   uniform among upstream components for the bolts not in this map
+     * @param objective
+     */
+    public DAGServiceModel(StormTopology topology, Map<String, ServiceNode> components,
+                           Map<String, Double> spoutRates, Map<String, Map<String, Double>> edgeShares,
+                           Objective objective) {
+        this.components = components;
+        this.objective = objective;
+        this.paths = enumeratePaths(topology, components.keySet());
+        Map<String, Set<String>> parents = getParents(topology, components.keySet());
+        double totalTraffic = 0.0;
+        for (Path path : paths) {
+            double traffic = spoutRates.getOrDefault(path.spout, 0.0);
+            String prev = path.spout;
+            double prevRate = traffic;
+            for (String bolt : path.bolts) {
+                Map<String, Double> shares = edgeShares.get(bolt);
+                double share = shares == null ? 1.0 / parents.get(bolt).size() : shares.getOrDefault(prev, 0.0);
+                double lambda = components.get(bolt).getLambda();
+                traffic *= prevRate > 0 ? lambda * share / prevRate : 0.0;
+                prev = bolt;
+                prevRate = lambda;
+            }
+            path.weight = traffic;
+            totalTraffic += traffic;
+        }
+        for (Path path : paths) {
+            // fall back to equal weights if no traffic is measured
+            path.weight = totalTraffic > 0 ? path.weight / totalTraffic : 1.0 / paths.size();
+            path.bolts.forEach(bolt -> boltWeights.merge(bolt, path.weight, Double::sum));
+        }
+        LOG.info("paths: " + paths.stream().map(p -> p + String.format("(%.3f)", p.weight))
+                .collect(Collectors.joining(", ")));
+    }
+
+    private static Map<String, Set<String>> getParents(StormTopology topology, Set<String> bolts) {
+        Map<String, Set<String>> parents = new HashMap<>();
+        for (Map.Entry<String, Bolt> e : topology.get_bolts().entrySet()) {
+            if (bolts.contains(e.getKey())) {
+                parents.put(e.getKey(), e.getValue().get_common().get_inputs().keySet().stream()
+                        .map(s -> s.get_componentId()).filter(c -> topology.get_spouts().containsKey(c)
+                                || bolts.contains(c)).collect(Collectors.toSet()));
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * Enumerate all the paths from a spout to a sink, bolts not in the given set are skipped. A component is
+     * never visited twice in one path, so that cycles are cut.
+     */
+    public static List<Path> enumeratePaths(StormTopology topology, Set<String> bolts) {
+        Map<String, List<String>> children = new HashMap<>();
+        // sorted, so that paths are enumerated in a stable order
+        new TreeMap<>(getParents(topology, bolts)).forEach((bolt, ps) -> ps.forEach(p ->
+                children.computeIfAbsent(p, k -> new ArrayList<>()).add(bolt)));
+        List<Path> paths = new ArrayList<>();
+        for (String spout : new TreeSet<>(topology.get_spouts().keySet())) {
+            enumeratePaths(spout, spout, new ArrayList<>(), children, paths);
+        }
+        return paths;
+    }
+
+    private static void enumeratePaths(String spout, String curr, List<String> prefix,
+                                       Map<String, List<String>> children, List<Path> paths) {
+        List<String> next = children.getOrDefault(curr, Collections.emptyList()).stream()
+                .filter(c -> !prefix.contains(c)).collect(Collectors.toList());
+        if (next.isEmpty()) {
+            if (!prefix.isEmpty()) {
+                if (paths.size() >= MAX_PATHS) {
+                    throw new IllegalStateException("Too many paths in topology, more than " + MAX_PATHS);
+                }
+                paths.add(new Path(spout, new ArrayList<>(prefix)));
+            }
+            return;
+        }
+        for (String child : next) {
+            prefix.add(child);
+            enumeratePaths(spout, child, prefix, children, paths);
+            prefix.remove(prefix.size() - 1);
+        }
+    }
+
+    public List<Path> getPaths() {
+        return Collections.unmodifiableList(paths);
+    }
+
+    /**
+     * @return Double.MAX_VALUE if any bolt on the path is not stable
+     */
+    public double getPathSojournTime(Path path, Map<String, Integer> allocation) {
+        double ret = 0.0;
+        for (String bolt : path.bolts) {
+            double est = components.get(bolt).estSojournTime(allocation.get(bolt));
+            if (est == Double.MAX_VALUE) {
+                return Double.MAX_VALUE;
+            }
+            ret += est;
+        }
+        return ret;
+    }
+
+    /**
+     * @return value of the objective, Double.MAX_VALUE if allocation is null or any bolt is not stable
+     */
+    public double getObjectiveTime(Map<String, Integer> allocation) {
+        if (allocation == null) {
+            return Double.MAX_VALUE;
+        }
+        double ret = 0.0;
+        for (Path path : paths) {
+            double t = getPathSojournTime(path, allocation);
+            if (t == Double.MAX_VALUE) {
+                return Double.MAX_VALUE;
+            }
+            ret = objective == Objective.CRITICAL_PATH ? Math.max(ret, t) : ret + t * path.weight;
+        }
+        return ret;
+    }
+
+    /* allocation is increased one executor per step, starting from the minimum requirement */
+    private interface Stepper {
+        int getTotalAllocated();
+
+        boolean step();
+
+        Map<String, Integer> getAllocation();
+    }
+
+    private class MarginalGainStepper implements Stepper {
+        private final MarginalGainAllocator allocator;
+
+        MarginalGainStepper() {
+            Map<ServiceNode, Double> weights = new IdentityHashMap<>();
+            components.forEach((bolt, sn) -> weights.put(sn, boltWeights.getOrDefault(bolt, 0.0)));
+            allocator = new MarginalGainAllocator(components, weights::get, -1);
+        }
+
+        @Override
+        public int getTotalAllocated() {
+            return allocator.getTotalAllocated();
+        }
+
+        @Override
+        public boolean step() {
+            return allocator.step();
+        }
+
+        @Override
+        public Map<String, Integer> getAllocation() {
+            return allocator.getAllocation();
+        }
+    }
+
+    /**
+     * Greedy on the critical path. Each step tries one more executor on every bolt of the current critical
+     * paths, and keeps the one that reduces the critical path sojourn time most. Ties are broken by the
+     * reduction of the sojourn time of the bolt itself, so that parallel critical paths make progress.
+     */
+    private class CriticalPathStepper implements Stepper {
+        private final Map<String, Integer> allocation = new HashMap<>();
+        private int totalAllocated = 0;
+
+        CriticalPathStepper() {
+            components.forEach((bolt, sn) -> allocation.put(bolt, sn.getMinReqServerCount()));
+            totalAllocated = allocation.values().stream().mapToInt(Integer::intValue).sum();
+        }
+
+        @Override
+        public int getTotalAllocated() {
+            return totalAllocated;
+        }
+
+        @Override
+        public boolean step() {
+            double curr = getObjectiveTime(allocation);
+            Set<String> candidates = new TreeSet<>();
+            paths.stream().filter(p -> getPathSojournTime(p, allocation) >= curr)
+                    .forEach(p -> candidates.addAll(p.bolts));
+            String best = null;
+            double bestTime = Double.MAX_VALUE, bestGain = -1;
+            for (String bolt : candidates) {
+                ServiceNode sn = components.get(bolt);
+                int k = allocation.get(bolt);
+                double gain = sn.estSojournTime(k) - sn.estSojournTime(k + 1);
+                allocation.put(bolt, k + 1);
+                double t = getObjectiveTime(allocation);
+                allocation.put(bolt, k);
+                if (t < bestTime || (t == bestTime && gain > bestGain)) {
+                    best = bolt;
+                    bestTime = t;
+                    bestGain = gain;
+                }
+            }
+            if (best == null || !(bestGain > 0 || bestTime < curr)) {
+                return false;
+            }
+            allocation.merge(best, 1, Integer::sum);
+            totalAllocated++;
+            return true;
+        }
+
+        @Override
+        public Map<String, Integer> getAllocation() {
+            return new HashMap<>(allocation);
+        }
+    }
+
+    private Stepper newStepper() {
+        return objective == Objective.CRITICAL_PATH ? new CriticalPathStepper() : new MarginalGainStepper();
+    }
+
+    public int getTotalMinRequirement() {
+        return components.values().stream().mapToInt(ServiceNode::getMinReqServerCount).sum();
+    }
+
+    /**
+     * @return null if total minReq can not be satisfied, otherwise the allocation
+     */
+    public Map<String, Integer> suggestAllocation(int totalResourceCount) {
+        Stepper stepper = newStepper();
+        if (stepper.getTotalAllocated() > totalResourceCount) {
+            return null;
+        }
+        while (stepper.getTotalAllocated() < totalResourceCount && stepper.step()) {
+        }
+        return stepper.getAllocation();
+    }
+
+    /**
+     * @param maxAllowedCompleteTime unit is second
+     * @param adjRatio               ratio between real and estimated latency
+     * @return null if the QoS can not be achieved with maxAvailableExec executors
+     */
+    public Map<String, Integer> getMinReqServerAllocation(double maxAllowedCompleteTime, double adjRatio,
+                                                          int maxAvailableExec) {
+        Stepper stepper = newStepper();
+        while (stepper.getTotalAllocated() <= maxAvailableExec) {
+            Map<String, Integer> allocation = stepper.getAllocation();
+            double currTime = getObjectiveTime(allocation) * adjRatio;
+            LOG.debug("getMinReqServAllcQoS: " + maxAllowedCompleteTime * 1000.0 + ", currAdj(ms): "
+                    + currTime * 1000.0 + ", total: " + stepper.getTotalAllocated());
+            if (currTime <= maxAllowedCompleteTime) {
+                return allocation;
+            }
+            if (!stepper.step()) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return estimated objective time(ms) of the allocation for each total executor count, index 0 corresponds to
+     * the total minimum requirement
+     */
+    public double[] getLatencyCurve(double adjRatio, int maxAvailableExec) {
+        Stepper stepper = newStepper();
+        int size = Math.max(0, maxAvailableExec - stepper.getTotalAllocated() + 1);
+        double[] curve = new double[size];
+        int i = 0;
+        while (i < size) {
+            double time = getObjectiveTime(stepper.getAllocation());
+            curve[i++] = time < Double.MAX_VALUE ? time * adjRatio * 1000.0 : Double.MAX_VALUE;
+            if (!stepper.step()) {
+                break;
+            }
+        }
+        return i < size ? Arrays.copyOf(curve, i) : curve;
+    }
+
+    public AllocResult checkOptimized(double realLatencyMilliSec, double targetQoSMilliSec,
+                                      Map<String, Integer> currBoltAllocation, int maxAvailable4Bolt) {
+        return checkOptimized(realLatencyMilliSec, targetQoSMilliSec, currBoltAllocation, maxAvailable4Bolt, false);
+    }
+
+    /**
+     * @param realLatencyMilliSec measured latency that corresponds to the objective
+     * @param withLatencyCurve    whether to compute the latency curve, which is only used by the cluster arbiter
+     * @return status indicates whether the demanded QoS can be achieved or not
+     */
+    public AllocResult checkOptimized(double realLatencyMilliSec, double targetQoSMilliSec,
+                                      Map<String, Integer> currBoltAllocation, int maxAvailable4Bolt,
+                                      boolean withLatencyCurve) {
+        double estimatedLatencyMilliSec = getObjectiveTime(currBoltAllocation) * 1000.0;
+        ///for better estimation, we remain (learn) this ratio, and assume that the estimated is always smaller than real.
+        double underEstimateRatio = estimatedLatencyMilliSec < Double.MAX_VALUE ?
+                Math.max(1.0, realLatencyMilliSec / estimatedLatencyMilliSec) : 1.0;
+        LOG.info("objective: " + objective + ", estLatency(ms): " + estimatedLatencyMilliSec + ", realLatency(ms): "
+                + realLatencyMilliSec + ", underEstRatio: " + underEstimateRatio);
+        Map<String, Integer> minReqAllocation = getMinReqServerAllocation(targetQoSMilliSec / 1000.0,
+                underEstimateRatio, maxAvailable4Bolt * 2);
+        AllocResult.Status status = minReqAllocation == null ? AllocResult.Status.INFEASIBLE
+                : AllocResult.Status.FEASIBALE;
+        Map<String, Integer> after = suggestAllocation(maxAvailable4Bolt);
+        double optLatencyMilliSec = getObjectiveTime(after);
+        AllocResult result = new AllocResult(status, minReqAllocation, after);
+        if (withLatencyCurve) {
+            result.setLatencyCurve(getTotalMinRequirement(),
+                    getLatencyCurve(underEstimateRatio, maxAvailable4Bolt * 2));
+        }
+        return result.setPredictedLatency(
+                SimpleGeneralServiceModel.adjust(estimatedLatencyMilliSec, underEstimateRatio),
+                SimpleGeneralServiceModel.adjust(optLatencyMilliSec < Double.MAX_VALUE ? optLatencyMilliSec * 1000.0
+                        : Double.MAX_VALUE, underEstimateRatio));
+    }
+}
@@ -0,0 +1,91 @@
+package resa.optimize;
+
+import java.util.Arrays;
+
+/**
+ * Erlang-C delay formula of an M/M/k queue with a fixed lambda and mu. A queue with mu = 0 is never stable.
+ * Erlang-B values are computed by the recurrence B(0) = 1, B(k) = a * B(k - 1) / (k + a * B(k - 1)), where
+ * a = lambda / mu. Every B(k) stays in [0, 1], so the result is accurate for thousands of servers, and B values
+ * are cached, so that evaluating k + 1 after k costs O(1).
+ * <p>
+ * This class is not thread-safe.
+ */
+public class ErlangC {
+
+    private final double lambda;
+    private final double mu;
+    private final double load;
+    private double[] erlangB = new double[16];
+    ///erlangB[0..computed] are valid
+    private int computed = 0;
+
+    public ErlangC(double lambda, double mu) {
+        this.lambda = lambda;
+        this.mu = mu;
+        this.load = lambda / mu;
+        erlangB[0] = 1.0;
+    }
+
+    public double getLambda() {
+        return lambda;
+    }
+
+    public double getMu() {
+        return mu;
+    }
+
+    public boolean isStable(int serverCount) {
+        return ServiceNode.isStable(lambda, mu, serverCount);
+    }
+
+    /**
+     * @return blocking probability of an M/M/k/k queue
+     */
+    public double erlangB(int serverCount) {
+        if (serverCount < 0) {
+            throw new IllegalArgumentException("Attention, negative input is not allowed: " + serverCount);
+        }
+        if (serverCount > computed) {
+            if (serverCount >= erlangB.length) {
+                erlangB = Arrays.copyOf(erlangB, Math.max(erlangB.length * 2, serverCount + 1));
+            }
+            double b = erlangB[computed];
+            for (int k = computed + 1; k <= serverCount; k++) {
+                b = load * b / (k + load * b);
+                erlangB[k] = b;
+            }
+            computed = serverCount;
+        }
+        return erlangB[serverCount];
+    }
+
+    /**
+     * @return probability that an arrival has to wait, 1.0 if the queue is not stable
+     */
+    public double probWait(int serverCount) {
+        if (!isStable(serverCount)) {
+            return 1.0;
+        }
+        double b = erlangB(serverCount);
+        return serverCount * b / (serverCount - load * (1.0 - b));
+    }
+
+    /**
+     * @return expected waiting time in queue, Double.MAX_VALUE if the queue is not stable
+     */
+    public double waitTime(int serverCount) {
+        if (!isStable(serverCount)) {
+            return Double.MAX_VALUE;
+        }
+        return probWait(serverCount) / (mu * serverCount - lambda);
+    }
+
+    /**
+     * @return expected sojourn time, i.e. waiting time plus service time, Double.MAX_VALUE if the queue is not
+     * stable
+     */
+    public double sojournTime(int serverCount) {
+        double wait = waitTime(serverCount);
+        return wait < Double.MAX_VALUE ? wait + 1.0 / mu : Double.MAX_VALUE;
+    }
+}
@@ -0,0 +1,197 @@
+package resa.optimize;
+
+import resa.util.ConfigUtil;
+import resa.util.ResaConfig;
+
+import java.util.Map;
+
+/**
+ * Online forecaster of a series observed once per optimize round, e.g. the arrival rate of a component.
+ * Three methods are provided, selected by "resa.opt.forecast.mode":
+ * ewma, exponentially weighted moving average, forecast is flat;
+ * linear, least squares trend over the latest observations;
+ * holt_winters, additive Holt-Winters with a season of "resa.opt.forecast.hw.season.steps" rounds.
+ */
+public abstract class Forecaster {
+
+    public enum Mode {
+        NONE, EWMA, LINEAR, HOLT_WINTERS
+    }
+
+    public abstract void observe(double value);
+
+    /**
+     * @param steps number of rounds ahead of the latest observation
+     * @return NaN if there is not enough observations
+     */
+    public abstract double forecast(double steps);
+
+    public static Mode getMode(Map<String, Object> conf) {
+        return Mode.valueOf(((String) conf.getOrDefault("resa.opt.forecast.mode", "none")).toUpperCase());
+    }
+
+    /**
+     * A new allocation takes effect after the rebalance waiting time, and then it is measured for one optimize
+     * interval, so by default the forecast looks ahead of that much time.
+     *
+     * @return number of optimize rounds to look ahead
+     */
+    public static double getLeadSteps(Map<String, Object> conf) {
+        int intervalSecs = Math.max(1, ConfigUtil.getInt(conf, ResaConfig.OPTIMIZE_INTERVAL, 30));
+        int waitingSecs = Math.max(0, ConfigUtil.getInt(conf, ResaConfig.REBALANCE_WAITING_SECS, -1));
+        return ConfigUtil.getDouble(conf, "resa.opt.forecast.lead.secs", waitingSecs + intervalSecs) / intervalSecs;
+    }
+
+    /**
+     * @return null if forecast is disabled
+     */
+    public static Forecaster create(Map<String, Object> conf) {
+        switch (getMode(conf)) {
+            case EWMA:
+                return new Ewma(ConfigUtil.getDouble(conf, "resa.opt.forecast.ewma.alpha", 0.3));
+            case LINEAR:
+                return new LinearTrend(ConfigUtil.getInt(conf, "resa.opt.forecast.linear.window", 20));
+            case HOLT_WINTERS:
+                // default season is one day
+                int seasonSteps = ConfigUtil.getInt(conf, "resa.opt.forecast.hw.season.steps",
+                        86400 / Math.max(1, ConfigUtil.getInt(conf, ResaConfig.OPTIMIZE_INTERVAL, 30)));
+                return new HoltWinters(ConfigUtil.getDouble(conf, "resa.opt.forecast.hw.alpha", 0.3),
+                        ConfigUtil.getDouble(conf, "resa.opt.forecast.hw.beta", 0.05),
+                        ConfigUtil.getDouble(conf, "resa.opt.forecast.hw.gamma", 0.2), seasonSteps);
+            default:
+                return null;
+        }
+    }
+
+    public static class Ewma extends Forecaster {
+        private final double alpha;
+        private double level = Double.NaN;
+
+        public Ewma(double alpha) {
+            if (alpha <= 0 || alpha > 1) {
+                throw new IllegalArgumentException("Bad alpha: " + alpha);
+            }
+            this.alpha = alpha;
+        }
+
+        @Override
+        public void observe(double value) {
+            level = Double.isNaN(level) ? value : alpha * value + (1 - alpha) * level;
+        }
+
+        @Override
+        public double forecast(double steps) {
+            return level;
+        }
+    }
+
+    public static class LinearTrend extends Forecaster {
+        ///ring buffer of the latest observations
+        private final double[] values;
+        private long count = 0;
+
+        public LinearTrend(int window) {
+            if (window < 2) {
+                throw new IllegalArgumentException("Bad window: " + window);
+            }
+            values = new double[window];
+        }
+
+        @Override
+        public void observe(double value) {
+            values[(int) (count++ % values.length)] = value;
+        }
+
+        @Override
+        public double forecast(double steps) {
+            int n = (int) Math.min(count, values.length);
+            if (n < 2) {
+                return Double.NaN;
+            }
+            // x is 0 for the oldest observation in window and n - 1 for the latest
+            double sumX = 0, sumY = 0, sumXY = 0, sumXX = 0;
+            for (int x = 0; x < n; x++) {
+                double y = values[(int) ((count - n + x) % values.length)];
+                sumX += x;
+                sumY += y;
+                sumXY += x * y;
+                sumXX += (double) x * x;
+            }
+            double slope = (n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+            double intercept = (sumY - slope * sumX) / n;
+            return intercept + slope * (n - 1 + steps);
+        }
+    }
+
+    /**
+     * Additive Holt-Winters. The first two seasons are used to initialize the level, the trend and the seasonal
+     * indices, forecast is not available before that.
+     */
+    public static class HoltWinters extends Forecaster {
+        private final double alpha;
+        private final double beta;
+        private final double gamma;
+        private final double[] season;
+        ///observations of the first two seasons, released after initialization
+        private double[] initValues;
+        private double level;
+        private double trend;
+        private long count = 0;
+
+        public HoltWinters(double alpha, double beta, double gamma, int seasonSteps) {
+            if (seasonSteps < 2) {
+                throw new IllegalArgumentException("Bad season steps: " + seasonSteps);
+            }
+            this.alpha = alpha;
+            this.beta = beta;
+            this.gamma = gamma;
+            this.season = new double[seasonSteps];
+            this.initValues = new double[seasonSteps * 2];
+        }
+
+        @Override
+        public void observe(double value) {
+            if (initValues != null) {
+                initValues[(int) count++] = value;
+                if (count == initValues.length) {
+                    init();
+                }
+                return;
+            }
+            int idx = (int) (count++ % season.length);
+            double lastLevel = level;
+            level = alpha * (value - season[idx]) + (1 - alpha) * (level + trend);
+            trend = beta * (level - lastLevel) + (1 - beta) * trend;
+            season[idx] = gamma * (value - level) + (1 - gamma) * season[idx];
+        }
+
+        /* trend is the difference of the two season means, seasonal indices are the detrended deviations */
+        private void init() {
+            int m = season.length;
+            double mean1 = 0, mean2 = 0;
+            for (int i = 0; i < m; i++) {
+                mean1 += initValues[i];
+                mean2 += initValues[m + i];
+            }
+            mean1 /= m;
+            mean2 /= m;
+            trend = (mean2 - mean1) / m;
+            for (int i = 0; i < m; i++) {
+                double offset = trend * (i - (m - 1) / 2.0);
+                season[i] = ((initValues[i] - mean1 - offset) + (initValues[m + i] - mean2 - offset)) / 2;
+            }
+            // level of the latest observation
+            level = mean2 + trend * (m - 1) / 2.0;
+            initValues = null;
+        }
+
+        @Override
+        public double forecast(double steps) {
+            if (initValues != null) {
+                return Double.NaN;
+            }
+            long h = Math.max(0, Math.round(steps));
+            return level + h * trend + season[(int) ((count - 1 + h) % season.length)];
+        }
+    }
+}
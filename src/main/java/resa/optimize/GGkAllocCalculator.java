@@ -0,0 +1,41 @@
+package resa.optimize;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import resa.util.ConfigUtil;
+
+/**
+ * Model each bolt as a G/G/k queue instead of an M/M/k one. The waiting time is approximated with the
+ * Allen-Cunneen formula, using the measured squared coefficient of variation (scv) of execute times and an
+ * arrival scv estimated from the dispersion of arrival counts among metric buckets.
+ * <p>
+ * Executors are assumed to receive a random 1/k share of the arrivals of the component, so for the component
+ * ca^2 = k * IDC - (k - 1), where IDC is the index of dispersion of executor arrival counts.
+ */
+public class GGkAllocCalculator extends SimpleGeneralAllocCalculator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GGkAllocCalculator.class);
+
+    @Override
+    protected ServiceNode createServiceNode(String comp, BoltAggResult hisCar, double lambda, double mu,
+                                            double i2oRatio) {
+        double maxScv = ConfigUtil.getDouble(conf, "resa.opt.ggk.scv.max", 10.0);
+        double arrivalScv = ConfigUtil.getDouble(conf, "resa.opt.ggk.arrival.scv", 1.0);
+        QueueAggResult recvQueue = hisCar.getRecvQueueResult();
+        int minBuckets = ConfigUtil.getInt(conf, "resa.opt.ggk.min.buckets", 5);
+        if (recvQueue.getBucketCount() >= minBuckets) {
+            int numExecutors = currAllocation.get(comp);
+            arrivalScv = numExecutors * recvQueue.getArrivalDispersion() - (numExecutors - 1);
+        }
+        CntMeanVar servTime = hisCar.getCombinedProcessedResult();
+        double serviceScv = servTime.getCount() > 1 ? servTime.getScv() : 1.0;
+        if (Double.isNaN(serviceScv)) {
+            serviceScv = 1.0;
+        }
+        arrivalScv = Math.min(Math.max(arrivalScv, 0.0), maxScv);
+        serviceScv = Math.min(Math.max(serviceScv, 0.0), maxScv);
+        LOG.info(comp + " arrivalScv: " + arrivalScv + ", serviceScv: " + serviceScv + ", buckets: "
+                + recvQueue.getBucketCount());
+        return new ServiceNode(lambda, mu, i2oRatio, arrivalScv, serviceScv);
+    }
+}
@@ -0,0 +1,137 @@
+package resa.optimize;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Greedy allocator that hands out executors one at a time to the component with the largest marginal reduction
+ * of weighted sojourn time. Every component starts from its minimum requirement, and components are kept
+ * in a max-heap keyed by their marginal gain, so that only the incremented component is re-evaluated on each step.
+ * <p>
+ * Ties are broken by the iteration order of the input map, so the result is the same as rescanning all the
+ * components on each step. Components with NaN gain are never picked, they are left out of the heap. The greedy
+ * allocation of n + 1 executors extends the one of n executors, so callers searching for a budget can keep
+ * stepping the same allocator.
+ */
+class MarginalGainAllocator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MarginalGainAllocator.class);
+
+    private static class Candidate {
+        final int order;
+        final String cid;
+        final ServiceNode sn;
+        final double weight;
+        int allocated;
+        double gain;
+
+        Candidate(int order, String cid, ServiceNode sn, double weight) {
+            this.order = order;
+            this.cid = cid;
+            this.sn = sn;
+            this.weight = weight;
+            this.allocated = sn.getMinReqServerCount();
+        }
+
+        void updateGain() {
+            gain = (sn.estSojournTime(allocated) - sn.estSojournTime(allocated + 1)) * weight;
+        }
+    }
+
+    private final List<Candidate> candidates;
+    private final PriorityQueue<Candidate> heap;
+    private final double minGain;
+    private boolean evaluated = false;
+    private int totalAllocated = 0;
+
+    /**
+     * @param components
+     * @param weight     weight of sojourn time of each component
+     * @param minGain    a step fails if no component has a gain larger than this
+     */
+    MarginalGainAllocator(Map<String, ServiceNode> components, ToDoubleFunction<ServiceNode> weight, double minGain) {
+        this.minGain = minGain;
+        candidates = new ArrayList<>(components.size());
+        for (Map.Entry<String, ServiceNode> e : components.entrySet()) {
+            Candidate c = new Candidate(candidates.size(), e.getKey(), e.getValue(),
+                    weight.applyAsDouble(e.getValue()));
+            candidates.add(c);
+            totalAllocated += c.allocated;
+        }
+        heap = new PriorityQueue<>(Math.max(1, candidates.size()), (c1, c2) -> {
+            int ret = Double.compare(c2.gain, c1.gain);
+            return ret != 0 ? ret : Integer.compare(c1.order, c2.order);
+        });
+    }
+
+    /**
+     * @return number of executors allocated, starts from the total minimum requirement
+     */
+    int getTotalAllocated() {
+        return totalAllocated;
+    }
+
+    /**
+     * Assign one more executor.
+     *
+     * @return false if no component gains more than minGain, allocation is unchanged in this case
+     */
+    boolean step() {
+        if (!evaluated) {
+            // gains are evaluated lazily, so that the baseline costs nothing if no step is needed
+            candidates.forEach(c -> {
+                c.updateGain();
+                offer(c);
+            });
+            evaluated = true;
+        }
+        Candidate top = heap.peek();
+        if (top == null || !(top.gain > minGain)) {
+            return false;
+        }
+        heap.poll();
+        top.allocated++;
+        top.updateGain();
+        offer(top);
+        totalAllocated++;
+        LOG.debug("assigned to " + top.cid + ", newAllocate: " + top.allocated);
+        return true;
+    }
+
+    /* a component with NaN gain is never picked again, since its gain does not change without allocation */
+    private void offer(Candidate c) {
+        if (!Double.isNaN(c.gain)) {
+            heap.add(c);
+        }
+    }
+
+    Map<String, Integer> getAllocation() {
+        Map<String, Integer> retVal = new HashMap<>();
+        candidates.forEach(c -> retVal.put(c.cid, c.allocated));
+        return retVal;
+    }
+
+    /**
+     * @return null if total minReq can not be satisfied, otherwise the allocation
+     */
+    static Map<String, Integer> allocate(Map<String, ServiceNode> components, ToDoubleFunction<ServiceNode> weight,
+                                         int totalResourceCount, double minGain) {
+        MarginalGainAllocator allocator = new MarginalGainAllocator(components, weight, minGain);
+        int topMinReq = allocator.getTotalAllocated();
+        LOG.info("totalResourceCount: " + totalResourceCount + ", topMinReq: " + topMinReq);
+        if (topMinReq > totalResourceCount) {
+            return null;
+        }
+        while (allocator.getTotalAllocated() < totalResourceCount) {
+            if (!allocator.step()) {
+                LOG.info("No component gains more than " + minGain + " after " + allocator.getTotalAllocated()
+                        + " of " + totalResourceCount + " executors are assigned");
+                break;
+            }
+        }
+        return allocator.getAllocation();
+    }
+}
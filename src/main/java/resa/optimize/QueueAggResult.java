@@ -5,9 +5,12 @@ package resa.optimize;
  */
 public class QueueAggResult implements Cloneable {
 
-    private long arrivalCount;
-    private long totalQueueLength;
-    private int totalSampleCount;
+    ///counters are kept as double, so that decayed values are not truncated
+    private double arrivalCount;
+    private double totalQueueLength;
+    private double totalSampleCount;
+    ///arrival count of each reported bucket, used to estimate the burstiness of arrivals
+    private CntMeanVar bucketArrivals = new CntMeanVar();
 
     public QueueAggResult(long arrivalCount, long totalQueueLength, int totalSampleCount) {
         this.arrivalCount = arrivalCount;
@@ -20,36 +23,68 @@ public class QueueAggResult implements Cloneable {
     }
 
     public double getAvgQueueLength() {
-        return totalSampleCount > 0 ? (double) totalQueueLength / (double) totalSampleCount : 0.0;
+        return totalSampleCount > 0 ? totalQueueLength / totalSampleCount : 0.0;
     }
 
-    public long getArrivalCount() {
+    public double getArrivalCount() {
         return arrivalCount;
     }
 
-    public long getTotalQueueLength() {
+    public double getTotalQueueLength() {
         return totalQueueLength;
     }
 
-    public int getTotalSampleCount() {
+    public double getTotalSampleCount() {
         return totalSampleCount;
     }
 
+    /**
+     * @return number of buckets added by add(long, long, int)
+     */
+    public double getBucketCount() {
+        return bucketArrivals.getCount();
+    }
+
+    /**
+     * Index of dispersion of the arrival counts of buckets, i.e. Var(N) / E(N). For a renewal arrival process it
+     * approaches the squared coefficient of variation of inter-arrival times as the bucket gets longer.
+     *
+     * @return 1.0 if less than two buckets are added
+     */
+    public double getArrivalDispersion() {
+        if (bucketArrivals.getCount() < 2 || bucketArrivals.getAvg() == 0) {
+            return 1.0;
+        }
+        return Math.max(0.0, bucketArrivals.getVar()) / bucketArrivals.getAvg();
+    }
+
     public void add(QueueAggResult result) {
         this.arrivalCount += result.arrivalCount;
         this.totalQueueLength += result.totalQueueLength;
         this.totalSampleCount += result.totalSampleCount;
+        this.bucketArrivals.addCMV(result.bucketArrivals);
     }
 
+    /**
+     * Add the queue metric of one bucket.
+     */
     public void add(long arrivalCount, long totalQueueLength, int totalSampleCount) {
         this.arrivalCount += arrivalCount;
         this.totalQueueLength += totalQueueLength;
         this.totalSampleCount += totalSampleCount;
+        this.bucketArrivals.addOneNumber(arrivalCount);
+    }
+
+    public void decay(double factor) {
+        this.arrivalCount *= factor;
+        this.totalQueueLength *= factor;
+        this.totalSampleCount *= factor;
+        this.bucketArrivals.decay(factor);
     }
 
     @Override
     public String toString() {
-        return String.format("arrCount: %d, totalQLen: %d, totalSamCnt: %d", arrivalCount,
+        return String.format("arrCount: %.1f, totalQLen: %.1f, totalSamCnt: %.1f", arrivalCount,
                 totalQueueLength, totalSampleCount);
     }
 }
@@ -5,12 +5,17 @@ package resa.optimize;
  */
 public class ServiceNode {
 
-    enum ServiceType {EXPONENTIAL, DETERMINISTIC, UNIFORM, OTHER}
+    enum ServiceType {EXPONENTIAL, DETERMINISTIC, UNIFORM, GENERAL, OTHER}
 
     private double lambda;
     private double mu;
     private ServiceType type = ServiceType.OTHER;
     private double i2oRatio;
+    ///squared coefficient of variation of inter-arrival and service times, only used by GENERAL nodes
+    private double arrivalScv = 1.0;
+    private double serviceScv = 1.0;
+    ///cached erlang values of current lambda and mu
+    private ErlangC erlangC;
 
     public ServiceNode(double l, double m, ServiceType t, double r) {
         lambda = l;
@@ -22,8 +27,24 @@ public class ServiceNode {
         i2oRatio = r;
     }
 
+    /**
+     * Create a GENERAL node, i.e. a G/G/k queue.
+     *
+     * @param arrivalScv squared coefficient of variation of inter-arrival times
+     * @param serviceScv squared coefficient of variation of service times
+     */
+    public ServiceNode(double l, double m, double r, double arrivalScv, double serviceScv) {
+        this(l, m, ServiceType.GENERAL, r);
+        if (arrivalScv < 0 || serviceScv < 0) {
+            throw new IllegalArgumentException("scv cannot be negative: " + arrivalScv + ", " + serviceScv);
+        }
+        this.arrivalScv = arrivalScv;
+        this.serviceScv = serviceScv;
+    }
+
     public void setLambda(double value) {
         this.lambda = value;
+        this.erlangC = null;
     }
 
     public double getLambda() {
@@ -32,6 +53,7 @@ public class ServiceNode {
 
     public void setMu(double value) {
         this.mu = value;
+        this.erlangC = null;
     }
 
     public double getMu() {
@@ -47,6 +69,25 @@ public class ServiceNode {
     }
 
 
+    ///arrivals of nodes other than GENERAL are assumed to be poisson
+    public double getArrivalScv() {
+        return type == ServiceType.GENERAL ? arrivalScv : 1.0;
+    }
+
+    public double getServiceScv() {
+        switch (type) {
+            case DETERMINISTIC:
+                return 0.0;
+            case UNIFORM:
+                ///uniform in [0, 2/mu]
+                return 1.0 / 3.0;
+            case GENERAL:
+                return serviceScv;
+            default:
+                return 1.0;
+        }
+    }
+
     public String getServiceTypeString() {
         return type.name().toLowerCase();
     }
@@ -68,7 +109,29 @@ public class ServiceNode {
     }
 
     public double estErlangT(int serverCount) {
-        return estErlangT(this.lambda, this.mu, serverCount);
+        if (erlangC == null) {
+            erlangC = new ErlangC(lambda, mu);
+        }
+        return erlangC.sojournTime(serverCount);
+    }
+
+    /**
+     * Estimated sojourn time of this node with the Allen-Cunneen approximation, where the M/M/k waiting time is
+     * scaled by (ca^2 + cs^2) / 2. It is the same as estErlangT for EXPONENTIAL nodes.
+     *
+     * @param serverCount
+     * @return Double.MAX_VALUE if the node is not stable
+     */
+    public double estSojournTime(int serverCount) {
+        double factor = (getArrivalScv() + getServiceScv()) / 2.0;
+        if (factor == 1.0) {
+            return estErlangT(serverCount);
+        }
+        if (erlangC == null) {
+            erlangC = new ErlangC(lambda, mu);
+        }
+        double wait = erlangC.waitTime(serverCount);
+        return wait < Double.MAX_VALUE ? wait * factor + 1.0 / mu : Double.MAX_VALUE;
     }
 
     public double estMM1T(int serverCount) {
@@ -132,33 +195,7 @@ public class ServiceNode {
      * @return
      */
     public static double estErlangT(double lambda, double mu, int serverCount) {
-        if (isStable(lambda, mu, serverCount)) {
-            double r = lambda / (mu * (double) serverCount);
-            double kr = lambda / mu;
-
-            double phi0_p1 = 1.0;
-            for (int i = 1; i < serverCount; i++) {
-                double a = Math.pow(kr, i);
-                double b = (double) factorial(i);
-                phi0_p1 += (a / b);
-            }
-
-            double phi0_p2_nor = Math.pow(kr, serverCount);
-            double phi0_p2_denor = (1.0 - r) * (double) (factorial(serverCount));
-            double phi0_p2 = phi0_p2_nor / phi0_p2_denor;
-
-            double phi0 = 1.0 / (phi0_p1 + phi0_p2);
-
-            double pWait = phi0_p2 * phi0;
-
-            double estT = pWait * r / ((1.0 - r) * lambda) + 1.0 / mu;
-
-            return estT;
-
-        } else {
-            //System.out.println("Service is not stable!!!");
-            return Double.MAX_VALUE;
-        }
+        return new ErlangC(lambda, mu).sojournTime(serverCount);
     }
 
     public static double estMM1T(double lambda, double mu, int serverCount) {
@@ -169,18 +206,4 @@ public class ServiceNode {
             return Double.MAX_VALUE;
         }
     }
-
-    private static int factorial(int n) {
-        if (n < 0) {
-            throw new IllegalArgumentException("Attention, negative input is not allowed: " + n);
-        } else if (n == 0) {
-            return 1;
-        } else {
-            int ret = 1;
-            for (int i = 2; i <= n; i++) {
-                ret = ret * i;
-            }
-            return ret;
-        }
-    }
 }
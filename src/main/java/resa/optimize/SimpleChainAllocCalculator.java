@@ -103,7 +103,7 @@ public class SimpleChainAllocCalculator extends AllocCalculator {
             // merge the optimized decision into source allocation
             retMinReqAllocation.putAll(allocResult.minReqOptAllocation);
         }
-        return new AllocResult(allocResult.status, retMinReqAllocation, retCurrAllocation);
+        return allocResult.withAllocations(retMinReqAllocation, retCurrAllocation);
     }
 
     @Override
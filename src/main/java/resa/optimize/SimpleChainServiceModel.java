@@ -38,7 +38,7 @@ public class SimpleChainServiceModel {
             ServiceNode sn = e.getValue();
             Integer serverCount = allocation.get(cid);
             // Objects.requireNonNull(serverCount, "No allocation entry find for this component" + cid);
-            double est = sn.estErlangT(serverCount);
+            double est = sn.estSojournTime(serverCount);
             if (est < Double.MAX_VALUE) {
                 retVal += est;
             } else {
@@ -89,39 +89,7 @@ public class SimpleChainServiceModel {
      * otherwise, the Map data structure.
      */
     public static Map<String, Integer> suggestAllocation(Map<String, ServiceNode> components, int totalResourceCount) {
-        Map<String, Integer> retVal = components.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey,
-                e -> e.getValue().getMinReqServerCount()));
-        int topMinReq = retVal.values().stream().mapToInt(Integer::intValue).sum();
-
-        LOG.info("totalResourceCount: " + totalResourceCount + ", topMinReq: " + topMinReq);
-        if (topMinReq <= totalResourceCount) {
-            int remainCount = totalResourceCount - topMinReq;
-            for (int i = 0; i < remainCount; i++) {
-                double maxDiff = Double.MIN_VALUE;
-                String maxDiffCid = null;
-
-                for (Map.Entry<String, ServiceNode> e : components.entrySet()) {
-                    String cid = e.getKey();
-                    ServiceNode sn = e.getValue();
-                    int currentAllocated = retVal.get(cid);
-
-                    double beforeAddT = sn.estErlangT(currentAllocated);
-                    double afterAddT = sn.estErlangT(currentAllocated + 1);
-
-                    double diff = beforeAddT - afterAddT;
-                    if (diff > maxDiff) {
-                        maxDiff = diff;
-                        maxDiffCid = cid;
-                    }
-                }
-                int newAllocate = retVal.compute(maxDiffCid, (k, count) -> count + 1);
-                LOG.info((i + 1) + " of " + remainCount + ", assigned to " + maxDiffCid + ", newAllocate: "
-                        + newAllocate);
-            }
-        } else {
-            return null;
-        }
-        return retVal;
+        return MarginalGainAllocator.allocate(components, sn -> 1.0, totalResourceCount, Double.MIN_VALUE);
     }
 
     /**
@@ -135,6 +103,7 @@ public class SimpleChainServiceModel {
      * @param adjRatio,               this is to adjust the estimated ErlangServiceTime to fit more closely to the real measured complte time
      * @return null if a) any service node is not in the valid state (mu = 0.0), this is not the case of rho > 1.0, just for checking mu
      * b) lowerBoundServiceTime > requiredQoS
+     * c) no component gains from more executors before requiredQoS is achieved
      */
     public static Map<String, Integer> getMinReqServerAllocation(Map<String, ServiceNode> components,
                                                                  double maxAllowedCompleteTime,
@@ -151,9 +120,15 @@ public class SimpleChainServiceModel {
 
         Map<String, Integer> currAllocation = null;
         if (lowerBoundServiceTime + lowerBoundDelta < maxAllowedCompleteTime) {
+            // greedy allocation is incremental, so one more executor is assigned in each round
+            MarginalGainAllocator allocator = new MarginalGainAllocator(components, sn -> 1.0, Double.MIN_VALUE);
             double currTime;
             do {
-                currAllocation = suggestAllocation(components, totalMinReq);
+                if (allocator.getTotalAllocated() < totalMinReq && !allocator.step()) {
+                    LOG.info("QoS can not be achieved, no component gains from more executors");
+                    return null;
+                }
+                currAllocation = allocator.getAllocation();
                 currTime = getErlangChainTopCompleteTime(components, currAllocation) * adjRatio;
 
                 LOG.info("getMinReqServAllcQoS: " + maxAllowedCompleteTime * 1000.0 + ", currTime(ms): "
@@ -200,7 +175,10 @@ public class SimpleChainServiceModel {
         }
         LOG.info("Find out best allocation given available executors.");
         Map<String, Integer> after = suggestAllocation(queueingNetwork, maxAvailable4Bolt);
-        return new AllocResult(status, minReqAllocation, after);
+        return new AllocResult(status, minReqAllocation, after).setPredictedLatency(
+                SimpleGeneralServiceModel.adjust(estimatedLatencyMilliSec, underEstimateRatio),
+                SimpleGeneralServiceModel.adjust(getErlangChainTopCompleteTimeMilliSec(queueingNetwork, after),
+                        underEstimateRatio));
     }
 
     /**
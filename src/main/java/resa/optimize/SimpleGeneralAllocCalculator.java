@@ -5,7 +5,9 @@ import backtype.storm.generated.StormTopology;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import resa.util.ConfigUtil;
+import resa.util.ResaConfig;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -15,10 +17,14 @@ import java.util.stream.Collectors;
  */
 public class SimpleGeneralAllocCalculator extends AllocCalculator {
     private static final Logger LOG = LoggerFactory.getLogger(SimpleGeneralAllocCalculator.class);
-    private AggregatedData spoutAregatedData;
-    private AggregatedData boltAregatedData;
+    protected AggregatedData spoutAregatedData;
+    protected AggregatedData boltAregatedData;
     private int historySize;
     private int currHistory;
+    private boolean forecast;
+    private double forecastSteps;
+    ///latency curve is computed only if the cluster arbiter consumes it
+    protected boolean withLatencyCurve;
 
     @Override
     public void init(Map<String, Object> conf, Map<String, Integer> currAllocation, StormTopology rawTopology) {
@@ -27,23 +33,53 @@ public class SimpleGeneralAllocCalculator extends AllocCalculator {
         currHistory = ConfigUtil.getInt(conf, "resa.opt.win.history.size.ignore", 0);
         spoutAregatedData = new AggregatedData(rawTopology, historySize);
         boltAregatedData = new AggregatedData(rawTopology, historySize);
+        withLatencyCurve = ConfigUtil.getBoolean(conf, ResaConfig.ARBITER_ENABLE, false);
+        forecast = Forecaster.getMode(conf) != Forecaster.Mode.NONE;
+        if (forecast) {
+            boltAregatedData.enableForecast(() -> Forecaster.create(conf));
+            forecastSteps = Forecaster.getLeadSteps(conf);
+        }
     }
 
-    @Override
-    public AllocResult calc(Map<String, AggResult[]> executorAggResults, int maxAvailableExecutors) {
+    /**
+     * Put the results of this round into history.
+     *
+     * @return false if there is not enough history data to run the optimize function
+     */
+    protected boolean putResults(Map<String, AggResult[]> executorAggResults) {
         executorAggResults.entrySet().stream().filter(e -> rawTopology.get_spouts().containsKey(e.getKey()))
                 .forEach(e -> spoutAregatedData.putResult(e.getKey(), e.getValue()));
         executorAggResults.entrySet().stream().filter(e -> rawTopology.get_bolts().containsKey(e.getKey()))
-                .forEach(e -> boltAregatedData.putResult(e.getKey(), e.getValue()));
+                .forEach(e -> {
+                    boltAregatedData.putResult(e.getKey(), e.getValue());
+                    boltAregatedData.putArrivalRate(e.getKey(), e.getValue(), currAllocation.get(e.getKey()));
+                });
         // check history size. Ensure we have enough history data before we run the optimize function
         currHistory++;
         if (currHistory < historySize) {
             LOG.info("currHistory < historySize, curr: " + currHistory + ", Size: " + historySize
-                    + ", DataHistorySize: "
-                    + spoutAregatedData.compHistoryResults.entrySet().stream().findFirst().get().getValue().size());
+                    + ", DataHistorySize: " + spoutAregatedData.compHistoryResults.values().stream().findFirst()
+                    .map(Collection::size).orElse(0));
+            return false;
+        }
+        currHistory = historySize;
+        return true;
+    }
+
+    /**
+     * @param spoutResult  aggregated result of a spout
+     * @param numExecutors number of executors of the spout
+     * @return tuple emit rate of the spout, tuples per second
+     */
+    static double getSpoutEmitRate(AggResult spoutResult, int numExecutors) {
+        ///TODO: there we multiply 1/2 for this particular implementation
+        return spoutResult.getDepartureRatePerSec() * numExecutors / 2.0;
+    }
+
+    @Override
+    public AllocResult calc(Map<String, AggResult[]> executorAggResults, int maxAvailableExecutors) {
+        if (!putResults(executorAggResults)) {
             return null;
-        } else {
-            currHistory = historySize;
         }
 
         ///Temp use, assume only one running topology!
@@ -73,13 +109,13 @@ public class SimpleGeneralAllocCalculator extends AllocCalculator {
                     double totalComplteTupleCnt = hisCarCombined.getCount();
                     double totalDuration = hisCar.getDuration();
 
-                    ///TODO: here are some problem not solved yet. calculation is incorrect.
+                    ///each stream is scaled by its own reported sample rate, the configured rate is only used
+                    ///for the data reported without sample rates
                     double tupleCompleteRate
-                            = totalComplteTupleCnt * 1000.0 / (totalDuration * componentSampelRate);
+                            = hisCar.getEstimatedCompletedCount(componentSampelRate) * 1000.0 / totalDuration;
 
                     int numberExecutor = currAllocation.get(e.getKey());
-                    ///TODO: there we multiply 1/2 for this particular implementation
-                    double tupleEmitRate = departRateHis * numberExecutor / 2.0;
+                    double tupleEmitRate = getSpoutEmitRate(hisCar, numberExecutor);
 
                     LOG.info("exec(ID, eNum): (" + e.getKey() + "," + numberExecutor
                             + "), tupleFinCnt: " + totalComplteTupleCnt + ", sumDur: " + totalDuration
@@ -88,6 +124,9 @@ public class SimpleGeneralAllocCalculator extends AllocCalculator {
                     LOG.info("avgSQLenHis: " + avgSendQLenHis + ",avgRQLenHis: " + avgRecvQLenHis
                             + ", SQarrRateHis: " + departRateHis);
                     LOG.info("avgCompleHis: " + avgCompleteHis + ", tupleEmitRate: " + tupleEmitRate);
+                    LOG.info("completeHis(ms) p50: " + hisCar.getCompletedLatencyPercentile(50)
+                            + ", p99: " + hisCar.getCompletedLatencyPercentile(99)
+                            + ", p999: " + hisCar.getCompletedLatencyPercentile(99.9));
 
                     return new SourceNode(avgCompleteHis, totalComplteTupleCnt, totalDuration, tupleEmitRate);
                 }));
@@ -126,8 +165,20 @@ public class SimpleGeneralAllocCalculator extends AllocCalculator {
                     LOG.info("avgSQLenHis: " + avgSendQLenHis + ",avgRQLenHis: " + avgRecvQLenHis + ", arrRateHis: "
                             + arrivalRateHis + ", avgServTimeHis(ms): " + avgServTimeHis);
                     LOG.info("rhoHis: " + rhoHis + ", lambdaHis: " + lambdaHis + ", muHis: " + muHis + ", ratio: " + i2oRatio);
-
-                    return new ServiceNode(lambdaHis, muHis, ServiceNode.ServiceType.EXPONENTIAL, i2oRatio);
+                    LOG.info("avgTupleSize(B): " + hisCar.getAvgTupleSize());
+                    CntMeanVar queueWaitHis = hisCar.getCombinedQueueWait();
+                    if (queueWaitHis.getCount() > 0) {
+                        ///compare with the waiting time estimated by erlang formula
+                        double estQueueWait = (ServiceNode.estErlangT(lambdaHis, muHis, numberExecutor) - 1.0 / muHis)
+                                * 1000.0;
+                        LOG.info("measured queueWaitHis(ms): " + queueWaitHis.getAvg() + ", count: "
+                                + queueWaitHis.getCount() + ", estimated(ms): " + estQueueWait);
+                    }
+                    LOG.info("servTimeHis(ms) p50: " + hisCar.getProcessedPercentile(50)
+                            + ", p99: " + hisCar.getProcessedPercentile(99)
+                            + ", p999: " + hisCar.getProcessedPercentile(99.9));
+
+                    return createServiceNode(e.getKey(), hisCar, lambdaHis, muHis, i2oRatio);
                 }));
         int maxThreadAvailable4Bolt = maxAvailableExecutors - currAllocation.entrySet().stream()
                 .filter(e -> rawTopology.get_spouts().containsKey(e.getKey()))
@@ -135,8 +186,12 @@ public class SimpleGeneralAllocCalculator extends AllocCalculator {
         Map<String, Integer> boltAllocation = currAllocation.entrySet().stream()
                 .filter(e -> rawTopology.get_bolts().containsKey(e.getKey()))
                 .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        double realLatencyMs = spInfo.getRealLatencyMilliSec();
+        if (forecast) {
+            realLatencyMs = applyForecast(queueingNetwork, boltAllocation, realLatencyMs);
+        }
         AllocResult allocResult = SimpleGeneralServiceModel.checkOptimized(queueingNetwork,
-                spInfo.getRealLatencyMilliSec(), targetQoSMs, boltAllocation, maxThreadAvailable4Bolt);
+                realLatencyMs, targetQoSMs, boltAllocation, maxThreadAvailable4Bolt, withLatencyCurve);
         Map<String, Integer> retCurrAllocation = new HashMap<>(currAllocation);
         // merge the optimized decision into source allocation
         retCurrAllocation.putAll(allocResult.currOptAllocation);
@@ -148,7 +203,46 @@ public class SimpleGeneralAllocCalculator extends AllocCalculator {
             // merge the optimized decision into source allocation
             retMinReqAllocation.putAll(allocResult.minReqOptAllocation);
         }
-        return new AllocResult(allocResult.status, retMinReqAllocation, retCurrAllocation);
+        return allocResult.withAllocations(retMinReqAllocation, retCurrAllocation);
+    }
+
+    /**
+     * Replace the arrival rate of each bolt with the predicted one, so that the allocation is computed against
+     * the workload at the time it takes effect. The measured latency is scaled by the same ratio as the estimated
+     * latency of current allocation, which keeps the under-estimate ratio learned from the measured workload.
+     *
+     * @return scaled real latency
+     */
+    private double applyForecast(Map<String, ServiceNode> queueingNetwork, Map<String, Integer> boltAllocation,
+                                 double realLatencyMs) {
+        double estMeasured = SimpleGeneralServiceModel.getErlangGeneralTopCompleteTimeMilliSec(queueingNetwork,
+                boltAllocation);
+        queueingNetwork.forEach((comp, sn) -> {
+            double lambda = boltAregatedData.getPredictedArrivalRate(comp, forecastSteps, sn.getLambda());
+            LOG.info(comp + " lambdaHis: " + sn.getLambda() + ", predicted lambda: " + lambda + ", steps: "
+                    + forecastSteps);
+            sn.setLambda(lambda);
+        });
+        double estPredicted = SimpleGeneralServiceModel.getErlangGeneralTopCompleteTimeMilliSec(queueingNetwork,
+                boltAllocation);
+        if (estMeasured < Double.MAX_VALUE && estPredicted < Double.MAX_VALUE && estMeasured > 0) {
+            return realLatencyMs * estPredicted / estMeasured;
+        }
+        return realLatencyMs;
+    }
+
+    /**
+     * Create the queueing model of a bolt, an M/M/k node is created by default.
+     *
+     * @param comp     component id
+     * @param hisCar   aggregated result of the bolt in history window
+     * @param lambda   arrival rate of the component, tuples per second
+     * @param mu       service rate of an executor, tuples per second
+     * @param i2oRatio
+     */
+    protected ServiceNode createServiceNode(String comp, BoltAggResult hisCar, double lambda, double mu,
+                                            double i2oRatio) {
+        return new ServiceNode(lambda, mu, ServiceNode.ServiceType.EXPONENTIAL, i2oRatio);
     }
 
     @Override
@@ -4,6 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import resa.util.ConfigUtil;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -38,7 +39,7 @@ public class SimpleGeneralServiceModel {
             ServiceNode sn = e.getValue();
             Integer serverCount = allocation.get(cid);
             // Objects.requireNonNull(serverCount, "No allocation entry find for this component" + cid);
-            double est = sn.estErlangT(serverCount);
+            double est = sn.estSojournTime(serverCount);
             if (est < Double.MAX_VALUE) {
                 retVal += (est * sn.getI2oRatio());
             } else {
@@ -89,56 +90,7 @@ public class SimpleGeneralServiceModel {
      * otherwise, the Map data structure.
      */
     public static Map<String, Integer> suggestAllocationGeneralTop(Map<String, ServiceNode> components, int totalResourceCount) {
-        Map<String, Integer> retVal = components.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey,
-                e -> e.getValue().getMinReqServerCount()));
-        int topMinReq = retVal.values().stream().mapToInt(Integer::intValue).sum();
-
-        LOG.info("totalResourceCount: " + totalResourceCount + ", topMinReq: " + topMinReq);
-        if (topMinReq <= totalResourceCount) {
-            int remainCount = totalResourceCount - topMinReq;
-            for (int i = 0; i < remainCount; i++) {
-                double maxDiff = -1;
-                String maxDiffCid = null;
-
-                for (Map.Entry<String, ServiceNode> e : components.entrySet()) {
-                    String cid = e.getKey();
-                    ServiceNode sn = e.getValue();
-                    int currentAllocated = retVal.get(cid);
-
-                    double beforeAddT = sn.estErlangT(currentAllocated);
-                    double afterAddT = sn.estErlangT(currentAllocated + 1);
-
-                    double diff = (beforeAddT - afterAddT) * sn.getI2oRatio();
-                    if (diff > maxDiff) {
-                        maxDiff = diff;
-                        maxDiffCid = cid;
-                    }
-                }
-                if (maxDiffCid != null) {
-                    int newAllocate = retVal.compute(maxDiffCid, (k, count) -> count + 1);
-                    LOG.debug((i + 1) + " of " + remainCount + ", assigned to " + maxDiffCid + ", newAllocate: "
-                            + newAllocate);
-                } else {
-                    LOG.info("Null MaxDiffCid returned in " + (i + 1) + " of " + remainCount);
-                    for (Map.Entry<String, ServiceNode> e : components.entrySet()) {
-                        String cid = e.getKey();
-                        ServiceNode sn = e.getValue();
-                        int currentAllocated = retVal.get(cid);
-
-                        double beforeAddT = sn.estErlangT(currentAllocated);
-                        double afterAddT = sn.estErlangT(currentAllocated + 1);
-
-                        LOG.info(cid + ", currentAllocated: " + currentAllocated
-                                + ", beforeAddT: " + beforeAddT
-                                + ", afterAddT: " + afterAddT);
-                    }
-                    return retVal;
-                }
-            }
-        } else {
-            return null;
-        }
-        return retVal;
+        return MarginalGainAllocator.allocate(components, ServiceNode::getI2oRatio, totalResourceCount, -1);
     }
 
     /**
@@ -169,9 +121,14 @@ public class SimpleGeneralServiceModel {
 
         Map<String, Integer> currAllocation = null;
         if (lowerBoundServiceTime * adjRatio + lowerBoundDelta < maxAllowedCompleteTime) {
+            // greedy allocation is incremental, so one more executor is assigned in each round
+            MarginalGainAllocator allocator = new MarginalGainAllocator(components, ServiceNode::getI2oRatio, -1);
             double currTime;
             do {
-                currAllocation = suggestAllocationGeneralTop(components, totalMinReq);
+                if (allocator.getTotalAllocated() < totalMinReq) {
+                    allocator.step();
+                }
+                currAllocation = allocator.getAllocation();
                 currTime = getErlangGeneralTopCompleteTime(components, currAllocation) * adjRatio;
 
                 LOG.info("getMinReqServAllcQoS: " + maxAllowedCompleteTime * 1000.0 + ", currTime(ms): "
@@ -198,6 +155,33 @@ public class SimpleGeneralServiceModel {
         return getMinReqServerAllocationGeneralTop(components, maxAllowedCompleteTime, 0.0, adjRatio, maxAvailableExec);
     }
 
+    /**
+     * Estimated latency of the greedy allocation for each total executor count, from the total minimum requirement
+     * to maxAvailableExec. The curve ends earlier if no more executor could be assigned.
+     *
+     * @return latency in millisecond, index 0 corresponds to the total minimum requirement
+     */
+    public static double[] getLatencyCurveGeneralTop(Map<String, ServiceNode> components, double adjRatio,
+                                                     int maxAvailableExec) {
+        MarginalGainAllocator allocator = new MarginalGainAllocator(components, ServiceNode::getI2oRatio, -1);
+        int size = Math.max(0, maxAvailableExec - allocator.getTotalAllocated() + 1);
+        double[] curve = new double[size];
+        int i = 0;
+        while (i < size) {
+            curve[i++] = adjust(getErlangGeneralTopCompleteTimeMilliSec(components, allocator.getAllocation()),
+                    adjRatio);
+            if (!allocator.step()) {
+                break;
+            }
+        }
+        return i < size ? Arrays.copyOf(curve, i) : curve;
+    }
+
+    /* Double.MAX_VALUE indicates unstable, it is kept */
+    static double adjust(double latency, double adjRatio) {
+        return latency < Double.MAX_VALUE ? latency * adjRatio : Double.MAX_VALUE;
+    }
+
     public static int totalServerCountInvolved(Map<String, Integer> allocation) {
         return Objects.requireNonNull(allocation).values().stream().mapToInt(i -> i).sum();
     }
@@ -216,6 +200,16 @@ public class SimpleGeneralServiceModel {
     public static AllocResult checkOptimized(Map<String, ServiceNode> queueingNetwork, double realLatencyMilliSec,
                                              double targetQoSMilliSec, Map<String, Integer> currBoltAllocation,
                                              int maxAvailable4Bolt) {
+        return checkOptimized(queueingNetwork, realLatencyMilliSec, targetQoSMilliSec, currBoltAllocation,
+                maxAvailable4Bolt, false);
+    }
+
+    /**
+     * @param withLatencyCurve whether to compute the latency curve, which is only used by the cluster arbiter
+     */
+    public static AllocResult checkOptimized(Map<String, ServiceNode> queueingNetwork, double realLatencyMilliSec,
+                                             double targetQoSMilliSec, Map<String, Integer> currBoltAllocation,
+                                             int maxAvailable4Bolt, boolean withLatencyCurve) {
 
         ///Caution about the time unit!, second is used in all the functions of calculation
         /// millisecond is used in the output display!
@@ -234,6 +228,12 @@ public class SimpleGeneralServiceModel {
         }
         LOG.info("Find out best allocation given available executors.");
         Map<String, Integer> after = suggestAllocationGeneralTop(queueingNetwork, maxAvailable4Bolt);
-        return new AllocResult(status, minReqAllocation, after);
+        AllocResult result = new AllocResult(status, minReqAllocation, after);
+        if (withLatencyCurve) {
+            result.setLatencyCurve(getTotalMinRequirement(queueingNetwork),
+                    getLatencyCurveGeneralTop(queueingNetwork, underEstimateRatio, maxAvailable4Bolt * 2));
+        }
+        return result.setPredictedLatency(adjust(estimatedLatencyMilliSec, underEstimateRatio),
+                        adjust(getErlangGeneralTopCompleteTimeMilliSec(queueingNetwork, after), underEstimateRatio));
     }
 }
@@ -1,5 +1,7 @@
 package resa.optimize;
 
+import resa.util.LogHistogram;
+
 import java.util.HashMap;
 import java.util.Map;
 
@@ -9,21 +11,78 @@ import java.util.Map;
 public class SpoutAggResult extends AggResult {
 
     private Map<String, CntMeanVar> completedLatency = new HashMap<>();
+    ///histogram of complete latency, unit is microsecond
+    private Map<String, LogHistogram> completedLatencyHist = new HashMap<>();
+    ///number of completed tuples scaled by the reported sample rate of each stream
+    private double estCompletedCount = 0;
+    ///sampled completed tuples without a reported sample rate
+    private double unratedCompletedCount = 0;
 
     public Map<String, CntMeanVar> getCompletedLatency() {
         return completedLatency;
     }
 
+    public Map<String, LogHistogram> getCompletedLatencyHist() {
+        return completedLatencyHist;
+    }
+
+    /**
+     * Add the number of sampled completed tuples of one stream in a bucket.
+     *
+     * @param sampledCnt
+     * @param sampleRate the effective sample rate of the stream in the bucket, non-positive if it is unknown
+     */
+    public void addCompletedCount(long sampledCnt, double sampleRate) {
+        if (sampleRate > 0) {
+            estCompletedCount += sampledCnt / sampleRate;
+        } else {
+            unratedCompletedCount += sampledCnt;
+        }
+    }
+
+    /**
+     * @param defaultSampleRate the rate used for the buckets without a reported sample rate
+     * @return estimated number of completed tuples of all streams
+     */
+    public double getEstimatedCompletedCount(double defaultSampleRate) {
+        return estCompletedCount + unratedCompletedCount / defaultSampleRate;
+    }
+
     public CntMeanVar getCombinedCompletedLatency() {
         CntMeanVar retVal = new CntMeanVar();
         completedLatency.values().stream().forEach(retVal::addCMV);
         return retVal;
     }
 
+    public LogHistogram getCombinedCompletedLatencyHist() {
+        return LogHistogram.mergeAll(completedLatencyHist.values());
+    }
+
+    /**
+     * @param percentile in range (0, 100]
+     * @return the complete latency at the given percentile of all streams, unit is millisecond
+     */
+    public double getCompletedLatencyPercentile(double percentile) {
+        return getCombinedCompletedLatencyHist().getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    @Override
+    public void decay(double factor) {
+        super.decay(factor);
+        completedLatency.values().forEach(cmv -> cmv.decay(factor));
+        completedLatencyHist.values().forEach(hist -> hist.scale(factor));
+        estCompletedCount *= factor;
+        unratedCompletedCount *= factor;
+    }
+
     @Override
     public void add(AggResult r) {
         super.add(r);
         ((SpoutAggResult) r).completedLatency.forEach((s, cntMeanVar) ->
                 this.completedLatency.computeIfAbsent(s, (k) -> new CntMeanVar()).addCMV(cntMeanVar));
+        ((SpoutAggResult) r).completedLatencyHist.forEach((s, hist) ->
+                this.completedLatencyHist.computeIfAbsent(s, (k) -> hist.emptyCopy()).merge(hist));
+        this.estCompletedCount += ((SpoutAggResult) r).estCompletedCount;
+        this.unratedCompletedCount += ((SpoutAggResult) r).unratedCompletedCount;
     }
 }
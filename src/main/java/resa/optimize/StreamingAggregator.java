@@ -0,0 +1,214 @@
+package resa.optimize;
+
+import backtype.storm.generated.StormTopology;
+import backtype.storm.scheduler.ExecutorDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import resa.metrics.MeasuredData;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * A long-lived aggregator that folds each MeasuredData into the open bucket of its component as it arrives.
+ * Each optimize round closes the open buckets by calling advance, and then reads the windowed results. So a
+ * round costs O(components) no matter how long the window is.
+ * <p>
+ * Two window modes are supported:
+ * SLIDING keeps the latest N buckets in two stacks, the front stack stores suffix aggregates of older buckets,
+ * so that expiring a bucket costs amortized O(1) merges and no subtraction is needed.
+ * DECAY keeps one aggregate which is scaled by a factor before a new bucket is added.
+ * <p>
+ * The task to component index is built from executors and kept until the executors change.
+ * This class is not thread-safe.
+ */
+public class StreamingAggregator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingAggregator.class);
+
+    public enum WindowMode {
+        SLIDING, DECAY
+    }
+
+    private static class CompWindow {
+        final boolean isSpout;
+        AggResult open;
+        ///sliding mode, top of front is the aggregate of all the buckets in front
+        final Deque<AggResult> front = new ArrayDeque<>();
+        final List<AggResult> back = new ArrayList<>();
+        AggResult backAgg;
+        ///decay mode
+        AggResult decayed;
+
+        CompWindow(boolean isSpout) {
+            this.isSpout = isSpout;
+            clear();
+        }
+
+        void clear() {
+            open = newResult();
+            front.clear();
+            back.clear();
+            backAgg = newResult();
+            decayed = newResult();
+        }
+
+        AggResult newResult() {
+            return isSpout ? new SpoutAggResult() : new BoltAggResult();
+        }
+    }
+
+    private final StormTopology rawTopo;
+    private final WindowMode mode;
+    private final int windowSize;
+    private final double decayFactor;
+    private final Map<String, CompWindow> compWindows = new HashMap<>();
+    private Map<Integer, CompWindow> task2Window = Collections.emptyMap();
+    private Set<Integer> firstTasks = Collections.emptySet();
+    ///start tasks of each component, used to detect executor changes
+    private Map<String, Set<Integer>> currExecutors;
+    private int numBuckets = 0;
+
+    /**
+     * @param windowSize  number of buckets in SLIDING mode
+     * @param decayFactor the weight of old data is multiplied by this on each advance in DECAY mode
+     */
+    public StreamingAggregator(StormTopology rawTopo, WindowMode mode, int windowSize, double decayFactor) {
+        if (windowSize < 1 || decayFactor < 0 || decayFactor > 1) {
+            throw new IllegalArgumentException("Bad window size or decay factor: " + windowSize + ", "
+                    + decayFactor);
+        }
+        this.rawTopo = rawTopo;
+        this.mode = mode;
+        this.windowSize = windowSize;
+        this.decayFactor = decayFactor;
+    }
+
+    /**
+     * Rebuild the task index if executors changed, all the windows are reset in this case.
+     *
+     * @return true if executors changed
+     */
+    public boolean updateExecutors(Map<String, List<ExecutorDetails>> comp2Executors) {
+        Map<String, Set<Integer>> executors = comp2Executors.entrySet().stream().collect(Collectors.toMap(
+                Map.Entry::getKey, e -> e.getValue().stream().map(ExecutorDetails::getStartTask)
+                        .collect(Collectors.toSet())));
+        if (executors.equals(currExecutors)) {
+            return false;
+        }
+        currExecutors = executors;
+        compWindows.clear();
+        Map<Integer, CompWindow> index = new HashMap<>();
+        comp2Executors.forEach((comp, exeList) -> {
+            CompWindow window = new CompWindow(rawTopo.get_spouts().containsKey(comp));
+            compWindows.put(comp, window);
+            exeList.forEach(e -> IntStream.rangeClosed(e.getStartTask(), e.getEndTask())
+                    .forEach(task -> index.put(task, window)));
+        });
+        task2Window = index;
+        firstTasks = executors.values().stream().flatMap(Set::stream).collect(Collectors.toSet());
+        numBuckets = 0;
+        LOG.debug("Task index rebuilt, executors: " + executors);
+        return true;
+    }
+
+    /**
+     * Fold a measured data into the open bucket of its component, data of unknown tasks is ignored.
+     *
+     * @return false if the data is ignored
+     */
+    public boolean add(MeasuredData measuredData) {
+        CompWindow window = task2Window.get(measuredData.task);
+        if (window == null) {
+            return false;
+        }
+        AggResultCalculator.parse(measuredData, window.open, window.isSpout, firstTasks.contains(measuredData.task));
+        return true;
+    }
+
+    public void addAll(Iterable<MeasuredData> data) {
+        int count = 0, ignored = 0;
+        for (MeasuredData measuredData : data) {
+            if (!add(measuredData)) {
+                ignored++;
+            }
+            count++;
+        }
+        LOG.info("processed measuredData size: " + count + ", ignored: " + ignored);
+    }
+
+    /**
+     * Close the open buckets and move them into windows.
+     */
+    public void advance() {
+        compWindows.values().forEach(window -> {
+            AggResult bucket = window.open;
+            window.open = window.newResult();
+            if (mode == WindowMode.DECAY) {
+                window.decayed.decay(decayFactor);
+                window.decayed.add(bucket);
+                return;
+            }
+            window.back.add(bucket);
+            window.backAgg.add(bucket);
+            if (window.front.size() + window.back.size() > windowSize) {
+                if (window.front.isEmpty()) {
+                    flip(window);
+                }
+                window.front.pop();
+            }
+        });
+        numBuckets = Math.min(numBuckets + 1, mode == WindowMode.DECAY ? Integer.MAX_VALUE : windowSize);
+    }
+
+    /* move buckets from back to front, computing suffix aggregates from the newest bucket */
+    private void flip(CompWindow window) {
+        AggResult running = null;
+        for (int i = window.back.size() - 1; i >= 0; i--) {
+            AggResult agg = window.newResult();
+            if (running != null) {
+                agg.add(running);
+            }
+            agg.add(window.back.get(i));
+            window.front.push(agg);
+            running = agg;
+        }
+        window.back.clear();
+        window.backAgg = window.newResult();
+    }
+
+    /**
+     * @return number of buckets in window, or number of advances in DECAY mode
+     */
+    public int getNumBuckets() {
+        return numBuckets;
+    }
+
+    /**
+     * @return windowed result of each component
+     */
+    public Map<String, AggResult> getResults() {
+        return compWindows.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> {
+            CompWindow window = e.getValue();
+            AggResult result = window.newResult();
+            if (mode == WindowMode.DECAY) {
+                result.add(window.decayed);
+            } else {
+                if (!window.front.isEmpty()) {
+                    result.add(window.front.peek());
+                }
+                result.add(window.backAgg);
+            }
+            return result;
+        }));
+    }
+
+    /**
+     * Drop all the data in windows, task index is kept.
+     */
+    public void reset() {
+        compWindows.values().forEach(CompWindow::clear);
+        numBuckets = 0;
+    }
+}
@@ -0,0 +1,428 @@
+package resa.optimize;
+
+import backtype.storm.generated.Bolt;
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.generated.StormTopology;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import resa.util.LogHistogram;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+
+/**
+ * Discrete-event simulator of a topology as a network of multi-server queues, so that allocations can be
+ * evaluated offline without a cluster.
+ * <p>
+ * Each spout emits root tuples with the given inter-arrival distribution, and each emitted tuple is sent to all
+ * the subscribing bolts. Each bolt is a FIFO queue served by its executors, after executing an input tuple it emits
+ * floor(r) or floor(r) + 1 tuples with mean r, its emit ratio. A root tuple completes when its whole tuple tree is
+ * executed, the same as the ack of storm. Network and acker are not modeled.
+ * <p>
+ * A simulator is immutable after built, so that candidates can be simulated in parallel.
+ */
+public class TopologySimulator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopologySimulator.class);
+
+    /**
+     * Gamma distribution fitted by mean and squared coefficient of variation, deterministic if scv is 0.
+     * Exponential is the special case scv = 1. Mean must be positive and finite, otherwise a spout would emit
+     * infinitely many tuples at the same time, or never emit.
+     */
+    public static class Distribution {
+        private static final double MIN_MEAN_MS = 0.001;
+
+        public final double mean;
+        public final double scv;
+
+        public Distribution(double mean, double scv) {
+            if (!(mean > 0) || Double.isInfinite(mean) || !(scv >= 0) || Double.isInfinite(scv)) {
+                throw new IllegalArgumentException("Bad mean or scv: " + mean + ", " + scv);
+            }
+            this.mean = mean;
+            this.scv = scv;
+        }
+
+        /**
+         * @param cmv measured values, unit is millisecond
+         * @return distribution in second, scv is 1 if less than 2 values were measured
+         */
+        static Distribution fit(CntMeanVar cmv) {
+            double scv = cmv.getCount() > 1 ? cmv.getScv() : 1.0;
+            // execute time is measured in microsecond, so a mean under it is taken as 1 microsecond
+            return new Distribution(Math.max(cmv.getAvg(), MIN_MEAN_MS) / 1000.0, Double.isFinite(scv)
+                    ? Math.max(scv, 0.0) : 1.0);
+        }
+
+        public double sample(Random rand) {
+            if (scv < 1e-9) {
+                return mean;
+            }
+            double shape = 1.0 / scv;
+            return sampleGamma(shape, rand) * mean * scv;
+        }
+
+        /* Marsaglia and Tsang's method, shape less than 1 is boosted by U^(1/shape) */
+        private static double sampleGamma(double shape, Random rand) {
+            if (shape < 1) {
+                return sampleGamma(shape + 1, rand) * Math.pow(rand.nextDouble(), 1.0 / shape);
+            }
+            double d = shape - 1.0 / 3, c = 1.0 / Math.sqrt(9 * d);
+            while (true) {
+                double x, v;
+                do {
+                    x = rand.nextGaussian();
+                    v = 1 + c * x;
+                } while (v <= 0);
+                v = v * v * v;
+                double u = rand.nextDouble();
+                if (Math.log(u) < 0.5 * x * x + d - d * v + d * Math.log(v)) {
+                    return d * v;
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("(mean: %.6f, scv: %.3f)", mean, scv);
+        }
+    }
+
+    public static class SimResult {
+        ///complete latency of root tuples, unit is microsecond
+        private final LogHistogram latencyHist = new LogHistogram();
+        private double latencySum = 0;
+        private long completed = 0;
+        private double measuredSecs;
+        private boolean stable = true;
+        private final Map<String, Double> utilization = new HashMap<>();
+
+        public LogHistogram getLatencyHist() {
+            return latencyHist;
+        }
+
+        /**
+         * @return unit is millisecond
+         */
+        public double getAvgLatency() {
+            return completed == 0 ? Double.MAX_VALUE : latencySum / completed * 1000.0;
+        }
+
+        /**
+         * @param percentile in range (0, 100]
+         * @return unit is millisecond
+         */
+        public double getLatencyPercentile(double percentile) {
+            return latencyHist.getValueAtPercentile(percentile) / 1000.0;
+        }
+
+        /**
+         * @return completed root tuples per second
+         */
+        public double getThroughput() {
+            return completed / measuredSecs;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * @return false if simulation is aborted because of too many pending tuples
+         */
+        public boolean isStable() {
+            return stable;
+        }
+
+        /**
+         * @return busy ratio of the executors of each bolt
+         */
+        public Map<String, Double> getUtilization() {
+            return utilization;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("avg(ms): %.3f, p50(ms): %.3f, p99(ms): %.3f, throughput: %.3f, stable: %s",
+                    getAvgLatency(), getLatencyPercentile(50), getLatencyPercentile(99), getThroughput(), stable);
+        }
+    }
+
+    private final StormTopology topology;
+    private final Map<String, Distribution> spoutInterArrivals;
+    private final Map<String, Distribution> boltServiceTimes;
+    private final Map<String, Double> emitRatios;
+    private final Map<String, List<String>> subscribers;
+    private double durationSecs = 600;
+    private double warmupSecs = 60;
+    private int maxPendingTuples = 1000000;
+
+    /**
+     * @param spoutInterArrivals inter-arrival time of root tuples of each spout, unit is second
+     * @param boltServiceTimes   execute time of each bolt, unit is second
+     * @param emitRatios         mean number of tuples emitted per executed tuple of each bolt, 0 if absent
+     */
+    public TopologySimulator(StormTopology topology, Map<String, Distribution> spoutInterArrivals,
+                             Map<String, Distribution> boltServiceTimes, Map<String, Double> emitRatios) {
+        this.topology = topology;
+        this.spoutInterArrivals = spoutInterArrivals;
+        this.boltServiceTimes = boltServiceTimes;
+        this.emitRatios = emitRatios;
+        this.subscribers = getSubscribers(topology);
+    }
+
+    /* bolts subscribing any stream of each component, bolts are sorted so that simulation is repeatable */
+    private static Map<String, List<String>> getSubscribers(StormTopology topology) {
+        Map<String, Set<String>> subscribers = new HashMap<>();
+        for (Map.Entry<String, Bolt> e : topology.get_bolts().entrySet()) {
+            for (GlobalStreamId input : e.getValue().get_common().get_inputs().keySet()) {
+                subscribers.computeIfAbsent(input.get_componentId(), k -> new TreeSet<>()).add(e.getKey());
+            }
+        }
+        return subscribers.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey,
+                e -> new ArrayList<>(e.getValue())));
+    }
+
+    /**
+     * Fit the distributions from measured data, with the same rate conventions as SimpleGeneralAllocCalculator.
+     *
+     * @param compResults     aggregated result of each component
+     * @param currAllocation  allocation when the data was measured
+     */
+    public static TopologySimulator fromAggResults(StormTopology topology, Map<String, AggResult> compResults,
+                                                   Map<String, Integer> currAllocation) {
+        Map<String, Distribution> spouts = new HashMap<>();
+        Map<String, Distribution> bolts = new HashMap<>();
+        Map<String, Double> emitRatios = new HashMap<>();
+        compResults.forEach((comp, result) -> {
+            int numExecutors = currAllocation.get(comp);
+            if (topology.get_spouts().containsKey(comp)) {
+                double rate = SimpleGeneralAllocCalculator.getSpoutEmitRate(result, numExecutors);
+                if (!(rate > 0) || Double.isInfinite(rate)) {
+                    LOG.warn("Spout " + comp + " is skipped, emit rate is " + rate);
+                    return;
+                }
+                QueueAggResult sendQueue = result.getSendQueueResult();
+                // scv of the merged arrivals of executors, see GGkAllocCalculator
+                double scv = sendQueue.getBucketCount() >= 5 ?
+                        Math.max(0.0, numExecutors * sendQueue.getArrivalDispersion() - (numExecutors - 1)) : 1.0;
+                spouts.put(comp, new Distribution(1.0 / rate, scv));
+            } else {
+                BoltAggResult boltResult = (BoltAggResult) result;
+                bolts.put(comp, Distribution.fit(boltResult.getCombinedProcessedResult()));
+                double arrivalRate = boltResult.getArrivalRatePerSec();
+                emitRatios.put(comp, arrivalRate > 0 ? boltResult.getDepartureRatePerSec() / arrivalRate : 0.0);
+            }
+        });
+        LOG.info("spouts: " + spouts + ", bolts: " + bolts + ", emitRatios: " + emitRatios);
+        return new TopologySimulator(topology, spouts, bolts, emitRatios);
+    }
+
+    /**
+     * @param durationSecs simulated time
+     * @param warmupSecs   root tuples emitted before this are not measured
+     */
+    public TopologySimulator setDuration(double durationSecs, double warmupSecs) {
+        if (warmupSecs < 0 || durationSecs <= warmupSecs) {
+            throw new IllegalArgumentException("Bad duration or warmup: " + durationSecs + ", " + warmupSecs);
+        }
+        this.durationSecs = durationSecs;
+        this.warmupSecs = warmupSecs;
+        return this;
+    }
+
+    /**
+     * @param maxPendingTuples simulation is aborted if more tuples are pending, which means the allocation is
+     *                         not stable
+     */
+    public TopologySimulator setMaxPendingTuples(int maxPendingTuples) {
+        this.maxPendingTuples = maxPendingTuples;
+        return this;
+    }
+
+    private static class RootTuple {
+        final double emitTime;
+        int pending = 0;
+
+        RootTuple(double emitTime) {
+            this.emitTime = emitTime;
+        }
+    }
+
+    private static class Station {
+        final String comp;
+        final int servers;
+        final Distribution service;
+        final double emitRatio;
+        final List<Station> subscribers = new ArrayList<>();
+        final ArrayDeque<RootTuple> queue = new ArrayDeque<>();
+        int busy = 0;
+        double busyTime = 0;
+
+        Station(String comp, int servers, Distribution service, double emitRatio) {
+            this.comp = comp;
+            this.servers = servers;
+            this.service = service;
+            this.emitRatio = emitRatio;
+        }
+    }
+
+    private static class Event implements Comparable<Event> {
+        final double time;
+        final long seq;
+        ///station finishing a tuple, or null for a spout emit
+        final Station station;
+        final RootTuple root;
+        final String spout;
+
+        Event(double time, long seq, Station station, RootTuple root, String spout) {
+            this.time = time;
+            this.seq = seq;
+            this.station = station;
+            this.root = root;
+            this.spout = spout;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            int ret = Double.compare(time, o.time);
+            return ret != 0 ? ret : Long.compare(seq, o.seq);
+        }
+    }
+
+    /* state of one simulation run */
+    private class Run {
+        final Random rand;
+        final PriorityQueue<Event> events = new PriorityQueue<>();
+        final Map<String, Station> stations = new HashMap<>();
+        final Map<String, List<Station>> spoutSubscribers = new HashMap<>();
+        final SimResult result = new SimResult();
+        long seq = 0;
+        long pendingTuples = 0;
+        double now = 0;
+
+        Run(Map<String, Integer> boltAllocation, long seed) {
+            rand = new Random(seed);
+            boltServiceTimes.forEach((comp, service) -> {
+                Integer servers = boltAllocation.get(comp);
+                if (servers == null || servers <= 0) {
+                    throw new IllegalArgumentException("No executor allocated to bolt " + comp);
+                }
+                stations.put(comp, new Station(comp, servers, service, emitRatios.getOrDefault(comp, 0.0)));
+            });
+            stations.values().forEach(station -> station.subscribers.addAll(getStations(station.comp)));
+            spoutInterArrivals.keySet().forEach(spout -> spoutSubscribers.put(spout, getStations(spout)));
+        }
+
+        List<Station> getStations(String comp) {
+            return subscribers.getOrDefault(comp, Collections.emptyList()).stream().map(stations::get)
+                    .filter(Objects::nonNull).collect(Collectors.toList());
+        }
+
+        void schedule(double time, Station station, RootTuple root, String spout) {
+            events.add(new Event(time, seq++, station, root, spout));
+        }
+
+        SimResult run() {
+            new TreeSet<>(spoutInterArrivals.keySet()).forEach(spout ->
+                    schedule(spoutInterArrivals.get(spout).sample(rand), null, null, spout));
+            while (!events.isEmpty()) {
+                Event event = events.poll();
+                if (event.time > durationSecs) {
+                    break;
+                }
+                now = event.time;
+                if (event.station == null) {
+                    emitRoot(event.spout);
+                } else {
+                    finish(event.station, event.root);
+                }
+                if (pendingTuples > maxPendingTuples) {
+                    result.stable = false;
+                    break;
+                }
+            }
+            result.measuredSecs = now - warmupSecs;
+            stations.values().forEach(station -> result.utilization.put(station.comp,
+                    Math.min(1.0, station.busyTime / (station.servers * now))));
+            return result;
+        }
+
+        void emitRoot(String spout) {
+            RootTuple root = new RootTuple(now);
+            spoutSubscribers.get(spout).forEach(station -> arrive(station, root));
+            if (root.pending == 0) {
+                complete(root);
+            }
+            schedule(now + spoutInterArrivals.get(spout).sample(rand), null, null, spout);
+        }
+
+        void arrive(Station station, RootTuple root) {
+            root.pending++;
+            pendingTuples++;
+            if (station.busy < station.servers) {
+                startService(station, root);
+            } else {
+                station.queue.add(root);
+            }
+        }
+
+        void startService(Station station, RootTuple root) {
+            station.busy++;
+            double serviceTime = station.service.sample(rand);
+            station.busyTime += serviceTime;
+            schedule(now + serviceTime, station, root, null);
+        }
+
+        void finish(Station station, RootTuple root) {
+            station.busy--;
+            int children = (int) station.emitRatio;
+            if (rand.nextDouble() < station.emitRatio - children) {
+                children++;
+            }
+            for (int i = 0; i < children; i++) {
+                station.subscribers.forEach(subscriber -> arrive(subscriber, root));
+            }
+            pendingTuples--;
+            if (--root.pending == 0) {
+                complete(root);
+            }
+            RootTuple next = station.queue.poll();
+            if (next != null) {
+                startService(station, next);
+            }
+        }
+
+        void complete(RootTuple root) {
+            if (root.emitTime >= warmupSecs) {
+                double latency = now - root.emitTime;
+                result.latencyHist.record((long) (latency * 1000000));
+                result.latencySum += latency;
+                result.completed++;
+            }
+        }
+    }
+
+    /**
+     * @param boltAllocation number of executors of each bolt
+     * @param seed           seed of random numbers, use the same seed to compare allocations
+     */
+    public SimResult simulate(Map<String, Integer> boltAllocation, long seed) {
+        return new Run(boltAllocation, seed).run();
+    }
+
+    /**
+     * Simulate candidate allocations in parallel, with the same seed.
+     *
+     * @return result of each candidate, in the same order
+     */
+    public List<SimResult> evaluate(List<Map<String, Integer>> candidates, ForkJoinPool pool, long seed) {
+        List<ForkJoinTask<SimResult>> tasks = candidates.stream()
+                .map(alloc -> ForkJoinTask.adapt(() -> simulate(alloc, seed))).collect(Collectors.toList());
+        tasks.forEach(pool::execute);
+        return tasks.stream().map(ForkJoinTask::join).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,54 @@
+package resa.scheduler;
+
+import backtype.storm.utils.Utils;
+import com.netflix.curator.framework.CuratorFramework;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import resa.util.ResaConfig;
+
+import java.util.Map;
+
+/**
+ * Topology side of ClusterArbiter, publishes the demand of a topology and reads back its executor cap.
+ */
+class ArbiterClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArbiterClient.class);
+
+    private final CuratorFramework zk;
+    private final String demandPath;
+    private final String capPath;
+
+    ArbiterClient(Map<String, Object> conf, String topologyId) {
+        zk = ClusterArbiter.connect(conf);
+        String rootPath = (String) conf.getOrDefault(ResaConfig.ZK_ROOT_PATH, "/resa");
+        demandPath = rootPath + ClusterArbiter.DEMAND_PATH + '/' + topologyId;
+        capPath = rootPath + ClusterArbiter.CAP_PATH + '/' + topologyId;
+    }
+
+    void publish(TopologyDemand demand) {
+        try {
+            ClusterArbiter.writeData(zk, demandPath, Utils.serialize(demand));
+        } catch (Exception e) {
+            LOG.warn("Publish demand failed: " + demand, e);
+        }
+    }
+
+    /**
+     * @return -1 if no cap is set by arbiter
+     */
+    int getCap() {
+        try {
+            if (zk.checkExists().forPath(capPath) != null) {
+                return (Integer) Utils.deserialize(zk.getData().forPath(capPath));
+            }
+        } catch (Exception e) {
+            LOG.warn("Read executor cap failed", e);
+        }
+        return -1;
+    }
+
+    void close() {
+        zk.close();
+    }
+}
@@ -0,0 +1,240 @@
+package resa.scheduler;
+
+import backtype.storm.Config;
+import backtype.storm.generated.SupervisorSummary;
+import backtype.storm.utils.NimbusClient;
+import backtype.storm.utils.Utils;
+import com.netflix.curator.framework.CuratorFramework;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import resa.util.ConfigUtil;
+import resa.util.ResaConfig;
+import resa.util.TopologyHelper;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cluster level service which splits a global executor and worker budget among running topologies.
+ * The TopologyOptimizer of each topology publishes a TopologyDemand to zk, the arbiter computes an executor cap
+ * for each topology periodically and writes it back, see ArbiterClient.
+ * <p>
+ * Executors are handed out one at a time to the topology with the largest reduction of weighted QoS violation,
+ * ties are broken by the reduction of weighted latency, so that the spare executors go where they help most.
+ * Topologies which do not report a latency curve keep their current executors.
+ */
+public class ClusterArbiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterArbiter.class);
+
+    static final String DEMAND_PATH = "/arbiter/demands";
+    static final String CAP_PATH = "/arbiter/caps";
+
+    private static class Share {
+        final int order;
+        final TopologyDemand demand;
+        int executors;
+        double violationGain;
+        double latencyGain;
+
+        Share(int order, TopologyDemand demand, int executors) {
+            this.order = order;
+            this.demand = demand;
+            this.executors = executors;
+        }
+
+        void updateGain() {
+            violationGain = demand.getViolation(executors) - demand.getViolation(executors + 1);
+            latencyGain = demand.weight * (demand.getLatency(executors) - demand.getLatency(executors + 1))
+                    / demand.qosMs;
+        }
+    }
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "resa-arbiter");
+        t.setDaemon(true);
+        return t;
+    });
+    private final CuratorFramework zk;
+    ///reconnects after a transport error or a hung call, so that a nimbus restart does not stop the arbiter
+    private final NimbusCaller nimbusCaller;
+    private final String rootPath;
+    private final int maxExecutorsPerWorker;
+    private final int configuredMaxWorkers;
+    private final int configuredMaxExecutors;
+    private final long demandTimeoutMs;
+    private final long interval;
+
+    public ClusterArbiter(Map<String, Object> conf) {
+        zk = connect(conf);
+        rootPath = (String) conf.getOrDefault(ResaConfig.ZK_ROOT_PATH, "/resa");
+        nimbusCaller = new NimbusCaller(() -> NimbusClient.getConfiguredClient(conf), timer,
+                ConfigUtil.getInt(conf, ResaConfig.OPTIMIZE_NIMBUS_TIMEOUT, 30) * 1000L, "resa-arbiter-nimbus");
+        maxExecutorsPerWorker = ConfigUtil.getInt(conf, ResaConfig.MAX_EXECUTORS_PER_WORKER, 8);
+        configuredMaxWorkers = ConfigUtil.getInt(conf, ResaConfig.ARBITER_MAX_WORKERS, -1);
+        configuredMaxExecutors = ConfigUtil.getInt(conf, ResaConfig.ARBITER_MAX_EXECUTORS, -1);
+        interval = ConfigUtil.getInt(conf, ResaConfig.ARBITER_INTERVAL, 30) * 1000;
+        // a topology is considered dead if it does not report for several optimize intervals
+        demandTimeoutMs = ConfigUtil.getInt(conf, ResaConfig.ARBITER_DEMAND_TIMEOUT,
+                ConfigUtil.getInt(conf, ResaConfig.OPTIMIZE_INTERVAL, 30) * 5) * 1000L;
+    }
+
+    static CuratorFramework connect(Map<String, Object> conf) {
+        return Utils.newCuratorStarted(conf, (List<String>) conf.get(Config.STORM_ZOOKEEPER_SERVERS),
+                conf.get(Config.STORM_ZOOKEEPER_PORT));
+    }
+
+    static void writeData(CuratorFramework zk, String path, byte[] data) throws Exception {
+        if (zk.checkExists().forPath(path) == null) {
+            zk.create().creatingParentsIfNeeded().forPath(path, data);
+        } else {
+            zk.setData().forPath(path, data);
+        }
+    }
+
+    public void start() {
+        timer.scheduleAtFixedRate(() -> {
+            try {
+                arbitrate();
+            } catch (Throwable e) {
+                LOG.warn("arbitrate failed", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        LOG.info(String.format("Cluster arbiter started with interval %dms", interval));
+    }
+
+    public void stop() {
+        timer.shutdownNow();
+        nimbusCaller.close();
+        zk.close();
+    }
+
+    private void arbitrate() throws Exception {
+        List<TopologyDemand> demands = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (String topoId : getChildren(rootPath + DEMAND_PATH)) {
+            TopologyDemand demand = readDemand(topoId);
+            if (demand == null || now - demand.timestamp > demandTimeoutMs) {
+                LOG.info("Demand of topology " + topoId + " is expired, remove it");
+                deleteQuietly(rootPath + DEMAND_PATH + '/' + topoId);
+                deleteQuietly(rootPath + CAP_PATH + '/' + topoId);
+            } else {
+                demands.add(demand);
+            }
+        }
+        if (demands.isEmpty()) {
+            return;
+        }
+        int maxWorkers = configuredMaxWorkers > 0 ? configuredMaxWorkers : getClusterSlots();
+        int maxExecutors = configuredMaxExecutors > 0 ? configuredMaxExecutors : maxWorkers * maxExecutorsPerWorker;
+        Map<String, Integer> caps = split(demands, maxExecutors, maxWorkers, maxExecutorsPerWorker);
+        LOG.info("maxExecutors: " + maxExecutors + ", maxWorkers: " + maxWorkers + ", caps: " + caps);
+        for (Map.Entry<String, Integer> e : caps.entrySet()) {
+            writeData(zk, rootPath + CAP_PATH + '/' + e.getKey(), Utils.serialize(e.getValue()));
+        }
+    }
+
+    private List<String> getChildren(String path) throws Exception {
+        if (zk.checkExists().forPath(path) == null) {
+            return Collections.emptyList();
+        }
+        return zk.getChildren().forPath(path);
+    }
+
+    private TopologyDemand readDemand(String topoId) {
+        try {
+            byte[] data = zk.getData().forPath(rootPath + DEMAND_PATH + '/' + topoId);
+            if (data != null) {
+                return (TopologyDemand) Utils.deserialize(data);
+            }
+        } catch (Exception e) {
+            LOG.warn("Read demand of topology " + topoId + " failed", e);
+        }
+        return null;
+    }
+
+    private void deleteQuietly(String path) {
+        try {
+            if (zk.checkExists().forPath(path) != null) {
+                zk.delete().forPath(path);
+            }
+        } catch (Exception e) {
+            LOG.warn("Delete " + path + " failed", e);
+        }
+    }
+
+    /* total worker slots of all the supervisors */
+    private int getClusterSlots() {
+        try {
+            return nimbusCaller.call(nimbus -> nimbus.getClusterInfo().get_supervisors().stream()
+                    .mapToInt(SupervisorSummary::get_num_workers).sum());
+        } catch (Exception e) {
+            throw new RuntimeException("Get cluster info from nimbus failed", e);
+        }
+    }
+
+    /**
+     * Split the budget among topologies. Each topology starts from its minimum requirement, if the sum of them
+     * exceeds the budget, the minimum requirements are returned.
+     *
+     * @return executor cap of each topology
+     */
+    public static Map<String, Integer> split(Collection<TopologyDemand> demands, int maxExecutors, int maxWorkers,
+                                             int maxExecutorsPerWorker) {
+        Map<String, Integer> caps = new HashMap<>();
+        PriorityQueue<Share> heap = new PriorityQueue<>(Math.max(1, demands.size()), (s1, s2) -> {
+            int ret = Double.compare(s2.violationGain, s1.violationGain);
+            if (ret == 0) {
+                ret = Double.compare(s2.latencyGain, s1.latencyGain);
+            }
+            return ret != 0 ? ret : Integer.compare(s1.order, s2.order);
+        });
+        List<Share> shares = new ArrayList<>(demands.size());
+        int totalExecutors = 0, totalWorkers = 0;
+        for (TopologyDemand demand : demands) {
+            Share share = new Share(shares.size(), demand, demand.hasLatencyCurve() ? demand.baseExecutors
+                    : demand.currExecutors);
+            shares.add(share);
+            totalExecutors += share.executors;
+            totalWorkers += TopologyHelper.getNumWorkers(share.executors, maxExecutorsPerWorker);
+            if (demand.hasLatencyCurve()) {
+                share.updateGain();
+                heap.add(share);
+            }
+        }
+        if (totalExecutors > maxExecutors || totalWorkers > maxWorkers) {
+            LOG.warn("Minimum requirement exceeds the budget, executors: " + totalExecutors + ", workers: "
+                    + totalWorkers);
+        }
+        while (totalExecutors < maxExecutors && !heap.isEmpty()) {
+            Share top = heap.poll();
+            if (!(top.violationGain > 0 || top.latencyGain > 0)) {
+                break;
+            }
+            int newWorkers = TopologyHelper.getNumWorkers(top.executors + 1, maxExecutorsPerWorker)
+                    - TopologyHelper.getNumWorkers(top.executors, maxExecutorsPerWorker);
+            if (totalWorkers + newWorkers > maxWorkers) {
+                // used workers never decrease, so this topology can not grow any more
+                continue;
+            }
+            top.executors++;
+            totalExecutors++;
+            totalWorkers += newWorkers;
+            top.updateGain();
+            heap.add(top);
+        }
+        shares.forEach(s -> caps.put(s.demand.topologyId, s.executors));
+        return caps;
+    }
+
+    public static void main(String[] args) {
+        ClusterArbiter arbiter = new ClusterArbiter(ResaConfig.create(true));
+        arbiter.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(arbiter::stop));
+        while (true) {
+            Utils.sleep(60000);
+        }
+    }
+}
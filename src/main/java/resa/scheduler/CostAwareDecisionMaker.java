@@ -0,0 +1,125 @@
+package resa.scheduler;
+
+import backtype.storm.generated.StormTopology;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import resa.optimize.AggResult;
+import resa.optimize.AllocResult;
+import resa.optimize.BoltAggResult;
+import resa.util.ConfigUtil;
+import resa.util.ResaConfig;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Apply a new allocation only if the expected gain pays off the cost of rebalance.
+ * <p>
+ * The topology pauses during a rebalance, for the waiting time, the restart of workers, the transfer of
+ * checkpoints (reported sizes over a configured bandwidth) and the measured reload time. Tuples arriving in
+ * a pause of p seconds wait p / 2 on average, so the cost is p * p / 2 in latency-seconds. The gain is the reduction
+ * of predicted latency amortized over a horizon.
+ * <p>
+ * A latency reduction less than the hysteresis ratio is ignored. Allocations which increase latency (e.g. releasing
+ * executors) are accepted only if the predicted latency stays below QoS by the hysteresis ratio. No change is
+ * made within the minimum dwell time after the allocation changed.
+ */
+public class CostAwareDecisionMaker implements DecisionMaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CostAwareDecisionMaker.class);
+
+    private StormTopology rawTopology;
+    private double horizonSecs;
+    private long minDwellMs;
+    private double hysteresis;
+    private double qosMs;
+    private double fixedPauseSecs;
+    private double bandwidth;
+    ///latest checkpoint size of each task, and the latest measured reload time of the slowest component
+    private final Map<Integer, Long> stateSize = new HashMap<>();
+    private double reloadMs = 0;
+    private Map<String, Integer> lastAlloc;
+    private long lastChange;
+
+    @Override
+    public void init(Map<String, Object> conf, StormTopology rawTopology) {
+        this.rawTopology = rawTopology;
+        horizonSecs = ConfigUtil.getDouble(conf, "resa.scheduler.decision.horizon.secs", 600);
+        minDwellMs = (long) (ConfigUtil.getDouble(conf, "resa.scheduler.decision.min.dwell.secs", 120) * 1000);
+        hysteresis = ConfigUtil.getDouble(conf, "resa.scheduler.decision.hysteresis", 0.1);
+        qosMs = ConfigUtil.getDouble(conf, "resa.opt.smd.qos.ms", 5000.0);
+        fixedPauseSecs = Math.max(0, ConfigUtil.getInt(conf, ResaConfig.REBALANCE_WAITING_SECS, -1))
+                + ConfigUtil.getDouble(conf, "resa.scheduler.decision.restart.secs", 5);
+        bandwidth = ConfigUtil.getDouble(conf, "resa.scheduler.decision.bandwidth.bytes", 50 * 1024 * 1024);
+    }
+
+    @Override
+    public void updateMeasurements(Map<String, AggResult> compResults) {
+        double maxReload = -1;
+        for (Map.Entry<String, AggResult> e : compResults.entrySet()) {
+            if (!rawTopology.get_bolts().containsKey(e.getKey())) {
+                continue;
+            }
+            BoltAggResult result = (BoltAggResult) e.getValue();
+            stateSize.putAll(result.getStateSize());
+            maxReload = Math.max(maxReload, result.getAvgReloadTime());
+        }
+        // reload time is reported only after a rebalance, keep the last one
+        if (maxReload >= 0) {
+            reloadMs = maxReload;
+        }
+    }
+
+    /**
+     * @return estimated pause of topology caused by a rebalance, unit is second
+     */
+    public double getPauseSecs() {
+        long totalState = stateSize.values().stream().mapToLong(Long::longValue).sum();
+        return fixedPauseSecs + totalState / bandwidth + reloadMs / 1000.0;
+    }
+
+    @Override
+    public Map<String, Integer> make(AllocResult newAllocResult, Map<String, Integer> currAlloc) {
+        long now = System.currentTimeMillis();
+        if (!currAlloc.equals(lastAlloc)) {
+            lastAlloc = currAlloc;
+            lastChange = now;
+        }
+        if (newAllocResult == null || newAllocResult.currOptAllocation == null
+                || newAllocResult.currOptAllocation.equals(currAlloc)) {
+            return currAlloc;
+        }
+        if (now - lastChange < minDwellMs) {
+            LOG.info("Allocation changed " + (now - lastChange) + "ms ago, less than min dwell time");
+            return currAlloc;
+        }
+        return accept(newAllocResult.getCurrLatency(), newAllocResult.getOptLatency()) ?
+                newAllocResult.currOptAllocation : currAlloc;
+    }
+
+    boolean accept(double currLatency, double optLatency) {
+        if (Double.isNaN(currLatency) || Double.isNaN(optLatency)) {
+            // no prediction, the same as DefaultDecisionMaker
+            return true;
+        }
+        if (optLatency == Double.MAX_VALUE) {
+            return false;
+        }
+        if (currLatency == Double.MAX_VALUE) {
+            return true;
+        }
+        if (optLatency >= currLatency) {
+            boolean ret = optLatency <= qosMs * (1 - hysteresis);
+            LOG.info("currLatency(ms): " + currLatency + ", optLatency(ms): " + optLatency + ", qos(ms): " + qosMs
+                    + ", accepted: " + ret);
+            return ret;
+        }
+        double pause = getPauseSecs();
+        double gain = (currLatency - optLatency) * horizonSecs;
+        double cost = pause * pause / 2 * 1000.0;
+        boolean ret = (currLatency - optLatency) >= currLatency * hysteresis && gain > cost;
+        LOG.info("currLatency(ms): " + currLatency + ", optLatency(ms): " + optLatency + ", pause(s): " + pause
+                + ", gain: " + gain + ", cost: " + cost + ", accepted: " + ret);
+        return ret;
+    }
+}
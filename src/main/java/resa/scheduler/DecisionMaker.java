@@ -1,6 +1,7 @@
 package resa.scheduler;
 
 import backtype.storm.generated.StormTopology;
+import resa.optimize.AggResult;
 import resa.optimize.AllocResult;
 
 import java.util.Map;
@@ -19,6 +20,14 @@ public interface DecisionMaker {
     default void init(Map<String, Object> conf, StormTopology rawTopology) {
     }
 
+    /**
+     * Called with the windowed result of each component before make in each optimize round.
+     *
+     * @param compResults
+     */
+    default void updateMeasurements(Map<String, AggResult> compResults) {
+    }
+
     Map<String, Integer> make(AllocResult newAllocResult, Map<String, Integer> currAlloc);
 
 
@@ -0,0 +1,150 @@
+package resa.scheduler;
+
+import backtype.storm.scheduler.ExecutorDetails;
+import com.netflix.curator.framework.CuratorFramework;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import resa.optimize.AggResult;
+import resa.optimize.BoltAggResult;
+import resa.scheduler.plan.KeyGroupPacker;
+import resa.scheduler.plan.RoutingTable;
+import resa.scheduler.plan.RoutingTableStore;
+import resa.util.ConfigUtil;
+import resa.util.ResaConfig;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Topology side of KeyGroupGrouping. Before a rebalance, key groups of the bolts whose executors change are
+ * repacked by KeyGroupPacker. The new routing tables are written to RoutingTableStore only after nimbus accepts
+ * the rebalance, so that the tables never describe a layout which is not deployed.
+ */
+class KeyGroupRouter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KeyGroupRouter.class);
+
+    private final Map<String, Object> conf;
+    private final String topologyId;
+    private final float upperLimitRatio;
+    private CuratorFramework zk;
+    private RoutingTableStore store;
+
+    KeyGroupRouter(Map<String, Object> conf, String topologyId) {
+        this.conf = conf;
+        this.topologyId = topologyId;
+        this.upperLimitRatio = (float) ConfigUtil.getDouble(conf, ResaConfig.OPTIMIZE_KEY_GROUP_RATIO, 1.3);
+    }
+
+    /* connect to zk the first time a key grouped bolt is found */
+    private RoutingTableStore getStore() {
+        if (store == null) {
+            zk = ClusterArbiter.connect(conf);
+            store = new RoutingTableStore(zk, (String) conf.getOrDefault(ResaConfig.ZK_ROOT_PATH, "/resa"));
+        }
+        return store;
+    }
+
+    /**
+     * Repack the key groups of the bolts fed by KeyGroupGrouping, whose number of executors is changed.
+     *
+     * @param compResults   measured results of components
+     * @param topoExecutors current executors of components
+     * @param newAllocation number of executors of components after rebalance
+     * @return the changed routing tables, which should be written after the rebalance succeeds
+     */
+    Map<String, RoutingTable> repack(Map<String, AggResult> compResults,
+                                     Map<String, List<ExecutorDetails>> topoExecutors,
+                                     Map<String, Integer> newAllocation) {
+        Map<String, RoutingTable> tables = new HashMap<>();
+        compResults.forEach((comp, result) -> {
+            if (!(result instanceof BoltAggResult) || ((BoltAggResult) result).getKeyGroupLoad() == null) {
+                return;
+            }
+            List<ExecutorDetails> executors = topoExecutors.get(comp);
+            Integer numExecutors = newAllocation.get(comp);
+            if (executors == null || numExecutors == null || numExecutors == executors.size()) {
+                return;
+            }
+            try {
+                RoutingTable table = repackComponent(comp, (BoltAggResult) result, executors, numExecutors);
+                if (table != null) {
+                    tables.put(comp, table);
+                }
+            } catch (Exception e) {
+                LOG.warn("Repack key groups of " + comp + " failed", e);
+            }
+        });
+        return tables;
+    }
+
+    /**
+     * Write the tables returned by repack, called once the rebalance is accepted by nimbus.
+     */
+    void write(Map<String, RoutingTable> tables) {
+        tables.forEach((comp, table) -> {
+            try {
+                getStore().write(topologyId, comp, table);
+                LOG.info("Routing table of " + comp + " updated: " + table);
+            } catch (Exception e) {
+                LOG.warn("Write routing table of " + comp + " failed", e);
+            }
+        });
+    }
+
+    /* @return null if the table is unchanged or no table fits */
+    private RoutingTable repackComponent(String comp, BoltAggResult result, List<ExecutorDetails> executors,
+                                         int numExecutors) throws Exception {
+        int[] tasks = executors.stream().flatMapToInt(e -> IntStream.rangeClosed(e.getStartTask(),
+                e.getEndTask())).sorted().toArray();
+        if (numExecutors > tasks.length) {
+            LOG.warn(comp + " has " + tasks.length + " tasks, cannot be repacked to " + numExecutors + " executors");
+            return null;
+        }
+        double[] workloads = result.getKeyGroupLoad();
+        RoutingTable srcTable = getStore().read(topologyId, comp);
+        if (srcTable == null || srcTable.getNumKeyGroups() != workloads.length
+                || srcTable.getNumTasks() != tasks.length) {
+            srcTable = RoutingTable.uniform(workloads.length, tasks.length);
+        }
+        RoutingTable table = new KeyGroupPacker().setWorkloads(workloads)
+                .setDataSizes(getDataSizes(result, srcTable, tasks, workloads)).setSrcRoutingTable(srcTable)
+                .setTargetPackSize(numExecutors).setUpperLimitRatio(upperLimitRatio).calc().getRoutingTable();
+        if (table == null) {
+            LOG.warn("No routing table of " + comp + " fits " + numExecutors + " executors, keep the current one");
+            return null;
+        }
+        return table.equals(srcTable) ? null : table;
+    }
+
+    /* state size of each task is split to its key groups by workload, each key group counts 1 if not reported */
+    private static double[] getDataSizes(BoltAggResult result, RoutingTable srcTable, int[] tasks,
+                                         double[] workloads) {
+        double[] dataSizes = new double[workloads.length];
+        Map<Integer, Long> stateSize = result.getStateSize();
+        double[] taskLoads = new double[tasks.length];
+        for (int g = 0; g < workloads.length; g++) {
+            taskLoads[srcTable.getTask(g)] += workloads[g];
+        }
+        for (int g = 0; g < workloads.length; g++) {
+            int task = srcTable.getTask(g);
+            Long size = stateSize.get(tasks[task]);
+            if (size == null) {
+                dataSizes[g] = 1;
+            } else if (taskLoads[task] > 0) {
+                dataSizes[g] = size * workloads[g] / taskLoads[task];
+            } else {
+                dataSizes[g] = (double) size / srcTable.getKeyGroups(task).length;
+            }
+        }
+        return dataSizes;
+    }
+
+    void close() {
+        if (zk != null) {
+            zk.close();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package resa.scheduler;
+
+import backtype.storm.generated.Nimbus;
+import backtype.storm.utils.NimbusClient;
+import org.apache.thrift7.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Calls nimbus on a dedicated thread with a deadline. Thrift client is not thread safe, so calls are serialized on
+ * one connection. If a call misses its deadline, the connection is closed and its thread is abandoned, later calls
+ * go to a new connection and are not blocked by the hung one. If a call fails in the transport, the client is closed
+ * and the next call creates a new one on the same thread.
+ */
+class NimbusCaller {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NimbusCaller.class);
+
+    interface Call<T> {
+        T call(Nimbus.Client nimbus) throws Exception;
+    }
+
+    /* a nimbus client and the only thread using it */
+    private class Connection {
+        final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+        volatile NimbusClient client;
+
+        Nimbus.Client getClient() {
+            if (client == null) {
+                client = clientFactory.get();
+            }
+            return client.getClient();
+        }
+
+        /* run on the thread of this connection */
+        <T> T call(Call<T> call) throws Exception {
+            try {
+                return call.call(getClient());
+            } catch (Exception e) {
+                if (isTransportError(e)) {
+                    LOG.warn("Nimbus transport failed, reconnect on next call", e);
+                    closeClient();
+                }
+                throw e;
+            }
+        }
+
+        void closeClient() {
+            NimbusClient c = client;
+            client = null;
+            if (c != null) {
+                try {
+                    c.close();
+                } catch (Exception e) {
+                    LOG.warn("Close nimbus client failed", e);
+                }
+            }
+        }
+
+        void close() {
+            executor.shutdownNow();
+            closeClient();
+        }
+    }
+
+    private final Supplier<NimbusClient> clientFactory;
+    private final ScheduledExecutorService watchdog;
+    private final long deadlineMs;
+    private final String name;
+    private Connection connection;
+
+    /**
+     * @param watchdog used to cancel the calls missing the deadline
+     */
+    NimbusCaller(Supplier<NimbusClient> clientFactory, ScheduledExecutorService watchdog, long deadlineMs,
+                 String name) {
+        this.clientFactory = clientFactory;
+        this.watchdog = watchdog;
+        this.deadlineMs = deadlineMs;
+        this.name = name;
+    }
+
+    static boolean isTransportError(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof TTransportException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized Connection getConnection() {
+        if (connection == null) {
+            connection = new Connection();
+        }
+        return connection;
+    }
+
+    private synchronized void reset(Connection conn) {
+        if (connection == conn) {
+            connection = null;
+        }
+        conn.close();
+    }
+
+    /**
+     * Submit a call without waiting for it. The returned future is cancelled if the call misses the deadline.
+     */
+    <T> Future<T> submit(Call<T> call) {
+        Connection conn = getConnection();
+        Future<T> future = conn.executor.submit(() -> conn.call(call));
+        watchdog.schedule(() -> {
+            if (!future.isDone()) {
+                LOG.warn("Nimbus call missed the deadline of " + deadlineMs + "ms, reconnect");
+                future.cancel(true);
+                reset(conn);
+            }
+        }, deadlineMs, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    /**
+     * Submit a call and wait for the result.
+     *
+     * @throws TimeoutException if the call missed the deadline
+     */
+    <T> T call(Call<T> call) throws Exception {
+        Future<T> future = submit(call);
+        try {
+            return future.get(deadlineMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (CancellationException e) {
+            throw new TimeoutException("Nimbus call missed the deadline of " + deadlineMs + "ms");
+        }
+    }
+
+    synchronized void close() {
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package resa.scheduler;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Executor demand of a topology reported to ClusterArbiter, executor counts include spout executors.
+ */
+public class TopologyDemand implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public final String topologyId;
+    public final double weight;
+    public final double qosMs;
+    public final int currExecutors;
+    ///number of executors corresponding to latencyCurve[0]
+    public final int baseExecutors;
+    ///estimated latency(ms) given baseExecutors, baseExecutors + 1, ... executors, may be null
+    public final double[] latencyCurve;
+    public final long timestamp;
+
+    public TopologyDemand(String topologyId, double weight, double qosMs, int currExecutors, int baseExecutors,
+                          double[] latencyCurve) {
+        this.topologyId = topologyId;
+        this.weight = weight;
+        this.qosMs = qosMs;
+        this.currExecutors = currExecutors;
+        this.baseExecutors = baseExecutors;
+        this.latencyCurve = latencyCurve;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public boolean hasLatencyCurve() {
+        return latencyCurve != null && latencyCurve.length > 0;
+    }
+
+    /**
+     * @return Double.MAX_VALUE if executors is less than baseExecutors, the last point of the curve is used
+     * if executors is beyond the curve
+     */
+    public double getLatency(int executors) {
+        if (executors < baseExecutors) {
+            return Double.MAX_VALUE;
+        }
+        return latencyCurve[Math.min(executors - baseExecutors, latencyCurve.length - 1)];
+    }
+
+    /**
+     * @return weighted QoS violation relative to the target
+     */
+    public double getViolation(int executors) {
+        double latency = getLatency(executors);
+        if (latency == Double.MAX_VALUE) {
+            return Double.MAX_VALUE;
+        }
+        return latency <= qosMs ? 0.0 : weight * (latency - qosMs) / qosMs;
+    }
+
+    @Override
+    public String toString() {
+        return topologyId + "(weight: " + weight + ", qos(ms): " + qosMs + ", curr: " + currExecutors + ", base: "
+                + baseExecutors + ", curve: " + Arrays.toString(latencyCurve) + ")";
+    }
+}
@@ -4,7 +4,6 @@ import backtype.storm.Config;
 import backtype.storm.generated.Nimbus;
 import backtype.storm.generated.RebalanceOptions;
 import backtype.storm.generated.StormTopology;
-import backtype.storm.generated.TopologyInfo;
 import backtype.storm.scheduler.ExecutorDetails;
 import backtype.storm.utils.NimbusClient;
 import backtype.storm.utils.Utils;
@@ -12,11 +11,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import resa.metrics.MeasuredData;
 import resa.optimize.*;
+import resa.scheduler.plan.RoutingTable;
 import resa.util.ConfigUtil;
 import resa.util.ResaUtils;
 import resa.util.TopologyHelper;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 
 import static resa.util.ResaConfig.*;
@@ -32,12 +35,31 @@ public class TopologyOptimizer {
 
     private static final Logger LOG = LoggerFactory.getLogger(TopologyOptimizer.class);
 
-    private final Timer timer = new Timer(true);
+    /* executors of topology retrieved from nimbus at timestamp */
+    private static class ExecutorSnapshot {
+        final Map<String, List<ExecutorDetails>> executors;
+        final long timestamp;
+
+        ExecutorSnapshot(Map<String, List<ExecutorDetails>> executors, long timestamp) {
+            this.executors = executors;
+            this.timestamp = timestamp;
+        }
+    }
+
+    // ticks, executor refreshes and deadlines of nimbus calls, none of them blocks
+    private ScheduledExecutorService scheduler;
+    // optimization runs on its own thread, a tick is skipped if the last one is still running
+    private ExecutorService optimizeExecutor;
+    private final AtomicBoolean optimizing = new AtomicBoolean(false);
+    private NimbusCaller nimbusCaller;
+    private volatile ExecutorSnapshot executorSnapshot;
+    private volatile Future<?> pendingRefresh;
+    private volatile Future<?> pendingRebalance;
+    private long snapshotMaxAgeMs;
     private Map<String, Integer> currAllocation;
     private int maxExecutorsPerWorker;
     private int topologyMaxExecutors;
     private int rebalanceWaitingSecs;
-    private Nimbus.Client nimbus;
     private String topologyName;
     private String topologyId;
     private StormTopology rawTopology;
@@ -45,6 +67,14 @@ public class TopologyOptimizer {
     private MeasuredSource measuredSource;
     private AllocCalculator allocCalculator;
     private DecisionMaker decisionMaker;
+    private StreamingAggregator aggregator;
+    // executor budget is decided by cluster arbiter if enabled
+    private ArbiterClient arbiterClient;
+    // routing tables of key grouped bolts are repacked before rebalance
+    private KeyGroupRouter keyGroupRouter;
+    // notified with the time new executors start after a rebalance, in millisecond
+    private LongConsumer rebalanceListener = time -> {
+    };
 
     public void init(String topologyName, Map<String, Object> conf, MeasuredSource measuredSource) {
         this.conf = conf;
@@ -53,10 +83,17 @@ public class TopologyOptimizer {
         maxExecutorsPerWorker = ConfigUtil.getInt(conf, MAX_EXECUTORS_PER_WORKER, 8);
         topologyMaxExecutors = ConfigUtil.getInt(conf, ALLOWED_EXECUTOR_NUM, -1);
         rebalanceWaitingSecs = ConfigUtil.getInt(conf, REBALANCE_WAITING_SECS, -1);
-        // connected to nimbus
-        nimbus = NimbusClient.getConfiguredClient(conf).getClient();
-        this.topologyId = TopologyHelper.getTopologyId(nimbus, topologyName);
-        this.rawTopology = getRawTopologyThrow();
+        scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("resa-optimize-timer-" + topologyName));
+        optimizeExecutor = Executors.newSingleThreadExecutor(daemonThreads("resa-optimize-" + topologyName));
+        // each topology has its own nimbus connection, a hung call does not block other topologies
+        long nimbusTimeoutMs = ConfigUtil.getInt(conf, OPTIMIZE_NIMBUS_TIMEOUT, 30) * 1000L;
+        nimbusCaller = new NimbusCaller(() -> NimbusClient.getConfiguredClient(conf), scheduler, nimbusTimeoutMs,
+                "resa-nimbus-" + topologyName);
+        snapshotMaxAgeMs = ConfigUtil.getInt(conf, OPTIMIZE_EXECUTORS_REFRESH, 10) * 2000L + nimbusTimeoutMs;
+        this.topologyId = callNimbusThrow(nimbus -> TopologyHelper.getTopologyId(nimbus, topologyName),
+                "Get topology id failed, name is " + topologyName);
+        this.rawTopology = callNimbusThrow(nimbus -> nimbus.getUserTopology(topologyId),
+                "Get raw topology failed, id is " + topologyId);
         // create Allocation Calculator
         allocCalculator = ResaUtils.newInstanceThrow((String) conf.getOrDefault(ALLOC_CALC_CLASS,
                 SimpleGeneralAllocCalculator.class.getName()), AllocCalculator.class);
@@ -67,51 +104,152 @@ public class TopologyOptimizer {
         decisionMaker = ResaUtils.newInstanceThrow((String) conf.getOrDefault(DECISION_MAKER_CLASS,
                 DefaultDecisionMaker.class.getName()), DecisionMaker.class);
         decisionMaker.init(conf, rawTopology);
+        // each bucket of the window holds the data of one optimize interval
+        aggregator = new StreamingAggregator(rawTopology, StreamingAggregator.WindowMode.valueOf(
+                ((String) conf.getOrDefault(OPTIMIZE_WIN_MODE, "sliding")).toUpperCase()),
+                ConfigUtil.getInt(conf, OPTIMIZE_WIN_SIZE, 1), ConfigUtil.getDouble(conf, OPTIMIZE_WIN_DECAY, 0.5));
+        keyGroupRouter = new KeyGroupRouter(conf, topologyId);
+        if (ConfigUtil.getBoolean(conf, ARBITER_ENABLE, false)) {
+            arbiterClient = new ArbiterClient(conf, topologyId);
+        }
         LOG.info("AllocCalculator class:" + allocCalculator.getClass().getName());
         LOG.info("DecisionMaker class:" + decisionMaker.getClass().getName());
     }
 
+    /**
+     * Should be called before start.
+     */
+    public void setRebalanceListener(LongConsumer rebalanceListener) {
+        this.rebalanceListener = rebalanceListener;
+    }
+
     public void start() {
         long calcInterval = ConfigUtil.getInt(conf, OPTIMIZE_INTERVAL, 30) * 1000;
+        long refreshInterval = ConfigUtil.getInt(conf, OPTIMIZE_EXECUTORS_REFRESH, 10) * 1000;
+        scheduler.scheduleWithFixedDelay(this::refreshExecutors, refreshInterval, refreshInterval,
+                TimeUnit.MILLISECONDS);
         //start optimize thread
-        timer.scheduleAtFixedRate(new OptimizeTask(), calcInterval * 2, calcInterval);
+        OptimizeTask optimizeTask = new OptimizeTask();
+        scheduler.scheduleAtFixedRate(() -> {
+            if (!optimizing.compareAndSet(false, true)) {
+                LOG.warn("Last optimization is still running, skip this round");
+                return;
+            }
+            optimizeExecutor.execute(() -> {
+                try {
+                    optimizeTask.run();
+                } catch (Throwable e) {
+                    LOG.warn("optimize failed", e);
+                } finally {
+                    optimizing.set(false);
+                }
+            });
+        }, calcInterval * 2, calcInterval, TimeUnit.MILLISECONDS);
         LOG.info(String.format("Init Topology Optimizer successfully with calc interval is %dms", calcInterval));
     }
 
     public void stop() {
-        timer.cancel();
+        scheduler.shutdownNow();
+        optimizeExecutor.shutdownNow();
+        nimbusCaller.close();
+        keyGroupRouter.close();
+        if (arbiterClient != null) {
+            arbiterClient.close();
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private <T> T callNimbusThrow(NimbusCaller.Call<T> call, String errMsg) {
+        try {
+            return nimbusCaller.call(call);
+        } catch (Exception e) {
+            throw new RuntimeException(errMsg, e);
+        }
+    }
+
+    /* call nimbus to get current ExecutorDetails, system components are excluded */
+    private Map<String, List<ExecutorDetails>> getTopologyExecutors(Nimbus.Client nimbus) throws Exception {
+        return TopologyHelper.parseCompExecutors(nimbus.getTopologyInfo(topologyId)).entrySet().stream()
+                .filter(e -> !Utils.isSystemId(e.getKey()))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
+    /* refresh executor snapshot asynchronously, skipped if the last refresh is not finished */
+    private void refreshExecutors() {
+        Future<?> last = pendingRefresh;
+        if (last != null && !last.isDone()) {
+            return;
+        }
+        pendingRefresh = nimbusCaller.submit(nimbus -> {
+            try {
+                executorSnapshot = new ExecutorSnapshot(getTopologyExecutors(nimbus), System.currentTimeMillis());
+            } catch (Exception e) {
+                // nimbus temporarily unreachable or this topology has been killed
+                LOG.warn("Refresh executors from nimbus failed", e);
+                // rethrown so that a broken connection is replaced
+                throw e;
+            }
+            return null;
+        });
     }
 
-    private class OptimizeTask extends TimerTask {
+    private class OptimizeTask implements Runnable {
 
         @Override
         public void run() {
             Iterable<MeasuredData> data = measuredSource.retrieve();
-            // get current ExecutorDetails from nimbus
-            Map<String, List<ExecutorDetails>> topoExecutors = TopologyHelper.getTopologyExecutors(nimbus, topologyId)
-                    .entrySet().stream().filter(e -> !Utils.isSystemId(e.getKey()))
-                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-            // TODO: Executors == null means nimbus temporarily unreachable or this topology has been killed
-            Map<String, Integer> allc = topoExecutors != null ? calcAllocation(topoExecutors) : null;
-            if (allc != null && !allc.equals(currAllocation)) {
+            // nimbus is never called in this thread, use the latest executors refreshed asynchronously
+            ExecutorSnapshot snapshot = executorSnapshot;
+            if (snapshot == null) {
+                LOG.warn("No executors retrieved from nimbus, discard measured data");
+                consumeData(data);
+                return;
+            }
+            Map<String, List<ExecutorDetails>> topoExecutors = snapshot.executors;
+            Map<String, Integer> allc = calcAllocation(topoExecutors);
+            if (!allc.equals(currAllocation)) {
                 LOG.info("Topology allocation changed");
                 currAllocation = allc;
                 // discard old MeasuredData
                 consumeData(data);
+                aggregator.updateExecutors(topoExecutors);
                 allocCalculator.allocationChanged(Collections.unmodifiableMap(currAllocation));
             } else {
-                AggResultCalculator calculator = new AggResultCalculator(data, topoExecutors, rawTopology);
-                calculator.calCMVStat();
+                // task index is rebuilt only if executors changed
+                aggregator.updateExecutors(topoExecutors);
+                aggregator.addAll(data);
+                aggregator.advance();
+                Future<?> rebalance = pendingRebalance;
+                if (rebalance != null && !rebalance.isDone()) {
+                    LOG.info("Last rebalance request is not finished, skip this round");
+                    return;
+                }
+                if (System.currentTimeMillis() - snapshot.timestamp > snapshotMaxAgeMs) {
+                    LOG.warn("Executors are not refreshed since " + snapshot.timestamp + ", skip this round");
+                    return;
+                }
                 //TODO: (added by Tom) we need to calc the maxProcessedDataSize as a configuration parameter.
-                // set a return value (count) from calculator.calCMVStat()
                 // if the count == maxProcessedDataSize (current is 500, say), we need to do something,
                 // since otherwise, the measurement data is too obsolete
-                Map<String, Integer> newAllocation = calcNewAllocation(calculator.getResults());
+                // each component is passed as a single executor holding the windowed result
+                Map<String, AggResult> compResults = aggregator.getResults();
+                Map<String, AggResult[]> results = compResults.entrySet().stream()
+                        .collect(Collectors.toMap(Map.Entry::getKey, e -> new AggResult[]{e.getValue()}));
+                decisionMaker.updateMeasurements(Collections.unmodifiableMap(compResults));
+                Map<String, Integer> newAllocation = calcNewAllocation(results);
                 if (newAllocation != null && !newAllocation.equals(currAllocation)) {
                     LOG.info("Detected topology allocation changed, request rebalance....");
                     LOG.info("Old allc is " + currAllocation);
                     LOG.info("new allc is " + newAllocation);
-                    requestRebalance(newAllocation);
+                    requestRebalance(newAllocation, keyGroupRouter.repack(compResults, topoExecutors,
+                            newAllocation));
                 }
             }
         }
@@ -129,9 +267,18 @@ public class TopologyOptimizer {
         private Map<String, Integer> calcNewAllocation(Map<String, AggResult[]> data) {
             int maxExecutors = topologyMaxExecutors == -1 ? Math.max(ConfigUtil.getInt(conf, Config.TOPOLOGY_WORKERS, 1),
                     getNumWorkers(currAllocation)) * maxExecutorsPerWorker : topologyMaxExecutors;
+            if (arbiterClient != null) {
+                int cap = arbiterClient.getCap();
+                if (cap > 0) {
+                    maxExecutors = cap;
+                }
+            }
             Map<String, Integer> ret = null;
             try {
                 AllocResult decision = allocCalculator.calc(data, maxExecutors);
+                if (arbiterClient != null) {
+                    arbiterClient.publish(createDemand(decision));
+                }
                 // tagged by Tom, modified by troy:
                 // in decisionMaker , we need to improve this rebalance step to calc more stable and smooth
                 // Idea 1) we can maintain an decision list, only when we have received continuous
@@ -147,21 +294,25 @@ public class TopologyOptimizer {
         }
     }
 
-    private StormTopology getRawTopologyThrow() {
-        try {
-            return nimbus.getUserTopology(topologyId);
-        } catch (Exception e) {
-            throw new RuntimeException("Get raw topology failed, id is " + topologyId, e);
-        }
+    /* latency curve of calculator is on bolt executors, spout executors are added to fit the cap */
+    private TopologyDemand createDemand(AllocResult decision) {
+        int spoutExecutors = currAllocation.entrySet().stream()
+                .filter(e -> rawTopology.get_spouts().containsKey(e.getKey()))
+                .mapToInt(Map.Entry::getValue).sum();
+        int currExecutors = currAllocation.values().stream().mapToInt(Integer::intValue).sum();
+        return new TopologyDemand(topologyId, ConfigUtil.getDouble(conf, TOPOLOGY_QOS_WEIGHT, 1.0),
+                ConfigUtil.getDouble(conf, "resa.opt.smd.qos.ms", 5000.0), currExecutors,
+                decision == null ? currExecutors : decision.getCurveBase() + spoutExecutors,
+                decision == null ? null : decision.getLatencyCurve());
     }
 
-    /* call nimbus to get current topology allocation */
+    /* call nimbus to get current topology allocation, the executor snapshot is initialized as well */
     private Map<String, Integer> getTopologyCurrAllocation() {
         try {
-            TopologyInfo topoInfo = nimbus.getTopologyInfo(topologyId);
-            return topoInfo.get_executors().stream().filter(e -> !Utils.isSystemId(e.get_component_id()))
-                    .collect(Collectors.groupingBy(e -> e.get_component_id(),
-                            Collectors.reducing(0, e -> 1, (i1, i2) -> i1 + i2)));
+            Map<String, List<ExecutorDetails>> executors = nimbusCaller.call(this::getTopologyExecutors);
+            executorSnapshot = new ExecutorSnapshot(executors, System.currentTimeMillis());
+            return executors.entrySet().stream()
+                    .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().size()));
         } catch (Exception e) {
             LOG.warn("Get topology curr allocation from nimbus failed", e);
         }
@@ -170,15 +321,11 @@ public class TopologyOptimizer {
 
     private int getNumWorkers(Map<String, Integer> allocation) {
         int totolNumExecutors = allocation.values().stream().mapToInt(Integer::intValue).sum();
-        int numWorkers = totolNumExecutors / maxExecutorsPerWorker;
-        if (totolNumExecutors % maxExecutorsPerWorker > (int) (maxExecutorsPerWorker / 2)) {
-            numWorkers++;
-        }
-        return numWorkers;
+        return TopologyHelper.getNumWorkers(totolNumExecutors, maxExecutorsPerWorker);
     }
 
-    /* Send rebalance request to nimbus */
-    private boolean requestRebalance(Map<String, Integer> allocation) {
+    /* Send rebalance request to nimbus asynchronously, routing tables are written only if it is accepted */
+    private void requestRebalance(Map<String, Integer> allocation, Map<String, RoutingTable> routingTables) {
         int numWorkers = getNumWorkers(allocation);
         RebalanceOptions options = new RebalanceOptions();
         //set rebalance options
@@ -187,14 +334,21 @@ public class TopologyOptimizer {
         if (rebalanceWaitingSecs >= 0) {
             options.set_wait_secs(rebalanceWaitingSecs);
         }
-        try {
-            nimbus.rebalance(topologyName, options);
-            LOG.info("do rebalance successfully for topology " + topologyName);
-            return true;
-        } catch (Exception e) {
-            LOG.warn("do rebalance failed for topology " + topologyName, e);
-        }
-        return false;
+        pendingRebalance = nimbusCaller.submit(nimbus -> {
+            try {
+                nimbus.rebalance(topologyName, options);
+                LOG.info("do rebalance successfully for topology " + topologyName);
+                keyGroupRouter.write(routingTables);
+                // old executors are killed after the waiting time, which is message timeout by default
+                int waitSecs = rebalanceWaitingSecs >= 0 ? rebalanceWaitingSecs : ConfigUtil.getInt(conf,
+                        Config.TOPOLOGY_MESSAGE_TIMEOUT_SECS, 30);
+                rebalanceListener.accept(System.currentTimeMillis() + waitSecs * 1000L);
+            } catch (Exception e) {
+                LOG.warn("do rebalance failed for topology " + topologyName, e);
+                throw e;
+            }
+            return null;
+        });
     }
 
 }
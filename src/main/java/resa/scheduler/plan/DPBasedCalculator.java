@@ -1,118 +1,191 @@
 package resa.scheduler.plan;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.stream.IntStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
 
 /**
  * Created by ding on 14-6-27.
+ * <p>
+ * Sub problems are memoized in a PackMemo keyed by int tuples. If a pool is set, split points of a sub problem are
+ * evaluated in parallel, the result is the same as the serial one.
  */
 public class DPBasedCalculator extends PackCalculator {
 
-    private Map<String, Pack> cache;
+    ///min number of split points evaluated in parallel
+    private static final int PARALLEL_THRESHOLD = 4;
+
+    /* best pack of a sub problem before it is put into memo */
+    private static class Candidate {
+        final double gain;
+        final int first;
+        final int right;
+
+        Candidate(double gain, int first, int right) {
+            this.gain = gain;
+            this.first = first;
+            this.right = right;
+        }
+    }
+
+    private ForkJoinPool pool;
+    private boolean offHeapMemo = false;
+    private PackMemo memo;
+
+    /**
+     * @param pool split points are evaluated in parallel on this pool, serially if null
+     */
+    public DPBasedCalculator setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * @param offHeapMemo memo is kept off-heap if true, which may be large for many source packs
+     */
+    public DPBasedCalculator setOffHeapMemo(boolean offHeapMemo) {
+        this.offHeapMemo = offHeapMemo;
+        return this;
+    }
 
     protected Pack calcPack() {
-        //init buffer
-        cache = new HashMap<>();
+        //init buffer, key is wStart, wEnd, numPartition and packSegments
+        memo = new PackMemo(3 + srcPacks.length * 2, offHeapMemo);
         int[] packSegments = new int[srcPacks.length * 2];
         for (int i = 0; i < srcPacks.length; i++) {
             packSegments[2 * i] = 0;
             packSegments[2 * i + 1] = srcPacks[i].getKey().length;
         }
-        Pack p = getCachedOrCompute(0, normalizedWordloads.length, packSize, packSegments);
+        int entry = pool == null ? getCachedOrCompute(0, normalizedWordloads.length, packSize, packSegments) :
+                pool.invoke(ForkJoinTask.adapt(() -> getCachedOrCompute(0, normalizedWordloads.length, packSize,
+                        packSegments)));
+        Pack p = INFEASIBLE;
+        if (memo.isFeasible(entry)) {
+            int[] packing = new int[packSize];
+            for (int i = 0, e = entry; i < packSize; i++, e = memo.getRight(e)) {
+                packing[i] = memo.getFirst(e);
+            }
+            p = new Pack(packing, memo.getGain(entry));
+        }
         // release memory
-        cache = null;
+        memo = null;
         return p;
     }
 
-    private Pack getCachedOrCompute(int wStart, int wEnd, int numPartition, int[] packSegments) {
+    /* return entry of the sub problem in memo */
+    private int getCachedOrCompute(int wStart, int wEnd, int numPartition, int[] packSegments) {
         if (wEnd - wStart < numPartition || numPartition == 0) {
             throw new IllegalStateException("start=" + wStart + ", end=" + wEnd + ", numPartition=" + numPartition);
         }
-        String key = wStart + "-" + wEnd + "-" + numPartition + "@" + Arrays.toString(packSegments);
-        Pack p = cache.get(key);
-        if (p == null) {
-            cache.put(key, (p = compute(wStart, wEnd, numPartition, packSegments)));
+        int[] key = new int[3 + packSegments.length];
+        key[0] = wStart;
+        key[1] = wEnd;
+        key[2] = numPartition;
+        System.arraycopy(packSegments, 0, key, 3, packSegments.length);
+        int entry = memo.get(key);
+        if (entry == PackMemo.NOT_FOUND) {
+            // the same sub problem may be computed by two threads at the same time, the results are the same
+            Candidate c = compute(wStart, wEnd, numPartition, packSegments);
+            entry = c == null ? memo.putIfAbsent(key, Double.MIN_VALUE, 0, PackMemo.NOT_FOUND) :
+                    memo.putIfAbsent(key, c.gain, c.first, c.right);
         }
-        return p;
+        return entry;
     }
 
-    private Pack compute(int wStart, int wEnd, int numPartition, int[] packSegments) {
+    /* return null if infeasible */
+    private Candidate compute(int wStart, int wEnd, int numPartition, int[] packSegments) {
         if (numPartition == 1) {
-            return totalWorkload(wStart, wEnd) > loadUpperLimit ? INFEASIBLE :
-                    new Pack(new int[]{wEnd - wStart}, gain(new Range(wStart, wEnd - 1), packSegments));
+            return totalWorkload(wStart, wEnd) > loadUpperLimit ? null :
+                    new Candidate(gain(new Range(wStart, wEnd - 1), packSegments), wEnd - wStart,
+                            PackMemo.NOT_FOUND);
         }
-        int split = wStart + 1;
-        double gain = Double.MIN_VALUE;
-        Pack rightPack = INFEASIBLE;
-        int[] tmpSegments = new int[packSegments.length];
-        int[] newPos = new int[packSegments.length];
-        for (int i = split; i < wEnd; i++) {
+        List<Integer> splits = new ArrayList<>();
+        for (int i = wStart + 1; i < wEnd; i++) {
             if (totalWorkload(wStart, i) > loadUpperLimit || wEnd - i < numPartition - 1) {
                 break;
             }
             if (totalWorkload(i, wEnd) > (numPartition - 1) * loadUpperLimit){
                 continue;
             }
-            for (int j = 0; j < srcPacks.length; j++) {
-                Range[] srcPack = srcPacks[j].getKey();
-                int startPack = findPack(srcPack, i);
-                int stopPack = srcPack[startPack].start < i ? startPack + 1 : startPack;
-                startPack = Math.max(startPack, packSegments[j * 2]);
-                stopPack = Math.min(stopPack, packSegments[j * 2 + 1]);
-                if (startPack == stopPack) {
-                    newPos[j * 2] = startPack;
-                    newPos[j * 2 + 1] = startPack;
-                } else if (startPack == stopPack - 1) {
-                    newPos[j * 2] = startPack;
-                    newPos[j * 2 + 1] = stopPack;
+            splits.add(i);
+        }
+        List<Candidate> candidates;
+        if (pool != null && ForkJoinTask.getPool() == pool && splits.size() >= PARALLEL_THRESHOLD) {
+            List<ForkJoinTask<Candidate>> tasks = splits.stream().map(i -> ForkJoinTask.adapt(() ->
+                    computeSplit(wStart, wEnd, numPartition, packSegments, i))).collect(Collectors.toList());
+            candidates = ForkJoinTask.invokeAll(tasks).stream().map(ForkJoinTask::join).collect(Collectors.toList());
+        } else {
+            candidates = splits.stream().map(i -> computeSplit(wStart, wEnd, numPartition, packSegments, i))
+                    .collect(Collectors.toList());
+        }
+        // the first best in order of split points is taken
+        Candidate best = null;
+        for (Candidate c : candidates) {
+            if (c != null && (best == null || Double.compare(c.gain, best.gain) > 0)) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /* best pack whose first partition ends before split point i, null if no gain */
+    private Candidate computeSplit(int wStart, int wEnd, int numPartition, int[] packSegments, int i) {
+        int[] tmpSegments = new int[packSegments.length];
+        int[] newPos = new int[packSegments.length];
+        for (int j = 0; j < srcPacks.length; j++) {
+            Range[] srcPack = srcPacks[j].getKey();
+            int startPack = findPack(srcPack, i);
+            int stopPack = srcPack[startPack].start < i ? startPack + 1 : startPack;
+            startPack = Math.max(startPack, packSegments[j * 2]);
+            stopPack = Math.min(stopPack, packSegments[j * 2 + 1]);
+            if (startPack == stopPack) {
+                newPos[j * 2] = startPack;
+                newPos[j * 2 + 1] = startPack;
+            } else if (startPack == stopPack - 1) {
+                newPos[j * 2] = startPack;
+                newPos[j * 2 + 1] = stopPack;
+            } else {
+                throw new IllegalStateException("for package " + j + ", start=" + startPack + ", stop=" + stopPack);
+            }
+        }
+        double gain = Double.MIN_VALUE;
+        Candidate best = null;
+        long tryTimes = 1 << srcPacks.length;
+        for (long j = 0; j < tryTimes; j++) {
+            // go right
+            for (int k = 0; k < srcPacks.length; k++) {
+                if ((j & (1L << k)) > 0) {
+                    tmpSegments[k * 2] = newPos[k * 2 + 1];
                 } else {
-                    throw new IllegalStateException("for package " + j + ", start=" + startPack + ", stop=" + stopPack);
+                    tmpSegments[k * 2] = newPos[k * 2];
                 }
+                tmpSegments[k * 2 + 1] = packSegments[k * 2 + 1];
             }
-            long tryTimes = 1 << srcPacks.length;
-            for (long j = 0; j < tryTimes; j++) {
-                // go right
-                for (int k = 0; k < srcPacks.length; k++) {
-                    if ((j & (1L << k)) > 0) {
-                        tmpSegments[k * 2] = newPos[k * 2 + 1];
-                    } else {
-                        tmpSegments[k * 2] = newPos[k * 2];
-                    }
-                    tmpSegments[k * 2 + 1] = packSegments[k * 2 + 1];
-                }
-                Pack right = getCachedOrCompute(i, wEnd, numPartition - 1, tmpSegments);
-                if (right == INFEASIBLE) {
-                    continue;
-                }
-                // go left
-                for (int k = 0; k < srcPacks.length; k++) {
-                    if ((j & (1L << k)) > 0) {
-                        tmpSegments[k * 2 + 1] = newPos[k * 2 + 1];
-                    } else {
-                        tmpSegments[k * 2 + 1] = newPos[k * 2];
-                    }
-                    tmpSegments[k * 2] = packSegments[k * 2];
+            int right = getCachedOrCompute(i, wEnd, numPartition - 1, tmpSegments);
+            if (!memo.isFeasible(right)) {
+                continue;
+            }
+            // go left
+            for (int k = 0; k < srcPacks.length; k++) {
+                if ((j & (1L << k)) > 0) {
+                    tmpSegments[k * 2 + 1] = newPos[k * 2 + 1];
+                } else {
+                    tmpSegments[k * 2 + 1] = newPos[k * 2];
                 }
-                Pack left = getCachedOrCompute(wStart, i, 1, tmpSegments);
-                if (left != INFEASIBLE) {
-                    double newGain = left.gain + right.gain;
-                    if (Double.compare(newGain, gain) > 0) {
-                        gain = newGain;
-                        split = i;
-                        rightPack = right;
-                    }
+                tmpSegments[k * 2] = packSegments[k * 2];
+            }
+            int left = getCachedOrCompute(wStart, i, 1, tmpSegments);
+            if (memo.isFeasible(left)) {
+                double newGain = memo.getGain(left) + memo.getGain(right);
+                if (Double.compare(newGain, gain) > 0) {
+                    gain = newGain;
+                    best = new Candidate(newGain, i - wStart, right);
                 }
             }
         }
-        if (rightPack == INFEASIBLE) {
-            return INFEASIBLE;
-        }
-        int[] ret = new int[numPartition];
-        ret[0] = split - wStart;
-        System.arraycopy(rightPack.packing, 0, ret, 1, numPartition - 1);
-        return new Pack(ret, gain);
+        return best;
     }
 
     private double gain(Range newPacks, int[] packSegments) {
@@ -128,7 +201,6 @@ public class DPBasedCalculator extends PackCalculator {
         return sum;
     }
 
-
     private int findPack(Range[] srcPack, int v) {
         for (int i = 0; i < srcPack.length; i++) {
             if (srcPack[i].end >= v) {
@@ -138,23 +210,4 @@ public class DPBasedCalculator extends PackCalculator {
         throw new IllegalStateException("value is " + v);
     }
 
-    private double totalWorkload(int wStart, int wEnd) {
-        double sum = 0;
-        for (int i = wStart; i < wEnd; i++) {
-            sum += normalizedWordloads[i];
-        }
-        return sum;
-    }
-
-    private double overlap(Range r1, Range r2) {
-        if (r1.start > r2.end || r1.end < r2.start) {
-            return 0;
-        } else if (r1.start <= r2.start && r1.end >= r2.start) {
-            return IntStream.rangeClosed(r2.start, Math.min(r2.end, r1.end)).mapToDouble(i -> dataSizes[i]).sum();
-        } else if (r1.start >= r2.start && r1.start <= r2.end) {
-            return IntStream.rangeClosed(r1.start, Math.min(r2.end, r1.end)).mapToDouble(i -> dataSizes[i]).sum();
-        }
-        return 0;
-    }
-
 }
@@ -1,8 +1,12 @@
 package resa.scheduler.plan;
 
 import org.codehaus.jackson.map.ObjectMapper;
+import resa.metrics.CMVMetric;
+import resa.metrics.MeasuredData;
 import resa.metrics.MetricNames;
+import resa.metrics.MetricsCodec;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.Map;
 import java.util.SortedMap;
@@ -50,37 +54,34 @@ public class ExecutionAnalyzer {
         }
     }
 
-    public ExecutionAnalyzer(Iterable<String> dataStream) {
+    /**
+     * @param dataStream metrics records, either legacy "comp:task:ts->json" strings or binary records
+     */
+    public ExecutionAnalyzer(Iterable<?> dataStream) {
         this.dataStream = dataStream;
     }
 
-    private Iterable<String> dataStream;
+    private Iterable<?> dataStream;
     private ObjectMapper objectMapper = new ObjectMapper();
     private SortedMap<String, ExecutionStat> executeStat = new TreeMap<>();
 
     public ExecutionAnalyzer calcStat() {
-        dataStream.forEach(metricStr -> {
-            final String comp;
-            final int taskId;
-            Map<String, Object> taskData;
+        dataStream.forEach(record -> {
+            MeasuredData measuredData;
             try {
-                String[] tmp = metricStr.split("->");
-                String[] head = tmp[0].split(":");
-                comp = head[0];
-                taskId = Integer.parseInt(head[1]);
-                taskData = (Map<String, Object>) objectMapper.readValue(tmp[1], Map.class);
+                measuredData = parseRecord(record);
             } catch (Exception e) {
                 return;
             }
-            String key = String.format("%s:%03d", comp, taskId);
+            String key = String.format("%s:%03d", measuredData.component, measuredData.task);
             ExecutionStat stat = executeStat.computeIfAbsent(key, (k) -> new ExecutionStat());
-            ((Map<String, String>) taskData.getOrDefault(MetricNames.TASK_EXECUTE, Collections.emptyMap()))
-                    .forEach((s, exeStr) -> {
-                        String[] elements = exeStr.split(",");
-                        int cnt = Integer.valueOf(elements[0]);
+            Map<String, Object> taskData = measuredData.data;
+            ((Map<String, Object>) taskData.getOrDefault(MetricNames.TASK_EXECUTE, Collections.emptyMap()))
+                    .forEach((s, exe) -> {
+                        double[] elements = CMVMetric.parse(exe);
+                        int cnt = (int) elements[0];
                         if (cnt > 0) {
-                            double val = Double.valueOf(elements[1]);
-//                            double val_2 = Double.valueOf(elements[2]);
+                            double val = elements[1];
                             stat.add(cnt, val);
                         }
                     });
@@ -92,6 +93,21 @@ public class ExecutionAnalyzer {
         return this;
     }
 
+    private MeasuredData parseRecord(Object record) throws Exception {
+        if (record instanceof byte[]) {
+            byte[] bytes = (byte[]) record;
+            if (MetricsCodec.isBinaryRecord(bytes)) {
+                return MetricsCodec.decode(bytes);
+            }
+            record = new String(bytes, StandardCharsets.UTF_8);
+        }
+        String metricStr = (String) record;
+        int pos = metricStr.indexOf("->");
+        String[] head = metricStr.substring(0, pos).split(":");
+        return new MeasuredData(head[0], Integer.parseInt(head[1]), head.length > 2 ? Long.parseLong(head[2]) : 0,
+                (Map<String, Object>) objectMapper.readValue(metricStr.substring(pos + 2), Map.class));
+    }
+
     public SortedMap<String, ExecutionStat> getStat() {
         return executeStat;
     }
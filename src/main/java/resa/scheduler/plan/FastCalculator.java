@@ -1,7 +1,6 @@
 package resa.scheduler.plan;
 
 import java.util.Map;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
@@ -9,14 +8,14 @@ import java.util.stream.Stream;
  */
 public class FastCalculator extends PackCalculator {
 
-    private KuhnMunkres kmAlg;
+    private IntervalMatcher matcher;
     private double gain;
 
     @Override
     protected Pack calcPack() {
         Range[] retPack = convertPack(PackingAlg.calc(this.workloads, this.packSize));
         int maxPackSize = Stream.of(srcPacks).map(Map.Entry::getKey).mapToInt(pack -> pack.length).max().getAsInt();
-        kmAlg = new KuhnMunkres(Math.max(retPack.length, maxPackSize));
+        matcher = new IntervalMatcher(this::overlap, new KuhnMunkres(Math.max(retPack.length, maxPackSize)));
         gain = totalGain(retPack);
         Range[] buf = new Range[retPack.length];
         while (true) {
@@ -46,7 +45,7 @@ public class FastCalculator extends PackCalculator {
                 retPack[packToAdj + 1] = new Range(newEnd + 1, retPack[packToAdj + 1].end);
             }
         }
-        kmAlg = null;
+        matcher = null;
         return new Pack(convertPack(retPack), gain);
     }
 
@@ -91,36 +90,7 @@ public class FastCalculator extends PackCalculator {
     }
 
     private double packGain(Range[] pack1, Range[] pack2) {
-        double[][] weights = new double[pack1.length][pack2.length];
-        for (int i = 0; i < pack1.length; i++) {
-            for (int j = 0; j < pack2.length; j++) {
-                weights[i][j] = overlap(pack1[i], pack2[j]);
-            }
-        }
-        double[] maxWeight = new double[1];
-        kmAlg.getMaxBipartie(weights, maxWeight);
-        // int[][] pairs = kmAlg.getMaxBipartie(weights, maxWeight);
-        // return Stream.of(pairs).mapToDouble(r -> overlap(newPacks[r[0]], currPacks[pStart + r[1]])).sum();
-        return maxWeight[0];
-    }
-
-    private double overlap(Range r1, Range r2) {
-        if (r1.end < r2.start || r1.start > r2.end) {
-            return 0;
-        } else if (r1.start <= r2.start && r1.end >= r2.start) {
-            return IntStream.rangeClosed(r2.start, Math.min(r2.end, r1.end)).mapToDouble(i -> dataSizes[i]).sum();
-        } else if (r1.start >= r2.start && r1.start <= r2.end) {
-            return IntStream.rangeClosed(r1.start, Math.min(r2.end, r1.end)).mapToDouble(i -> dataSizes[i]).sum();
-        }
-        return 0;
-    }
-
-    private double totalWorkload(int wStart, int wEnd) {
-        double sum = 0;
-        for (int i = wStart; i < wEnd; i++) {
-            sum += normalizedWordloads[i];
-        }
-        return sum;
+        return matcher.maxWeight(pack1, pack2);
     }
 
 }
@@ -0,0 +1,112 @@
+package resa.scheduler.plan;
+
+import resa.scheduler.plan.PackCalculator.Range;
+
+import java.util.function.ToDoubleBiFunction;
+
+/**
+ * Max weight matching between two packs, where the weight of a pair of ranges is their overlap.
+ * <p>
+ * If the ranges of each pack are sorted and disjoint, two overlapping pairs never cross: if x1 < x2 and y1 < y2,
+ * x1 overlaps y2 and x2 overlaps y1 cannot both hold. The overlapping pairs, enumerated by merging the two packs,
+ * form a chain in which the pairs sharing a range are adjacent, so the best matching is found by a DP along the
+ * chain in O(m + n) time, without the m * n weight matrix. Otherwise KuhnMunkres is used.
+ */
+class IntervalMatcher {
+
+    private final ToDoubleBiFunction<Range, Range> overlap;
+    private final KuhnMunkres kmAlg;
+    ///buffers of the chain, grown on demand
+    private int[] xs = new int[0];
+    private int[] ys = new int[0];
+    private double[] weights = new double[0];
+    private double[] best = new double[0];
+
+    /**
+     * @param overlap weight of two ranges, which is 0 if they do not overlap
+     * @param kmAlg   used for the packs which are not sorted
+     */
+    IntervalMatcher(ToDoubleBiFunction<Range, Range> overlap, KuhnMunkres kmAlg) {
+        this.overlap = overlap;
+        this.kmAlg = kmAlg;
+    }
+
+    /**
+     * @return total weight of the max weight matching between pack1[from1, to1) and pack2[from2, to2)
+     */
+    double maxWeight(Range[] pack1, int from1, int to1, Range[] pack2, int from2, int to2) {
+        if (from1 == to1 || from2 == to2) {
+            return 0;
+        }
+        if (!isSorted(pack1, from1, to1) || !isSorted(pack2, from2, to2)) {
+            return kmMaxWeight(pack1, from1, to1, pack2, from2, to2);
+        }
+        ensureCapacity(to1 - from1 + to2 - from2);
+        // merge the two packs, the range ending first is passed
+        int len = 0;
+        for (int i = from1, j = from2; i < to1 && j < to2; ) {
+            Range x = pack1[i], y = pack2[j];
+            if (x.start <= y.end && y.start <= x.end) {
+                xs[len] = i;
+                ys[len] = j;
+                weights[len++] = overlap.applyAsDouble(x, y);
+            }
+            if (x.end < y.end) {
+                i++;
+            } else if (y.end < x.end) {
+                j++;
+            } else {
+                i++;
+                j++;
+            }
+        }
+        // best[k + 1] is the best matching among the first k + 1 pairs, pair k conflicts only with the pairs
+        // since the first one sharing its x or y
+        best[0] = 0;
+        int xRunStart = 0, yRunStart = 0;
+        for (int k = 0; k < len; k++) {
+            if (k > 0 && xs[k] != xs[k - 1]) {
+                xRunStart = k;
+            }
+            if (k > 0 && ys[k] != ys[k - 1]) {
+                yRunStart = k;
+            }
+            best[k + 1] = Math.max(best[k], best[Math.min(xRunStart, yRunStart)] + weights[k]);
+        }
+        return best[len];
+    }
+
+    double maxWeight(Range[] pack1, Range[] pack2) {
+        return maxWeight(pack1, 0, pack1.length, pack2, 0, pack2.length);
+    }
+
+    private static boolean isSorted(Range[] pack, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            if (pack[i].start <= pack[i - 1].end) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureCapacity(int size) {
+        if (xs.length < size) {
+            xs = new int[size];
+            ys = new int[size];
+            weights = new double[size];
+            best = new double[size + 1];
+        }
+    }
+
+    private double kmMaxWeight(Range[] pack1, int from1, int to1, Range[] pack2, int from2, int to2) {
+        double[][] w = new double[to1 - from1][to2 - from2];
+        for (int i = 0; i < w.length; i++) {
+            for (int j = 0; j < w[i].length; j++) {
+                w[i][j] = overlap.applyAsDouble(pack1[from1 + i], pack2[from2 + j]);
+            }
+        }
+        double[] maxWeight = new double[1];
+        kmAlg.getMaxBipartie(w, maxWeight);
+        return maxWeight[0];
+    }
+}
@@ -0,0 +1,273 @@
+package resa.scheduler.plan;
+
+import java.util.*;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+
+/**
+ * Assign key groups to executors without the contiguous constraint of PackCalculator, keeping as much data in place
+ * as possible while the workload of every executor is under the upper limit.
+ * <p>
+ * Key groups are routed to tasks, and storm assigns the tasks of a component to its executors in contiguous ranges
+ * (see RoutingTable.evenPack), so the home executor of a key group is the one its current task belongs to after
+ * rebalance. A key group staying in its home executor keeps its task and its data, the others are routed to the
+ * least loaded task of their new executor.
+ * <p>
+ * The packing is seeded from the home executors. Key groups are evicted from overloaded executors, cheapest data
+ * per workload first, and are placed into the least loaded executor they fit. Then a local search moves evicted key
+ * groups back home, directly or by swapping with a key group of less data, until no move keeps more data.
+ * <p>
+ * As PackCalculator does, the workload of a key group heavier than the upper limit is taken as the limit, such a
+ * key group can not be split and is packed as if it fits, so the executor holding it may exceed the limit.
+ */
+public class KeyGroupPacker {
+
+    private double[] workloads;
+    private double[] dataSizes;
+    private RoutingTable srcTable;
+    private int packSize;
+    private float ratio = 1.3f;
+
+    // cache result
+    private RoutingTable result;
+    private double keptDataSize;
+    private boolean calculated = false;
+
+    public KeyGroupPacker setWorkloads(double[] workloads) {
+        this.workloads = workloads;
+        return this;
+    }
+
+    public KeyGroupPacker setDataSizes(double[] dataSizes) {
+        this.dataSizes = dataSizes;
+        return this;
+    }
+
+    public KeyGroupPacker setSrcRoutingTable(RoutingTable srcTable) {
+        this.srcTable = srcTable;
+        return this;
+    }
+
+    /**
+     * @param pack number of contiguous key groups of each task
+     */
+    public KeyGroupPacker setSrcPack(int[] pack) {
+        return setSrcRoutingTable(RoutingTable.fromPack(pack));
+    }
+
+    /**
+     * @param packSize number of executors after rebalance, no more than the number of tasks
+     */
+    public KeyGroupPacker setTargetPackSize(int packSize) {
+        this.packSize = packSize;
+        return this;
+    }
+
+    public KeyGroupPacker setUpperLimitRatio(float ratio) {
+        if (Float.compare(1f, ratio) >= 0) {
+            throw new IllegalArgumentException("Bad ratio: " + ratio);
+        }
+        this.ratio = ratio;
+        return this;
+    }
+
+    /**
+     * @return null if no packing is found under the upper limit, with the workloads of key groups clamped to it
+     */
+    public RoutingTable getRoutingTable() {
+        if (!calculated) {
+            throw new IllegalStateException("Calc is not called");
+        }
+        return result;
+    }
+
+    /**
+     * @return total data size of the key groups staying on their tasks
+     */
+    public double getKeptDataSize() {
+        if (!calculated) {
+            throw new IllegalStateException("Calc is not called");
+        }
+        return keptDataSize;
+    }
+
+    public KeyGroupPacker calc() {
+        if (srcTable.getNumTasks() < packSize || packSize <= 0) {
+            throw new IllegalArgumentException("Bad packSize: " + packSize + ", number of tasks is "
+                    + srcTable.getNumTasks());
+        }
+        if (workloads.length != dataSizes.length || workloads.length != srcTable.getNumKeyGroups()) {
+            throw new IllegalArgumentException("workloads, dataSizes and srcTable mismatch");
+        }
+        new Search().run();
+        calculated = true;
+        return this;
+    }
+
+    /* state of one calculation */
+    private class Search {
+        final int n = workloads.length;
+        final double loadUpperLimit = DoubleStream.of(workloads).sum() / packSize * ratio;
+        ///workloads clamped to the upper limit
+        final double[] loads = DoubleStream.of(workloads).map(w -> Math.min(w, loadUpperLimit)).toArray();
+        ///executor of each task after rebalance
+        final int[] taskExecutors = RoutingTable.executorsOfTasks(srcTable.getNumTasks(), packSize);
+        ///executor of the current task of each key group
+        final int[] home = new int[n];
+        final int[] assign = new int[n];
+        final double[] packLoads = new double[packSize];
+
+        void run() {
+            for (int i = 0; i < n; i++) {
+                home[i] = taskExecutors[srcTable.getTask(i)];
+                assign[i] = home[i];
+                packLoads[home[i]] += loads[i];
+            }
+            evictOverloaded();
+            if (!placeUnassigned()) {
+                // nothing fits after eviction, fall back to the longest processing time first packing
+                Arrays.fill(assign, -1);
+                Arrays.fill(packLoads, 0);
+                if (!placeUnassigned()) {
+                    result = null;
+                    keptDataSize = 0;
+                    return;
+                }
+            }
+            while (improve()) {
+            }
+            result = new RoutingTable(assignTasks(), srcTable.getNumTasks());
+            keptDataSize = IntStream.range(0, n).filter(i -> assign[i] == home[i]).mapToDouble(i -> dataSizes[i])
+                    .sum();
+        }
+
+        /* key groups at home keep their tasks, the moved ones go to the least loaded task of their executors */
+        int[] assignTasks() {
+            int[] tasks = new int[n];
+            double[] taskLoads = new double[srcTable.getNumTasks()];
+            for (int i = 0; i < n; i++) {
+                if (assign[i] == home[i]) {
+                    tasks[i] = srcTable.getTask(i);
+                    taskLoads[tasks[i]] += loads[i];
+                }
+            }
+            int[] firstTasks = new int[packSize + 1];
+            for (int t = taskExecutors.length - 1; t >= 0; t--) {
+                firstTasks[taskExecutors[t]] = t;
+            }
+            firstTasks[packSize] = taskExecutors.length;
+            for (int i = 0; i < n; i++) {
+                if (assign[i] != home[i]) {
+                    int best = firstTasks[assign[i]];
+                    for (int t = best + 1; t < firstTasks[assign[i] + 1]; t++) {
+                        if (taskLoads[t] < taskLoads[best]) {
+                            best = t;
+                        }
+                    }
+                    tasks[i] = best;
+                    taskLoads[best] += loads[i];
+                }
+            }
+            return tasks;
+        }
+
+        void evictOverloaded() {
+            List<List<Integer>> members = getMembers();
+            for (int p = 0; p < packSize; p++) {
+                if (packLoads[p] <= loadUpperLimit) {
+                    continue;
+                }
+                // least data per workload first, key groups without workload never help
+                List<Integer> groups = members.get(p);
+                groups.sort(Comparator.comparingDouble(g -> loads[g] > 0 ? dataSizes[g] / loads[g]
+                        : Double.POSITIVE_INFINITY));
+                for (int i = 0; i < groups.size() && packLoads[p] > loadUpperLimit; i++) {
+                    int g = groups.get(i);
+                    if (loads[g] > 0) {
+                        assign[g] = -1;
+                        packLoads[p] -= loads[g];
+                    }
+                }
+            }
+        }
+
+        /* heaviest first, into the least loaded executor */
+        boolean placeUnassigned() {
+            Integer[] unassigned = IntStream.range(0, n).filter(i -> assign[i] < 0).boxed().toArray(Integer[]::new);
+            Arrays.sort(unassigned, (g1, g2) -> Double.compare(loads[g2], loads[g1]));
+            for (int g : unassigned) {
+                int best = 0;
+                for (int p = 1; p < packSize; p++) {
+                    if (packLoads[p] < packLoads[best]) {
+                        best = p;
+                    }
+                }
+                if (packLoads[best] + loads[g] > loadUpperLimit) {
+                    return false;
+                }
+                assign[g] = best;
+                packLoads[best] += loads[g];
+            }
+            return true;
+        }
+
+        List<List<Integer>> getMembers() {
+            List<List<Integer>> members = new ArrayList<>(packSize);
+            for (int p = 0; p < packSize; p++) {
+                members.add(new ArrayList<>());
+            }
+            for (int i = 0; i < n; i++) {
+                if (assign[i] >= 0) {
+                    members.get(assign[i]).add(i);
+                }
+            }
+            return members;
+        }
+
+        void move(int g, int to) {
+            packLoads[assign[g]] -= loads[g];
+            packLoads[to] += loads[g];
+            assign[g] = to;
+        }
+
+        /* one round of moving key groups back home, each move keeps more data */
+        boolean improve() {
+            boolean improved = false;
+            List<List<Integer>> members = getMembers();
+            for (int g = 0; g < n; g++) {
+                int home = this.home[g], curr = assign[g];
+                if (curr == home || dataSizes[g] <= 0) {
+                    continue;
+                }
+                if (packLoads[home] + loads[g] <= loadUpperLimit) {
+                    move(g, home);
+                    members.get(home).add(g);
+                    improved = true;
+                    continue;
+                }
+                // swap with the key group of home losing the least data
+                int swap = -1;
+                double bestGain = 0;
+                for (int h : members.get(home)) {
+                    if (assign[h] != home) {
+                        continue;
+                    }
+                    double gain = dataSizes[g] - (this.home[h] == home ? dataSizes[h] : 0);
+                    if (gain > bestGain && packLoads[home] - loads[h] + loads[g] <= loadUpperLimit
+                            && packLoads[curr] - loads[g] + loads[h] <= loadUpperLimit) {
+                        bestGain = gain;
+                        swap = h;
+                    }
+                }
+                if (swap >= 0) {
+                    move(g, home);
+                    move(swap, curr);
+                    members.get(home).add(g);
+                    members.get(curr).add(swap);
+                    improved = true;
+                }
+            }
+            return improved;
+        }
+    }
+}
@@ -47,6 +47,9 @@ public abstract class PackCalculator {
     protected int packSize;
     private float ratio = 1.3f;
     protected double loadUpperLimit;
+    ///prefix sums of normalizedWordloads and dataSizes, the i-th is the sum of [0, i)
+    private double[] workloadPrefixSums;
+    private double[] dataSizePrefixSums;
 
     // cache result
     private Pack result = null;
@@ -132,12 +135,39 @@ public abstract class PackCalculator {
                 normalizedWordloads[i] = workloads[i];
             }
         }
+        workloadPrefixSums = prefixSums(normalizedWordloads);
+        dataSizePrefixSums = prefixSums(dataSizes);
+    }
+
+    private static double[] prefixSums(double[] values) {
+        double[] ret = new double[values.length + 1];
+        for (int i = 0; i < values.length; i++) {
+            ret[i + 1] = ret[i] + values[i];
+        }
+        return ret;
+    }
+
+    /**
+     * @return total normalized workload of [wStart, wEnd)
+     */
+    protected double totalWorkload(int wStart, int wEnd) {
+        return workloadPrefixSums[wEnd] - workloadPrefixSums[wStart];
+    }
+
+    /**
+     * @return total data size of the key groups in both r1 and r2
+     */
+    protected double overlap(Range r1, Range r2) {
+        int start = Math.max(r1.start, r2.start), end = Math.min(r1.end, r2.end);
+        return start > end ? 0 : dataSizePrefixSums[end + 1] - dataSizePrefixSums[start];
     }
 
     public PackCalculator calc() {
         checkAndInit();
         result = calcPack();
         normalizedWordloads = null;
+        workloadPrefixSums = null;
+        dataSizePrefixSums = null;
         return this;
     }
 
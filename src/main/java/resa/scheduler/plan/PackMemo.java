@@ -0,0 +1,194 @@
+package resa.scheduler.plan;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Memo of DPBasedCalculator, an open addressing hash table from int tuples of a fixed width to packs.
+ * <p>
+ * A pack is stored as its gain, the size of its first partition and the entry of the pack of the remaining
+ * partitions, so no array is allocated per entry. Entries are appended to fixed size chunks of ByteBuffer and never
+ * moved, the chunks are allocated off-heap if required. Slots are split into stripes by the high bits of the hash,
+ * each stripe is a table of its own and is locked separately, so that parallel subtasks rarely wait for each other.
+ * Entries can be read without lock once their index is returned.
+ */
+class PackMemo {
+
+    static final int NOT_FOUND = -1;
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+    private static final int STRIPE_BITS = 6;
+
+    private static class Stripe {
+        ///entry index + 1 of each slot, 0 means empty
+        int[] slots = new int[64];
+        int size = 0;
+    }
+
+    private final int width;
+    private final int entryBytes;
+    private final boolean offHeap;
+    private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+    private final AtomicInteger nextEntry = new AtomicInteger();
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+    PackMemo(int width, boolean offHeap) {
+        this.width = width;
+        // keys, first, right and gain
+        this.entryBytes = width * 4 + 8 + 8;
+        this.offHeap = offHeap;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private static int hash(int[] key) {
+        int h = 0;
+        for (int k : key) {
+            h = h * 31 + k;
+        }
+        // murmur3 finalizer
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    private Stripe stripe(int hash) {
+        return stripes[hash >>> (32 - STRIPE_BITS)];
+    }
+
+    private int offset(int entry) {
+        return (entry & CHUNK_MASK) * entryBytes;
+    }
+
+    private boolean keyEquals(int entry, int[] key) {
+        ByteBuffer chunk = chunks[entry >>> CHUNK_BITS];
+        int off = offset(entry);
+        for (int i = 0; i < width; i++) {
+            if (chunk.getInt(off + i * 4) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* called with the lock of stripe */
+    private int findSlot(Stripe stripe, int hash, int[] key) {
+        int mask = stripe.slots.length - 1;
+        int slot = hash & mask;
+        while (stripe.slots[slot] != 0 && !keyEquals(stripe.slots[slot] - 1, key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * @return index of the entry, or NOT_FOUND
+     */
+    int get(int[] key) {
+        int h = hash(key);
+        Stripe stripe = stripe(h);
+        synchronized (stripe) {
+            return stripe.slots[findSlot(stripe, h, key)] - 1;
+        }
+    }
+
+    /**
+     * @param first size of the first partition, 0 if the pack is infeasible
+     * @param right entry of the remaining partitions, NOT_FOUND if there is only one partition
+     * @return index of the entry of key, the existing one is kept if key is present
+     */
+    int putIfAbsent(int[] key, double gain, int first, int right) {
+        int h = hash(key);
+        Stripe stripe = stripe(h);
+        synchronized (stripe) {
+            int slot = findSlot(stripe, h, key);
+            if (stripe.slots[slot] != 0) {
+                return stripe.slots[slot] - 1;
+            }
+            int entry = nextEntry.getAndIncrement();
+            ByteBuffer chunk = getChunk(entry >>> CHUNK_BITS);
+            int off = offset(entry);
+            for (int i = 0; i < width; i++) {
+                chunk.putInt(off + i * 4, key[i]);
+            }
+            chunk.putInt(off + width * 4, first);
+            chunk.putInt(off + width * 4 + 4, right);
+            chunk.putDouble(off + width * 4 + 8, gain);
+            // published by the lock of stripe, readers get the index through it
+            stripe.slots[slot] = entry + 1;
+            stripe.size++;
+            // load factor is at most 0.5
+            if (stripe.size * 2 > stripe.slots.length) {
+                rehash(stripe);
+            }
+            return entry;
+        }
+    }
+
+    /* chunks are only appended, entries of other stripes may be allocated concurrently */
+    private ByteBuffer getChunk(int index) {
+        ByteBuffer[] curr = chunks;
+        if (index < curr.length) {
+            return curr[index];
+        }
+        synchronized (this) {
+            curr = chunks;
+            if (index >= curr.length) {
+                int capacity = entryBytes << CHUNK_BITS;
+                ByteBuffer[] newChunks = Arrays.copyOf(curr, index + 1);
+                for (int i = curr.length; i <= index; i++) {
+                    newChunks[i] = offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+                }
+                chunks = curr = newChunks;
+            }
+            return curr[index];
+        }
+    }
+
+    private void rehash(Stripe stripe) {
+        int[] oldSlots = stripe.slots;
+        int[] slots = new int[oldSlots.length * 2];
+        int[] key = new int[width];
+        int mask = slots.length - 1;
+        for (int s : oldSlots) {
+            if (s == 0) {
+                continue;
+            }
+            ByteBuffer chunk = chunks[(s - 1) >>> CHUNK_BITS];
+            int off = offset(s - 1);
+            for (int i = 0; i < width; i++) {
+                key[i] = chunk.getInt(off + i * 4);
+            }
+            int slot = hash(key) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = s;
+        }
+        stripe.slots = slots;
+    }
+
+    int getFirst(int entry) {
+        return chunks[entry >>> CHUNK_BITS].getInt(offset(entry) + width * 4);
+    }
+
+    int getRight(int entry) {
+        return chunks[entry >>> CHUNK_BITS].getInt(offset(entry) + width * 4 + 4);
+    }
+
+    double getGain(int entry) {
+        return chunks[entry >>> CHUNK_BITS].getDouble(offset(entry) + width * 4 + 8);
+    }
+
+    boolean isFeasible(int entry) {
+        return getFirst(entry) > 0;
+    }
+
+    int size() {
+        return nextEntry.get();
+    }
+}
@@ -1,89 +1,106 @@
 package resa.scheduler.plan;
 
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
 import java.util.stream.DoubleStream;
 
 /**
  * Created by ding on 14-6-3.
+ * <p>
+ * Split the workloads into numPartition contiguous packs, minimizing the sum of squared differences between the
+ * workload of each pack and the average.
+ * <p>
+ * Bottom-up DP over suffixes, cost[p][s] is the min cost to split workloads [s, n) into p packs. The cost of a pack
+ * is a convex function of its sum, so the best end of the first pack is monotone in s, and each row is computed
+ * by divide and conquer in O(n log n). Total time is O(k n log n), and the split table takes k * (n - k + 1) ints.
  */
 public class PackingAlg {
 
-    private static class Pack {
-        int[] packing;
-        double sumOfDiffSquare;
-
-        Pack(int[] packing, double sumOfDiffSquare) {
-            this.packing = packing;
-            this.sumOfDiffSquare = sumOfDiffSquare;
-        }
-    }
-
     public static int[] calc(double[] workloads, int numPartition) {
         if (workloads.length < numPartition) {
             throw new IllegalArgumentException("numPartition cann't larger than workloads size");
+        } else if (numPartition <= 0) {
+            throw new IllegalArgumentException("numPartition must be positive");
         } else if (workloads.length == numPartition) {
             int[] ret = new int[workloads.length];
             Arrays.fill(ret, 1);
             return ret;
         }
-        double avg = DoubleStream.of(workloads).sum() / numPartition;
-        Map<String, Pack> cache = new HashMap<>();
-        calc0(workloads, 0, workloads.length, avg, numPartition, cache);
-        int[] ret = cache.get("0-" + workloads.length + "-" + numPartition).packing;
-        return Objects.requireNonNull(ret, "Cannot arrived here");
+        return new Engine(workloads, numPartition).solve();
     }
 
-    public static double calc0(double[] workloads, int start, int end, double avg, int numPartition,
-                               Map<String, Pack> cache) {
-        if (end - start < numPartition || numPartition == 0) {
-            throw new IllegalStateException("start=" + start + ", end=" + end + ", numPartition=" + numPartition);
-        }
-        String key = start + "-" + end + "-" + numPartition;
-        Pack pack = cache.get(key);
-        if (pack != null) {
-            return pack.sumOfDiffSquare;
-        } else if (numPartition == 1) {
-            double sum = calcDiffSquare(workloads, start, end, avg);
-            cache.put(key, new Pack(new int[]{end - start}, sum));
-            return sum;
-        } else if (end - start == numPartition) {
-            int[] ret = new int[numPartition];
-            double sum = 0;
-            for (int i = 0; i < numPartition; i++) {
-                ret[i] = 1;
-                double diff = workloads[start + i] - avg;
-                sum = sum + diff * diff;
+    private static class Engine {
+        final int n;
+        final int k;
+        final double avg;
+        final double[] prefixSum;
+        ///split[p][s - (k - p)] is the end of the first pack when splitting [s, n) into p packs
+        final int[][] split;
+        double[] prevRow;
+        double[] currRow;
+
+        Engine(double[] workloads, int numPartition) {
+            n = workloads.length;
+            k = numPartition;
+            avg = DoubleStream.of(workloads).sum() / numPartition;
+            prefixSum = new double[n + 1];
+            for (int i = 0; i < n; i++) {
+                prefixSum[i + 1] = prefixSum[i] + workloads[i];
             }
-            cache.put(key, new Pack(ret, sum));
-            return sum;
+            split = new int[k + 1][];
+            // row p is indexed by s, only s in [k - p, n - p] is valid
+            prevRow = new double[n + 1];
+            currRow = new double[n + 1];
+        }
+
+        double cost(int start, int end) {
+            double diff = avg - (prefixSum[end] - prefixSum[start]);
+            return diff * diff;
         }
-        int split = start;
-        double sum = Double.MAX_VALUE;
-        for (int i = start; i < end - 1 && end - i >= numPartition; i++) {
-            double newSum = calcDiffSquare(workloads, start, i + 1, avg)
-                    + calc0(workloads, i + 1, end, avg, numPartition - 1, cache);
-            if (newSum < sum) {
-                sum = newSum;
-                split = i;
+
+        int[] solve() {
+            for (int s = k - 1; s < n; s++) {
+                prevRow[s] = cost(s, n);
+            }
+            for (int p = 2; p <= k; p++) {
+                split[p] = new int[n - k + 1];
+                computeRow(p, k - p, n - p, k - p + 1, n - p + 1);
+                double[] tmp = prevRow;
+                prevRow = currRow;
+                currRow = tmp;
             }
+            int[] ret = new int[k];
+            int start = 0;
+            for (int p = k; p > 1; p--) {
+                int end = split[p][start - (k - p)];
+                ret[k - p] = end - start;
+                start = end;
+            }
+            ret[k - 1] = n - start;
+            return ret;
         }
-        int[] ret = new int[numPartition];
-        ret[0] = split - start + 1;
-        System.arraycopy(cache.get((split + 1) + "-" + end + "-" + (numPartition - 1)).packing, 0, ret, 1,
-                numPartition - 1);
-        cache.put(key, new Pack(ret, sum));
-        return sum;
-    }
 
-    private static double calcDiffSquare(double[] workloads, int start, int end, double avg) {
-        double diff = avg;
-        for (int i = start; i < end; i++) {
-            diff = diff - workloads[i];
+        /* rows s in [sLo, sHi] of p packs, the end of first pack is known to be in [eLo, eHi] */
+        void computeRow(int p, int sLo, int sHi, int eLo, int eHi) {
+            if (sLo > sHi) {
+                return;
+            }
+            int s = (sLo + sHi) >>> 1;
+            int from = Math.max(s + 1, eLo), to = Math.min(n - p + 1, eHi);
+            double best = Double.MAX_VALUE;
+            int bestEnd = from;
+            for (int e = from; e <= to; e++) {
+                double v = cost(s, e) + prevRow[e];
+                // the first best is taken
+                if (v < best) {
+                    best = v;
+                    bestEnd = e;
+                }
+            }
+            currRow[s] = best;
+            split[p][s - (k - p)] = bestEnd;
+            computeRow(p, sLo, s - 1, eLo, bestEnd);
+            computeRow(p, s + 1, sHi, bestEnd, eHi);
         }
-        return diff * diff;
     }
 
 }
@@ -0,0 +1,126 @@
+package resa.scheduler.plan;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Task of each key group. Keys are hashed into a fixed number of key groups, and the key groups routed to a task
+ * need not be contiguous. Tasks are referred by their index among the sorted tasks of the component, the number of
+ * tasks never changes, so a table stays valid when executors are changed by rebalance.
+ */
+public class RoutingTable implements Serializable {
+
+    private final int[] tasks;
+    private final int numTasks;
+
+    /**
+     * @param tasks index of the task of each key group, in [0, numTasks)
+     */
+    public RoutingTable(int[] tasks, int numTasks) {
+        if (IntStream.of(tasks).anyMatch(t -> t < 0 || t >= numTasks)) {
+            throw new IllegalArgumentException("Bad task index, numTasks=" + numTasks);
+        }
+        this.tasks = tasks.clone();
+        this.numTasks = numTasks;
+    }
+
+    /**
+     * @param pack number of contiguous key groups of each task
+     */
+    public static RoutingTable fromPack(int[] pack) {
+        int[] tasks = new int[IntStream.of(pack).sum()];
+        for (int i = 0, start = 0; i < pack.length; start += pack[i], i++) {
+            Arrays.fill(tasks, start, start + pack[i], i);
+        }
+        return new RoutingTable(tasks, pack.length);
+    }
+
+    /**
+     * @return the table used if none is computed, key groups are split evenly into contiguous ranges
+     */
+    public static RoutingTable uniform(int numKeyGroups, int numTasks) {
+        return fromPack(evenPack(numKeyGroups, numTasks));
+    }
+
+    /**
+     * Split size items into numPacks contiguous packs, the first size % numPacks packs have one more item.
+     * This is how storm assigns the tasks of a component to its executors.
+     */
+    public static int[] evenPack(int size, int numPacks) {
+        if (numPacks <= 0 || numPacks > size) {
+            throw new IllegalArgumentException("Bad numPacks: " + numPacks + ", size is " + size);
+        }
+        int[] pack = new int[numPacks];
+        Arrays.fill(pack, size / numPacks);
+        for (int i = 0; i < size % numPacks; i++) {
+            pack[i]++;
+        }
+        return pack;
+    }
+
+    /**
+     * @return index of the executor of each task when the component has numExecutors executors
+     */
+    public static int[] executorsOfTasks(int numTasks, int numExecutors) {
+        return fromPack(evenPack(numTasks, numExecutors)).tasks;
+    }
+
+    /**
+     * @return key group of key, in [0, numKeyGroups)
+     */
+    public static int keyGroup(Object key, int numKeyGroups) {
+        int h = key == null ? 0 : key.hashCode();
+        // spread the high bits, the same as HashMap
+        return Math.floorMod(h ^ (h >>> 16), numKeyGroups);
+    }
+
+    public int getTask(int keyGroup) {
+        return tasks[keyGroup];
+    }
+
+    public int getNumKeyGroups() {
+        return tasks.length;
+    }
+
+    public int getNumTasks() {
+        return numTasks;
+    }
+
+    public int[] getKeyGroups(int task) {
+        return IntStream.range(0, tasks.length).filter(i -> tasks[i] == task).toArray();
+    }
+
+    /**
+     * @return total data size of the key groups whose task is different in the other table
+     */
+    public double movedDataSize(RoutingTable other, double[] dataSizes) {
+        if (other.tasks.length != tasks.length) {
+            throw new IllegalArgumentException("Number of key groups mismatch");
+        }
+        return IntStream.range(0, tasks.length).filter(i -> tasks[i] != other.tasks[i])
+                .mapToDouble(i -> dataSizes[i]).sum();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        RoutingTable that = (RoutingTable) o;
+        return numTasks == that.numTasks && Arrays.equals(tasks, that.tasks);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(tasks) + numTasks;
+    }
+
+    @Override
+    public String toString() {
+        return "RoutingTable{numTasks=" + numTasks + ", tasks=" + Arrays.toString(tasks) + "}";
+    }
+}
@@ -0,0 +1,60 @@
+package resa.scheduler.plan;
+
+import backtype.storm.utils.Utils;
+import com.netflix.curator.framework.CuratorFramework;
+import org.apache.zookeeper.Watcher;
+
+/**
+ * Routing tables on zk, written by the optimizer of a topology and read by KeyGroupGrouping. The table of a
+ * component is stored in path {root}/routing/{topologyId}/{component}.
+ */
+public class RoutingTableStore {
+
+    public static final String ROUTING_PATH = "/routing";
+
+    private final CuratorFramework zk;
+    private final String rootPath;
+
+    public RoutingTableStore(CuratorFramework zk, String rootPath) {
+        this.zk = zk;
+        this.rootPath = rootPath;
+    }
+
+    private String getPath(String topologyId, String component) {
+        return rootPath + ROUTING_PATH + '/' + topologyId + '/' + component;
+    }
+
+    public void write(String topologyId, String component, RoutingTable table) throws Exception {
+        String path = getPath(topologyId, component);
+        byte[] data = Utils.serialize(table);
+        if (zk.checkExists().forPath(path) == null) {
+            zk.create().creatingParentsIfNeeded().forPath(path, data);
+        } else {
+            zk.setData().forPath(path, data);
+        }
+    }
+
+    /**
+     * @return null if no table is written for the component
+     */
+    public RoutingTable read(String topologyId, String component) throws Exception {
+        String path = getPath(topologyId, component);
+        if (zk.checkExists().forPath(path) == null) {
+            return null;
+        }
+        return (RoutingTable) Utils.deserialize(zk.getData().forPath(path));
+    }
+
+    /**
+     * Read the table and set a watcher, which is triggered once when the table is created, changed or deleted.
+     *
+     * @return null if no table is written for the component
+     */
+    public RoutingTable readAndWatch(String topologyId, String component, Watcher watcher) throws Exception {
+        String path = getPath(topologyId, component);
+        if (zk.checkExists().usingWatcher(watcher).forPath(path) == null) {
+            return null;
+        }
+        return (RoutingTable) Utils.deserialize(zk.getData().forPath(path));
+    }
+}
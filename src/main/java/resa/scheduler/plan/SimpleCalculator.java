@@ -1,7 +1,6 @@
 package resa.scheduler.plan;
 
 import java.util.Map;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
@@ -11,14 +10,14 @@ public class SimpleCalculator extends PackCalculator {
 
     private double gain = -1.0;
     private int[] pack = null;
-    private KuhnMunkres kmAlg;
+    private IntervalMatcher matcher;
 
     @Override
     protected Pack calcPack() {
         int maxPackSize = Stream.of(srcPacks).map(Map.Entry::getKey).mapToInt(pack -> pack.length).max().getAsInt();
-        kmAlg = new KuhnMunkres(Math.max(packSize, maxPackSize));
+        matcher = new IntervalMatcher(this::overlap, new KuhnMunkres(Math.max(packSize, maxPackSize)));
         split(0, new int[0], packSize);
-        kmAlg = null;
+        matcher = null;
         if (pack == null) {
             throw new IllegalStateException("No pack is found");
         }
@@ -63,36 +62,7 @@ public class SimpleCalculator extends PackCalculator {
     }
 
     private double packGain(Range[] pack1, Range[] pack2) {
-        double[][] weights = new double[pack1.length][pack2.length];
-        for (int i = 0; i < pack1.length; i++) {
-            for (int j = 0; j < pack2.length; j++) {
-                weights[i][j] = overlap(pack1[i], pack2[j]);
-            }
-        }
-        double[] maxWeight = new double[1];
-        kmAlg.getMaxBipartie(weights, maxWeight);
-        // int[][] pairs = kmAlg.getMaxBipartie(weights, maxWeight);
-        // return Stream.of(pairs).mapToDouble(r -> overlap(newPacks[r[0]], currPacks[pStart + r[1]])).sum();
-        return maxWeight[0];
-    }
-
-    private double overlap(Range r1, Range r2) {
-        if (r1.end < r2.start || r1.start > r2.end) {
-            return 0;
-        } else if (r1.start <= r2.start && r1.end >= r2.start) {
-            return IntStream.rangeClosed(r2.start, Math.min(r2.end, r1.end)).mapToDouble(i -> dataSizes[i]).sum();
-        } else if (r1.start >= r2.start && r1.start <= r2.end) {
-            return IntStream.rangeClosed(r1.start, Math.min(r2.end, r1.end)).mapToDouble(i -> dataSizes[i]).sum();
-        }
-        return 0;
-    }
-
-    private double totalWorkload(int wStart, int wEnd) {
-        double sum = 0;
-        for (int i = wStart; i < wEnd; i++) {
-            sum += normalizedWordloads[i];
-        }
-        return sum;
+        return matcher.maxWeight(pack1, pack2);
     }
 
 }
@@ -11,12 +11,12 @@ import java.util.stream.IntStream;
 public class SinglePackCalculator extends PackCalculator {
 
     private Map<String, Pack> cache;
-    private KuhnMunkres kmAlg;
+    private IntervalMatcher matcher;
     private Range[] currPack;
 
     protected Pack calcPack() {
         currPack = srcPacks[0].getKey();
-        kmAlg = new KuhnMunkres(Math.max(packSize, currPack.length));
+        matcher = new IntervalMatcher(this::overlap, new KuhnMunkres(Math.max(packSize, currPack.length)));
         Pack p;
         if (normalizedWordloads.length == packSize) {
             int[] ret = new int[normalizedWordloads.length];
@@ -30,7 +30,7 @@ public class SinglePackCalculator extends PackCalculator {
             // release memory
             cache = null;
         }
-        kmAlg = null;
+        matcher = null;
         return p;
     }
 
@@ -95,38 +95,8 @@ public class SinglePackCalculator extends PackCalculator {
         throw new IllegalStateException("value is " + v);
     }
 
-    private double totalWorkload(int wStart, int wEnd) {
-        double sum = 0;
-        for (int i = wStart; i < wEnd; i++) {
-            sum += normalizedWordloads[i];
-        }
-        return sum;
-    }
-
     private double gain(Range[] newPacks, int pStart, int pEnd) {
-        if (newPacks.length == 0 || pStart == pEnd) {
-            return 0;
-        }
-        double[][] weights = new double[newPacks.length][pEnd - pStart];
-        for (int i = 0; i < weights.length; i++) {
-            for (int j = 0; j < weights[i].length; j++) {
-                weights[i][j] = overlap(newPacks[i], currPack[pStart + j]);
-            }
-        }
-        double[] maxWeight = new double[1];
-        kmAlg.getMaxBipartie(weights, maxWeight);
-        // int[][] pairs = kmAlg.getMaxBipartie(weights, maxWeight);
-        // return Stream.of(pairs).mapToDouble(r -> overlap(newPacks[r[0]], currPack[pStart + r[1]])).sum();
-        return maxWeight[0];
-    }
-
-    private double overlap(Range r1, Range r2) {
-        if (r1.start <= r2.start && r1.end >= r2.start) {
-            return IntStream.rangeClosed(r2.start, Math.min(r2.end, r1.end)).mapToDouble(i -> dataSizes[i]).sum();
-        } else if (r1.start >= r2.start && r1.start <= r2.end) {
-            return IntStream.rangeClosed(r1.start, Math.min(r2.end, r1.end)).mapToDouble(i -> dataSizes[i]).sum();
-        }
-        return 0;
+        return matcher.maxWeight(newPacks, 0, newPacks.length, currPack, pStart, pEnd);
     }
 
 }
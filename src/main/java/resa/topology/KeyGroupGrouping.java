@@ -0,0 +1,130 @@
+package resa.topology;
+
+import backtype.storm.Config;
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.grouping.CustomStreamGrouping;
+import backtype.storm.task.WorkerTopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.utils.Utils;
+import com.netflix.curator.framework.CuratorFramework;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import resa.scheduler.plan.RoutingTable;
+import resa.scheduler.plan.RoutingTableStore;
+import resa.util.ResaConfig;
+
+import java.util.*;
+
+/**
+ * Fields grouping through a routing table, keys are hashed into key groups and each key group is sent to its task.
+ * The table of the target component is read from RoutingTableStore and reloaded whenever the optimizer writes a
+ * new one, the uniform table is used until then. Target tasks are sorted, so the i-th task of the table is the
+ * i-th target task. Zk of the table is taken from the topology conf given to the constructor, over storm.yaml.
+ * <p>
+ * Execute time of each key group is measured by MeasurableBolt, so that key groups can be repacked when the
+ * executors of the target component change, see KeyGroupPacker. Moving the data of the key groups routed to
+ * another task is up to the target bolt.
+ */
+public class KeyGroupGrouping implements CustomStreamGrouping {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KeyGroupGrouping.class);
+    // shared by all the groupings in a worker, which belong to the same topology
+    private static volatile CuratorFramework zk = null;
+
+    private static CuratorFramework zkInstance(Map<String, Object> conf) {
+        if (zk == null) {
+            synchronized (KeyGroupGrouping.class) {
+                if (zk == null) {
+                    zk = Utils.newCuratorStarted(conf, (List<String>) conf.get(Config.STORM_ZOOKEEPER_SERVERS),
+                            conf.get(Config.STORM_ZOOKEEPER_PORT));
+                }
+            }
+        }
+        return zk;
+    }
+
+    private final Fields keyFields;
+    private final int numKeyGroups;
+    ///zk related entries of the topology conf, the grouping is not given the conf in prepare
+    private final HashMap<String, Object> zkConf = new HashMap<>();
+    private transient Fields outFields;
+    private transient List<Integer> targetTasks;
+    private transient String topologyId;
+    private transient String component;
+    private transient RoutingTableStore store;
+    private transient volatile RoutingTable routingTable;
+
+    public KeyGroupGrouping(Fields keyFields, int numKeyGroups) {
+        this(keyFields, numKeyGroups, Collections.emptyMap());
+    }
+
+    /**
+     * @param topologyConf conf the topology is submitted with, zk servers and "resa.scheduler.zk.root" are kept
+     */
+    public KeyGroupGrouping(Fields keyFields, int numKeyGroups, Map<String, Object> topologyConf) {
+        this.keyFields = keyFields;
+        this.numKeyGroups = numKeyGroups;
+        topologyConf.forEach((k, v) -> {
+            if (k.startsWith("storm.zookeeper.") || k.equals(ResaConfig.ZK_ROOT_PATH)) {
+                zkConf.put(k, v);
+            }
+        });
+    }
+
+    public Fields getKeyFields() {
+        return keyFields;
+    }
+
+    public int getNumKeyGroups() {
+        return numKeyGroups;
+    }
+
+    @Override
+    public void prepare(WorkerTopologyContext context, GlobalStreamId stream, List<Integer> targetTasks) {
+        if (numKeyGroups < targetTasks.size()) {
+            throw new IllegalArgumentException("Number of key groups " + numKeyGroups + " is less than "
+                    + targetTasks.size() + " target tasks");
+        }
+        this.outFields = context.getComponentOutputFields(stream.get_componentId(), stream.get_streamId());
+        this.targetTasks = new ArrayList<>(targetTasks);
+        Collections.sort(this.targetTasks);
+        this.topologyId = context.getStormId();
+        this.component = context.getComponentId(this.targetTasks.get(0));
+        this.routingTable = RoutingTable.uniform(numKeyGroups, targetTasks.size());
+        try {
+            Map<String, Object> conf = new HashMap<>(Utils.readStormConfig());
+            conf.putAll(zkConf);
+            store = new RoutingTableStore(zkInstance(conf), (String) conf.getOrDefault(ResaConfig.ZK_ROOT_PATH,
+                    "/resa"));
+        } catch (Exception e) {
+            LOG.warn("Connect to zk failed, use the uniform routing table for " + component, e);
+            return;
+        }
+        reload();
+    }
+
+    /* read the table of target component and watch it again */
+    private void reload() {
+        try {
+            RoutingTable table = store.readAndWatch(topologyId, component, event -> reload());
+            if (table == null) {
+                return;
+            }
+            if (table.getNumKeyGroups() != numKeyGroups || table.getNumTasks() != targetTasks.size()) {
+                LOG.warn("Routing table of " + component + " mismatches, " + numKeyGroups + " key groups and "
+                        + targetTasks.size() + " tasks are expected: " + table);
+            } else {
+                routingTable = table;
+            }
+        } catch (Exception e) {
+            LOG.warn("Reload routing table of " + component + " failed", e);
+        }
+    }
+
+    @Override
+    public List<Integer> chooseTasks(int taskId, List<Object> values) {
+        RoutingTable table = routingTable;
+        int keyGroup = RoutingTable.keyGroup(outFields.select(keyFields, values), numKeyGroups);
+        return Collections.singletonList(targetTasks.get(table.getTask(keyGroup)));
+    }
+}
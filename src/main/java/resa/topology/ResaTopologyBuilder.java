@@ -1,6 +1,8 @@
 package resa.topology;
 
+import backtype.storm.generated.StormTopology;
 import backtype.storm.topology.*;
+import resa.metrics.EmitTimeProbe;
 import resa.metrics.MeasurableBolt;
 import resa.metrics.MeasurableSpout;
 
@@ -9,15 +11,38 @@ import resa.metrics.MeasurableSpout;
  */
 public class ResaTopologyBuilder extends TopologyBuilder {
 
+    private final boolean traceEmitTime;
+
+    public ResaTopologyBuilder() {
+        this(false);
+    }
+
+    /**
+     * @param traceEmitTime whether sampled tuples are followed by emit time probes, which is required by metric
+     *                      "queue-wait". A direct probe stream is added to all the components if enabled.
+     */
+    public ResaTopologyBuilder(boolean traceEmitTime) {
+        this.traceEmitTime = traceEmitTime;
+    }
+
     @Override
     public BoltDeclarer setBolt(String id, IRichBolt bolt, Number parallelismHint) {
-        bolt = new MeasurableBolt(bolt);
+        bolt = new MeasurableBolt(bolt, traceEmitTime);
         return super.setBolt(id, bolt, parallelismHint);
     }
 
     @Override
     public SpoutDeclarer setSpout(String id, IRichSpout spout, Number parallelismHint) {
-        spout = new MeasurableSpout(spout);
+        spout = new MeasurableSpout(spout, traceEmitTime);
         return super.setSpout(id, spout, parallelismHint);
     }
+
+    @Override
+    public StormTopology createTopology() {
+        StormTopology topology = super.createTopology();
+        if (traceEmitTime) {
+            EmitTimeProbe.subscribe(topology);
+        }
+        return topology;
+    }
 }
@@ -0,0 +1,113 @@
+package resa.util;
+
+import redis.clients.jedis.Jedis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Iterate a redis list in ranges, subclasses decide how elements are fetched.
+ * This class is not thread-safe
+ */
+public abstract class AbstractRedisQueueIterable<T> implements Iterable<T>, Closeable {
+
+    private String host;
+    private int port;
+    protected final String queue;
+    private Jedis jedis;
+    private final long end;
+    private final long start;
+    private final int bufferSize = 500;
+
+    protected AbstractRedisQueueIterable(String host, int port, String queue, long start, long maxCount) {
+        this.host = host;
+        this.port = port;
+        this.queue = queue;
+        this.end = maxCount == Long.MAX_VALUE ? Long.MAX_VALUE : start + maxCount;
+        this.start = start;
+    }
+
+    /**
+     * Fetch elements in range [from, to] of the queue.
+     */
+    protected abstract List<T> lrange(Jedis jedis, long from, long to);
+
+    private synchronized List<T> fetchNextRange(long from) {
+        if (from < end) {
+            long bound = Math.min(end, from + bufferSize) - 1;
+            try {
+                List<T> nextRange = lrange(getJedis(), from, bound);
+                if (!nextRange.isEmpty()) {
+                    return nextRange;
+                }
+            } catch (Exception e) {
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        disconnect();
+    }
+
+    private class DataIter implements Iterator<T> {
+
+        private long count = 0;
+        private List<T> cache = null;
+        private int pos = 0;
+
+        @Override
+        public boolean hasNext() {
+            if (cache == null || pos == cache.size()) {
+                cache = fetchNextRange(start + count);
+                if (cache == null) {
+                    return false;
+                }
+                pos = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            count++;
+            return cache.get(pos++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private Jedis getJedis() {
+        if (jedis != null) {
+            return jedis;
+        }
+        //try connect to redis server
+        try {
+            jedis = new Jedis(host, port);
+        } catch (Exception e) {
+        }
+        return jedis;
+    }
+
+    private void disconnect() {
+        if (jedis != null) {
+            try {
+                jedis.disconnect();
+            } catch (Exception e) {
+            }
+            jedis = null;
+        }
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new DataIter();
+    }
+
+}
@@ -0,0 +1,269 @@
+package resa.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A log-linear bucketed histogram (HDR style). Values are non-negative longs, every power-of-two range is split
+ * into 2^precisionBits linear sub buckets, so the relative error of any recorded value is bounded by
+ * 1/2^precisionBits. Counts are kept in a primitive array, recording a value never allocates.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class LogHistogram {
+
+    public static final int DEFAULT_PRECISION_BITS = 5;
+    // one hour in microsecond
+    public static final long DEFAULT_MAX_VALUE = 3600L * 1000 * 1000;
+
+    private final int precisionBits;
+    private final int subBucketCount;
+    private final long maxValue;
+    private final long[] counts;
+    private long totalCount = 0;
+
+    public LogHistogram() {
+        this(DEFAULT_PRECISION_BITS, DEFAULT_MAX_VALUE);
+    }
+
+    public LogHistogram(int precisionBits, long maxValue) {
+        if (precisionBits < 1 || precisionBits > 16) {
+            throw new IllegalArgumentException("Bad precision bits: " + precisionBits);
+        }
+        if (maxValue < 1) {
+            throw new IllegalArgumentException("Bad max value: " + maxValue);
+        }
+        this.precisionBits = precisionBits;
+        this.subBucketCount = 1 << precisionBits;
+        this.maxValue = maxValue;
+        this.counts = new long[bucketIndex(maxValue) + 1];
+    }
+
+    private int bucketIndex(long value) {
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - precisionBits;
+        return ((shift + 1) << precisionBits) + (int) ((value >>> shift) - subBucketCount);
+    }
+
+    private long lowestValueOf(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+        int shift = (index >>> precisionBits) - 1;
+        return (long) (subBucketCount + (index & (subBucketCount - 1))) << shift;
+    }
+
+    private long highestValueOf(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+        int shift = (index >>> precisionBits) - 1;
+        return lowestValueOf(index) + (1L << shift) - 1;
+    }
+
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    public void record(long value, long count) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > maxValue) {
+            value = maxValue;
+        }
+        counts[bucketIndex(value)] += count;
+        totalCount += count;
+    }
+
+    /**
+     * Merge another histogram into this one. Buckets are added directly if both histograms have the same layout,
+     * otherwise each non-empty bucket of the input is re-recorded using its highest equivalent value.
+     *
+     * @param other
+     */
+    public void merge(LogHistogram other) {
+        if (other.precisionBits == precisionBits && other.maxValue == maxValue) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            totalCount += other.totalCount;
+        } else {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] > 0) {
+                    record(other.highestValueOf(i), other.counts[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Scale all the bucket counts by factor, fractional counts are rounded stochastically, so that the expected
+     * count is kept after repeated scaling.
+     *
+     * @param factor in range [0, 1]
+     */
+    public void scale(double factor) {
+        totalCount = 0;
+        for (int i = 0; i < counts.length; i++) {
+            double scaled = counts[i] * factor;
+            long floor = (long) scaled;
+            counts[i] = ThreadLocalRandom.current().nextDouble() < scaled - floor ? floor + 1 : floor;
+            totalCount += counts[i];
+        }
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public boolean isEmpty() {
+        return totalCount == 0;
+    }
+
+    public int getPrecisionBits() {
+        return precisionBits;
+    }
+
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * Get the value at the given percentile.
+     *
+     * @param percentile in range (0, 100]
+     * @return the highest equivalent value of the bucket holding the percentile, 0 if histogram is empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * totalCount));
+        long sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            sum += counts[i];
+            if (sum >= rank) {
+                return Math.min(highestValueOf(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    public double getMean() {
+        if (totalCount == 0) {
+            return 0.0;
+        }
+        double sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                sum += counts[i] * ((lowestValueOf(i) + highestValueOf(i)) / 2.0);
+            }
+        }
+        return sum / totalCount;
+    }
+
+    /**
+     * @return an empty histogram with the same precision and max value as this one, as the target of merges
+     */
+    public LogHistogram emptyCopy() {
+        return new LogHistogram(precisionBits, maxValue);
+    }
+
+    /**
+     * Merge histograms into a new one, whose layout is the finest of the inputs so that no precision is lost.
+     *
+     * @return an empty histogram of the default layout if there is no input
+     */
+    public static LogHistogram mergeAll(Collection<LogHistogram> histograms) {
+        LogHistogram ret = histograms.stream().max(Comparator.comparingInt(LogHistogram::getPrecisionBits))
+                .map(LogHistogram::emptyCopy).orElseGet(LogHistogram::new);
+        histograms.forEach(ret::merge);
+        return ret;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+    }
+
+    /**
+     * Encode this histogram into a compact string, format is
+     * "precisionBits,maxValue;index:count,index:count...", only non-empty buckets are included.
+     *
+     * @return
+     */
+    public String encode() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(precisionBits).append(',').append(maxValue).append(';');
+        boolean first = true;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                if (!first) {
+                    sb.append(',');
+                }
+                sb.append(i).append(':').append(counts[i]);
+                first = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    public static LogHistogram decode(String str) {
+        int pos = str.indexOf(';');
+        String[] head = str.substring(0, pos).split(",");
+        LogHistogram histogram = new LogHistogram(Integer.parseInt(head[0]), Long.parseLong(head[1]));
+        if (pos < str.length() - 1) {
+            for (String bucket : str.substring(pos + 1).split(",")) {
+                int sep = bucket.indexOf(':');
+                long count = Long.parseLong(bucket.substring(sep + 1));
+                histogram.counts[Integer.parseInt(bucket.substring(0, sep))] += count;
+                histogram.totalCount += count;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Encode this histogram into a long array, layout is
+     * [precisionBits, maxValue, index, count, index, count...], only non-empty buckets are included.
+     *
+     * @return
+     */
+    public long[] toArray() {
+        int nonEmpty = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                nonEmpty++;
+            }
+        }
+        long[] ret = new long[2 + nonEmpty * 2];
+        ret[0] = precisionBits;
+        ret[1] = maxValue;
+        for (int i = 0, pos = 2; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                ret[pos++] = i;
+                ret[pos++] = counts[i];
+            }
+        }
+        return ret;
+    }
+
+    public static LogHistogram fromArray(long[] array) {
+        LogHistogram histogram = new LogHistogram((int) array[0], array[1]);
+        for (int i = 2; i < array.length; i += 2) {
+            histogram.counts[(int) array[i]] += array[i + 1];
+            histogram.totalCount += array[i + 1];
+        }
+        return histogram;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("cnt:%d,p50:%d,p99:%d,p999:%d", totalCount, getValueAtPercentile(50),
+                getValueAtPercentile(99), getValueAtPercentile(99.9));
+    }
+}
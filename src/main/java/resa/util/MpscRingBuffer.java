@@ -0,0 +1,114 @@
+package resa.util;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock-free ring buffer for multiple producers and a single consumer. Each slot carries a sequence
+ * number, producers claim slots by CAS on the tail, and publish elements by advancing the sequence of the slot.
+ * Producers never block, elements are dropped and counted when the buffer is full.
+ * <p>
+ * Only one thread is allowed to call the drain methods at a time.
+ */
+public class MpscRingBuffer<T> {
+
+    private final int mask;
+    private final AtomicReferenceArray<T> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    // only accessed by consumer
+    private long head = 0;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public MpscRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Bad capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        elements = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return false if the buffer is full and the element is dropped
+     */
+    public boolean offer(T element) {
+        long pos;
+        int idx;
+        while (true) {
+            pos = tail.get();
+            idx = (int) pos & mask;
+            long diff = sequences.get(idx) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                // the slot is not consumed yet
+                dropped.incrementAndGet();
+                return false;
+            }
+            // else another producer has claimed this slot, retry
+        }
+        elements.lazySet(idx, element);
+        // publish
+        sequences.lazySet(idx, pos + 1);
+        return true;
+    }
+
+    /**
+     * Move all the elements that were published before this call into dest. Elements offered during the
+     * drain are left for the next call.
+     *
+     * @return number of elements drained
+     */
+    public int drainTo(Collection<? super T> dest) {
+        return drainTo(dest, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super T> dest, int maxElements) {
+        long limit = tail.get();
+        int count = 0;
+        while (head < limit && count < maxElements) {
+            int idx = (int) head & mask;
+            if (sequences.get(idx) != head + 1) {
+                // claimed but not published yet
+                break;
+            }
+            dest.add(elements.get(idx));
+            elements.lazySet(idx, null);
+            // release the slot for the producer of next round
+            sequences.lazySet(idx, head + mask + 1);
+            head++;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return approximate number of elements in buffer
+     */
+    public int size() {
+        return (int) Math.max(0, Math.min(tail.get() - head, capacity()));
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
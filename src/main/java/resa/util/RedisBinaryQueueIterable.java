@@ -0,0 +1,34 @@
+package resa.util;
+
+import redis.clients.jedis.Jedis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Iterate a redis queue as raw bytes, used to read binary metrics records.
+ * This class is not thread-safe
+ */
+public class RedisBinaryQueueIterable extends AbstractRedisQueueIterable<byte[]> {
+
+    private final byte[] queueKey;
+
+    public RedisBinaryQueueIterable(String host, int port, String queue) {
+        this(host, port, queue, Long.MAX_VALUE);
+    }
+
+    public RedisBinaryQueueIterable(String host, int port, String queue, long maxCount) {
+        this(host, port, queue, 0, maxCount);
+    }
+
+    public RedisBinaryQueueIterable(String host, int port, String queue, long start, long maxCount) {
+        super(host, port, queue, start, maxCount);
+        this.queueKey = queue.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    protected List<byte[]> lrange(Jedis jedis, long from, long to) {
+        return jedis.lrange(queueKey, from, to);
+    }
+
+}
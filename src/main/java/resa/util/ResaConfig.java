@@ -17,6 +17,32 @@ public class ResaConfig extends Config {
 
     public static final String COMP_SAMPLE_RATE = "resa.comp.sample.rate";
 
+    public static final String COMP_STREAM_SAMPLE_RATES = "resa.comp.sample.rate.streams";
+
+    public static final String COMP_SAMPLE_MODE = "resa.comp.sample.mode";
+
+    public static final String COMP_SAMPLE_CPU_BUDGET = "resa.comp.sample.cpu.budget";
+
+    public static final String COMP_SAMPLE_MIN_COUNT = "resa.comp.sample.min.count";
+
+    public static final String COMP_SAMPLE_RATE_MAX = "resa.comp.sample.rate.max";
+
+    public static final String HISTOGRAM_PRECISION_BITS = "resa.metric.histogram.precision.bits";
+
+    public static final String METRIC_ENCODING = "resa.metric.encoding";
+
+    public static final String METRIC_BUFFER_CAPACITY = "resa.metric.buffer.capacity";
+
+    public static final String METRIC_STORE_DIR = "resa.metric.store.dir";
+
+    public static final String METRIC_STORE_SEGMENT_BYTES = "resa.metric.store.segment.bytes";
+
+    public static final String METRIC_STORE_SEGMENT_SECS = "resa.metric.store.segment.secs";
+
+    public static final String METRIC_STORE_RETENTION_SECS = "resa.metric.store.retention.secs";
+
+    public static final String METRIC_STORE_WARM_START_SECS = "resa.metric.store.warmstart.secs";
+
     public static final String MAX_EXECUTORS_PER_WORKER = "resa.topology.max.executor.per.worker";
 
     public static final String ZK_ROOT_PATH = "resa.scheduler.zk.root";
@@ -27,10 +53,34 @@ public class ResaConfig extends Config {
 
     public static final String OPTIMIZE_INTERVAL = "resa.optimize.interval.secs";
 
+    public static final String OPTIMIZE_WIN_MODE = "resa.optimize.win.mode";
+
+    public static final String OPTIMIZE_WIN_SIZE = "resa.optimize.win.size";
+
+    public static final String OPTIMIZE_WIN_DECAY = "resa.optimize.win.decay";
+
+    public static final String OPTIMIZE_NIMBUS_TIMEOUT = "resa.optimize.nimbus.timeout.secs";
+
+    public static final String OPTIMIZE_EXECUTORS_REFRESH = "resa.optimize.executors.refresh.secs";
+
+    public static final String OPTIMIZE_KEY_GROUP_RATIO = "resa.optimize.keygroup.ratio";
+
     public static final String ALLOC_CALC_CLASS = "resa.optimize.alloc.class";
 
     public static final String DECISION_MAKER_CLASS = "resa.scheduler.decision.class";
 
+    public static final String ARBITER_ENABLE = "resa.arbiter.enable";
+
+    public static final String ARBITER_INTERVAL = "resa.arbiter.interval.secs";
+
+    public static final String ARBITER_MAX_EXECUTORS = "resa.arbiter.max.executor.num";
+
+    public static final String ARBITER_MAX_WORKERS = "resa.arbiter.max.worker.num";
+
+    public static final String ARBITER_DEMAND_TIMEOUT = "resa.arbiter.demand.timeout.secs";
+
+    public static final String TOPOLOGY_QOS_WEIGHT = "resa.topology.qos.weight";
+
     private ResaConfig(boolean loadDefault) {
         if (loadDefault) {
             //read default.yaml & storm.yaml
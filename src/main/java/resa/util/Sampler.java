@@ -1,22 +1,117 @@
 package resa.util;
 
 /**
+ * Decide whether an event should be sampled. Two modes are supported:
+ * <ul>
+ * <li>fixed: sample every (1 / rate) events, cheapest but may alias with periodic workloads</li>
+ * <li>randomized: skip a geometric distributed number of events between two samples, the random numbers are
+ * generated by a xorshift generator owned by this sampler, so it must be used by a single thread</li>
+ * </ul>
  * Created by ding on 14-4-26.
  */
 public class Sampler {
 
+    private double rate;
+    private final boolean randomized;
+    // fixed mode
     private int sampleValue;
     private long counter = 0;
+    // randomized mode
+    private long seed;
+    private double logOneMinusRate;
+    private long skip;
+    // statistic since last reset
+    private long calls = 0;
+    private long samples = 0;
 
     public Sampler(double rate) {
+        this(rate, false);
+    }
+
+    public Sampler(double rate, boolean randomized) {
+        this.randomized = randomized;
+        this.seed = System.nanoTime() ^ (System.identityHashCode(this) * 0x9E3779B97F4A7C15L);
+        if (seed == 0) {
+            seed = 0x9E3779B97F4A7C15L;
+        }
+        setRate(rate);
+    }
+
+    public void setRate(double rate) {
         if (Double.compare(0, rate) > 0 || Double.compare(rate, 1) > 0) {
             throw new IllegalArgumentException("Bad sample rate: " + rate);
         }
-        sampleValue = (int) (1.0 / rate);
+        this.rate = rate;
+        if (randomized) {
+            logOneMinusRate = Math.log(1.0 - rate);
+            skip = nextSkip();
+        } else {
+            sampleValue = rate > 0 ? (int) (1.0 / rate) : Integer.MAX_VALUE;
+        }
     }
 
     public boolean shoudSample() {
-        return counter++ % sampleValue == 0;
+        calls++;
+        boolean sample;
+        if (randomized) {
+            if (skip > 0) {
+                skip--;
+                sample = false;
+            } else {
+                skip = nextSkip();
+                sample = true;
+            }
+        } else {
+            sample = counter++ % sampleValue == 0;
+        }
+        if (sample) {
+            samples++;
+        }
+        return sample;
+    }
+
+    /* number of events to skip before next sample, geometric distributed with success probability rate */
+    private long nextSkip() {
+        if (rate >= 1.0) {
+            return 0;
+        } else if (rate <= 0.0) {
+            return Long.MAX_VALUE;
+        }
+        // xorshift64*
+        seed ^= seed >>> 12;
+        seed ^= seed << 25;
+        seed ^= seed >>> 27;
+        // uniform in (0, 1]
+        double u = ((seed * 0x2545F4914F6CDD1DL >>> 11) + 1) * 0x1.0p-53;
+        return (long) (Math.log(u) / logOneMinusRate);
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public boolean isRandomized() {
+        return randomized;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return the rate actually applied since last reset, the configured rate is returned if there is no event
+     */
+    public double getEffectiveRate() {
+        return calls > 0 ? (double) samples / calls : rate;
+    }
+
+    public void resetStat() {
+        calls = 0;
+        samples = 0;
     }
 
 }
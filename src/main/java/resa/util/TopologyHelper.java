@@ -256,6 +256,18 @@ public class TopologyHelper {
                 : IntStream.rangeClosed(start, end).boxed().collect(Collectors.toList());
     }
 
+    /**
+     * Number of workers requested for the given executors, a worker is added only if the remainder is more than
+     * half of maxExecutorsPerWorker.
+     */
+    public static int getNumWorkers(int numExecutors, int maxExecutorsPerWorker) {
+        int numWorkers = numExecutors / maxExecutorsPerWorker;
+        if (numExecutors % maxExecutorsPerWorker > (int) (maxExecutorsPerWorker / 2)) {
+            numWorkers++;
+        }
+        return numWorkers;
+    }
+
     public static String topologyId2Name(String topologyId) {
         int split = topologyId.indexOf('-');
         return topologyId.substring(0, split);
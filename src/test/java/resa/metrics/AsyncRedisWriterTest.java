@@ -0,0 +1,68 @@
+package resa.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncRedisWriterTest {
+
+    private static RedisMetricsCollector.QueueElement element(int i) {
+        return new RedisMetricsCollector.QueueElement("test-metrics", "comp:" + i + ":0->{}");
+    }
+
+    @Test
+    public void testRetryAfterFailure() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger written = new AtomicInteger();
+        AsyncRedisWriter writer = new AsyncRedisWriter("localhost", 6379, 1000, 100,
+                AsyncRedisWriter.OverflowPolicy.BLOCK) {
+            @Override
+            protected void writeBatch(List<RedisMetricsCollector.QueueElement> batch) throws Exception {
+                // the first two round trips fail
+                if (calls.incrementAndGet() <= 2) {
+                    throw new Exception("connection refused");
+                }
+                written.addAndGet(batch.size());
+            }
+        };
+        writer.start();
+        for (int i = 0; i < 500; i++) {
+            writer.add(element(i));
+        }
+        writer.stop();
+        Assert.assertEquals(500, writer.getQueuedCount());
+        Assert.assertEquals(500, writer.getSentCount());
+        Assert.assertEquals(500, written.get());
+        Assert.assertEquals(0, writer.getDroppedCount());
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        AsyncRedisWriter writer = new AsyncRedisWriter("localhost", 6379, 100, 10,
+                AsyncRedisWriter.OverflowPolicy.DROP_OLDEST) {
+            @Override
+            protected void writeBatch(List<RedisMetricsCollector.QueueElement> batch) throws Exception {
+                // redis hangs
+                blocked.await();
+            }
+        };
+        writer.start();
+        long start = System.nanoTime();
+        for (int i = 0; i < 10000; i++) {
+            writer.add(element(i));
+        }
+        long cost = System.nanoTime() - start;
+        System.out.println("add 10000 elements with a hanging redis: " + cost / 1000 + "us");
+        Assert.assertEquals(10000, writer.getQueuedCount());
+        Assert.assertTrue(writer.getDroppedCount() >= 10000 - 100 - 10);
+        Assert.assertTrue(writer.getPendingCount() <= 100);
+        blocked.countDown();
+        writer.stop();
+        Assert.assertEquals(writer.getQueuedCount(), writer.getSentCount() + writer.getDroppedCount());
+    }
+
+}
@@ -0,0 +1,54 @@
+package resa.metrics;
+
+import backtype.storm.generated.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class EmitTimeProbeTest {
+
+    private static ComponentCommon common(Map<GlobalStreamId, Grouping> inputs, String... streams) {
+        Map<String, StreamInfo> streamInfos = new HashMap<>();
+        for (String stream : streams) {
+            streamInfos.put(stream, new StreamInfo(Arrays.asList("word"), false));
+        }
+        return new ComponentCommon(inputs, streamInfos);
+    }
+
+    @Test
+    public void testSubscribe() {
+        Map<String, SpoutSpec> spouts = new HashMap<>();
+        spouts.put("spout", new SpoutSpec(null, common(new HashMap<>(), "default", EmitTimeProbe.STREAM)));
+        spouts.put("plain", new SpoutSpec(null, common(new HashMap<>(), "default")));
+        Map<String, Bolt> bolts = new HashMap<>();
+        Map<GlobalStreamId, Grouping> countInputs = new HashMap<>();
+        countInputs.put(new GlobalStreamId("spout", "default"), new Grouping());
+        countInputs.put(new GlobalStreamId("spout", "other"), new Grouping());
+        countInputs.put(new GlobalStreamId("plain", "default"), new Grouping());
+        bolts.put("count", new Bolt(null, common(countInputs, "default", EmitTimeProbe.STREAM)));
+        bolts.put("sink", new Bolt(null, common(new HashMap<>(Collections.singletonMap(
+                new GlobalStreamId("count", "default"), new Grouping())), EmitTimeProbe.STREAM)));
+        StormTopology topology = new StormTopology(spouts, bolts, new HashMap<>());
+        EmitTimeProbe.subscribe(topology);
+        // probe streams of the inputs are subscribed once, components without probe stream are skipped
+        Assert.assertEquals(4, countInputs.size());
+        Assert.assertTrue(countInputs.get(new GlobalStreamId("spout", EmitTimeProbe.STREAM)).is_set_direct());
+        Assert.assertFalse(countInputs.containsKey(new GlobalStreamId("plain", EmitTimeProbe.STREAM)));
+        Map<GlobalStreamId, Grouping> sinkInputs = bolts.get("sink").get_common().get_inputs();
+        Assert.assertTrue(sinkInputs.get(new GlobalStreamId("count", EmitTimeProbe.STREAM)).is_set_direct());
+    }
+
+    @Test
+    public void testClock() {
+        long wall = System.currentTimeMillis();
+        long t1 = EmitTimeProbe.now(), t2 = EmitTimeProbe.now();
+        Assert.assertTrue(t2 >= t1);
+        // anchored to wall clock
+        Assert.assertTrue(Math.abs(t1 / 1000000 - wall) < 1000);
+        Assert.assertEquals(Arrays.asList("count", 12345L), EmitTimeProbe.newProbe("count", 12345L));
+    }
+}
@@ -0,0 +1,110 @@
+package resa.metrics;
+
+import backtype.storm.Config;
+import backtype.storm.spout.ISpoutOutputCollector;
+import backtype.storm.spout.SpoutOutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.IRichSpout;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.topology.base.BaseRichSpout;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+import backtype.storm.utils.Utils;
+import org.junit.Assert;
+import org.junit.Test;
+import resa.util.ResaConfig;
+
+import java.util.*;
+
+/**
+ * Throughput of a trivial spout with and without the measurement wrapper. Every emitted tuple is acked at once.
+ */
+public class MeasurableSpoutBenchmark {
+
+    private static final int NUM_TUPLES = 2000000;
+
+    private static class CounterSpout extends BaseRichSpout {
+
+        private SpoutOutputCollector collector;
+        private long next = 0;
+
+        @Override
+        public void open(Map conf, TopologyContext context, SpoutOutputCollector collector) {
+            this.collector = collector;
+        }
+
+        @Override
+        public void nextTuple() {
+            Long id = next++;
+            collector.emit(new Values("word", id), id);
+        }
+
+        @Override
+        public void declareOutputFields(OutputFieldsDeclarer declarer) {
+            declarer.declare(new Fields("word", "id"));
+        }
+    }
+
+    private static class AckingCollector implements ISpoutOutputCollector {
+
+        private Object lastMsgId;
+
+        @Override
+        public List<Integer> emit(String streamId, List<Object> tuple, Object messageId) {
+            lastMsgId = messageId;
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void emitDirect(int taskId, String streamId, List<Object> tuple, Object messageId) {
+            lastMsgId = messageId;
+        }
+
+        @Override
+        public void reportError(Throwable error) {
+        }
+    }
+
+    private Map<String, Object> registeredMetrics = new HashMap<>();
+
+    private TopologyContext createContext(Map<String, Object> conf) {
+        Map<Integer, String> task2Comp = new HashMap<>();
+        task2Comp.put(1, "spout");
+        Map<String, List<Integer>> comp2Tasks = new HashMap<>();
+        comp2Tasks.put("spout", Arrays.asList(1));
+        Map<String, Map<String, Fields>> comp2Fields = new HashMap<>();
+        comp2Fields.put("spout", Collections.singletonMap(Utils.DEFAULT_STREAM_ID, new Fields("word", "id")));
+        registeredMetrics.clear();
+        return new TopologyContext(null, conf, task2Comp, comp2Tasks, comp2Fields, "bench-1", null, null, 1, 6700,
+                Arrays.asList(1), new HashMap<>(), new HashMap<>(), new HashMap<>(), registeredMetrics,
+                new clojure.lang.Atom(false));
+    }
+
+    private double runSpout(IRichSpout spout, Map<String, Object> conf) {
+        AckingCollector collector = new AckingCollector();
+        spout.open(conf, createContext(conf), new SpoutOutputCollector(collector));
+        long start = System.nanoTime();
+        for (int i = 0; i < NUM_TUPLES; i++) {
+            spout.nextTuple();
+            spout.ack(collector.lastMsgId);
+        }
+        return NUM_TUPLES * 1e9 / (System.nanoTime() - start);
+    }
+
+    @Test
+    public void testThroughput() {
+        Map<String, Object> conf = new HashMap<>(Utils.readDefaultConfig());
+        conf.put(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS, 60);
+        conf.put(ResaConfig.COMP_SAMPLE_RATE, 0.05);
+        double raw = 0, measured = 0;
+        // warm up, then take the last round
+        for (int i = 0; i < 3; i++) {
+            raw = runSpout(new CounterSpout(), conf);
+            measured = runSpout(new MeasurableSpout(new CounterSpout()), conf);
+        }
+        System.out.println(String.format("raw spout: %.0f tuples/s, measurable spout: %.0f tuples/s", raw,
+                measured));
+        Assert.assertTrue(measured > 0);
+    }
+
+}
@@ -0,0 +1,185 @@
+package resa.metrics;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import resa.scheduler.TopologyOptimizer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+public class MeasuredDataStoreTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("measured-store");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.walk(dir).sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+
+    private static MeasuredData newData(String comp, long time) {
+        Map<String, Object> data = new HashMap<>();
+        data.put(MetricNames.EMIT_COUNT, Collections.singletonMap("default", time));
+        return new MeasuredData(comp, 1, time, data);
+    }
+
+    private static List<Long> times(Iterable<MeasuredData> data) {
+        return StreamSupport.stream(data.spliterator(), false).map(d -> d.timestamp).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testQueryRange() {
+        MeasuredDataStore store = new MeasuredDataStore(dir, 1024, 10, 0);
+        for (long t = 0; t < 100; t++) {
+            store.append(newData("bolt", t));
+            store.append(newData("spout", t));
+        }
+        Assert.assertEquals(Arrays.asList(25L, 26L, 27L), times(store.query("bolt", 25, 27)));
+        Assert.assertEquals(6, times(store.query(null, 25, 27)).size());
+        Assert.assertTrue(times(store.query("other", 0, 100)).isEmpty());
+        MeasuredData d = store.query("spout", 42, 42).iterator().next();
+        Assert.assertEquals("spout", d.component);
+        Assert.assertEquals(42L, ((Map) d.data.get(MetricNames.EMIT_COUNT)).get("default"));
+        store.close();
+    }
+
+    @Test
+    public void testReopenAndCompact() throws IOException {
+        MeasuredDataStore store = new MeasuredDataStore(dir, 4096, 10, 0);
+        for (long t = 0; t < 30; t++) {
+            store.append(newData("bolt", t));
+        }
+        store.close();
+        // every span left a partially filled segment
+        Path compDir = dir.resolve("bolt");
+        Assert.assertEquals(3, Files.list(compDir).count());
+        store = new MeasuredDataStore(dir, 4096, 10, 0);
+        Assert.assertEquals(1, Files.list(compDir).count());
+        Assert.assertEquals(30, times(store.query("bolt", 0, 100)).size());
+        // new data goes to a new segment
+        store.append(newData("bolt", 30));
+        Assert.assertEquals(31, times(store.query("bolt", 0, 100)).size());
+        store.close();
+    }
+
+    @Test
+    public void testOrderAfterMerge() throws IOException {
+        MeasuredDataStore store = new MeasuredDataStore(dir, 1024, 10, 0);
+        store.append(newData("bolt", 0));
+        store.append(newData("bolt", 10));
+        // a segment more than half full, which is not merged
+        for (int i = 0; i < 50; i++) {
+            store.append(newData("bolt", 20));
+        }
+        store.close();
+        // the first two segments are merged on open, and stay before the later segment on the next open
+        for (int i = 0; i < 2; i++) {
+            store = new MeasuredDataStore(dir, 1024, 10, 0);
+            store.close();
+        }
+        store = new MeasuredDataStore(dir, 1024, 10, 0);
+        List<Long> times = times(store.query("bolt", 0, 100));
+        Assert.assertEquals(52, times.size());
+        List<Long> sorted = new ArrayList<>(times);
+        Collections.sort(sorted);
+        Assert.assertEquals(sorted, times);
+        store.close();
+    }
+
+    @Test
+    public void testCrashAfterMerge() throws IOException {
+        MeasuredDataStore store = new MeasuredDataStore(dir, 4096, 10, 0);
+        for (long t = 0; t < 30; t++) {
+            store.append(newData("bolt", t));
+        }
+        store.close();
+        Path compDir = dir.resolve("bolt");
+        Path backup = Files.createTempDirectory("measured-store-backup");
+        for (Path p : Files.list(compDir).collect(Collectors.toList())) {
+            Files.copy(p, backup.resolve(p.getFileName()));
+        }
+        store = new MeasuredDataStore(dir, 4096, 10, 0);
+        store.close();
+        // sources are back as if the merge crashed before deleting them, and an unfinished merge is left
+        for (Path p : Files.list(backup).collect(Collectors.toList())) {
+            Files.move(p, compDir.resolve(p.getFileName()));
+        }
+        Files.delete(backup);
+        Files.write(compDir.resolve("9-0-9.seg.tmp"), new byte[16]);
+        store = new MeasuredDataStore(dir, 4096, 10, 0);
+        Assert.assertEquals(30, times(store.query("bolt", 0, 100)).size());
+        Assert.assertEquals(1, Files.list(compDir).count());
+        store.close();
+    }
+
+    @Test
+    public void testRetention() throws IOException {
+        MeasuredDataStore store = new MeasuredDataStore(dir, 1024, 10, 20);
+        for (long t = 0; t < 100; t++) {
+            store.append(newData("bolt", t));
+        }
+        List<Long> remained = times(store.query("bolt", 0, 100));
+        Assert.assertTrue(remained.get(0) >= 70);
+        Assert.assertEquals(99L, (long) remained.get(remained.size() - 1));
+        store.close();
+    }
+
+    @Test
+    public void testSource() {
+        MeasuredDataStore store = new MeasuredDataStore(dir, 1024, 10, 0);
+        for (long t = 0; t < 50; t++) {
+            store.append(newData("bolt", t));
+        }
+        long[] now = {50};
+        TopologyOptimizer.MeasuredSource source = store.source(20, 5, () -> now[0]);
+        // warm start window, the latest records may not be complete
+        Assert.assertEquals(LongStream.rangeClosed(20, 45).boxed().collect(Collectors.toList()),
+                times(source.retrieve()));
+        Assert.assertTrue(times(source.retrieve()).isEmpty());
+        for (long t = 50; t < 60; t++) {
+            store.append(newData("bolt", t));
+        }
+        now[0] = 60;
+        Assert.assertEquals(Arrays.asList(46L, 47L, 48L, 49L, 50L, 51L, 52L, 53L, 54L, 55L),
+                times(source.retrieve()));
+        store.setBarrier(40);
+        store.close();
+        // data before the last rebalance is dropped on warm start
+        store = new MeasuredDataStore(dir, 1024, 10, 0);
+        Assert.assertEquals(40L, store.getBarrier());
+        Assert.assertEquals(LongStream.rangeClosed(40, 55).boxed().collect(Collectors.toList()),
+                times(store.source(20, 5, () -> 60).retrieve()));
+        store.close();
+    }
+
+    @Test
+    public void testDropSegmentWhileIterating() {
+        MeasuredDataStore store = new MeasuredDataStore(dir, 1024, 10, 20);
+        for (long t = 0; t < 30; t++) {
+            store.append(newData("bolt", t));
+        }
+        Iterator<MeasuredData> it = store.query("bolt", 0, 100).iterator();
+        it.next();
+        // the first segments are dropped by retention, but still readable by the iterator
+        for (long t = 30; t < 100; t++) {
+            store.append(newData("bolt", t));
+        }
+        int count = 1;
+        while (it.hasNext()) {
+            Assert.assertEquals(count++, it.next().timestamp);
+        }
+        Assert.assertEquals(30, count);
+        store.close();
+    }
+}
@@ -0,0 +1,68 @@
+package resa.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+import resa.util.LogHistogram;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MetricsCodecTest {
+
+    private Map<String, Object> createBoltData() {
+        CMVMetric executeMetric = new CMVMetric(new String[]{"spout:default", "split:default"}, true);
+        HistogramMetric histMetric = new HistogramMetric(new String[]{"spout:default", "split:default"},
+                LogHistogram.DEFAULT_PRECISION_BITS, LogHistogram.DEFAULT_MAX_VALUE, true);
+        for (int i = 0; i < 1000; i++) {
+            executeMetric.addMetric(i % 2, i * 0.01);
+            histMetric.add(i % 2, i * 10);
+        }
+        Map<String, Object> queue = new HashMap<>();
+        queue.put("sampleCount", 209);
+        queue.put("totalQueueLen", 212L);
+        queue.put("totalCount", 4170L);
+        Map<String, Object> data = new HashMap<>();
+        data.put(MetricNames.TASK_EXECUTE, executeMetric.getValueAndReset());
+        data.put(MetricNames.TASK_EXECUTE_HIST, histMetric.getValueAndReset());
+        data.put(MetricNames.RECV_QUEUE, queue);
+        data.put(MetricNames.DURATION, 60000L);
+        return data;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Map<String, Object> data = createBoltData();
+        byte[] record = MetricsCodec.encode("counter", 7, 1409727090L, data);
+        System.out.println("binary record size: " + record.length);
+        Assert.assertTrue(MetricsCodec.isBinaryRecord(record));
+        MeasuredData measuredData = MetricsCodec.decode(record);
+        Assert.assertEquals("counter", measuredData.component);
+        Assert.assertEquals(7, measuredData.task);
+        Assert.assertEquals(1409727090L, measuredData.timestamp);
+        Assert.assertEquals(60000L, ((Number) measuredData.data.get(MetricNames.DURATION)).longValue());
+        Map<String, Object> queue = (Map<String, Object>) measuredData.data.get(MetricNames.RECV_QUEUE);
+        Assert.assertEquals(4170L, ((Number) queue.get("totalCount")).longValue());
+        Map<String, Object> execute = (Map<String, Object>) data.get(MetricNames.TASK_EXECUTE);
+        Map<String, Object> decodedExecute = (Map<String, Object>) measuredData.data.get(MetricNames.TASK_EXECUTE);
+        execute.forEach((k, v) -> Assert.assertArrayEquals((double[]) v, CMVMetric.parse(decodedExecute.get(k)), 0));
+        Map<String, Object> hist = (Map<String, Object>) data.get(MetricNames.TASK_EXECUTE_HIST);
+        Map<String, Object> decodedHist = (Map<String, Object>) measuredData.data.get(MetricNames.TASK_EXECUTE_HIST);
+        hist.forEach((k, v) -> Assert.assertEquals(HistogramMetric.parse(v).encode(),
+                HistogramMetric.parse(decodedHist.get(k)).encode()));
+    }
+
+    @Test
+    public void testLegacyFormat() {
+        double[] cmv = CMVMetric.parse("525,709.4337659999997,1120.8007487084597");
+        Assert.assertArrayEquals(new double[]{525, 709.4337659999997, 1120.8007487084597}, cmv, 0);
+        Assert.assertArrayEquals(cmv, CMVMetric.parse(Arrays.asList(525, 709.4337659999997, 1120.8007487084597)), 0);
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(1000);
+        histogram.record(20000);
+        Assert.assertEquals(histogram.encode(), HistogramMetric.parse(histogram.encode()).encode());
+        Assert.assertEquals(histogram.encode(), HistogramMetric.parse(histogram.toArray()).encode());
+        Assert.assertFalse(MetricsCodec.isBinaryRecord("counter:7:1409727090->{}".getBytes()));
+    }
+
+}
@@ -0,0 +1,34 @@
+package resa.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class PendingSampleMapTest {
+
+    @Test
+    public void testAgainstHashMap() {
+        PendingSampleMap map = new PendingSampleMap(4);
+        Map<Long, Long> expected = new HashMap<>();
+        Random rand = new Random(1);
+        for (int i = 0; i < 200000; i++) {
+            long key = rand.nextInt(5000);
+            if (rand.nextBoolean()) {
+                map.put(key, "s" + (key % 3), i);
+                expected.put(key, (long) i);
+            } else {
+                Long v = expected.remove(key);
+                Assert.assertEquals(v != null, map.remove(key));
+                if (v != null) {
+                    Assert.assertEquals(v.longValue(), map.lastStartTime());
+                    Assert.assertEquals("s" + (key % 3), map.lastStream());
+                }
+            }
+            Assert.assertEquals(expected.size(), map.size());
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package resa.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * Micro benchmark of the allocation per sampled tuple in MeasurableBolt.execute.
+ */
+public class SampledPathAllocationTest {
+
+    private static final String[] COMPONENTS = {"spout", "split", "counter"};
+    private static final String STREAM = "default";
+    private static final int NUM_OPS = 1000000;
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private double runStringKeyPath(CMVMetric metric, HistogramMetric histMetric) {
+        long start = allocatedBytes();
+        for (int i = 0; i < NUM_OPS; i++) {
+            String comp = COMPONENTS[i % COMPONENTS.length];
+            String id = comp + ":" + STREAM;
+            metric.addMetric(id, i * 0.001);
+            histMetric.add(id, i & 1023);
+        }
+        return (allocatedBytes() - start) / (double) NUM_OPS;
+    }
+
+    private double runIndexedPath(StreamIndex index, CMVMetric metric, HistogramMetric histMetric) {
+        long start = allocatedBytes();
+        for (int i = 0; i < NUM_OPS; i++) {
+            int id = index.get(COMPONENTS[i % COMPONENTS.length], STREAM);
+            metric.addMetric(id, i * 0.001);
+            histMetric.add(id, i & 1023);
+        }
+        return (allocatedBytes() - start) / (double) NUM_OPS;
+    }
+
+    @Test
+    public void testAllocationPerSampledTuple() throws Exception {
+        StreamIndex index = new StreamIndex();
+        for (String comp : COMPONENTS) {
+            index.getOrAdd(comp, STREAM);
+        }
+        CMVMetric metric = new CMVMetric(index.keys());
+        HistogramMetric histMetric = new HistogramMetric(index.keys(), 5, 1L << 32);
+        // warm up
+        for (int i = 0; i < 5; i++) {
+            runStringKeyPath(metric, histMetric);
+            runIndexedPath(index, metric, histMetric);
+        }
+        double strPath = runStringKeyPath(metric, histMetric);
+        double indexedPath = runIndexedPath(index, metric, histMetric);
+        System.out.println(String.format("String key path: %.2f bytes/tuple, indexed path: %.4f bytes/tuple",
+                strPath, indexedPath));
+        Assert.assertTrue(indexedPath < 0.01);
+        Assert.assertEquals(COMPONENTS.length, ((Map) metric.getValueAndReset()).size());
+    }
+
+}
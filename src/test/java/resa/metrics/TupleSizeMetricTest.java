@@ -0,0 +1,59 @@
+package resa.metrics;
+
+import backtype.storm.Config;
+import backtype.storm.utils.Utils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TupleSizeMetricTest {
+
+    private static class NotSerializable {
+    }
+
+    private static Map<String, Object> kryoConf(boolean fallback) {
+        Map<String, Object> conf = new HashMap<>(Utils.readDefaultConfig());
+        // keys of SerializationFactory.getKryo, which are not all in defaults.yaml
+        conf.put(Config.TOPOLOGY_KRYO_REGISTER, Collections.emptyList());
+        conf.put(Config.TOPOLOGY_KRYO_DECORATORS, Collections.emptyList());
+        conf.put(Config.TOPOLOGY_SKIP_MISSING_KRYO_REGISTRATIONS, false);
+        conf.put(Config.TOPOLOGY_FALL_BACK_ON_JAVA_SERIALIZATION, fallback);
+        return conf;
+    }
+
+    @Test
+    public void testMeasure() {
+        TupleSizeMetric metric = new TupleSizeMetric(kryoConf(true), true);
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'a');
+        String longWord = new String(chars);
+        for (int i = 0; i < 100; i++) {
+            metric.measure("small", Arrays.asList("a", i));
+            metric.measure("large", Arrays.asList(longWord, i));
+        }
+        Map<String, Object> ret = (Map<String, Object>) metric.getValueAndReset();
+        double[] small = CMVMetric.parse(ret.get("small"));
+        double[] large = CMVMetric.parse(ret.get("large"));
+        Assert.assertEquals(100, small[0], 0);
+        System.out.println("avg size, small: " + small[1] / small[0] + ", large: " + large[1] / large[0]);
+        Assert.assertTrue(small[1] / small[0] < 16);
+        Assert.assertTrue(large[1] / large[0] > 1000);
+    }
+
+    @Test
+    public void testUnserializable() {
+        for (boolean fallback : new boolean[]{true, false}) {
+            TupleSizeMetric metric = new TupleSizeMetric(kryoConf(fallback), true);
+            metric.measure("default", Arrays.asList("a", new NotSerializable()));
+            metric.measure("default", Arrays.asList("a", 1));
+            Map<String, Object> ret = (Map<String, Object>) metric.getValueAndReset();
+            // the failed tuple is skipped, later ones are still measured
+            Assert.assertEquals(1, CMVMetric.parse(ret.get("default"))[0], 0);
+        }
+    }
+
+}
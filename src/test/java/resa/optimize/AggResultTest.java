@@ -1,9 +1,15 @@
 package resa.optimize;
 
+import org.junit.Assert;
 import org.junit.Test;
+import resa.metrics.MeasuredData;
+import resa.metrics.MetricNames;
+import resa.util.LogHistogram;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class AggResultTest {
 
@@ -31,4 +37,41 @@ public class AggResultTest {
         System.out.println(aggResult.getSendQueueResult().toString());
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testEstimatedProcessedCount() {
+        Map<String, Object> execute = new HashMap<>();
+        execute.put("spout1:default", "10,20.0,40.0");
+        execute.put("spout2:default", "10,20.0,40.0");
+        execute.put("__system:__tick", "1,1.0,1.0");
+        Map<String, Object> sampleRates = new HashMap<>();
+        sampleRates.put("spout1:default", 0.1);
+        sampleRates.put("spout2:default", 0.5);
+        Map<String, Object> data = new HashMap<>();
+        data.put(MetricNames.TASK_EXECUTE, execute);
+        data.put(MetricNames.SAMPLE_RATE, sampleRates);
+        BoltAggResult result = (BoltAggResult) AggResultCalculator.parse(new MeasuredData("bolt", 1, 0, data),
+                new BoltAggResult(), false, true);
+        Assert.assertEquals(100.0, result.getEstimatedProcessedCount().get("spout1:default"), 1e-9);
+        Assert.assertEquals(20.0, result.getEstimatedProcessedCount().get("spout2:default"), 1e-9);
+        // no sample rate reported, taken as it is
+        Assert.assertEquals(1.0, result.getEstimatedProcessedCount().get("__system:__tick"), 1e-9);
+    }
+
+    @Test
+    public void testHistogramPrecision() {
+        LogHistogram hist = new LogHistogram(9, LogHistogram.DEFAULT_MAX_VALUE);
+        for (int i = 1; i <= 1000; i++) {
+            hist.record(i * 37);
+        }
+        BoltAggResult src = new BoltAggResult();
+        src.getTupleProcessHist().put("spout1:default", hist);
+        BoltAggResult result = new BoltAggResult();
+        result.add(src);
+        result.add(src);
+        // merge targets keep the configured precision rather than the default one
+        Assert.assertEquals(9, result.getTupleProcessHist().get("spout1:default").getPrecisionBits());
+        Assert.assertEquals(9, result.getCombinedProcessedHist().getPrecisionBits());
+        Assert.assertEquals(hist.getValueAtPercentile(99), result.getCombinedProcessedHist().getValueAtPercentile(99));
+    }
+}
@@ -0,0 +1,120 @@
+package resa.optimize;
+
+import backtype.storm.generated.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class DAGServiceModelTest {
+
+    private static Bolt bolt(String... inputs) {
+        Map<GlobalStreamId, Grouping> inputMap = new HashMap<>();
+        for (String input : inputs) {
+            inputMap.put(new GlobalStreamId(input, "default"), new Grouping());
+        }
+        return new Bolt(null, new ComponentCommon(inputMap, new HashMap<>()));
+    }
+
+    /* video like pipeline: spout -> extracter -> (matcherA, matcherB) -> aggregater, spout2 -> matcherB */
+    private static StormTopology createTopology() {
+        Map<String, SpoutSpec> spouts = new HashMap<>();
+        spouts.put("spout", new SpoutSpec(null, new ComponentCommon(new HashMap<>(), new HashMap<>())));
+        spouts.put("spout2", new SpoutSpec(null, new ComponentCommon(new HashMap<>(), new HashMap<>())));
+        Map<String, Bolt> bolts = new HashMap<>();
+        bolts.put("extracter", bolt("spout"));
+        bolts.put("matcherA", bolt("extracter"));
+        bolts.put("matcherB", bolt("extracter", "spout2"));
+        bolts.put("aggregater", bolt("matcherA", "matcherB"));
+        return new StormTopology(spouts, bolts, new HashMap<>());
+    }
+
+    private static Map<String, ServiceNode> createNodes(double muB) {
+        Map<String, ServiceNode> nodes = new HashMap<>();
+        nodes.put("extracter", new ServiceNode(10.0, 6.0, ServiceNode.ServiceType.EXPONENTIAL, 1.0));
+        nodes.put("matcherA", new ServiceNode(10.0, 6.0, ServiceNode.ServiceType.EXPONENTIAL, 1.0));
+        nodes.put("matcherB", new ServiceNode(15.0, muB, ServiceNode.ServiceType.EXPONENTIAL, 1.0));
+        nodes.put("aggregater", new ServiceNode(25.0, 30.0, ServiceNode.ServiceType.EXPONENTIAL, 1.0));
+        return nodes;
+    }
+
+    private static Map<String, Double> spoutRates() {
+        Map<String, Double> rates = new HashMap<>();
+        rates.put("spout", 10.0);
+        rates.put("spout2", 5.0);
+        return rates;
+    }
+
+    private static Map<String, Map<String, Double>> edgeShares() {
+        Map<String, Map<String, Double>> shares = new HashMap<>();
+        Map<String, Double> matcherB = new HashMap<>();
+        matcherB.put("extracter", 10.0 / 15.0);
+        matcherB.put("spout2", 5.0 / 15.0);
+        shares.put("matcherB", matcherB);
+        Map<String, Double> aggregater = new HashMap<>();
+        aggregater.put("matcherA", 0.4);
+        aggregater.put("matcherB", 0.6);
+        shares.put("aggregater", aggregater);
+        return shares;
+    }
+
+    @Test
+    public void testPaths() {
+        DAGServiceModel model = new DAGServiceModel(createTopology(), createNodes(8.0), spoutRates(),
+                edgeShares(), DAGServiceModel.Objective.WEIGHTED_SUM);
+        List<String> paths = model.getPaths().stream().map(Object::toString).collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList("spout->extracter->matcherA->aggregater",
+                "spout->extracter->matcherB->aggregater", "spout2->matcherB->aggregater"), paths);
+        // aggregater receives 10/s from matcherA, matcherB receives 10/s from extracter and 5/s from spout2
+        double[] traffic = {10.0, 10.0, 5.0};
+        for (int i = 0; i < traffic.length; i++) {
+            Assert.assertEquals(traffic[i] / 25.0, model.getPaths().get(i).getWeight(), 1e-9);
+        }
+    }
+
+    @Test
+    public void testCriticalPath() {
+        // matcherB is much slower, the critical path goes through it
+        Map<String, ServiceNode> nodes = createNodes(2.0);
+        DAGServiceModel model = new DAGServiceModel(createTopology(), nodes, spoutRates(), edgeShares(),
+                DAGServiceModel.Objective.CRITICAL_PATH);
+        Map<String, Integer> minReq = nodes.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey,
+                e -> e.getValue().getMinReqServerCount()));
+        Map<String, Integer> allocation = model.suggestAllocation(model.getTotalMinRequirement() + 6);
+        Assert.assertTrue(allocation.get("matcherB") > minReq.get("matcherB"));
+        Assert.assertEquals(minReq.get("matcherA"), allocation.get("matcherA"));
+        double critical = model.getPaths().stream().mapToDouble(p -> model.getPathSojournTime(p, allocation))
+                .max().getAsDouble();
+        Assert.assertEquals(critical, model.getObjectiveTime(allocation), 1e-12);
+        Assert.assertTrue(model.getObjectiveTime(allocation) < model.getObjectiveTime(minReq));
+
+        Map<String, Integer> qosAllocation = model.getMinReqServerAllocation(0.8, 1.0, 100);
+        Assert.assertNotNull(qosAllocation);
+        Assert.assertTrue(model.getObjectiveTime(qosAllocation) <= 0.8);
+        Assert.assertNull(model.getMinReqServerAllocation(0.01, 1.0, 100));
+    }
+
+    @Test
+    public void testWeightedSum() {
+        Map<String, ServiceNode> nodes = createNodes(8.0);
+        DAGServiceModel model = new DAGServiceModel(createTopology(), nodes, spoutRates(), edgeShares(),
+                DAGServiceModel.Objective.WEIGHTED_SUM);
+        int total = model.getTotalMinRequirement() + 5;
+        Map<String, Integer> allocation = model.suggestAllocation(total);
+        Assert.assertEquals(total, allocation.values().stream().mapToInt(Integer::intValue).sum());
+        // no other allocation with one executor moved is better
+        double best = model.getObjectiveTime(allocation);
+        for (String from : allocation.keySet()) {
+            for (String to : allocation.keySet()) {
+                if (from.equals(to) || allocation.get(from) <= nodes.get(from).getMinReqServerCount()) {
+                    continue;
+                }
+                Map<String, Integer> moved = new HashMap<>(allocation);
+                moved.merge(from, -1, Integer::sum);
+                moved.merge(to, 1, Integer::sum);
+                Assert.assertTrue(model.getObjectiveTime(moved) >= best - 1e-12);
+            }
+        }
+    }
+}
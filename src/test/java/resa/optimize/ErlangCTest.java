@@ -0,0 +1,53 @@
+package resa.optimize;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ErlangCTest {
+
+    /* textbook formula, only usable for small server counts */
+    private static double directSojournTime(double lambda, double mu, int k) {
+        double a = lambda / mu;
+        double r = a / k;
+        double sum = 0, term = 1;
+        for (int i = 0; i < k; i++) {
+            sum += term;
+            term = term * a / (i + 1);
+        }
+        double last = term / (1 - r);
+        double pWait = last / (sum + last);
+        return pWait / (k * mu - lambda) + 1.0 / mu;
+    }
+
+    @Test
+    public void testSmallServerCount() {
+        ErlangC erlangC = new ErlangC(8.008, 4.855);
+        for (int k = 2; k <= 12; k++) {
+            Assert.assertEquals(directSojournTime(8.008, 4.855, k), erlangC.sojournTime(k), 1e-12);
+        }
+        // evaluated in decreasing order after the cache is filled
+        for (int k = 12; k >= 2; k--) {
+            Assert.assertEquals(directSojournTime(8.008, 4.855, k), erlangC.sojournTime(k), 1e-12);
+        }
+        Assert.assertEquals(Double.MAX_VALUE, erlangC.sojournTime(1), 0);
+        Assert.assertEquals(Double.MAX_VALUE, new ErlangC(1.0, 0.0).sojournTime(3), 0);
+    }
+
+    @Test
+    public void testLargeServerCount() {
+        double lambda = 4000, mu = 2.5;
+        ErlangC erlangC = new ErlangC(lambda, mu);
+        double prev = Double.MAX_VALUE;
+        for (int k = 1601; k <= 3000; k++) {
+            double t = erlangC.sojournTime(k);
+            Assert.assertFalse(Double.isNaN(t));
+            Assert.assertTrue(t >= 1.0 / mu);
+            Assert.assertTrue(t <= prev);
+            prev = t;
+        }
+        // nearly saturated queues wait, lightly loaded queues do not
+        Assert.assertTrue(erlangC.probWait(1605) > 0.5);
+        Assert.assertEquals(0.0, erlangC.probWait(3000), 1e-12);
+        Assert.assertEquals(erlangC.sojournTime(2000), ServiceNode.estErlangT(lambda, mu, 2000), 1e-15);
+    }
+}
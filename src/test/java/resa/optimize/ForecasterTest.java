@@ -0,0 +1,45 @@
+package resa.optimize;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ForecasterTest {
+
+    @Test
+    public void testEwma() {
+        Forecaster forecaster = new Forecaster.Ewma(0.5);
+        Assert.assertTrue(Double.isNaN(forecaster.forecast(1)));
+        forecaster.observe(10);
+        forecaster.observe(20);
+        Assert.assertEquals(15.0, forecaster.forecast(3), 1e-9);
+    }
+
+    @Test
+    public void testLinearTrend() {
+        Forecaster forecaster = new Forecaster.LinearTrend(5);
+        // only the latest 5 observations are in window
+        for (int i = 0; i < 20; i++) {
+            forecaster.observe(i < 10 ? 100 : 2.0 * i + 1);
+        }
+        Assert.assertEquals(2.0 * 22 + 1, forecaster.forecast(3), 1e-9);
+    }
+
+    @Test
+    public void testHoltWinters() {
+        int season = 24;
+        Forecaster forecaster = new Forecaster.HoltWinters(0.3, 0.1, 0.3, season);
+        for (int t = 0; t < season * 10; t++) {
+            Assert.assertEquals(t < season * 2, Double.isNaN(forecaster.forecast(1)));
+            forecaster.observe(rate(t, season));
+        }
+        // the peak is predicted before it comes
+        int now = season * 10 - 1;
+        for (int h = 1; h <= season; h++) {
+            Assert.assertEquals(rate(now + h, season), forecaster.forecast(h), 1.0);
+        }
+    }
+
+    private static double rate(int t, int season) {
+        return 100 + 50 * Math.sin(2 * Math.PI * t / season) + 0.5 * t;
+    }
+}
@@ -0,0 +1,105 @@
+package resa.optimize;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Compare the heap based allocator with the loop that rescans all the components on each step.
+ */
+public class MarginalGainAllocatorBenchmark {
+
+    private static Map<String, ServiceNode> createComponents(int numBolts, long seed) {
+        Random rand = new Random(seed);
+        Map<String, ServiceNode> components = new LinkedHashMap<>();
+        for (int i = 0; i < numBolts; i++) {
+            double mu = 1 + rand.nextDouble() * 20;
+            double lambda = mu * (1 + rand.nextDouble() * 30);
+            components.put("bolt-" + i, new ServiceNode(lambda, mu, ServiceNode.ServiceType.EXPONENTIAL,
+                    0.5 + rand.nextDouble()));
+        }
+        return components;
+    }
+
+    /* the loop used before the heap based allocator */
+    private static Map<String, Integer> scanAllocate(Map<String, ServiceNode> components, int totalResourceCount) {
+        Map<String, Integer> retVal = components.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey,
+                e -> e.getValue().getMinReqServerCount()));
+        int remainCount = totalResourceCount - retVal.values().stream().mapToInt(Integer::intValue).sum();
+        for (int i = 0; i < remainCount; i++) {
+            double maxDiff = -1;
+            String maxDiffCid = null;
+            for (Map.Entry<String, ServiceNode> e : components.entrySet()) {
+                ServiceNode sn = e.getValue();
+                int currentAllocated = retVal.get(e.getKey());
+                double diff = (sn.estErlangT(currentAllocated) - sn.estErlangT(currentAllocated + 1))
+                        * sn.getI2oRatio();
+                if (diff > maxDiff) {
+                    maxDiff = diff;
+                    maxDiffCid = e.getKey();
+                }
+            }
+            if (maxDiffCid == null) {
+                break;
+            }
+            retVal.compute(maxDiffCid, (k, count) -> count + 1);
+        }
+        return retVal;
+    }
+
+    private static Map<String, ServiceNode> copy(Map<String, ServiceNode> components) {
+        // fresh nodes, so that erlang caches are not shared between runs
+        Map<String, ServiceNode> ret = new LinkedHashMap<>();
+        components.forEach((cid, sn) -> ret.put(cid, new ServiceNode(sn.getLambda(), sn.getMu(),
+                ServiceNode.ServiceType.EXPONENTIAL, sn.getI2oRatio())));
+        return ret;
+    }
+
+    @Test
+    public void testSameAllocation() {
+        for (long seed = 0; seed < 20; seed++) {
+            Map<String, ServiceNode> components = createComponents(8, seed);
+            int budget = SimpleGeneralServiceModel.getTotalMinRequirement(components) + 40;
+            Assert.assertEquals(scanAllocate(copy(components), budget),
+                    SimpleGeneralServiceModel.suggestAllocationGeneralTop(copy(components), budget));
+        }
+    }
+
+    @Test
+    public void testNaNGain() {
+        // the scanning loop never picks a component whose gain is NaN, and keeps assigning the others
+        Map<String, ServiceNode> components = createComponents(8, 3);
+        ServiceNode sn = components.get("bolt-2");
+        components.put("bolt-2", new ServiceNode(sn.getLambda(), sn.getMu(), ServiceNode.ServiceType.EXPONENTIAL,
+                Double.NaN));
+        int budget = SimpleGeneralServiceModel.getTotalMinRequirement(components) + 40;
+        Map<String, Integer> expected = scanAllocate(copy(components), budget);
+        Assert.assertEquals(budget, expected.values().stream().mapToInt(Integer::intValue).sum());
+        Assert.assertEquals(expected, SimpleGeneralServiceModel.suggestAllocationGeneralTop(copy(components),
+                budget));
+    }
+
+    @Test
+    public void testThroughput() {
+        Map<String, ServiceNode> components = createComponents(50, 42);
+        int budget = Math.max(2000, SimpleGeneralServiceModel.getTotalMinRequirement(components) + 200);
+        long scanTime = 0, heapTime = 0;
+        for (int i = 0; i < 5; i++) {
+            Map<String, ServiceNode> input = copy(components);
+            long start = System.nanoTime();
+            Map<String, Integer> expected = scanAllocate(input, budget);
+            scanTime = System.nanoTime() - start;
+            input = copy(components);
+            start = System.nanoTime();
+            Map<String, Integer> actual = SimpleGeneralServiceModel.suggestAllocationGeneralTop(input, budget);
+            heapTime = System.nanoTime() - start;
+            Assert.assertEquals(expected, actual);
+        }
+        System.out.println(String.format("50 bolts, %d executors, scan: %.3fms, heap: %.3fms", budget,
+                scanTime / 1e6, heapTime / 1e6));
+    }
+}
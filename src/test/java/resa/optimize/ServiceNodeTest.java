@@ -0,0 +1,39 @@
+package resa.optimize;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ServiceNodeTest {
+
+    @Test
+    public void testEstSojournTime() {
+        ServiceNode mmk = new ServiceNode(8.0, 3.0, ServiceNode.ServiceType.EXPONENTIAL, 1.0);
+        ServiceNode poissonGeneral = new ServiceNode(8.0, 3.0, 1.0, 1.0, 1.0);
+        ServiceNode deterministic = new ServiceNode(8.0, 3.0, ServiceNode.ServiceType.DETERMINISTIC, 1.0);
+        ServiceNode bursty = new ServiceNode(8.0, 3.0, 1.0, 4.0, 2.0);
+        for (int k = 3; k < 8; k++) {
+            double wait = mmk.estErlangT(k) - 1.0 / 3.0;
+            Assert.assertEquals(mmk.estErlangT(k), mmk.estSojournTime(k), 0);
+            Assert.assertEquals(mmk.estErlangT(k), poissonGeneral.estSojournTime(k), 1e-15);
+            Assert.assertEquals(wait * 0.5 + 1.0 / 3.0, deterministic.estSojournTime(k), 1e-12);
+            Assert.assertEquals(wait * 3.0 + 1.0 / 3.0, bursty.estSojournTime(k), 1e-12);
+        }
+        Assert.assertEquals(Double.MAX_VALUE, bursty.estSojournTime(2), 0);
+    }
+
+    @Test
+    public void testArrivalDispersion() {
+        QueueAggResult queue = new QueueAggResult();
+        Assert.assertEquals(1.0, queue.getArrivalDispersion(), 0);
+        // counts 90, 110, 90, 110: mean 100, variance 100
+        for (int i = 0; i < 4; i++) {
+            queue.add(i % 2 == 0 ? 90 : 110, 0, 0);
+        }
+        Assert.assertEquals(4, queue.getBucketCount(), 0);
+        Assert.assertEquals(1.0, queue.getArrivalDispersion(), 1e-9);
+        QueueAggResult merged = new QueueAggResult();
+        merged.add(queue);
+        merged.add(100, 0, 0);
+        Assert.assertEquals(0.8, merged.getArrivalDispersion(), 1e-9);
+    }
+}
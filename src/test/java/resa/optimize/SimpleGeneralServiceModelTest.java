@@ -1,5 +1,6 @@
 package resa.optimize;
 
+import org.junit.Assert;
 import org.junit.Test;
 import resa.util.ConfigUtil;
 
@@ -166,6 +167,9 @@ public class SimpleGeneralServiceModelTest {
         int maxAvailable4Bolt = 6;
 
         AllocResult ret = SimpleGeneralServiceModel.checkOptimized(components, 765.9786516853933, 1500, currBoltAllocation, maxAvailable4Bolt);
+        Assert.assertNull(ret.getLatencyCurve());
+        Assert.assertNotNull(SimpleGeneralServiceModel.checkOptimized(components, 765.9786516853933, 1500,
+                currBoltAllocation, maxAvailable4Bolt, true).getLatencyCurve());
 
         double estimatedLatencyMilliSec = SimpleGeneralServiceModel.getErlangGeneralTopCompleteTime(components, currBoltAllocation);
         double realLatencyMilliSec = ConfigUtil.getDouble(conf, "avgCompleteHisMilliSec", estimatedLatencyMilliSec);
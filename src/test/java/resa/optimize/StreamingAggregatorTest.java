@@ -0,0 +1,110 @@
+package resa.optimize;
+
+import backtype.storm.generated.Bolt;
+import backtype.storm.generated.SpoutSpec;
+import backtype.storm.generated.StormTopology;
+import backtype.storm.scheduler.ExecutorDetails;
+import org.junit.Assert;
+import org.junit.Test;
+import resa.metrics.MeasuredData;
+import resa.metrics.MetricNames;
+
+import java.util.*;
+
+public class StreamingAggregatorTest {
+
+    private StormTopology topology = new StormTopology(Collections.singletonMap("spout", new SpoutSpec()),
+            Collections.singletonMap("bolt", new Bolt()), Collections.emptyMap());
+
+    private Map<String, List<ExecutorDetails>> executors() {
+        Map<String, List<ExecutorDetails>> comp2Executors = new HashMap<>();
+        comp2Executors.put("spout", Arrays.asList(new ExecutorDetails(1, 1)));
+        comp2Executors.put("bolt", Arrays.asList(new ExecutorDetails(2, 3), new ExecutorDetails(4, 4)));
+        return comp2Executors;
+    }
+
+    private static MeasuredData boltData(int task, int cnt, long duration) {
+        Map<String, Object> data = new HashMap<>();
+        data.put(MetricNames.TASK_EXECUTE, Collections.singletonMap("spout:default", cnt + "," + cnt + "," + cnt));
+        data.put(MetricNames.DURATION, duration);
+        return new MeasuredData("bolt", task, 0, data);
+    }
+
+    private static BoltAggResult boltResult(StreamingAggregator aggregator) {
+        return (BoltAggResult) aggregator.getResults().get("bolt");
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        StreamingAggregator aggregator = new StreamingAggregator(topology, StreamingAggregator.WindowMode.SLIDING,
+                3, 0);
+        Assert.assertTrue(aggregator.updateExecutors(executors()));
+        for (int round = 1; round <= 10; round++) {
+            // task 3 is not the first task of its executor, its duration is ignored
+            aggregator.addAll(Arrays.asList(boltData(2, round, 1000), boltData(3, round, 1000),
+                    boltData(4, round, 1000)));
+            aggregator.advance();
+            BoltAggResult result = boltResult(aggregator);
+            int expectedCnt = 0;
+            for (int r = Math.max(1, round - 2); r <= round; r++) {
+                expectedCnt += 3 * r;
+            }
+            Assert.assertEquals(expectedCnt, result.getCombinedProcessedResult().getCount(), 0);
+            Assert.assertEquals(2000 * Math.min(round, 3), result.getDuration(), 0);
+            Assert.assertEquals(1.0, result.getCombinedProcessedResult().getAvg(), 1e-9);
+        }
+        Assert.assertEquals(3, aggregator.getNumBuckets());
+    }
+
+    @Test
+    public void testDecay() {
+        StreamingAggregator aggregator = new StreamingAggregator(topology, StreamingAggregator.WindowMode.DECAY,
+                1, 0.5);
+        aggregator.updateExecutors(executors());
+        aggregator.add(boltData(2, 1000, 1000));
+        aggregator.advance();
+        aggregator.advance();
+        aggregator.advance();
+        BoltAggResult result = boltResult(aggregator);
+        Assert.assertEquals(250, result.getCombinedProcessedResult().getCount(), 0);
+        Assert.assertEquals(250, result.getDuration(), 0);
+        Assert.assertEquals(1.0, result.getCombinedProcessedResult().getAvg(), 1e-9);
+    }
+
+    @Test
+    public void testDecaySmallCounts() {
+        StreamingAggregator aggregator = new StreamingAggregator(topology, StreamingAggregator.WindowMode.DECAY,
+                1, 0.5);
+        aggregator.updateExecutors(executors());
+        // one tuple and 1ms per window, the weighted sum converges to 2 rather than being truncated to 1
+        double expected = 0;
+        for (int round = 0; round < 10; round++) {
+            aggregator.add(boltData(2, 1, 1));
+            aggregator.advance();
+            expected = expected * 0.5 + 1;
+            BoltAggResult result = boltResult(aggregator);
+            Assert.assertEquals(expected, result.getCombinedProcessedResult().getCount(), 1e-9);
+            Assert.assertEquals(expected, result.getDuration(), 1e-9);
+        }
+        Assert.assertEquals(2.0, expected, 0.01);
+    }
+
+    @Test
+    public void testExecutorChange() {
+        StreamingAggregator aggregator = new StreamingAggregator(topology, StreamingAggregator.WindowMode.SLIDING,
+                2, 0);
+        aggregator.updateExecutors(executors());
+        Assert.assertFalse(aggregator.add(boltData(5, 1, 1000)));
+        Assert.assertTrue(aggregator.add(boltData(4, 1, 1000)));
+        aggregator.advance();
+        // same executors in different order, index is kept
+        Map<String, List<ExecutorDetails>> comp2Executors = executors();
+        comp2Executors.put("bolt", Arrays.asList(new ExecutorDetails(4, 4), new ExecutorDetails(2, 3)));
+        Assert.assertFalse(aggregator.updateExecutors(comp2Executors));
+        Assert.assertEquals(1, boltResult(aggregator).getCombinedProcessedResult().getCount(), 0);
+        comp2Executors.put("bolt", Arrays.asList(new ExecutorDetails(2, 2), new ExecutorDetails(3, 4)));
+        Assert.assertTrue(aggregator.updateExecutors(comp2Executors));
+        Assert.assertEquals(0, boltResult(aggregator).getCombinedProcessedResult().getCount(), 0);
+        Assert.assertTrue(aggregator.add(boltData(3, 1, 1000)));
+    }
+}
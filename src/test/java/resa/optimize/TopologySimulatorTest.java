@@ -0,0 +1,95 @@
+package resa.optimize;
+
+import backtype.storm.generated.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+public class TopologySimulatorTest {
+
+    /* spout -> bolt */
+    private static StormTopology createTopology() {
+        Map<String, SpoutSpec> spouts = new HashMap<>();
+        spouts.put("spout", new SpoutSpec(null, new ComponentCommon(new HashMap<>(), new HashMap<>())));
+        Map<GlobalStreamId, Grouping> inputs = new HashMap<>();
+        inputs.put(new GlobalStreamId("spout", "default"), new Grouping());
+        Map<String, Bolt> bolts = new HashMap<>();
+        bolts.put("bolt", new Bolt(null, new ComponentCommon(inputs, new HashMap<>())));
+        return new StormTopology(spouts, bolts, new HashMap<>());
+    }
+
+    private static TopologySimulator createSimulator(double lambda, double mu) {
+        return new TopologySimulator(createTopology(),
+                Collections.singletonMap("spout", new TopologySimulator.Distribution(1.0 / lambda, 1.0)),
+                Collections.singletonMap("bolt", new TopologySimulator.Distribution(1.0 / mu, 1.0)),
+                Collections.singletonMap("bolt", 0.0)).setDuration(2000, 100);
+    }
+
+    @Test
+    public void testMMk() {
+        TopologySimulator simulator = createSimulator(8.0, 10.0);
+        double expected = ServiceNode.estErlangT(8.0, 10.0, 1) * 1000;
+        TopologySimulator.SimResult result = simulator.simulate(Collections.singletonMap("bolt", 1), 1);
+        Assert.assertTrue(result.isStable());
+        Assert.assertEquals(expected, result.getAvgLatency(), expected * 0.1);
+        Assert.assertEquals(8.0, result.getThroughput(), 0.3);
+        Assert.assertEquals(0.8, result.getUtilization().get("bolt"), 0.05);
+
+        expected = ServiceNode.estErlangT(8.0, 10.0, 2) * 1000;
+        result = simulator.simulate(Collections.singletonMap("bolt", 2), 1);
+        Assert.assertEquals(expected, result.getAvgLatency(), expected * 0.1);
+    }
+
+    @Test
+    public void testUnstable() {
+        TopologySimulator simulator = createSimulator(20.0, 10.0).setMaxPendingTuples(1000);
+        Assert.assertFalse(simulator.simulate(Collections.singletonMap("bolt", 1), 1).isStable());
+    }
+
+    @Test
+    public void testEvaluate() {
+        TopologySimulator simulator = createSimulator(8.0, 10.0);
+        List<Map<String, Integer>> candidates = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            candidates.add(Collections.singletonMap("bolt", i));
+        }
+        List<TopologySimulator.SimResult> results = simulator.evaluate(candidates, new ForkJoinPool(2), 7);
+        for (int i = 0; i < candidates.size(); i++) {
+            Assert.assertEquals(simulator.simulate(candidates.get(i), 7).getAvgLatency(),
+                    results.get(i).getAvgLatency(), 1e-9);
+            if (i > 0) {
+                Assert.assertTrue(results.get(i).getAvgLatency() < results.get(i - 1).getAvgLatency());
+            }
+        }
+    }
+
+    @Test
+    public void testBadDistribution() {
+        for (double mean : new double[]{0, -1, Double.NaN, Double.POSITIVE_INFINITY}) {
+            try {
+                new TopologySimulator.Distribution(mean, 1.0);
+                Assert.fail("mean " + mean + " is accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testIdleSpout() {
+        // nothing is measured, the spout is skipped rather than emitting with an infinite inter-arrival time
+        Map<String, AggResult> results = new HashMap<>();
+        results.put("spout", new SpoutAggResult());
+        results.put("bolt", new BoltAggResult());
+        Map<String, Integer> allocation = new HashMap<>();
+        allocation.put("spout", 1);
+        allocation.put("bolt", 1);
+        TopologySimulator simulator = TopologySimulator.fromAggResults(createTopology(), results, allocation)
+                .setDuration(100, 10);
+        TopologySimulator.SimResult result = simulator.simulate(Collections.singletonMap("bolt", 1), 1);
+        Assert.assertTrue(result.isStable());
+        Assert.assertEquals(0.0, result.getThroughput(), 1e-9);
+    }
+}
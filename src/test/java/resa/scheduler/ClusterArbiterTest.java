@@ -0,0 +1,42 @@
+package resa.scheduler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+public class ClusterArbiterTest {
+
+    @Test
+    public void testViolationFirst() {
+        // topology a meets its QoS with 6 executors, b needs 8
+        TopologyDemand a = new TopologyDemand("a", 1.0, 100, 6, 4, new double[]{300, 150, 100, 90, 85});
+        TopologyDemand b = new TopologyDemand("b", 1.0, 100, 6, 4, new double[]{500, 400, 300, 200, 100, 95});
+        Map<String, Integer> caps = ClusterArbiter.split(Arrays.asList(a, b), 14, 100, 1);
+        Assert.assertEquals(6, caps.get("a").intValue());
+        Assert.assertEquals(8, caps.get("b").intValue());
+        // spare executors follow the latency gain
+        caps = ClusterArbiter.split(Arrays.asList(a, b), 16, 100, 1);
+        Assert.assertEquals(16, caps.values().stream().mapToInt(Integer::intValue).sum());
+    }
+
+    @Test
+    public void testWeightAndReserved() {
+        TopologyDemand a = new TopologyDemand("a", 1.0, 100, 6, 4, new double[]{200, 150, 100});
+        TopologyDemand b = new TopologyDemand("b", 3.0, 100, 6, 4, new double[]{200, 150, 100});
+        TopologyDemand c = new TopologyDemand("c", 1.0, 100, 5, 5, null);
+        Map<String, Integer> caps = ClusterArbiter.split(Arrays.asList(a, b, c), 15, 100, 1);
+        Assert.assertEquals(5, caps.get("c").intValue());
+        Assert.assertEquals(4, caps.get("a").intValue());
+        Assert.assertEquals(6, caps.get("b").intValue());
+    }
+
+    @Test
+    public void testWorkerBudget() {
+        // 2 executors per worker, the 6th executor needs a 3rd worker
+        TopologyDemand a = new TopologyDemand("a", 1.0, 100, 4, 4, new double[]{400, 300, 200, 100});
+        Map<String, Integer> caps = ClusterArbiter.split(Arrays.asList(a), 100, 2, 2);
+        Assert.assertEquals(5, caps.get("a").intValue());
+    }
+}
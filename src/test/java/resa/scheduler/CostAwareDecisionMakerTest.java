@@ -0,0 +1,77 @@
+package resa.scheduler;
+
+import backtype.storm.generated.Bolt;
+import backtype.storm.generated.ComponentCommon;
+import backtype.storm.generated.SpoutSpec;
+import backtype.storm.generated.StormTopology;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import resa.optimize.AggResult;
+import resa.optimize.AllocResult;
+import resa.optimize.BoltAggResult;
+import resa.optimize.SpoutAggResult;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class CostAwareDecisionMakerTest {
+
+    private CostAwareDecisionMaker decisionMaker;
+    private Map<String, Integer> currAlloc = new HashMap<>();
+    private Map<String, Integer> newAlloc = new HashMap<>();
+
+    @Before
+    public void setUp() {
+        Map<String, SpoutSpec> spouts = new HashMap<>();
+        spouts.put("spout", new SpoutSpec(null, new ComponentCommon(new HashMap<>(), new HashMap<>())));
+        Map<String, Bolt> bolts = new HashMap<>();
+        bolts.put("bolt", new Bolt(null, new ComponentCommon(new HashMap<>(), new HashMap<>())));
+        Map<String, Object> conf = new HashMap<>();
+        conf.put("resa.scheduler.decision.horizon.secs", 100);
+        conf.put("resa.scheduler.decision.min.dwell.secs", 0);
+        conf.put("resa.scheduler.decision.restart.secs", 10);
+        conf.put("resa.scheduler.decision.bandwidth.bytes", 1000);
+        conf.put("resa.opt.smd.qos.ms", 500.0);
+        decisionMaker = new CostAwareDecisionMaker();
+        decisionMaker.init(conf, new StormTopology(spouts, bolts, new HashMap<>()));
+        currAlloc.put("spout", 1);
+        currAlloc.put("bolt", 2);
+        newAlloc.put("spout", 1);
+        newAlloc.put("bolt", 4);
+    }
+
+    @Test
+    public void testGainAgainstCost() {
+        // pause is 10s, cost is 50000
+        Assert.assertEquals(10.0, decisionMaker.getPauseSecs(), 1e-9);
+        Assert.assertSame(currAlloc, make(800, 400));
+        Assert.assertSame(newAlloc, make(1200, 400));
+        // 20000 bytes of state makes the pause 30s
+        Map<String, AggResult> results = new HashMap<>();
+        BoltAggResult boltResult = new BoltAggResult();
+        boltResult.getStateSize().put(1, 20000L);
+        results.put("bolt", boltResult);
+        results.put("spout", new SpoutAggResult());
+        decisionMaker.updateMeasurements(results);
+        Assert.assertEquals(30.0, decisionMaker.getPauseSecs(), 1e-9);
+        Assert.assertSame(currAlloc, make(1200, 400));
+        Assert.assertSame(newAlloc, make(Double.MAX_VALUE, 400));
+    }
+
+    @Test
+    public void testHysteresis() {
+        // gain is less than 10% of current latency
+        Assert.assertSame(currAlloc, make(10000, 9500));
+        // releasing executors is accepted only if QoS is still met with a margin
+        Assert.assertSame(newAlloc, make(100, 400));
+        Assert.assertSame(currAlloc, make(100, 480));
+        Assert.assertSame(currAlloc, make(100, Double.MAX_VALUE));
+    }
+
+    private Map<String, Integer> make(double currLatency, double optLatency) {
+        AllocResult result = new AllocResult(AllocResult.Status.FEASIBALE, newAlloc)
+                .setPredictedLatency(currLatency, optLatency);
+        return decisionMaker.make(result, currAlloc);
+    }
+}
@@ -0,0 +1,229 @@
+package resa.scheduler.plan;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Planning time of DPBasedCalculator against the number of source packs and the workload size, compared with the
+ * string keyed memo used before.
+ */
+public class DPBasedCalculatorBenchmark {
+
+    /* DPBasedCalculator with the string keyed memo */
+    private static class StringKeyCalculator extends PackCalculator {
+
+        private Map<String, Pack> cache;
+
+        protected Pack calcPack() {
+            //init buffer
+            cache = new HashMap<>();
+            int[] packSegments = new int[srcPacks.length * 2];
+            for (int i = 0; i < srcPacks.length; i++) {
+                packSegments[2 * i] = 0;
+                packSegments[2 * i + 1] = srcPacks[i].getKey().length;
+            }
+            Pack p = getCachedOrCompute(0, normalizedWordloads.length, packSize, packSegments);
+            // release memory
+            cache = null;
+            return p;
+        }
+
+        private Pack getCachedOrCompute(int wStart, int wEnd, int numPartition, int[] packSegments) {
+            if (wEnd - wStart < numPartition || numPartition == 0) {
+                throw new IllegalStateException("start=" + wStart + ", end=" + wEnd + ", numPartition=" + numPartition);
+            }
+            String key = wStart + "-" + wEnd + "-" + numPartition + "@" + Arrays.toString(packSegments);
+            Pack p = cache.get(key);
+            if (p == null) {
+                cache.put(key, (p = compute(wStart, wEnd, numPartition, packSegments)));
+            }
+            return p;
+        }
+
+        private Pack compute(int wStart, int wEnd, int numPartition, int[] packSegments) {
+            if (numPartition == 1) {
+                return loopTotalWorkload(normalizedWordloads, wStart, wEnd) > loadUpperLimit ? INFEASIBLE :
+                        new Pack(new int[]{wEnd - wStart}, gain(new Range(wStart, wEnd - 1), packSegments));
+            }
+            int split = wStart + 1;
+            double gain = Double.MIN_VALUE;
+            Pack rightPack = INFEASIBLE;
+            int[] tmpSegments = new int[packSegments.length];
+            int[] newPos = new int[packSegments.length];
+            for (int i = split; i < wEnd; i++) {
+                if (loopTotalWorkload(normalizedWordloads, wStart, i) > loadUpperLimit
+                        || wEnd - i < numPartition - 1) {
+                    break;
+                }
+                if (loopTotalWorkload(normalizedWordloads, i, wEnd) > (numPartition - 1) * loadUpperLimit){
+                    continue;
+                }
+                for (int j = 0; j < srcPacks.length; j++) {
+                    Range[] srcPack = srcPacks[j].getKey();
+                    int startPack = findPack(srcPack, i);
+                    int stopPack = srcPack[startPack].start < i ? startPack + 1 : startPack;
+                    startPack = Math.max(startPack, packSegments[j * 2]);
+                    stopPack = Math.min(stopPack, packSegments[j * 2 + 1]);
+                    if (startPack == stopPack) {
+                        newPos[j * 2] = startPack;
+                        newPos[j * 2 + 1] = startPack;
+                    } else if (startPack == stopPack - 1) {
+                        newPos[j * 2] = startPack;
+                        newPos[j * 2 + 1] = stopPack;
+                    } else {
+                        throw new IllegalStateException("for package " + j + ", start=" + startPack + ", stop="
+                                + stopPack);
+                    }
+                }
+                long tryTimes = 1 << srcPacks.length;
+                for (long j = 0; j < tryTimes; j++) {
+                    // go right
+                    for (int k = 0; k < srcPacks.length; k++) {
+                        if ((j & (1L << k)) > 0) {
+                            tmpSegments[k * 2] = newPos[k * 2 + 1];
+                        } else {
+                            tmpSegments[k * 2] = newPos[k * 2];
+                        }
+                        tmpSegments[k * 2 + 1] = packSegments[k * 2 + 1];
+                    }
+                    Pack right = getCachedOrCompute(i, wEnd, numPartition - 1, tmpSegments);
+                    if (right == INFEASIBLE) {
+                        continue;
+                    }
+                    // go left
+                    for (int k = 0; k < srcPacks.length; k++) {
+                        if ((j & (1L << k)) > 0) {
+                            tmpSegments[k * 2 + 1] = newPos[k * 2 + 1];
+                        } else {
+                            tmpSegments[k * 2 + 1] = newPos[k * 2];
+                        }
+                        tmpSegments[k * 2] = packSegments[k * 2];
+                    }
+                    Pack left = getCachedOrCompute(wStart, i, 1, tmpSegments);
+                    if (left != INFEASIBLE) {
+                        double newGain = left.gain + right.gain;
+                        if (Double.compare(newGain, gain) > 0) {
+                            gain = newGain;
+                            split = i;
+                            rightPack = right;
+                        }
+                    }
+                }
+            }
+            if (rightPack == INFEASIBLE) {
+                return INFEASIBLE;
+            }
+            int[] ret = new int[numPartition];
+            ret[0] = split - wStart;
+            System.arraycopy(rightPack.packing, 0, ret, 1, numPartition - 1);
+            return new Pack(ret, gain);
+        }
+
+        private double gain(Range newPacks, int[] packSegments) {
+            double sum = 0;
+            for (int i = 0; i < srcPacks.length; i++) {
+                double gain = 0;
+                Range[] srcPack = srcPacks[i].getKey();
+                for (int j = packSegments[i * 2]; j < packSegments[i * 2 + 1]; j++) {
+                    gain = Math.max(gain, loopOverlap(dataSizes, newPacks, srcPack[j]));
+                }
+                sum += (gain * srcPacks[i].getValue());
+            }
+            return sum;
+        }
+
+        private int findPack(Range[] srcPack, int v) {
+            for (int i = 0; i < srcPack.length; i++) {
+                if (srcPack[i].end >= v) {
+                    return i;
+                }
+            }
+            throw new IllegalStateException("value is " + v);
+        }
+    }
+
+    /* the loop used by the string keyed memo, kept as the oracle of PackCalculator.totalWorkload */
+    static double loopTotalWorkload(double[] workloads, int wStart, int wEnd) {
+        double sum = 0;
+        for (int i = wStart; i < wEnd; i++) {
+            sum += workloads[i];
+        }
+        return sum;
+    }
+
+    /* the loop used by the string keyed memo, kept as the oracle of PackCalculator.overlap */
+    static double loopOverlap(double[] dataSizes, PackCalculator.Range r1, PackCalculator.Range r2) {
+        if (r1.start > r2.end || r1.end < r2.start) {
+            return 0;
+        } else if (r1.start <= r2.start && r1.end >= r2.start) {
+            return IntStream.rangeClosed(r2.start, Math.min(r2.end, r1.end)).mapToDouble(i -> dataSizes[i]).sum();
+        } else if (r1.start >= r2.start && r1.start <= r2.end) {
+            return IntStream.rangeClosed(r1.start, Math.min(r2.end, r1.end)).mapToDouble(i -> dataSizes[i]).sum();
+        }
+        return 0;
+    }
+
+    private static PackCalculator setup(PackCalculator calculator, double[] workloads, double[] dataSizes,
+                                        int numSrcPacks, int packSize) {
+        Map<int[], Double> srcPacks = new LinkedHashMap<>();
+        for (int i = 0; i < numSrcPacks; i++) {
+            srcPacks.put(PackingAlg.calc(workloads, packSize + 1 + i), 1.0 / (i + 1));
+        }
+        return calculator.setWorkloads(workloads).setDataSizes(dataSizes).setSrcPacks(srcPacks)
+                .setTargetPackSize(packSize).setUpperLimitRatio(1.3f);
+    }
+
+    private static long time(PackCalculator calculator) {
+        long start = System.nanoTime();
+        calculator.calc();
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void testPlanningTime() {
+        Random rand = new Random(42);
+        ForkJoinPool pool = new ForkJoinPool();
+        // the same parallel code on one worker, so that the speedup does not count the serial path
+        ForkJoinPool single = new ForkJoinPool(1);
+        // warm up
+        double[] warmup = rand.doubles(64, 10, 100).toArray();
+        time(setup(new DPBasedCalculator(), warmup, warmup, 2, 4));
+        time(setup(new DPBasedCalculator().setPool(pool), warmup, warmup, 2, 4));
+        time(setup(new DPBasedCalculator().setPool(single), warmup, warmup, 2, 4));
+        for (int numSrcPacks = 1; numSrcPacks <= 3; numSrcPacks++) {
+            for (int size : new int[]{32, 64, 128, 320}) {
+                double[] workloads = rand.doubles(size, 10, 100).toArray();
+                double[] dataSizes = rand.doubles(size, 10, 100).toArray();
+                int packSize = 4;
+                PackCalculator serial = setup(new DPBasedCalculator(), workloads, dataSizes, numSrcPacks, packSize);
+                PackCalculator parallel = setup(new DPBasedCalculator().setPool(pool).setOffHeapMemo(true),
+                        workloads, dataSizes, numSrcPacks, packSize);
+                PackCalculator oneThread = setup(new DPBasedCalculator().setPool(single).setOffHeapMemo(true),
+                        workloads, dataSizes, numSrcPacks, packSize);
+                long serialTime = time(serial), parallelTime = time(parallel), oneThreadTime = time(oneThread);
+                Assert.assertArrayEquals(serial.getPack(), parallel.getPack());
+                Assert.assertEquals(serial.gain(), parallel.gain());
+                Assert.assertArrayEquals(serial.getPack(), oneThread.getPack());
+                String old = "";
+                if (numSrcPacks * size <= 128) {
+                    PackCalculator stringKey = setup(new StringKeyCalculator(), workloads, dataSizes, numSrcPacks,
+                            packSize);
+                    old = String.format(", string key: %.3fms", time(stringKey) / 1e6);
+                    Assert.assertArrayEquals(stringKey.getPack(), serial.getPack());
+                    // range sums are in a different order from the loops
+                    Assert.assertEquals(stringKey.gain(), serial.gain(), 1e-9 * stringKey.gain());
+                }
+                System.out.println(String.format("%d src packs, %d key groups, serial: %.3fms, parallel(1): %.3fms, "
+                                + "parallel(%d): %.3fms, speedup: %.2f%s", numSrcPacks, size, serialTime / 1e6,
+                        oneThreadTime / 1e6, pool.getParallelism(), parallelTime / 1e6,
+                        (double) oneThreadTime / parallelTime, old));
+            }
+        }
+        pool.shutdown();
+        single.shutdown();
+    }
+}
@@ -0,0 +1,72 @@
+package resa.scheduler.plan;
+
+import org.junit.Assert;
+import org.junit.Test;
+import resa.scheduler.plan.PackCalculator.Range;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class IntervalMatcherTest {
+
+    private double[] dataSizes;
+
+    private double overlap(Range r1, Range r2) {
+        double sum = 0;
+        for (int i = Math.max(r1.start, r2.start); i <= Math.min(r1.end, r2.end); i++) {
+            sum += dataSizes[i];
+        }
+        return sum;
+    }
+
+    private static int[] randomPack(int n, int numPacks, Random rand) {
+        int[] pack = new int[numPacks];
+        Arrays.fill(pack, 1);
+        for (int i = numPacks; i < n; i++) {
+            pack[rand.nextInt(numPacks)]++;
+        }
+        return pack;
+    }
+
+    private double kmMaxWeight(Range[] pack1, int from1, int to1, Range[] pack2, int from2, int to2) {
+        double[][] weights = new double[to1 - from1][to2 - from2];
+        for (int i = 0; i < weights.length; i++) {
+            for (int j = 0; j < weights[i].length; j++) {
+                weights[i][j] = overlap(pack1[from1 + i], pack2[from2 + j]);
+            }
+        }
+        double[] maxWeight = new double[1];
+        new KuhnMunkres(Math.max(pack1.length, pack2.length)).getMaxBipartie(weights, maxWeight);
+        return maxWeight[0];
+    }
+
+    /* data sizes are integers, KuhnMunkres may not terminate on fractional weights */
+    @Test
+    public void testSameAsKuhnMunkres() {
+        Random rand = new Random(3);
+        for (int round = 0; round < 500; round++) {
+            int n = 2 + rand.nextInt(60);
+            dataSizes = rand.ints(n, 0, 100).asDoubleStream().toArray();
+            Range[] pack1 = PackCalculator.convertPack(randomPack(n, 1 + rand.nextInt(Math.min(n, 12)), rand));
+            Range[] pack2 = PackCalculator.convertPack(randomPack(n, 1 + rand.nextInt(Math.min(n, 12)), rand));
+            IntervalMatcher matcher = new IntervalMatcher(this::overlap, new KuhnMunkres(n));
+            Assert.assertEquals(kmMaxWeight(pack1, 0, pack1.length, pack2, 0, pack2.length),
+                    matcher.maxWeight(pack1, pack2), 1e-6);
+            // sub ranges of packs, as SinglePackCalculator does
+            int from1 = rand.nextInt(pack1.length), to1 = from1 + 1 + rand.nextInt(pack1.length - from1);
+            int from2 = rand.nextInt(pack2.length), to2 = from2 + 1 + rand.nextInt(pack2.length - from2);
+            Assert.assertEquals(kmMaxWeight(pack1, from1, to1, pack2, from2, to2),
+                    matcher.maxWeight(pack1, from1, to1, pack2, from2, to2), 1e-6);
+        }
+    }
+
+    @Test
+    public void testUnsortedFallback() {
+        dataSizes = new double[]{1, 2, 3, 4, 5, 6};
+        Range[] pack1 = {new Range(3, 5), new Range(0, 2)};
+        Range[] pack2 = PackCalculator.convertPack(new int[]{2, 2, 2});
+        IntervalMatcher matcher = new IntervalMatcher(this::overlap, new KuhnMunkres(3));
+        Assert.assertEquals(kmMaxWeight(pack1, 0, 2, pack2, 0, 3), matcher.maxWeight(pack1, pack2), 1e-9);
+        Assert.assertEquals(14.0, matcher.maxWeight(pack1, pack2), 1e-9);
+    }
+}
@@ -0,0 +1,157 @@
+package resa.scheduler.plan;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+
+public class KeyGroupPackerTest {
+
+    private static double[] packLoads(RoutingTable table, double[] workloads, int numExecutors) {
+        int[] taskExecutors = RoutingTable.executorsOfTasks(table.getNumTasks(), numExecutors);
+        double[] loads = new double[numExecutors];
+        for (int i = 0; i < workloads.length; i++) {
+            loads[taskExecutors[table.getTask(i)]] += workloads[i];
+        }
+        return loads;
+    }
+
+    private static void assertUnderLimit(RoutingTable table, double[] workloads, int numExecutors, float ratio) {
+        double limit = DoubleStream.of(workloads).sum() / numExecutors * ratio;
+        Assert.assertTrue(DoubleStream.of(packLoads(table, workloads, numExecutors)).allMatch(l -> l <= limit + 1e-9));
+    }
+
+    /* apply a contiguous packing of key groups the same way, key groups at home keep their tasks */
+    private static RoutingTable toTable(int[] pack, RoutingTable srcTable) {
+        int[] taskExecutors = RoutingTable.executorsOfTasks(srcTable.getNumTasks(), pack.length);
+        int[] firstTasks = new int[pack.length];
+        for (int t = taskExecutors.length - 1; t >= 0; t--) {
+            firstTasks[taskExecutors[t]] = t;
+        }
+        int[] tasks = new int[srcTable.getNumKeyGroups()];
+        for (int e = 0, g = 0; e < pack.length; e++) {
+            for (int end = g + pack[e]; g < end; g++) {
+                tasks[g] = taskExecutors[srcTable.getTask(g)] == e ? srcTable.getTask(g) : firstTasks[e];
+            }
+        }
+        return new RoutingTable(tasks, srcTable.getNumTasks());
+    }
+
+    @Test
+    public void testHotKeyGroup() {
+        // one key group per task, key group 1 gets hot, key group 0 holding less data moves to the next executor
+        double[] workloads = {10, 30, 10, 10, 10, 10};
+        double[] dataSizes = {1, 5, 5, 5, 5, 5};
+        RoutingTable srcTable = RoutingTable.uniform(6, 6);
+        KeyGroupPacker packer = new KeyGroupPacker().setWorkloads(workloads).setDataSizes(dataSizes)
+                .setSrcRoutingTable(srcTable).setTargetPackSize(3).setUpperLimitRatio(1.3f).calc();
+        RoutingTable table = packer.getRoutingTable();
+        Assert.assertEquals(1.0, table.movedDataSize(srcTable, dataSizes), 1e-9);
+        Assert.assertEquals(25.0, packer.getKeptDataSize(), 1e-9);
+        Assert.assertTrue(table.getTask(0) == 2 || table.getTask(0) == 3);
+        assertUnderLimit(table, workloads, 3, 1.3f);
+    }
+
+    @Test
+    public void testLessMovedThanFastCalculator() {
+        Random rand = new Random(7);
+        int compared = 0;
+        for (int round = 0; round < 100; round++) {
+            int numTasks = 10 + rand.nextInt(23);
+            int n = numTasks * (2 + rand.nextInt(7));
+            double[] workloads = rand.doubles(n, 1, 100).toArray();
+            double[] dataSizes = rand.doubles(n, 1, 100).toArray();
+            RoutingTable srcTable = RoutingTable.uniform(n, numTasks);
+            int srcSize = 2 + rand.nextInt(6);
+            // scale in and scale out
+            int targetSize = rand.nextBoolean() ? srcSize + 1 + rand.nextInt(3) : Math.max(1, srcSize - 1
+                    - rand.nextInt(2));
+            KeyGroupPacker packer = new KeyGroupPacker().setWorkloads(workloads).setDataSizes(dataSizes)
+                    .setSrcRoutingTable(srcTable).setTargetPackSize(targetSize).setUpperLimitRatio(1.3f).calc();
+            RoutingTable table = packer.getRoutingTable();
+            Assert.assertNotNull(table);
+            assertUnderLimit(table, workloads, targetSize, 1.3f);
+            double moved = table.movedDataSize(srcTable, dataSizes);
+            Assert.assertEquals(DoubleStream.of(dataSizes).sum() - moved, packer.getKeptDataSize(), 1e-6);
+            // the executors of the src table in key groups, for the migration aware contiguous packing
+            int[] srcPack = new int[srcSize];
+            int[] taskExecutors = RoutingTable.executorsOfTasks(numTasks, srcSize);
+            for (int g = 0; g < n; g++) {
+                srcPack[taskExecutors[srcTable.getTask(g)]]++;
+            }
+            PackCalculator fast = new FastCalculator().setWorkloads(workloads).setDataSizes(dataSizes)
+                    .setSrcPack(srcPack).setTargetPackSize(targetSize).setUpperLimitRatio(1.3f);
+            fast.calc();
+            if (fast.getPack() != null) {
+                Assert.assertTrue(moved <= toTable(fast.getPack(), srcTable).movedDataSize(srcTable, dataSizes));
+                compared++;
+            }
+        }
+        Assert.assertTrue(compared > 50);
+    }
+
+    @Test
+    public void testNonContiguousSource() {
+        // the src table is a result of the packer, scale in from it keeps the key groups of the remaining tasks
+        Random rand = new Random(5);
+        int[] tasks = rand.ints(200, 0, 16).toArray();
+        RoutingTable srcTable = new RoutingTable(tasks, 16);
+        double[] workloads = rand.doubles(200, 1, 10).toArray();
+        double[] dataSizes = rand.doubles(200, 1, 10).toArray();
+        KeyGroupPacker packer = new KeyGroupPacker().setWorkloads(workloads).setDataSizes(dataSizes)
+                .setSrcRoutingTable(srcTable).setTargetPackSize(3).setUpperLimitRatio(1.5f).calc();
+        RoutingTable table = packer.getRoutingTable();
+        Assert.assertNotNull(table);
+        assertUnderLimit(table, workloads, 3, 1.5f);
+        Assert.assertEquals(DoubleStream.of(dataSizes).sum() - table.movedDataSize(srcTable, dataSizes),
+                packer.getKeptDataSize(), 1e-6);
+    }
+
+    @Test
+    public void testInfeasible() {
+        // three key groups of the same workload never fit in two executors under 1.2 times of the average
+        KeyGroupPacker packer = new KeyGroupPacker().setWorkloads(new double[]{10, 10, 10})
+                .setDataSizes(new double[]{1, 1, 1}).setSrcPack(new int[]{1, 1, 1}).setTargetPackSize(2)
+                .setUpperLimitRatio(1.2f).calc();
+        Assert.assertNull(packer.getRoutingTable());
+    }
+
+    @Test
+    public void testEmptyKeyGroups() {
+        // a lot of empty key groups in an overloaded pack, the eviction order must be a total order
+        Random rand = new Random(0);
+        for (int round = 0; round < 20; round++) {
+            double[] workloads = new double[256];
+            double[] dataSizes = new double[256];
+            for (int i = 0; i < workloads.length; i++) {
+                if (rand.nextInt(3) > 0) {
+                    workloads[i] = 1 + rand.nextInt(100);
+                    dataSizes[i] = 1 + rand.nextInt(100);
+                }
+            }
+            KeyGroupPacker packer = new KeyGroupPacker().setWorkloads(workloads).setDataSizes(dataSizes)
+                    .setSrcPack(new int[]{256, 0, 0, 0}).setTargetPackSize(4).setUpperLimitRatio(1.3f).calc();
+            Assert.assertNotNull(packer.getRoutingTable());
+            assertUnderLimit(packer.getRoutingTable(), workloads, 4, 1.3f);
+        }
+    }
+
+    @Test
+    public void testExecutorsOfTasks() {
+        // the same as storm, the first executors get one more task
+        Assert.assertArrayEquals(new int[]{0, 0, 0, 1, 1, 1, 2, 2, 3, 3}, RoutingTable.executorsOfTasks(10, 4));
+        Assert.assertArrayEquals(new int[]{0, 1, 2}, RoutingTable.executorsOfTasks(3, 3));
+    }
+
+    @Test
+    public void testKeyGroup() {
+        Assert.assertTrue(IntStream.range(-1000, 1000).allMatch(i -> {
+            int kg = RoutingTable.keyGroup(i, 16);
+            return kg >= 0 && kg < 16;
+        }));
+        Assert.assertEquals(RoutingTable.keyGroup("word", 16), RoutingTable.keyGroup("word", 16));
+        Assert.assertEquals(0, RoutingTable.keyGroup(null, 16));
+    }
+}
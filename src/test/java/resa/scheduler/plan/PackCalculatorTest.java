@@ -0,0 +1,56 @@
+package resa.scheduler.plan;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Random;
+
+public class PackCalculatorTest {
+
+    /* compares the prefix sum queries with the loops in the middle of calc, then packs evenly */
+    private static class CheckingCalculator extends PackCalculator {
+
+        private final Random rand;
+        private int checked = 0;
+
+        CheckingCalculator(Random rand) {
+            this.rand = rand;
+        }
+
+        @Override
+        protected Pack calcPack() {
+            int n = normalizedWordloads.length;
+            for (int i = 0; i < 1000; i++) {
+                int wStart = rand.nextInt(n + 1), wEnd = wStart + rand.nextInt(n + 1 - wStart);
+                double expected = DPBasedCalculatorBenchmark.loopTotalWorkload(normalizedWordloads, wStart, wEnd);
+                Assert.assertEquals(expected, totalWorkload(wStart, wEnd), 1e-9 * Math.max(1, expected));
+                Range r1 = randomRange(n), r2 = randomRange(n);
+                expected = DPBasedCalculatorBenchmark.loopOverlap(dataSizes, r1, r2);
+                Assert.assertEquals(expected, overlap(r1, r2), 1e-9 * Math.max(1, expected));
+                Assert.assertEquals(overlap(r1, r2), overlap(r2, r1), 1e-9 * Math.max(1, expected));
+                checked++;
+            }
+            return new Pack(RoutingTable.evenPack(n, packSize), 0);
+        }
+
+        private Range randomRange(int n) {
+            int start = rand.nextInt(n);
+            return new Range(start, start + rand.nextInt(n - start));
+        }
+    }
+
+    @Test
+    public void testRangeQueries() {
+        Random rand = new Random(3);
+        for (int round = 0; round < 50; round++) {
+            int n = 2 + rand.nextInt(300);
+            double[] workloads = rand.doubles(n, 0, 100).toArray();
+            double[] dataSizes = rand.doubles(n, 0, 1e6).toArray();
+            CheckingCalculator calculator = new CheckingCalculator(rand);
+            calculator.setWorkloads(workloads).setDataSizes(dataSizes)
+                    .setSrcPacks(Collections.singletonMap(new int[]{n}, 1.0)).setTargetPackSize(2).calc();
+            Assert.assertEquals(1000, calculator.checked);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package resa.scheduler.plan;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Scaling of the bottom-up packing engine, compared with the memoized recursion on small inputs.
+ */
+public class PackingAlgBenchmark {
+
+    private static final int NUM_PARTITION = 64;
+
+    @Test
+    public void testScaling() {
+        Random rand = new Random(42);
+        // warm up
+        PackingAlg.calc(PackingAlgTest.randomWorkloads(4096, rand), NUM_PARTITION);
+        for (int n : new int[]{256, 1024, 4096, 16384, 65536, 100000}) {
+            double[] workloads = PackingAlgTest.randomWorkloads(n, rand);
+            long start = System.nanoTime();
+            int[] pack = PackingAlg.calc(workloads, NUM_PARTITION);
+            long time = System.nanoTime() - start;
+            Assert.assertEquals(n, IntStream.of(pack).sum());
+            String old = "";
+            if (n <= 256) {
+                start = System.nanoTime();
+                Assert.assertArrayEquals(PackingAlgTest.recursiveCalc(workloads, NUM_PARTITION), pack);
+                old = String.format(", recursion: %.3fms", (System.nanoTime() - start) / 1e6);
+            }
+            System.out.println(String.format("%d key groups into %d packs, bottom-up: %.3fms%s", n,
+                    NUM_PARTITION, time / 1e6, old));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package resa.scheduler.plan;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.DoubleStream;
+
+public class PackingAlgTest {
+
+    /* the memoized recursion used before the bottom-up engine */
+    static int[] recursiveCalc(double[] workloads, int numPartition) {
+        double avg = DoubleStream.of(workloads).sum() / numPartition;
+        Map<String, Object[]> cache = new HashMap<>();
+        calc0(workloads, 0, workloads.length, avg, numPartition, cache);
+        return (int[]) cache.get("0-" + workloads.length + "-" + numPartition)[0];
+    }
+
+    private static double calc0(double[] workloads, int start, int end, double avg, int numPartition,
+                                Map<String, Object[]> cache) {
+        String key = start + "-" + end + "-" + numPartition;
+        Object[] pack = cache.get(key);
+        if (pack != null) {
+            return (Double) pack[1];
+        } else if (numPartition == 1) {
+            double sum = diffSquare(workloads, start, end, avg);
+            cache.put(key, new Object[]{new int[]{end - start}, sum});
+            return sum;
+        }
+        int split = start;
+        double sum = Double.MAX_VALUE;
+        for (int i = start; i < end - 1 && end - i >= numPartition; i++) {
+            double newSum = diffSquare(workloads, start, i + 1, avg)
+                    + calc0(workloads, i + 1, end, avg, numPartition - 1, cache);
+            if (newSum < sum) {
+                sum = newSum;
+                split = i;
+            }
+        }
+        int[] ret = new int[numPartition];
+        ret[0] = split - start + 1;
+        System.arraycopy(cache.get((split + 1) + "-" + end + "-" + (numPartition - 1))[0], 0, ret, 1,
+                numPartition - 1);
+        cache.put(key, new Object[]{ret, sum});
+        return sum;
+    }
+
+    private static double diffSquare(double[] workloads, int start, int end, double avg) {
+        double diff = avg;
+        for (int i = start; i < end; i++) {
+            diff = diff - workloads[i];
+        }
+        return diff * diff;
+    }
+
+    static double[] randomWorkloads(int n, Random rand) {
+        return rand.doubles(n, 1, 1000).toArray();
+    }
+
+    @Test
+    public void testSamePartitions() {
+        Random rand = new Random(1);
+        for (int round = 0; round < 200; round++) {
+            int n = 2 + rand.nextInt(40);
+            int k = 1 + rand.nextInt(n - 1);
+            double[] workloads = randomWorkloads(n, rand);
+            Assert.assertArrayEquals(Arrays.toString(workloads) + ", k=" + k, recursiveCalc(workloads, k),
+                    PackingAlg.calc(workloads, k));
+        }
+    }
+
+    @Test
+    public void testEdgeCases() {
+        double[] workloads = {3, 1, 2};
+        Assert.assertArrayEquals(new int[]{1, 1, 1}, PackingAlg.calc(workloads, 3));
+        Assert.assertArrayEquals(new int[]{3}, PackingAlg.calc(workloads, 1));
+        Assert.assertArrayEquals(new int[]{1, 2}, PackingAlg.calc(workloads, 2));
+    }
+}
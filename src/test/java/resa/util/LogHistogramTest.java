@@ -0,0 +1,51 @@
+package resa.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class LogHistogramTest {
+
+    @Test
+    public void testPercentile() throws Exception {
+        LogHistogram histogram = new LogHistogram();
+        Random rand = new Random(1);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) (-Math.log(rand.nextDouble()) * 5000);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double p : new double[]{50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            long est = histogram.getValueAtPercentile(p);
+            System.out.println("p" + p + ", exact: " + exact + ", est: " + est);
+            Assert.assertTrue(Math.abs(est - exact) <= exact / 32.0 + 1);
+        }
+        Assert.assertEquals(values.length, histogram.getTotalCount());
+    }
+
+    @Test
+    public void testMergeAndEncode() throws Exception {
+        LogHistogram h1 = new LogHistogram();
+        LogHistogram h2 = new LogHistogram();
+        for (int i = 0; i < 1000; i++) {
+            h1.record(i);
+            h2.record(i * 100);
+        }
+        LogHistogram merged = LogHistogram.decode(h1.encode());
+        merged.merge(LogHistogram.decode(h2.encode()));
+        Assert.assertEquals(2000, merged.getTotalCount());
+        // the 1000th value is 990, which is bucketed with relative error <= 1/32
+        Assert.assertTrue(Math.abs(merged.getValueAtPercentile(50) - 990) <= 990 / 32);
+        // merge histograms with different layout
+        LogHistogram h3 = new LogHistogram(7, 1L << 40);
+        h3.merge(merged);
+        Assert.assertEquals(2000, h3.getTotalCount());
+        Assert.assertEquals(merged.getValueAtPercentile(99), h3.getValueAtPercentile(99));
+        Assert.assertEquals(0, new LogHistogram().getValueAtPercentile(99));
+    }
+
+}
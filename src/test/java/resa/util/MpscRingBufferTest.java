@@ -0,0 +1,68 @@
+package resa.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class MpscRingBufferTest {
+
+    @Test
+    public void testDropWhenFull() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(5);
+        Assert.assertEquals(8, buffer.capacity());
+        for (int i = 0; i < 10; i++) {
+            buffer.offer(i);
+        }
+        Assert.assertEquals(2, buffer.getDroppedCount());
+        List<Integer> ret = new ArrayList<>();
+        Assert.assertEquals(3, buffer.drainTo(ret, 3));
+        Assert.assertEquals(5, buffer.drainTo(ret));
+        for (int i = 0; i < 8; i++) {
+            Assert.assertEquals(i, ret.get(i).intValue());
+        }
+        // slots are reusable after drain
+        Assert.assertTrue(buffer.offer(100));
+        ret.clear();
+        buffer.drainTo(ret);
+        Assert.assertEquals(100, ret.get(0).intValue());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        int numProducers = 4;
+        int perProducer = 200000;
+        MpscRingBuffer<Long> buffer = new MpscRingBuffer<>(1024);
+        CountDownLatch done = new CountDownLatch(numProducers);
+        for (int p = 0; p < numProducers; p++) {
+            long base = (long) p << 32;
+            new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    buffer.offer(base + i);
+                }
+                done.countDown();
+            }).start();
+        }
+        long[] lastSeen = new long[numProducers];
+        java.util.Arrays.fill(lastSeen, -1);
+        List<Long> batch = new ArrayList<>();
+        long received = 0;
+        while (done.getCount() > 0 || buffer.size() > 0) {
+            batch.clear();
+            buffer.drainTo(batch);
+            for (long v : batch) {
+                int p = (int) (v >>> 32);
+                long seq = v & 0xFFFFFFFFL;
+                // elements of one producer keep their order
+                Assert.assertTrue(seq > lastSeen[p]);
+                lastSeen[p] = seq;
+            }
+            received += batch.size();
+        }
+        System.out.println("received: " + received + ", dropped: " + buffer.getDroppedCount());
+        Assert.assertEquals((long) numProducers * perProducer, received + buffer.getDroppedCount());
+    }
+
+}
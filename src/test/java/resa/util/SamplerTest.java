@@ -0,0 +1,75 @@
+package resa.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+import resa.metrics.SamplingEngine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class SamplerTest {
+
+    @Test
+    public void testRandomizedRate() {
+        Sampler sampler = new Sampler(0.05, true);
+        int n = 1000000;
+        for (int i = 0; i < n; i++) {
+            sampler.shoudSample();
+        }
+        System.out.println("effective rate: " + sampler.getEffectiveRate());
+        Assert.assertEquals(0.05, sampler.getEffectiveRate(), 0.005);
+        Assert.assertEquals(n, sampler.getCalls());
+    }
+
+    @Test
+    public void testNoAliasing() {
+        // every 20th event is "heavy", a fixed sampler with rate 0.05 only ever sees one kind of events
+        Sampler fixed = new Sampler(0.05);
+        Sampler randomized = new Sampler(0.05, true);
+        int fixedHeavy = 0, randomHeavy = 0, randomSamples = 0;
+        for (int i = 0; i < 200000; i++) {
+            boolean heavy = i % 20 == 0;
+            if (fixed.shoudSample() && heavy) {
+                fixedHeavy++;
+            }
+            if (randomized.shoudSample()) {
+                randomSamples++;
+                if (heavy) {
+                    randomHeavy++;
+                }
+            }
+        }
+        Assert.assertEquals(fixed.getSamples(), fixedHeavy);
+        double heavyRatio = (double) randomHeavy / randomSamples;
+        System.out.println("heavy ratio of randomized sampler: " + heavyRatio);
+        Assert.assertEquals(0.05, heavyRatio, 0.02);
+    }
+
+    @Test
+    public void testAdaptiveRate() throws Exception {
+        Map<String, Object> conf = new HashMap<>();
+        conf.put(ResaConfig.COMP_SAMPLE_MODE, SamplingEngine.MODE_ADAPTIVE);
+        conf.put(ResaConfig.COMP_SAMPLE_RATE, 0.5);
+        conf.put(ResaConfig.COMP_SAMPLE_CPU_BUDGET, 0.01);
+        conf.put(ResaConfig.COMP_SAMPLE_MIN_COUNT, 10);
+        SamplingEngine engine = new SamplingEngine(conf, new String[]{"busy", "rare"});
+        engine.getValueAndReset();
+        for (int i = 0; i < 100000; i++) {
+            if (engine.shouldSample(0)) {
+                // each sample costs 10us, far beyond the budget
+                engine.addOverhead(10000);
+            }
+        }
+        for (int i = 0; i < 20; i++) {
+            engine.shouldSample(1);
+        }
+        Thread.sleep(100);
+        Map<String, Double> rates = (Map<String, Double>) engine.getValueAndReset();
+        Assert.assertEquals(0.5, rates.get("busy"), 0.05);
+        System.out.println("adjusted rates: " + engine.getRate(0) + ", " + engine.getRate(1));
+        Assert.assertTrue(engine.getRate(0) < 0.5);
+        // a rare stream keeps enough samples
+        Assert.assertEquals(0.5, engine.getRate(1), 1e-9);
+    }
+
+}